@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the cost of encoding and decoding payloads with the payload
+ * codecs, to decide if compression pays off for a given payload.
+ * <p>The size of the encoded payload is printed by {@link #setUp()}.
+ * Run with <code>./gradlew jmh</code>.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQTTPayloadCodecBenchmark
+{
+	/** The name of the codec. */
+	@Param({"identity", "deflate", "gzip"})
+	public String codec;
+
+	/** The payload size in bytes: 256 B, 4 KB, and 64 KB. */
+	@Param({"256", "4096", "65536"})
+	public int size;
+
+	/** <code>JSON</code> for repetitive text, or <code>RANDOM</code> for incompressible data. */
+	@Param({"JSON", "RANDOM"})
+	public String payload;
+
+	private IMQTTPayloadCodec m_codec;
+
+	private byte[] m_payload;
+
+	private byte[] m_encoded;
+
+
+	@Setup
+	public void setUp()
+		throws IOException
+	{
+		m_codec   = MQTTPayloadCodecs.getCodec(codec);
+		m_payload = new byte[size];
+
+		if ("JSON".equals(payload))
+		{
+			final byte[] l_pattern = "{\"sensor\":\"s1\",\"temperature\":21.5,\"unit\":\"C\"}".getBytes(StandardCharsets.UTF_8);
+
+			for (int i = 0; i < size; i++)
+				m_payload[i] = l_pattern[i % l_pattern.length];
+		}
+		else
+		{
+			new Random(42L).nextBytes(m_payload);
+		}
+
+		m_encoded = MQTTPayloadCodecs.encode(m_codec, m_payload);
+
+		System.out.println("Encoded size: " + m_encoded.length + " of " + size + " bytes.");
+	}
+
+
+	@Benchmark
+	public byte[] encode()
+		throws IOException
+	{
+		return MQTTPayloadCodecs.encode(m_codec, m_payload);
+	}
+
+
+	@Benchmark
+	public byte[] decode()
+		throws IOException
+	{
+		return MQTTPayloadCodecs.decode(m_encoded, size);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Compares the UTF-8 encoding of text payloads by
+ * {@link MQTTPayloadUtil#encodeUtf8(CharSequence)} with
+ * {@link String#getBytes(java.nio.charset.Charset)}.
+ * <p>Run with <code>./gradlew jmh</code>.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MQTTPayloadUtilBenchmark
+{
+	/** The number of characters: 100 B, 10 KB, and 1 MB of ASCII text. */
+	@Param({"100", "10240", "1048576"})
+	public int size;
+
+	/** <code>ASCII</code>, or <code>MIXED</code> for text with multi-byte characters. */
+	@Param({"ASCII", "MIXED"})
+	public String text;
+
+	private String m_str;
+
+	private StringBuilder m_sbuf;
+
+
+	@Setup
+	public void setUp()
+	{
+		final String l_strPattern;
+
+		if ("ASCII".equals(text))
+			l_strPattern = "{\"sensor\":\"s1\",\"temperature\":21.5}";
+		else
+			l_strPattern = "{\"sensor\":\"s\u00FCd\",\"t\":\"21.5\u00B0C\",\"e\":\"\u20AC\",\"x\":\"\uD83D\uDE00\"}";
+
+		m_sbuf = new StringBuilder(size);
+
+		while (m_sbuf.length() < size)
+			m_sbuf.append(l_strPattern, 0, Math.min(l_strPattern.length(), size - m_sbuf.length()));
+
+		// do not end with half a surrogate pair
+		if (Character.isHighSurrogate(m_sbuf.charAt(m_sbuf.length() - 1)))
+			m_sbuf.setCharAt(m_sbuf.length() - 1, ' ');
+
+		m_str = m_sbuf.toString();
+	}
+
+
+	@Benchmark
+	public byte[] stringGetBytes()
+	{
+		return m_str.getBytes(StandardCharsets.UTF_8);
+	}
+
+
+	@Benchmark
+	public ByteBuffer encodeString()
+	{
+		return MQTTPayloadUtil.encodeUtf8(m_str);
+	}
+
+
+	@Benchmark
+	public byte[] stringBuilderToStringGetBytes()
+	{
+		return m_sbuf.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+
+	@Benchmark
+	public ByteBuffer encodeStringBuilder()
+	{
+		return MQTTPayloadUtil.encodeUtf8(m_sbuf);
+	}
+
+
+	@Benchmark
+	public byte[] toPayloadStringBuilder()
+		throws Exception
+	{
+		return MQTTPayloadUtil.toPayload(m_sbuf);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTCompactMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTMessageWorkflowEvent;
+import org.openjdk.jol.info.GraphLayout;
+
+
+/**
+ * Measures the memory retained by a backlog of queued message events,
+ * once with events that keep the message object of the MQTT client, and
+ * once with {@link MQTTCompactMessageWorkflowEvent}s and interned topics,
+ * as created by the event source with <code>compactEvents</code>.
+ * <p>The sizes are computed by JOL from the object graph, so they do not
+ * depend on the garbage collector and are reproducible for a given JVM
+ * and heap layout. Run with <code>./gradlew eventFootprint</code>;
+ * the arguments are the number of events, the number of distinct topics,
+ * and the payload size in bytes.</p>
+ */
+public final class MQTTMessageEventFootprint
+{
+	private static final String EVENT_SOURCE_GUID = "0123456789ABCDEF0123456789ABCDEF01234567";
+
+
+	private MQTTMessageEventFootprint()
+	{
+	}
+
+
+	public static void main(String[] p_args)
+	{
+		final int                         l_iEvents;
+		final int                         l_iTopics;
+		final int                         l_iPayloadSize;
+		final IMQTTMessageWorkflowEvent[] l_pahoEvents;
+		final IMQTTMessageWorkflowEvent[] l_compactEvents;
+		final MQTTTopicInterner           l_topics;
+
+		l_iEvents      = p_args.length > 0 ? Integer.parseInt(p_args[0]) : 10000;
+		l_iTopics      = p_args.length > 1 ? Integer.parseInt(p_args[1]) : 100;
+		l_iPayloadSize = p_args.length > 2 ? Integer.parseInt(p_args[2]) : 64;
+
+		l_pahoEvents    = new IMQTTMessageWorkflowEvent[l_iEvents];
+		l_compactEvents = new IMQTTMessageWorkflowEvent[l_iEvents];
+		l_topics        = new MQTTTopicInterner(l_iTopics);
+
+		for (int i = 0; i < l_iEvents; i++)
+		{
+			// the MQTT client creates a new topic string and message for every message
+			l_pahoEvents[i]    = new MQTTMessageWorkflowEvent(EVENT_SOURCE_GUID,
+			                                                  _topic(i % l_iTopics),
+			                                                  _message(i, l_iPayloadSize));
+			l_compactEvents[i] = new MQTTCompactMessageWorkflowEvent(EVENT_SOURCE_GUID,
+			                                                         l_topics.intern(_topic(i % l_iTopics)),
+			                                                         _message(i, l_iPayloadSize));
+		}
+
+		System.out.println(l_iEvents + " events, " + l_iTopics + " topics, " + l_iPayloadSize + " payload bytes");
+
+		_print("MQTTMessageWorkflowEvent", l_pahoEvents);
+		_print("MQTTCompactMessageWorkflowEvent", l_compactEvents);
+	}
+
+
+	private static void _print(String p_strName, IMQTTMessageWorkflowEvent[] p_events)
+	{
+		final Object[]    l_payloads = Arrays.stream(p_events).map(IMQTTMessageWorkflowEvent::getPayload).toArray();
+		final GraphLayout l_layout   = GraphLayout.parseInstance((Object[])p_events);
+		final long        l_lSize    = l_layout.subtract(GraphLayout.parseInstance(l_payloads)).totalSize();
+
+		System.out.println(p_strName + ": " +
+		                   l_layout.totalSize() + " bytes in total, " +
+		                   l_lSize / p_events.length + " bytes per event without the payload");
+	}
+
+
+	private static String _topic(int p_iTopic)
+	{
+		return new String(("sensors/building-1/floor-2/room-" + p_iTopic + "/temperature").getBytes(StandardCharsets.UTF_8),
+		                  StandardCharsets.UTF_8);
+	}
+
+
+	private static MqttReceivedMessage _message(int p_iId, int p_iPayloadSize)
+	{
+		final MqttReceivedMessage l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(new byte[p_iPayloadSize]);
+		l_message.setQos(1);
+		l_message.setMessageId(p_iId & 0xFFFF);
+		l_message.setId(p_iId & 0xFFFF);
+
+		return l_message;
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Collects messages from many workflow runs and hands them off to a
+ * {@link MQTTPooledConnection} in batches.
+ * <p>A batch is flushed when the oldest message has waited for the linger
+ * time, or when the number of messages or the number of payload bytes
+ * reaches its limit. The messages of a batch are handed off back to back
+ * as long as the connection has free in-flight slots, see
+ * {@link MQTTConnectionKey#getMaxInflight()}. If the slots are taken,
+ * e.g. by the unacknowledged messages of the previous batch, the hand-off
+ * waits for acknowledgements, at most for the hand-off timeout per
+ * message.</p>
+ * <p>The flusher thread of a publisher runs only while there are messages
+ * to be flushed. It terminates after it has been idle for the idle timeout,
+ * and is started again by the next message. The publishers of a connection
+ * are closed together with the connection, i.e. when it is evicted or when
+ * the connection pool is closed.</p>
+ */
+public final class MQTTBatchingPublisher
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = LoggerFactory.getLogger(MQTTBatchingPublisher.class);
+
+	/** The time in milliseconds after which an idle flusher thread terminates. */
+	private static final long IDLE_TIMEOUT = 60000L;
+
+	private static final class Entry
+	{
+		private final String m_strTopic;
+
+		private final MqttMessage m_msg;
+
+		private final CompletableFuture<Void> m_future = new CompletableFuture<>();
+
+		private Entry(String p_strTopic, MqttMessage p_msg)
+		{
+			m_strTopic = p_strTopic;
+			m_msg      = p_msg;
+		}
+	}
+
+
+	private final MQTTPooledConnection m_conn;
+
+	private final long m_lLingerNanos;
+
+	private final int m_iMaxMessages;
+
+	private final int m_iMaxBytes;
+
+	private final long m_lHandOffTimeout;
+
+	private final long m_lIdleTimeout;
+
+	private final Object m_lock = new Object();
+
+	/** The flusher thread, or <code>null</code> if it is not running; guarded by {@link #m_lock}. */
+	private Thread m_thread;
+
+	private List<Entry> m_pending;
+
+	private long m_lPendingBytes;
+
+	private long m_lDeadline;
+
+	private boolean m_bClosed;
+
+
+	MQTTBatchingPublisher(MQTTPooledConnection p_conn,
+	                      long                 p_lLinger,
+	                      int                  p_iMaxMessages,
+	                      int                  p_iMaxBytes,
+	                      long                 p_lHandOffTimeout)
+	{
+		this(p_conn, p_lLinger, p_iMaxMessages, p_iMaxBytes, p_lHandOffTimeout, IDLE_TIMEOUT);
+	}
+
+
+	/**
+	 * @param p_conn The connection.
+	 * @param p_lLinger The maximum time in milliseconds a message waits
+	 *    for further messages before the batch is flushed.
+	 * @param p_iMaxMessages The maximum number of messages per batch.
+	 * @param p_iMaxBytes The maximum number of payload bytes per batch.
+	 * @param p_lHandOffTimeout The maximum time in milliseconds to wait
+	 *    for a free in-flight slot.
+	 * @param p_lIdleTimeout The time in milliseconds after which an idle
+	 *    flusher thread terminates.
+	 */
+	MQTTBatchingPublisher(MQTTPooledConnection p_conn,
+	                      long                 p_lLinger,
+	                      int                  p_iMaxMessages,
+	                      int                  p_iMaxBytes,
+	                      long                 p_lHandOffTimeout,
+	                      long                 p_lIdleTimeout)
+	{
+		m_conn            = p_conn;
+		m_lLingerNanos    = Math.max(0L, p_lLinger) * 1000000L;
+		m_iMaxMessages    = Math.max(1, p_iMaxMessages);
+		m_iMaxBytes       = Math.max(1, p_iMaxBytes);
+		m_lHandOffTimeout = p_lHandOffTimeout;
+		m_lIdleTimeout    = Math.max(1L, p_lIdleTimeout);
+		m_pending         = new ArrayList<>(m_iMaxMessages);
+	}
+
+
+	/**
+	 * Add a message to the current batch.
+	 * @param p_strTopic The topic.
+	 * @param p_msg The message.
+	 * @return A future that is completed when the delivery has been completed
+	 *    according to the quality of service of the message, or completed
+	 *    exceptionally if the message could not be delivered.
+	 * @throws MqttException If the publisher has been closed.
+	 */
+	public CompletableFuture<Void> submit(String p_strTopic, MqttMessage p_msg)
+		throws MqttException
+	{
+		final Entry l_entry = new Entry(p_strTopic, p_msg);
+
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+
+			if (m_pending.isEmpty())
+			{
+				// pending messages keep the connection from being evicted
+				if (!m_conn.acquire())
+					throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+
+				m_lDeadline = System.nanoTime() + m_lLingerNanos;
+
+				if (m_thread == null)
+				{
+					m_thread = new Thread(this::_run, "ix-mqtt-batch-" + m_conn.getClient().getClientId());
+
+					m_thread.setDaemon(true);
+					m_thread.start();
+				}
+			}
+
+			m_pending.add(l_entry);
+			m_lPendingBytes += p_msg.getPayload().length;
+
+			if (m_pending.size() == 1 || _isFull())
+				m_lock.notifyAll();
+		}
+
+		return l_entry.m_future;
+	}
+
+
+	private boolean _isFull()
+	{
+		return m_pending.size() >= m_iMaxMessages || m_lPendingBytes >= m_iMaxBytes;
+	}
+
+
+	/**
+	 * Test if the flusher thread is running.
+	 * @return <code>true</code> if the thread is running, or
+	 *    <code>false</code> otherwise.
+	 */
+	boolean isFlusherRunning()
+	{
+		synchronized (m_lock)
+		{
+			return m_thread != null;
+		}
+	}
+
+
+	/**
+	 * Stop the publisher. Messages that have not been flushed yet fail.
+	 */
+	void close()
+	{
+		synchronized (m_lock)
+		{
+			m_bClosed = true;
+			m_lock.notifyAll();
+		}
+	}
+
+
+	private void _run()
+	{
+		List<Entry> l_batch;
+		boolean     l_bClosed;
+		boolean     l_bIdle;
+
+		for (;;)
+		{
+			synchronized (m_lock)
+			{
+				try
+				{
+					l_bIdle = false;
+
+					for (;;)
+					{
+						final long l_lRemaining;
+
+						if (m_bClosed)
+							break;
+
+						if (m_pending.isEmpty())
+						{
+							if (l_bIdle)
+							{
+								// the next message starts a new thread
+								m_thread = null;
+								return;
+							}
+
+							m_lock.wait(m_lIdleTimeout);
+
+							l_bIdle = true;
+							continue;
+						}
+
+						l_lRemaining = m_lDeadline - System.nanoTime();
+
+						if (l_lRemaining <= 0L || _isFull())
+							break;
+
+						m_lock.wait(l_lRemaining / 1000000L, (int)(l_lRemaining % 1000000L));
+					}
+				}
+				catch (InterruptedException l_e)
+				{
+					m_bClosed = true;
+				}
+
+				l_batch         = m_pending;
+				l_bClosed       = m_bClosed;
+				m_pending       = new ArrayList<>(m_iMaxMessages);
+				m_lPendingBytes = 0L;
+
+				if (l_bClosed)
+					m_thread = null;
+			}
+
+			if (!l_batch.isEmpty())
+			{
+				if (l_bClosed)
+					_fail(l_batch, new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED));
+				else
+					_flush(l_batch);
+
+				m_conn.release();
+			}
+
+			if (l_bClosed)
+				return;
+		}
+	}
+
+
+	/**
+	 * Hand off the messages of a batch. Each message takes an in-flight
+	 * slot of the connection, so a batch is handed off without waiting
+	 * only if there are at least as many free slots as messages.
+	 */
+	private void _flush(List<Entry> p_batch)
+	{
+		for (Entry l_entry : p_batch)
+		{
+			try
+			{
+				m_conn.publishAsync(l_entry.m_strTopic, l_entry.m_msg, m_lHandOffTimeout).whenComplete
+					((p_void, p_cause) ->
+					{
+						if (p_cause == null)
+							l_entry.m_future.complete(null);
+						else
+							l_entry.m_future.completeExceptionally(p_cause);
+					});
+			}
+			catch (InterruptedException l_e)
+			{
+				Thread.currentThread().interrupt();
+				l_entry.m_future.completeExceptionally(l_e);
+			}
+			catch (Exception l_e)
+			{
+				l_entry.m_future.completeExceptionally(l_e);
+			}
+		}
+
+		ms_log.debug("Flushed a batch of {} MQTT messages.", p_batch.size());
+	}
+
+
+	private static void _fail(List<Entry> p_batch, Exception p_e)
+	{
+		for (Entry l_entry : p_batch)
+			l_entry.m_future.completeExceptionally(p_e);
+	}
+}
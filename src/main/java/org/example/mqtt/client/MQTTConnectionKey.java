@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.Objects;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+
+
+/**
+ * Identifies a pooled MQTT connection.
+ * <p>Two workflow objects share a connection if they connect to the same
+ * server with the same client identifier, credentials, and connect options.</p>
+ */
+public final class MQTTConnectionKey
+{
+	private final String m_strServerUri;
+
+	private final String m_strClientId;
+
+	private final String m_strUserName;
+
+	private final String m_strPassword;
+
+	private final int m_iConnectionTimeout;
+
+	private final int m_iKeepAliveInterval;
+
+	private final int m_iMaxInflight;
+
+	private final int m_iHashCode;
+
+
+	/**
+	 * @param p_strServerUri The server URI.
+	 * @param p_strClientId The client identifier, or <code>null</code> if
+	 *    the pool should generate a unique one.
+	 * @param p_strUserName The user name, or <code>null</code>.
+	 * @param p_strPassword The password, or <code>null</code>.
+	 * @param p_iConnectionTimeout The connection timeout in seconds.
+	 * @param p_iKeepAliveInterval The keep alive interval in seconds.
+	 * @param p_iMaxInflight The maximum number of messages that may be in
+	 *    flight at the same time.
+	 */
+	public MQTTConnectionKey(String p_strServerUri,
+	                         String p_strClientId,
+	                         String p_strUserName,
+	                         String p_strPassword,
+	                         int    p_iConnectionTimeout,
+	                         int    p_iKeepAliveInterval,
+	                         int    p_iMaxInflight)
+	{
+		if (p_strServerUri == null)
+			throw new IllegalArgumentException("No server URI given.");
+
+		m_strServerUri       = p_strServerUri;
+		m_strClientId        = p_strClientId;
+		m_strUserName        = p_strUserName;
+		m_strPassword        = p_strPassword;
+		m_iConnectionTimeout = p_iConnectionTimeout;
+		m_iKeepAliveInterval = p_iKeepAliveInterval;
+		m_iMaxInflight       = p_iMaxInflight;
+		m_iHashCode          = Objects.hash(m_strServerUri,
+		                                    m_strClientId,
+		                                    m_strUserName,
+		                                    m_strPassword,
+		                                    m_iConnectionTimeout,
+		                                    m_iKeepAliveInterval,
+		                                    m_iMaxInflight);
+	}
+
+
+	public String getServerUri()
+	{
+		return m_strServerUri;
+	}
+
+
+	public String getClientId()
+	{
+		return m_strClientId;
+	}
+
+
+	public String getUserName()
+	{
+		return m_strUserName;
+	}
+
+
+	public int getConnectionTimeout()
+	{
+		return m_iConnectionTimeout;
+	}
+
+
+	public int getKeepAliveInterval()
+	{
+		return m_iKeepAliveInterval;
+	}
+
+
+	public int getMaxInflight()
+	{
+		return m_iMaxInflight;
+	}
+
+
+	/**
+	 * Create the MQTT options used to connect to the server.
+	 * @return MQTT options.
+	 */
+	public MqttConnectOptions createOptions()
+	{
+		final MqttConnectOptions l_options;
+
+		l_options = new MqttConnectOptions();
+
+		l_options.setCleanSession(true); // do not remember state
+		l_options.setAutomaticReconnect(false); // the pool reconnects on demand
+		l_options.setConnectionTimeout(m_iConnectionTimeout);
+		l_options.setKeepAliveInterval(m_iKeepAliveInterval);
+		l_options.setMaxInflight(m_iMaxInflight);
+
+		if (m_strUserName != null)
+		{
+			l_options.setUserName(m_strUserName);
+
+			if (m_strPassword != null)
+				l_options.setPassword(m_strPassword.toCharArray());
+		}
+
+		return l_options;
+	}
+
+
+	@Override
+	public int hashCode()
+	{
+		return m_iHashCode;
+	}
+
+
+	@Override
+	public boolean equals(Object p_obj)
+	{
+		final MQTTConnectionKey l_other;
+
+		if (p_obj == this)
+			return true;
+
+		if (!(p_obj instanceof MQTTConnectionKey))
+			return false;
+
+		l_other = (MQTTConnectionKey)p_obj;
+
+		return m_iHashCode == l_other.m_iHashCode &&
+			m_iConnectionTimeout == l_other.m_iConnectionTimeout &&
+			m_iKeepAliveInterval == l_other.m_iKeepAliveInterval &&
+			m_iMaxInflight == l_other.m_iMaxInflight &&
+			m_strServerUri.equals(l_other.m_strServerUri) &&
+			Objects.equals(m_strClientId, l_other.m_strClientId) &&
+			Objects.equals(m_strUserName, l_other.m_strUserName) &&
+			Objects.equals(m_strPassword, l_other.m_strPassword);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		// never include the password
+		l_sbuf.append(super.toString());
+		l_sbuf.append('(');
+		l_sbuf.append(m_strServerUri);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_strClientId);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_strUserName);
+		l_sbuf.append(')');
+
+		return l_sbuf.toString();
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A pool of long-lived MQTT connections that is shared by all
+ * workflow objects of the server.
+ * <p>Connections are keyed by {@link MQTTConnectionKey}. A connection may be
+ * used by any number of threads at the same time. Unused connections are
+ * evicted after their idle timeout, connections that are found to be
+ * disconnected are either re-established on the next use or evicted, and
+ * connections whose deliveries stall are dropped and re-established.
+ * The delivery statistics of all connections are logged every five
+ * minutes, and are available via {@link #getConnections()}.</p>
+ * <p>The pool runs a background thread only while it holds connections.
+ * Workflow objects register with {@link #open(String)} when they are
+ * engaged, and unregister with {@link #close(String)} when they are
+ * disengaged; the pool closes all connections when the last one has
+ * unregistered. No thread or JVM shutdown hook outlives the pool's
+ * connections, so the class loader of the plugin can be unloaded.</p>
+ */
+public final class MQTTConnectionPool
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = LoggerFactory.getLogger(MQTTConnectionPool.class);
+
+	/** The interval in milliseconds between two eviction runs. */
+	private static final long EVICTION_INTERVAL = 10000L;
+
+	/** The interval in milliseconds between two statistics reports. */
+	private static final long STATISTICS_INTERVAL = 300000L;
+
+	private static final MQTTConnectionPool ms_instance = new MQTTConnectionPool(EVICTION_INTERVAL);
+
+	private final ConcurrentMap<MQTTConnectionKey, MQTTPooledConnection> m_connections = new ConcurrentHashMap<>();
+
+	private final long m_lEvictionInterval;
+
+	private final Object m_lock = new Object();
+
+	/** The registered users, guarded by {@link #m_lock}. */
+	private final Set<String> m_users = new HashSet<>();
+
+	/** The evictor, or <code>null</code> if there are no connections; changed while holding {@link #m_lock}. */
+	private volatile ScheduledExecutorService m_evictor;
+
+	private long m_lLastStatistics = System.currentTimeMillis();
+
+
+	/**
+	 * @param p_lEvictionInterval The interval in milliseconds between
+	 *    two eviction runs.
+	 */
+	MQTTConnectionPool(long p_lEvictionInterval)
+	{
+		m_lEvictionInterval = p_lEvictionInterval;
+	}
+
+
+	/**
+	 * Get the pool instance.
+	 * @return The pool.
+	 */
+	public static MQTTConnectionPool getInstance()
+	{
+		return ms_instance;
+	}
+
+
+	/**
+	 * Register a user of the pool, e.g. a workflow action that is engaged.
+	 * Registering the same user more than once has no further effect.
+	 * @param p_strUser The user, e.g. the GUID of the workflow object.
+	 */
+	public void open(String p_strUser)
+	{
+		synchronized (m_lock)
+		{
+			m_users.add(p_strUser);
+		}
+	}
+
+
+	/**
+	 * Unregister a user of the pool. When the last user has
+	 * unregistered, all connections are closed.
+	 * @param p_strUser The user, e.g. the GUID of the workflow object.
+	 */
+	public void close(String p_strUser)
+	{
+		synchronized (m_lock)
+		{
+			if (!m_users.remove(p_strUser) || !m_users.isEmpty())
+				return;
+		}
+
+		ms_log.debug("The last user of the MQTT connection pool has been disengaged.");
+
+		closeAll();
+	}
+
+
+	/**
+	 * Get a connected MQTT connection for the given key.
+	 * <p>Every successful call must be followed by a call to
+	 * {@link #release(MQTTPooledConnection)}.</p>
+	 * @param p_key The connection key.
+	 * @param p_lMaxIdleTime The maximum time in milliseconds the connection
+	 *    may stay unused before it gets evicted.
+	 * @return The connection.
+	 * @throws MqttException If the connection cannot be established.
+	 */
+	public MQTTPooledConnection acquire(MQTTConnectionKey p_key, long p_lMaxIdleTime)
+		throws MqttException
+	{
+		MQTTPooledConnection l_conn;
+
+		for (;;)
+		{
+			l_conn = m_connections.get(p_key);
+
+			if (l_conn == null)
+			{
+				final MQTTPooledConnection l_connNew;
+
+				l_connNew = new MQTTPooledConnection(p_key, p_lMaxIdleTime);
+				l_conn    = m_connections.putIfAbsent(p_key, l_connNew);
+
+				if (l_conn == null)
+					l_conn = l_connNew;
+				else
+					l_connNew.close(); // lost the race
+
+				_startEvictor();
+			}
+
+			if (l_conn.acquire(p_lMaxIdleTime))
+				break;
+
+			// the connection has just been evicted
+			m_connections.remove(p_key, l_conn);
+		}
+
+		try
+		{
+			l_conn.ensureConnected();
+		}
+		catch (MqttException | RuntimeException l_e)
+		{
+			l_conn.release();
+			throw l_e;
+		}
+
+		return l_conn;
+	}
+
+
+	/**
+	 * Return a connection to the pool.
+	 * @param p_conn The connection, or <code>null</code>.
+	 */
+	public void release(MQTTPooledConnection p_conn)
+	{
+		if (p_conn != null)
+			p_conn.release();
+	}
+
+
+	/**
+	 * Get all pooled connections, e.g. to report their
+	 * {@link MQTTPooledConnection#getStatistics() statistics}.
+	 * @return The connections.
+	 */
+	public Collection<MQTTPooledConnection> getConnections()
+	{
+		return Collections.unmodifiableCollection(m_connections.values());
+	}
+
+
+	/**
+	 * Close all pooled connections and stop the background thread.
+	 * <p>Connections that are acquired later are opened again.</p>
+	 */
+	public void closeAll()
+	{
+		for (MQTTPooledConnection l_conn : m_connections.values())
+		{
+			m_connections.remove(l_conn.getKey(), l_conn);
+			l_conn.close();
+		}
+
+		_stopEvictorIfEmpty();
+	}
+
+
+	/**
+	 * Test if the background thread of the pool is running.
+	 * @return <code>true</code> if the thread is running, or
+	 *    <code>false</code> otherwise.
+	 */
+	boolean isEvictorRunning()
+	{
+		return m_evictor != null;
+	}
+
+
+	private void _startEvictor()
+	{
+		if (m_evictor != null)
+			return;
+
+		synchronized (m_lock)
+		{
+			if (m_evictor != null)
+				return;
+
+			m_evictor = Executors.newSingleThreadScheduledExecutor(p_runnable ->
+			{
+				final Thread l_thread = new Thread(p_runnable, "ix-mqtt-connection-pool-evictor");
+
+				l_thread.setDaemon(true);
+
+				return l_thread;
+			});
+
+			m_evictor.scheduleWithFixedDelay(this::evict, m_lEvictionInterval, m_lEvictionInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+	private void _stopEvictorIfEmpty()
+	{
+		synchronized (m_lock)
+		{
+			if (m_evictor != null && m_connections.isEmpty())
+			{
+				m_evictor.shutdown();
+				m_evictor = null;
+			}
+		}
+
+		// a connection may have been added before the evictor was cleared
+		if (!m_connections.isEmpty())
+			_startEvictor();
+	}
+
+
+	void evict()
+	{
+		final long l_lNow = System.currentTimeMillis();
+
+		try
+		{
+			for (MQTTPooledConnection l_conn : m_connections.values())
+			{
+				if (l_conn.closeIfEvictable(l_lNow))
+					m_connections.remove(l_conn.getKey(), l_conn);
+				else
+					l_conn.dropIfStalled(l_lNow);
+			}
+
+			if (l_lNow - m_lLastStatistics >= STATISTICS_INTERVAL)
+			{
+				m_lLastStatistics = l_lNow;
+
+				_logStatistics();
+			}
+		}
+		catch (RuntimeException l_e)
+		{
+			ms_log.error("Error while evicting pooled MQTT connections.", l_e);
+		}
+
+		_stopEvictorIfEmpty();
+	}
+
+
+	private void _logStatistics()
+	{
+		for (MQTTPooledConnection l_conn : m_connections.values())
+		{
+			ms_log.info("Pooled MQTT client {}: inFlight={}, {}.",
+			            l_conn.getKey(), l_conn.getInflightCount(), l_conn.getStatistics());
+		}
+	}
+}
@@ -0,0 +1,490 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A persistence for the MQTT client that appends all changes to a
+ * memory-mapped log file.
+ * <p>Unlike the default file persistence of the Paho client, no file is
+ * created or deleted per message. The current state is kept in memory
+ * and is restored from the log when the persistence is opened. If the
+ * log is full, it is rewritten with the current state only. Since the
+ * client only stores messages that have not been acknowledged yet, the
+ * current state is small.</p>
+ * <p>Each record has the layout <code>length:int type:byte keyLength:short
+ * key:byte[] headerLength:int header:byte[] payload:byte[]</code>, where the
+ * header and the payload are omitted from records that remove a key. The
+ * length is written last, so a record becomes visible atomically. Changes
+ * survive a crash of the JVM. They are forced to the storage device when
+ * the persistence is closed.</p>
+ */
+public final class MQTTMappedFilePersistence implements MqttClientPersistence
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = LoggerFactory.getLogger(MQTTMappedFilePersistence.class);
+
+	private static final String LOG_FILE = "session.log";
+
+	private static final String LOCK_FILE = "session.lck";
+
+	private static final byte TYPE_PUT = 1;
+
+	private static final byte TYPE_REMOVE = 2;
+
+	/** Length of the record header after the length field. */
+	private static final int RECORD_HEADER_SIZE = 3;
+
+
+	private final Path m_baseDir;
+
+	private final int m_iInitialSize;
+
+	private final Map<String, MqttPersistentData> m_entries = new LinkedHashMap<>();
+
+	private Path m_dir;
+
+	private FileChannel m_lockChannel;
+
+	private FileLock m_lock;
+
+	private FileChannel m_channel;
+
+	private MappedByteBuffer m_buf;
+
+	private int m_iWritePos;
+
+
+	/**
+	 * @param p_baseDir The directory. Each client identifier and server
+	 *    URI gets its own sub-directory.
+	 * @param p_iInitialSize The initial size of the log file in bytes.
+	 */
+	public MQTTMappedFilePersistence(Path p_baseDir, int p_iInitialSize)
+	{
+		m_baseDir      = p_baseDir;
+		m_iInitialSize = Math.max(4096, p_iInitialSize);
+	}
+
+
+	@Override
+	public synchronized void open(String p_strClientId, String p_strServerURI)
+		throws MqttPersistenceException
+	{
+		if (m_channel != null)
+			throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+
+		m_dir = m_baseDir.resolve((p_strClientId + "-" + p_strServerURI).replaceAll("[^A-Za-z0-9._-]", "_"));
+
+		try
+		{
+			Files.createDirectories(m_dir);
+
+			m_lockChannel = FileChannel.open(m_dir.resolve(LOCK_FILE),
+			                                 StandardOpenOption.CREATE,
+			                                 StandardOpenOption.WRITE);
+			m_lock        = _tryLock(m_lockChannel);
+
+			if (m_lock == null)
+			{
+				m_lockChannel.close();
+				m_lockChannel = null;
+
+				throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE);
+			}
+
+			m_channel = FileChannel.open(m_dir.resolve(LOG_FILE),
+			                             StandardOpenOption.CREATE,
+			                             StandardOpenOption.READ,
+			                             StandardOpenOption.WRITE);
+			m_buf     = m_channel.map(FileChannel.MapMode.READ_WRITE,
+			                          0L,
+			                          Math.max(m_channel.size(), m_iInitialSize));
+
+			_replay();
+		}
+		catch (IOException l_e)
+		{
+			_release();
+
+			throw new MqttPersistenceException(l_e);
+		}
+
+		if (!m_entries.isEmpty())
+			ms_log.info("Restored " + m_entries.size() + " MQTT session entries from " + m_dir + ".");
+	}
+
+
+	/**
+	 * Try to lock the session directory against other clients.
+	 * @return The lock, or <code>null</code> if the directory is in use.
+	 */
+	private static FileLock _tryLock(FileChannel p_channel)
+		throws IOException
+	{
+		try
+		{
+			return p_channel.tryLock();
+		}
+		catch (OverlappingFileLockException l_e)
+		{
+			return null; // locked by this JVM
+		}
+	}
+
+
+	@Override
+	public synchronized void close()
+		throws MqttPersistenceException
+	{
+		if (m_buf != null)
+			m_buf.force();
+
+		_release();
+	}
+
+
+	@Override
+	public synchronized void put(String p_strKey, MqttPersistable p_data)
+		throws MqttPersistenceException
+	{
+		final byte[]             l_header;
+		final byte[]             l_payload;
+		final MqttPersistentData l_data;
+
+		_checkOpen();
+
+		l_header  = _copy(p_data.getHeaderBytes(), p_data.getHeaderOffset(), p_data.getHeaderLength());
+		l_payload = _copy(p_data.getPayloadBytes(), p_data.getPayloadOffset(), p_data.getPayloadLength());
+		l_data    = new MqttPersistentData(p_strKey, l_header, 0, l_header.length, l_payload, 0, l_payload.length);
+
+		_append(TYPE_PUT, p_strKey, l_data);
+
+		m_entries.put(p_strKey, l_data);
+	}
+
+
+	@Override
+	public synchronized MqttPersistable get(String p_strKey)
+		throws MqttPersistenceException
+	{
+		_checkOpen();
+
+		return m_entries.get(p_strKey);
+	}
+
+
+	@Override
+	public synchronized void remove(String p_strKey)
+		throws MqttPersistenceException
+	{
+		_checkOpen();
+
+		if (m_entries.remove(p_strKey) != null)
+			_append(TYPE_REMOVE, p_strKey, null);
+	}
+
+
+	@Override
+	public synchronized Enumeration<String> keys()
+		throws MqttPersistenceException
+	{
+		_checkOpen();
+
+		return Collections.enumeration(new ArrayList<>(m_entries.keySet()));
+	}
+
+
+	@Override
+	public synchronized void clear()
+		throws MqttPersistenceException
+	{
+		_checkOpen();
+
+		m_entries.clear();
+
+		try
+		{
+			_compact(0);
+		}
+		catch (IOException l_e)
+		{
+			throw new MqttPersistenceException(l_e);
+		}
+	}
+
+
+	@Override
+	public synchronized boolean containsKey(String p_strKey)
+		throws MqttPersistenceException
+	{
+		_checkOpen();
+
+		return m_entries.containsKey(p_strKey);
+	}
+
+
+	private void _checkOpen()
+		throws MqttPersistenceException
+	{
+		if (m_buf == null)
+			throw new MqttPersistenceException(MqttPersistenceException.REASON_CODE_CLIENT_CLOSED);
+	}
+
+
+	private static byte[] _copy(byte[] p_buf, int p_iOffset, int p_iLength)
+	{
+		final byte[] l_copy;
+
+		if (p_buf == null)
+			return new byte[0];
+
+		l_copy = new byte[p_iLength];
+
+		System.arraycopy(p_buf, p_iOffset, l_copy, 0, p_iLength);
+
+		return l_copy;
+	}
+
+
+	/**
+	 * Append a record to the log. The log is compacted first
+	 * if the record does not fit.
+	 */
+	private void _append(byte p_type, String p_strKey, MqttPersistentData p_data)
+		throws MqttPersistenceException
+	{
+		final byte[] l_key = p_strKey.getBytes(StandardCharsets.UTF_8);
+		final int    l_iLength;
+
+		if (p_data != null)
+			l_iLength = RECORD_HEADER_SIZE + l_key.length + 4 + p_data.getHeaderLength() + p_data.getPayloadLength();
+		else
+			l_iLength = RECORD_HEADER_SIZE + l_key.length;
+
+		try
+		{
+			// the record, its length, and the terminating zero length must fit
+			if (m_iWritePos + 8 + l_iLength > m_buf.capacity())
+				_compact(l_iLength + 8);
+
+			_write(m_buf, m_iWritePos, l_iLength, p_type, l_key, p_data);
+		}
+		catch (IOException l_e)
+		{
+			throw new MqttPersistenceException(l_e);
+		}
+
+		m_iWritePos += 4 + l_iLength;
+	}
+
+
+	private static void _write(MappedByteBuffer p_buf, int p_iPos, int p_iLength, byte p_type, byte[] p_key, MqttPersistentData p_data)
+	{
+		int l_iPos = p_iPos + 4;
+
+		p_buf.put(l_iPos, p_type);
+		p_buf.putShort(l_iPos + 1, (short)p_key.length);
+		p_buf.put(l_iPos + RECORD_HEADER_SIZE, p_key);
+
+		l_iPos += RECORD_HEADER_SIZE + p_key.length;
+
+		if (p_data != null)
+		{
+			p_buf.putInt(l_iPos, p_data.getHeaderLength());
+			p_buf.put(l_iPos + 4, p_data.getHeaderBytes(), 0, p_data.getHeaderLength());
+			p_buf.put(l_iPos + 4 + p_data.getHeaderLength(), p_data.getPayloadBytes(), 0, p_data.getPayloadLength());
+		}
+
+		// a stale record of an earlier generation of the log must not become visible
+		p_buf.putInt(p_iPos + 4 + p_iLength, 0);
+		p_buf.putInt(p_iPos, p_iLength);
+	}
+
+
+	/**
+	 * Rewrite the log with the current entries.
+	 * @param p_iReserve The number of bytes that must be
+	 *    available after the current entries.
+	 */
+	private void _compact(int p_iReserve)
+		throws IOException
+	{
+		final Path       l_tmp = m_dir.resolve(LOG_FILE + ".tmp");
+		MappedByteBuffer l_buf;
+		int              l_iSize;
+		int              l_iPos;
+
+		l_iSize = p_iReserve + 4;
+
+		for (MqttPersistentData l_data : m_entries.values())
+			l_iSize += 4 + RECORD_HEADER_SIZE + 3 * l_data.getKey().length() + 4 + l_data.getHeaderLength() + l_data.getPayloadLength();
+
+		// leave room for further records, so that the log is not rewritten too often
+		l_iSize = Math.max(m_iInitialSize, 2 * l_iSize);
+
+		try (FileChannel l_channel = FileChannel.open(l_tmp,
+		                                              StandardOpenOption.CREATE,
+		                                              StandardOpenOption.TRUNCATE_EXISTING,
+		                                              StandardOpenOption.READ,
+		                                              StandardOpenOption.WRITE))
+		{
+			l_buf  = l_channel.map(FileChannel.MapMode.READ_WRITE, 0L, l_iSize);
+			l_iPos = 0;
+
+			for (MqttPersistentData l_data : m_entries.values())
+			{
+				final byte[] l_key = l_data.getKey().getBytes(StandardCharsets.UTF_8);
+				final int    l_iLength;
+
+				l_iLength = RECORD_HEADER_SIZE + l_key.length + 4 + l_data.getHeaderLength() + l_data.getPayloadLength();
+
+				_write(l_buf, l_iPos, l_iLength, TYPE_PUT, l_key, l_data);
+
+				l_iPos += 4 + l_iLength;
+			}
+
+			l_buf.force();
+		}
+
+		m_channel.close();
+
+		Files.move(l_tmp, m_dir.resolve(LOG_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		m_channel   = FileChannel.open(m_dir.resolve(LOG_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		m_buf       = m_channel.map(FileChannel.MapMode.READ_WRITE, 0L, m_channel.size());
+		m_iWritePos = l_iPos;
+	}
+
+
+	/**
+	 * Restore the entries from the log.
+	 */
+	private void _replay()
+	{
+		int l_iPos = 0;
+
+		m_entries.clear();
+
+		while (l_iPos + 4 <= m_buf.capacity())
+		{
+			final int    l_iLength = m_buf.getInt(l_iPos);
+			final int    l_iStart  = l_iPos + 4;
+			final byte   l_type;
+			final byte[] l_key;
+			final String l_strKey;
+
+			if (l_iLength < RECORD_HEADER_SIZE || l_iStart + l_iLength > m_buf.capacity())
+				break;
+
+			l_type = m_buf.get(l_iStart);
+			l_key  = new byte[m_buf.getShort(l_iStart + 1) & 0xFFFF];
+
+			if (RECORD_HEADER_SIZE + l_key.length > l_iLength)
+				break;
+
+			m_buf.get(l_iStart + RECORD_HEADER_SIZE, l_key);
+
+			l_strKey = new String(l_key, StandardCharsets.UTF_8);
+
+			if (l_type == TYPE_PUT)
+			{
+				final int    l_iHeaderPos = l_iStart + RECORD_HEADER_SIZE + l_key.length;
+				final int    l_iHeaderLength;
+				final byte[] l_header;
+				final byte[] l_payload;
+
+				l_iHeaderLength = m_buf.getInt(l_iHeaderPos);
+
+				if (l_iHeaderLength < 0 || RECORD_HEADER_SIZE + l_key.length + 4 + l_iHeaderLength > l_iLength)
+					break;
+
+				l_header  = new byte[l_iHeaderLength];
+				l_payload = new byte[l_iLength - RECORD_HEADER_SIZE - l_key.length - 4 - l_iHeaderLength];
+
+				m_buf.get(l_iHeaderPos + 4, l_header);
+				m_buf.get(l_iHeaderPos + 4 + l_iHeaderLength, l_payload);
+
+				m_entries.put(l_strKey, new MqttPersistentData(l_strKey, l_header, 0, l_header.length, l_payload, 0, l_payload.length));
+			}
+			else if (l_type == TYPE_REMOVE)
+			{
+				m_entries.remove(l_strKey);
+			}
+			else
+			{
+				break;
+			}
+
+			l_iPos = l_iStart + l_iLength;
+		}
+
+		m_iWritePos = l_iPos;
+	}
+
+
+	private void _release()
+	{
+		try
+		{
+			if (m_channel != null)
+				m_channel.close();
+
+			if (m_lock != null)
+				m_lock.release();
+
+			if (m_lockChannel != null)
+				m_lockChannel.close();
+		}
+		catch (IOException l_e)
+		{
+			ms_log.warn("Cannot close the MQTT session log in " + m_dir + ".", l_e);
+		}
+
+		m_channel     = null;
+		m_buf         = null;
+		m_lock        = null;
+		m_lockChannel = null;
+
+		m_entries.clear();
+	}
+}
@@ -0,0 +1,897 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.example.mqtt.util.MQTTUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A durable store-and-forward spool for outbound MQTT messages.
+ * <p>Messages are appended to memory-mapped segment files of a fixed size.
+ * A background thread replays the spool in order via a pooled connection
+ * as soon as the server is reachable. Fully delivered segments are deleted.
+ * The read position is stored in a separate file, so the spool survives
+ * a restart of the server. Delivery is at least once: a message may be
+ * delivered again if the server stops between the delivery and the update
+ * of the read position.</p>
+ * <p>Written data is forced to the storage device at most a configurable
+ * time after it has been written, and when the spool is closed. Messages
+ * that have not been forced yet may be lost if the operating system
+ * crashes.</p>
+ * <p>A spool stays open as long as it has owners. It is closed when the
+ * last owner {@link #release(String) releases} it.</p>
+ * <p>Each record has the layout <code>length:int qos:byte retained:byte
+ * topicLength:short topic:byte[] payload:byte[]</code>. The length is
+ * written last, so a record becomes visible atomically.</p>
+ */
+public final class MQTTOutboundSpool
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = LoggerFactory.getLogger(MQTTOutboundSpool.class);
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".spool";
+
+	private static final String POSITION_FILE = "position";
+
+	/** Length of the record header after the length field. */
+	private static final int RECORD_HEADER_SIZE = 4;
+
+	private static final Map<Path, MQTTOutboundSpool> ms_spools = new HashMap<>();
+
+
+	private static final class Segment
+	{
+		private final long m_lNumber;
+
+		private final Path m_path;
+
+		private final FileChannel m_channel;
+
+		private final MappedByteBuffer m_buf;
+
+		private Segment(long p_lNumber, Path p_path, int p_iSize)
+			throws IOException
+		{
+			final long l_lSize;
+
+			m_lNumber = p_lNumber;
+			m_path    = p_path;
+			m_channel = FileChannel.open(p_path,
+			                             StandardOpenOption.CREATE,
+			                             StandardOpenOption.READ,
+			                             StandardOpenOption.WRITE);
+
+			l_lSize = m_channel.size() > 0L ? m_channel.size() : p_iSize;
+			m_buf   = m_channel.map(FileChannel.MapMode.READ_WRITE, 0L, l_lSize);
+		}
+
+		private int capacity()
+		{
+			return m_buf.capacity();
+		}
+
+		private void delete()
+		{
+			try
+			{
+				m_channel.close();
+				Files.deleteIfExists(m_path);
+			}
+			catch (IOException l_e)
+			{
+				ms_log.warn("Cannot delete spool segment " + m_path + ".", l_e);
+			}
+		}
+	}
+
+
+	private static final class Record
+	{
+		private final Segment m_segment;
+
+		private final int m_iOffset;
+
+		private final int m_iNextOffset;
+
+		private final String m_strTopic;
+
+		private final MqttMessage m_msg;
+
+		private Record(Segment p_segment, int p_iOffset, int p_iNextOffset, String p_strTopic, MqttMessage p_msg)
+		{
+			m_segment     = p_segment;
+			m_iOffset     = p_iOffset;
+			m_iNextOffset = p_iNextOffset;
+			m_strTopic    = p_strTopic;
+			m_msg         = p_msg;
+		}
+	}
+
+
+	private final Path m_dir;
+
+	private final int m_iSegmentSize;
+
+	private final int m_iMaxSegments;
+
+	private final MQTTSpoolOverflowPolicy m_overflowPolicy;
+
+	private final MQTTConnectionKey m_key;
+
+	private final long m_lMaxIdleTime;
+
+	private final long m_lRetryInterval;
+
+	private final long m_lForceInterval;
+
+	private final Object m_lock = new Object();
+
+	private final Deque<Segment> m_segments = new ArrayDeque<>();
+
+	private final FileChannel m_posChannel;
+
+	private final MappedByteBuffer m_posBuf;
+
+	/** The owners of the spool, guarded by {@link #ms_spools}. */
+	private final Set<String> m_owners = new HashSet<>();
+
+	private int m_iReadPos;
+
+	private int m_iWritePos;
+
+	/** The number of messages that have not been delivered yet. */
+	private long m_lCount;
+
+	/** The number of the first segment that has not been forced, or {@link Long#MAX_VALUE}. */
+	private long m_lFirstUnforcedSegment = Long.MAX_VALUE;
+
+	private boolean m_bPositionUnforced;
+
+	private long m_lLastForce = System.currentTimeMillis();
+
+	private boolean m_bClosed;
+
+	private volatile MQTTRateLimiter m_rateLimiter;
+
+
+	private MQTTOutboundSpool(Path                    p_dir,
+	                          int                     p_iSegmentSize,
+	                          int                     p_iMaxSegments,
+	                          MQTTSpoolOverflowPolicy p_overflowPolicy,
+	                          MQTTConnectionKey       p_key,
+	                          long                    p_lMaxIdleTime,
+	                          long                    p_lRetryInterval,
+	                          long                    p_lForceInterval)
+		throws IOException
+	{
+		final List<Long> l_segmentNumbers;
+		final Thread     l_thread;
+		final long       l_lPos;
+
+		m_dir            = p_dir;
+		m_iSegmentSize   = p_iSegmentSize;
+		m_iMaxSegments   = p_iMaxSegments;
+		m_overflowPolicy = p_overflowPolicy;
+		m_key            = p_key;
+		m_lMaxIdleTime   = p_lMaxIdleTime;
+		m_lRetryInterval = p_lRetryInterval;
+		m_lForceInterval = p_lForceInterval;
+
+		Files.createDirectories(p_dir);
+
+		l_segmentNumbers = _listSegmentNumbers(p_dir);
+
+		for (Long l_lNumber : l_segmentNumbers)
+			m_segments.addLast(new Segment(l_lNumber, _getSegmentPath(l_lNumber), m_iSegmentSize));
+
+		if (m_segments.isEmpty())
+			m_segments.addLast(new Segment(1L, _getSegmentPath(1L), m_iSegmentSize));
+
+		m_posChannel = FileChannel.open(p_dir.resolve(POSITION_FILE),
+		                                StandardOpenOption.CREATE,
+		                                StandardOpenOption.READ,
+		                                StandardOpenOption.WRITE);
+		m_posBuf     = m_posChannel.map(FileChannel.MapMode.READ_WRITE, 0L, 8L);
+		l_lPos       = m_posBuf.getLong(0);
+
+		// drop segments that have already been delivered completely
+		while (m_segments.size() > 1 && m_segments.peekFirst().m_lNumber < (l_lPos >>> 32))
+			m_segments.removeFirst().delete();
+
+		if (m_segments.peekFirst().m_lNumber == (l_lPos >>> 32))
+			m_iReadPos = (int)l_lPos;
+
+		m_iWritePos = _findEndOfData(m_segments.peekLast());
+
+		for (Segment l_segment : m_segments)
+			m_lCount += _countRecords(l_segment, l_segment == m_segments.peekFirst() ? m_iReadPos : 0);
+
+		l_thread = new Thread(this::_drain, "ix-mqtt-spool-" + p_dir.getFileName());
+
+		l_thread.setDaemon(true);
+		l_thread.start();
+
+		if (m_lCount > 0L)
+			ms_log.info("Replaying " + m_lCount + " spooled MQTT messages from " + p_dir + ".");
+	}
+
+
+	/**
+	 * Get the spool for the given directory and register the given owner.
+	 * The spool is opened if it is not open yet, and messages that are
+	 * left over from a previous run are replayed. If it is open, the
+	 * parameters of the first call remain in effect, except for the
+	 * connection key: a spool delivers to exactly one connection, so a
+	 * directory must not be shared by actions that publish to different
+	 * servers or with different credentials.
+	 * @param p_dir The spool directory.
+	 * @param p_iSegmentSize The size of a segment file in bytes.
+	 * @param p_iMaxSegments The maximum number of segment files.
+	 * @param p_overflowPolicy What to do if the spool is full.
+	 * @param p_key The key of the pooled connection used for delivery.
+	 * @param p_lMaxIdleTime The idle timeout of the pooled connection.
+	 * @param p_lRetryInterval The time in milliseconds to wait before
+	 *    retrying a delivery after the server was not available.
+	 * @param p_lForceInterval The maximum time in milliseconds written
+	 *    data may stay in memory before it is forced to the storage device,
+	 *    or <code>0</code> to force every message when it is appended.
+	 * @param p_strOwner The owner, e.g. the GUID of the workflow object.
+	 * @return The spool.
+	 * @throws IOException If the spool cannot be opened, or if the
+	 *    directory is already used by a spool for a different connection.
+	 */
+	public static MQTTOutboundSpool getSpool(Path                    p_dir,
+	                                         int                     p_iSegmentSize,
+	                                         int                     p_iMaxSegments,
+	                                         MQTTSpoolOverflowPolicy p_overflowPolicy,
+	                                         MQTTConnectionKey       p_key,
+	                                         long                    p_lMaxIdleTime,
+	                                         long                    p_lRetryInterval,
+	                                         long                    p_lForceInterval,
+	                                         String                  p_strOwner)
+		throws IOException
+	{
+		final Path        l_dir = p_dir.toAbsolutePath().normalize();
+		MQTTOutboundSpool l_spool;
+
+		synchronized (ms_spools)
+		{
+			l_spool = ms_spools.get(l_dir);
+
+			if (l_spool == null)
+			{
+				l_spool = new MQTTOutboundSpool(l_dir,
+				                                p_iSegmentSize,
+				                                p_iMaxSegments,
+				                                p_overflowPolicy,
+				                                p_key,
+				                                p_lMaxIdleTime,
+				                                p_lRetryInterval,
+				                                p_lForceInterval);
+
+				ms_spools.put(l_dir, l_spool);
+			}
+			else if (!l_spool.m_key.equals(p_key))
+			{
+				throw new IOException("The spool directory " + l_dir + " is already used for the connection " +
+				                      l_spool.m_key + ".");
+			}
+
+			l_spool.m_owners.add(p_strOwner);
+		}
+
+		return l_spool;
+	}
+
+
+	/**
+	 * Close all open spools regardless of their owners.
+	 */
+	public static void closeAll()
+	{
+		final List<MQTTOutboundSpool> l_spools;
+
+		synchronized (ms_spools)
+		{
+			l_spools = new ArrayList<>(ms_spools.values());
+		}
+
+		for (MQTTOutboundSpool l_spool : l_spools)
+			l_spool.close();
+	}
+
+
+	/**
+	 * Check if there are messages that have not been delivered yet.
+	 * @return <code>true</code> if the spool is empty, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isEmpty()
+	{
+		return getMessageCount() == 0L;
+	}
+
+
+	/**
+	 * Get the number of messages that have not been delivered yet.
+	 * @return The number of messages.
+	 */
+	public long getMessageCount()
+	{
+		synchronized (m_lock)
+		{
+			return m_lCount;
+		}
+	}
+
+
+	/**
+	 * Get the number of segment files currently in use.
+	 * @return The number of segment files.
+	 */
+	public int getSegmentCount()
+	{
+		synchronized (m_lock)
+		{
+			return m_segments.size();
+		}
+	}
+
+
+	/**
+	 * Append a message to the spool.
+	 * @param p_strTopic The topic.
+	 * @param p_msg The message.
+	 * @return <code>true</code> if the message has been spooled, or
+	 *    <code>false</code> if it has been discarded according to
+	 *    the overflow policy.
+	 * @throws IOException If the message cannot be spooled.
+	 */
+	public boolean append(String p_strTopic, MqttMessage p_msg)
+		throws IOException
+	{
+		final byte[] l_topic   = p_strTopic.getBytes(StandardCharsets.UTF_8);
+		final byte[] l_payload = p_msg.getPayload();
+		final int    l_iLength = RECORD_HEADER_SIZE + l_topic.length + l_payload.length;
+		Segment      l_segment;
+
+		if (4 + l_iLength > m_iSegmentSize)
+			throw new IOException("The message is too large for the spool segment size.");
+
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				throw new IOException("The spool has been closed.");
+
+			l_segment = m_segments.peekLast();
+
+			if (m_iWritePos + 4 + l_iLength > l_segment.capacity())
+			{
+				if (m_segments.size() >= m_iMaxSegments)
+				{
+					switch (m_overflowPolicy)
+					{
+					case DROP_NEWEST:
+						ms_log.warn("The MQTT spool " + m_dir + " is full. Discarding a message to topic " + p_strTopic + ".");
+						return false;
+
+					case DROP_OLDEST:
+						ms_log.warn("The MQTT spool " + m_dir + " is full. Discarding the oldest segment.");
+						m_lCount -= _countRecords(m_segments.peekFirst(), m_iReadPos);
+						m_segments.removeFirst().delete();
+						m_iReadPos = 0;
+						_storeReadPosition();
+						break;
+
+					default:
+						throw new IOException("The MQTT spool " + m_dir + " is full.");
+					}
+				}
+
+				l_segment = new Segment(l_segment.m_lNumber + 1L,
+				                        _getSegmentPath(l_segment.m_lNumber + 1L),
+				                        m_iSegmentSize);
+
+				m_segments.addLast(l_segment);
+				m_iWritePos = 0;
+			}
+
+			l_segment.m_buf.position(m_iWritePos + 4);
+			l_segment.m_buf.put((byte)p_msg.getQos());
+			l_segment.m_buf.put((byte)(p_msg.isRetained() ? 1 : 0));
+			l_segment.m_buf.putShort((short)l_topic.length);
+			l_segment.m_buf.put(l_topic);
+			l_segment.m_buf.put(l_payload);
+			l_segment.m_buf.putInt(m_iWritePos, l_iLength); // commit
+
+			m_iWritePos += 4 + l_iLength;
+			m_lCount++;
+
+			m_lFirstUnforcedSegment = Math.min(m_lFirstUnforcedSegment, l_segment.m_lNumber);
+			_forceIfDue(System.currentTimeMillis());
+
+			m_lock.notifyAll();
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Get the next message to be delivered. Segments that have been read
+	 * completely are deleted.
+	 * @return The next record, or <code>null</code> if the spool is empty.
+	 */
+	private Record _peek()
+	{
+		assert Thread.holdsLock(m_lock);
+
+		for (;;)
+		{
+			final Segment l_segment = m_segments.peekFirst();
+			final int     l_iLength;
+
+			if (m_iReadPos + 4 <= l_segment.capacity())
+				l_iLength = l_segment.m_buf.getInt(m_iReadPos);
+			else
+				l_iLength = 0;
+
+			if (l_iLength > 0)
+				return _readRecord(l_segment, m_iReadPos, l_iLength);
+
+			if (l_segment == m_segments.peekLast())
+				return null;
+
+			m_segments.removeFirst().delete();
+			m_iReadPos = 0;
+			_storeReadPosition();
+		}
+	}
+
+
+	private static Record _readRecord(Segment p_segment, int p_iOffset, int p_iLength)
+	{
+		final MappedByteBuffer l_buf = p_segment.m_buf;
+		final int              l_iQoS;
+		final boolean          l_bRetained;
+		final byte[]           l_topic;
+		final byte[]           l_payload;
+		final MqttMessage      l_msg;
+
+		l_buf.position(p_iOffset + 4);
+
+		l_iQoS      = l_buf.get();
+		l_bRetained = l_buf.get() != 0;
+		l_topic     = new byte[l_buf.getShort() & 0xFFFF];
+
+		l_buf.get(l_topic);
+
+		l_payload = new byte[p_iLength - RECORD_HEADER_SIZE - l_topic.length];
+
+		l_buf.get(l_payload);
+
+		l_msg = new MqttMessage(l_payload);
+
+		l_msg.setQos(l_iQoS);
+		l_msg.setRetained(l_bRetained);
+
+		return new Record(p_segment,
+		                  p_iOffset,
+		                  p_iOffset + 4 + p_iLength,
+		                  new String(l_topic, StandardCharsets.UTF_8),
+		                  l_msg);
+	}
+
+
+	private void _commit(Record p_record)
+	{
+		synchronized (m_lock)
+		{
+			// the segment may have been dropped in the meantime
+			if (m_segments.peekFirst() == p_record.m_segment && m_iReadPos == p_record.m_iOffset)
+			{
+				m_iReadPos = p_record.m_iNextOffset;
+				m_lCount--;
+				_storeReadPosition();
+				_forceIfDue(System.currentTimeMillis());
+			}
+		}
+	}
+
+
+	/**
+	 * Set the limiter that restricts the rate at which spooled
+	 * messages are delivered.
+	 * @param p_limiter The limiter, or <code>null</code>.
+	 */
+	public void setRateLimiter(MQTTRateLimiter p_limiter)
+	{
+		m_rateLimiter = p_limiter;
+	}
+
+
+	private void _storeReadPosition()
+	{
+		m_posBuf.putLong(0, (m_segments.peekFirst().m_lNumber << 32) | (m_iReadPos & 0xFFFFFFFFL));
+
+		m_bPositionUnforced = true;
+	}
+
+
+	private boolean _isForced()
+	{
+		return m_lFirstUnforcedSegment == Long.MAX_VALUE && !m_bPositionUnforced;
+	}
+
+
+	private void _forceIfDue(long p_lNow)
+	{
+		assert Thread.holdsLock(m_lock);
+
+		if (!m_bClosed && !_isForced() && p_lNow - m_lLastForce >= m_lForceInterval)
+			_force(p_lNow);
+	}
+
+
+	/**
+	 * Write the modified segments and the read position to the storage device.
+	 * @param p_lNow The current time in milliseconds.
+	 */
+	private void _force(long p_lNow)
+	{
+		assert Thread.holdsLock(m_lock);
+
+		for (Segment l_segment : m_segments)
+		{
+			if (l_segment.m_lNumber >= m_lFirstUnforcedSegment)
+				l_segment.m_buf.force();
+		}
+
+		if (m_bPositionUnforced)
+			m_posBuf.force();
+
+		m_lFirstUnforcedSegment = Long.MAX_VALUE;
+		m_bPositionUnforced     = false;
+		m_lLastForce            = p_lNow;
+	}
+
+
+	/**
+	 * Wait until the spool is notified or the timeout has elapsed.
+	 * Data that has not been forced yet is forced when it is due.
+	 * @param p_lTimeout The timeout in milliseconds, or <code>0</code>
+	 *    to wait without a timeout.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	private void _await(long p_lTimeout)
+		throws InterruptedException
+	{
+		long l_lTimeout;
+
+		assert Thread.holdsLock(m_lock);
+
+		l_lTimeout = p_lTimeout;
+
+		// wake up in time to force the pending data
+		if (!_isForced())
+		{
+			final long l_lDue = Math.max(1L, m_lLastForce + m_lForceInterval - System.currentTimeMillis());
+
+			l_lTimeout = l_lTimeout == 0L ? l_lDue : Math.min(l_lTimeout, l_lDue);
+		}
+
+		m_lock.wait(l_lTimeout);
+
+		_forceIfDue(System.currentTimeMillis());
+	}
+
+
+	private void _drain()
+	{
+		final MQTTConnectionPool l_pool    = MQTTConnectionPool.getInstance();
+		boolean                  l_bFailing = false;
+
+		try
+		{
+			for (;;)
+			{
+				Record l_record = null;
+
+				synchronized (m_lock)
+				{
+					while (!m_bClosed && (l_record = _peek()) == null)
+						_await(0L);
+
+					if (m_bClosed)
+						return;
+				}
+
+				if (!_acquirePermit())
+					return;
+
+				try
+				{
+					final MQTTPooledConnection l_conn;
+
+					l_conn = l_pool.acquire(m_key, m_lMaxIdleTime);
+
+					try
+					{
+						l_conn.publish(l_record.m_strTopic, l_record.m_msg, m_lRetryInterval);
+					}
+					finally
+					{
+						l_pool.release(l_conn);
+					}
+
+					_commit(l_record);
+
+					if (l_bFailing)
+					{
+						ms_log.info("Resumed delivery of spooled MQTT messages from " + m_dir + ".");
+						l_bFailing = false;
+					}
+				}
+				catch (MqttException l_e)
+				{
+					if (MQTTUtil.isServerUnavailable(l_e))
+					{
+						if (!l_bFailing)
+							ms_log.warn("Cannot deliver spooled MQTT messages from " + m_dir + ". Retrying.", l_e);
+
+						l_bFailing = true;
+
+						_awaitRetry();
+					}
+					else if (l_e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT)
+					{
+						// the in-flight slots are taken by other publishers, so try again
+					}
+					else
+					{
+						// retrying would block the spool forever
+						ms_log.error("Discarding undeliverable spooled MQTT message to topic " + l_record.m_strTopic + ".", l_e);
+
+						_commit(l_record);
+					}
+				}
+			}
+		}
+		catch (InterruptedException l_e)
+		{
+			ms_log.warn("The MQTT spool drainer for " + m_dir + " has been interrupted.");
+		}
+		catch (RuntimeException l_e)
+		{
+			ms_log.error("The MQTT spool drainer for " + m_dir + " terminated unexpectedly.", l_e);
+		}
+	}
+
+
+	/**
+	 * Wait for the retry interval, or until the spool has been closed.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	private void _awaitRetry()
+		throws InterruptedException
+	{
+		final long l_lRetry = System.currentTimeMillis() + m_lRetryInterval;
+
+		synchronized (m_lock)
+		{
+			long l_lNow;
+
+			while (!m_bClosed && (l_lNow = System.currentTimeMillis()) < l_lRetry)
+				_await(l_lRetry - l_lNow);
+		}
+	}
+
+
+	/**
+	 * Wait for a permit of the rate limiter, if any.
+	 * @return <code>true</code> if a permit has been taken, or
+	 *    <code>false</code> if the spool has been closed.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	private boolean _acquirePermit()
+		throws InterruptedException
+	{
+		final MQTTRateLimiter l_limiter = m_rateLimiter;
+
+		if (l_limiter == null)
+			return true;
+
+		while (!l_limiter.acquire(m_lRetryInterval))
+		{
+			synchronized (m_lock)
+			{
+				if (m_bClosed)
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Unregister an owner of the spool. When the last owner has
+	 * been unregistered, the spool is closed.
+	 * @param p_strOwner The owner, e.g. the GUID of the workflow object.
+	 */
+	public void release(String p_strOwner)
+	{
+		synchronized (ms_spools)
+		{
+			if (!m_owners.remove(p_strOwner) || !m_owners.isEmpty())
+				return;
+		}
+
+		close();
+	}
+
+
+	/**
+	 * Close the spool. Undelivered messages remain on disk
+	 * and are replayed when the spool is opened again.
+	 */
+	public void close()
+	{
+		synchronized (ms_spools)
+		{
+			ms_spools.remove(m_dir, this);
+			m_owners.clear();
+		}
+
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				return;
+
+			_force(System.currentTimeMillis());
+
+			m_bClosed = true;
+			m_lock.notifyAll();
+
+			for (Segment l_segment : m_segments)
+			{
+				try
+				{
+					l_segment.m_channel.close();
+				}
+				catch (IOException l_e)
+				{
+					ms_log.warn("Cannot close spool segment " + l_segment.m_path + ".", l_e);
+				}
+			}
+
+			try
+			{
+				m_posChannel.close();
+			}
+			catch (IOException l_e)
+			{
+				ms_log.warn("Cannot close the spool position file.", l_e);
+			}
+		}
+	}
+
+
+	private Path _getSegmentPath(long p_lNumber)
+	{
+		return m_dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, p_lNumber, SEGMENT_SUFFIX));
+	}
+
+
+	private static List<Long> _listSegmentNumbers(Path p_dir)
+		throws IOException
+	{
+		final List<Long> l_numbers = new ArrayList<>();
+
+		try (DirectoryStream<Path> l_stream = Files.newDirectoryStream(p_dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+		{
+			for (Path l_path : l_stream)
+			{
+				final String l_strName = l_path.getFileName().toString();
+
+				try
+				{
+					l_numbers.add(Long.valueOf(l_strName.substring(SEGMENT_PREFIX.length(),
+					                                               l_strName.length() - SEGMENT_SUFFIX.length())));
+				}
+				catch (NumberFormatException l_e)
+				{
+					ms_log.warn("Ignoring unexpected file " + l_path + " in the spool directory.");
+				}
+			}
+		}
+
+		l_numbers.sort(null);
+
+		return l_numbers;
+	}
+
+
+	private static long _countRecords(Segment p_segment, int p_iPos)
+	{
+		final MappedByteBuffer l_buf = p_segment.m_buf;
+		int                    l_iPos;
+		long                   l_lCount;
+
+		l_iPos   = p_iPos;
+		l_lCount = 0L;
+
+		while (l_iPos + 4 <= l_buf.capacity())
+		{
+			final int l_iLength = l_buf.getInt(l_iPos);
+
+			if (l_iLength <= 0 || l_iPos + 4 + l_iLength > l_buf.capacity())
+				break;
+
+			l_iPos += 4 + l_iLength;
+			l_lCount++;
+		}
+
+		return l_lCount;
+	}
+
+
+	private static int _findEndOfData(Segment p_segment)
+	{
+		final MappedByteBuffer l_buf = p_segment.m_buf;
+		int                    l_iPos;
+
+		l_iPos = 0;
+
+		while (l_iPos + 4 <= l_buf.capacity())
+		{
+			final int l_iLength = l_buf.getInt(l_iPos);
+
+			if (l_iLength <= 0 || l_iPos + 4 + l_iLength > l_buf.capacity())
+				break;
+
+			l_iPos += 4 + l_iLength;
+		}
+
+		return l_iPos;
+	}
+}
@@ -0,0 +1,627 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.example.mqtt.util.MQTTUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A long-lived MQTT connection that is shared by all workflow objects
+ * with the same {@link MQTTConnectionKey}.
+ * <p>Instances are thread-safe. The connection is (re-)established on
+ * demand, so callers do not need to care about connection losses.</p>
+ */
+public final class MQTTPooledConnection
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = LoggerFactory.getLogger(MQTTPooledConnection.class);
+
+	/** The time in milliseconds to wait for a connection if no connection timeout is set. */
+	private static final long DEFAULT_CONNECT_WAIT_TIME = 30000L;
+
+	/** The minimum time in milliseconds without any completed delivery after which a connection is considered stalled. */
+	private static final long MIN_STALL_TIMEOUT = 10000L;
+
+	private final MQTTConnectionKey m_key;
+
+	private final MqttConnectOptions m_options;
+
+	private final MqttAsyncClient m_client;
+
+	private final Object m_lock = new Object();
+
+	/** Serializes connection attempts without blocking the users of {@link #m_lock}. */
+	private final Object m_connectLock = new Object();
+
+	private final Semaphore m_inflight;
+
+	private final MQTTPublishStatistics m_statistics = new MQTTPublishStatistics();
+
+	private final Map<String, MQTTBatchingPublisher> m_batchers = new HashMap<>();
+
+	private int m_iUsers;
+
+	private volatile boolean m_bClosed;
+
+	/** The time in milliseconds of the last completed delivery, or of the last hand-off to an idle connection. */
+	private volatile long m_lLastProgress;
+
+	private volatile long m_lLastUsed;
+
+	private volatile long m_lMaxIdleTime;
+
+
+	MQTTPooledConnection(MQTTConnectionKey p_key, long p_lMaxIdleTime)
+		throws MqttException
+	{
+		final String l_strClientId;
+
+		if (p_key.getClientId() != null)
+			l_strClientId = p_key.getClientId();
+		else
+			l_strClientId = "ix-mqtt-action-pool-" + UUID.randomUUID(); // must be unique
+
+		m_key           = p_key;
+		m_options       = p_key.createOptions();
+		m_client        = new MqttAsyncClient(p_key.getServerUri(), l_strClientId, new MemoryPersistence());
+		m_inflight      = new Semaphore(Math.max(1, p_key.getMaxInflight()));
+		m_lLastUsed     = System.currentTimeMillis();
+		m_lMaxIdleTime  = p_lMaxIdleTime;
+		m_lLastProgress = m_lLastUsed;
+	}
+
+
+	/**
+	 * Get the key of this connection.
+	 * @return The key.
+	 */
+	public MQTTConnectionKey getKey()
+	{
+		return m_key;
+	}
+
+
+	/**
+	 * Get the underlying MQTT client.
+	 * @return The MQTT client.
+	 */
+	public IMqttAsyncClient getClient()
+	{
+		return m_client;
+	}
+
+
+	/**
+	 * Get the delivery statistics of this connection.
+	 * @return The statistics.
+	 */
+	public MQTTPublishStatistics getStatistics()
+	{
+		return m_statistics;
+	}
+
+
+	/**
+	 * Get the number of messages that have been handed off
+	 * and whose delivery is not yet complete.
+	 * @return The number of messages in flight.
+	 */
+	public int getInflightCount()
+	{
+		return Math.max(1, m_key.getMaxInflight()) - m_inflight.availablePermits();
+	}
+
+
+	/**
+	 * Check if the connection is currently established.
+	 * @return <code>true</code> if the connection is established,
+	 *    or <code>false</code> otherwise.
+	 */
+	public boolean isConnected()
+	{
+		return m_client.isConnected();
+	}
+
+
+	/**
+	 * Make sure that the client is connected to the server.
+	 * <p>Only one thread connects at a time; the others wait for it. The
+	 * wait is bounded by the connection timeout, since the client would
+	 * wait forever for a server that accepts the connection but does not
+	 * answer.</p>
+	 * @throws MqttException If the connection cannot be established.
+	 */
+	public void ensureConnected()
+		throws MqttException
+	{
+		if (m_client.isConnected())
+			return;
+
+		synchronized (m_connectLock)
+		{
+			if (m_bClosed)
+				throw new IllegalStateException("The connection has been closed.");
+
+			if (!m_client.isConnected())
+			{
+				final IMqttToken l_token;
+
+				ms_log.debug("Connecting pooled MQTT client {}.", m_key);
+
+				l_token = m_client.connect(m_options);
+
+				try
+				{
+					l_token.waitForCompletion(getConnectWaitTime());
+				}
+				catch (MqttException l_e)
+				{
+					if (l_e.getReasonCode() == MqttException.REASON_CODE_CLIENT_TIMEOUT)
+					{
+						// abandon the attempt, otherwise the next one fails with "connect in progress"
+						_disconnectForcibly(false);
+					}
+
+					throw l_e;
+				}
+
+				m_lLastProgress = System.currentTimeMillis();
+			}
+		}
+	}
+
+
+	/**
+	 * Get the maximum time to wait for a connection to be established.
+	 * @return The time in milliseconds.
+	 */
+	public long getConnectWaitTime()
+	{
+		if (m_options.getConnectionTimeout() > 0)
+			return m_options.getConnectionTimeout() * 1000L;
+		else
+			return DEFAULT_CONNECT_WAIT_TIME;
+	}
+
+
+	/**
+	 * Get the time without any completed delivery after which a connection
+	 * with messages in flight is considered stalled.
+	 * @return The time in milliseconds.
+	 */
+	long getStallTimeout()
+	{
+		return Math.max(MIN_STALL_TIMEOUT, 2L * Math.max(m_options.getKeepAliveInterval() * 1000L, getConnectWaitTime()));
+	}
+
+
+	/**
+	 * Test if the connection is healthy.
+	 * <p>A connection is healthy if it is established and either has no
+	 * messages in flight, or has completed a delivery or has been handed a
+	 * message while idle within the {@link #getStallTimeout() stall timeout}.
+	 * A connection that is established, but whose deliveries do not
+	 * complete, e.g. because of a half-open TCP connection, is not
+	 * healthy.</p>
+	 * @param p_lNow The current time in milliseconds.
+	 * @return <code>true</code> if the connection is healthy,
+	 *    or <code>false</code> otherwise.
+	 */
+	public boolean isHealthy(long p_lNow)
+	{
+		if (!m_client.isConnected())
+			return false;
+
+		return getInflightCount() == 0 || p_lNow - m_lLastProgress < getStallTimeout();
+	}
+
+
+	/**
+	 * Drop the connection if it is established but not healthy, so that
+	 * the messages in flight fail and the next use reconnects.
+	 * @param p_lNow The current time in milliseconds.
+	 * @return <code>true</code> if the connection has been dropped,
+	 *    or <code>false</code> otherwise.
+	 */
+	boolean dropIfStalled(long p_lNow)
+	{
+		if (m_bClosed || !m_client.isConnected() || isHealthy(p_lNow))
+			return false;
+
+		ms_log.warn("Pooled MQTT client {} has not completed a delivery for {} ms with {} messages in flight. Reconnecting.",
+		            m_key, p_lNow - m_lLastProgress, getInflightCount());
+
+		// sending the disconnect packet makes Paho fail the pending deliveries
+		_disconnectForcibly(true);
+
+		return true;
+	}
+
+
+	private void _disconnectForcibly(boolean p_bSendDisconnect)
+	{
+		try
+		{
+			// do not wait for the server, it does not answer anyway
+			m_client.disconnectForcibly(0L, 1L, p_bSendDisconnect);
+		}
+		catch (MqttException l_e)
+		{
+			ms_log.debug("Cannot disconnect pooled MQTT client {}.", m_key, l_e);
+		}
+	}
+
+
+	/**
+	 * Publish a message and wait until it has been delivered
+	 * according to its quality of service.
+	 * <p>The message occupies an in-flight slot like an asynchronous
+	 * publish, so the limit of the connection holds for both kinds of
+	 * publishes. If the connection was lost the client reconnects
+	 * and retries once.</p>
+	 * @param p_strTopic The topic.
+	 * @param p_msg The message.
+	 * @param p_lHandOffTimeout The maximum time in milliseconds to wait
+	 *    for a free in-flight slot.
+	 * @throws MqttException If the message cannot be published.
+	 * @throws InterruptedException If the current thread has been interrupted
+	 *    while waiting for a free in-flight slot.
+	 */
+	public void publish(String p_strTopic, MqttMessage p_msg, long p_lHandOffTimeout)
+		throws MqttException, InterruptedException
+	{
+		final long l_lStart = System.nanoTime();
+		boolean    l_bSuccess;
+
+		if (!m_inflight.tryAcquire(p_lHandOffTimeout, TimeUnit.MILLISECONDS))
+			throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+
+		_handedOff();
+
+		l_bSuccess = false;
+
+		try
+		{
+			_publish(p_strTopic, p_msg, null).waitForCompletion();
+
+			l_bSuccess = true;
+		}
+		finally
+		{
+			m_lLastProgress = System.currentTimeMillis();
+			m_inflight.release();
+			m_statistics.record(System.nanoTime() - l_lStart, l_bSuccess);
+		}
+	}
+
+
+	/**
+	 * Hand off a message for asynchronous delivery.
+	 * <p>The method returns as soon as the message has been passed to the
+	 * client. If the maximum number of messages in flight has been reached
+	 * the caller is blocked until a slot becomes free or the given timeout
+	 * elapsed.</p>
+	 * @param p_strTopic The topic.
+	 * @param p_msg The message.
+	 * @param p_lHandOffTimeout The maximum time in milliseconds to wait
+	 *    for a free in-flight slot.
+	 * @return A future that is completed when the delivery has been completed
+	 *    according to the quality of service of the message, or completed
+	 *    exceptionally if the delivery failed.
+	 * @throws MqttException If the message cannot be handed off.
+	 * @throws InterruptedException If the current thread has been interrupted
+	 *    while waiting for a free in-flight slot.
+	 */
+	public CompletableFuture<Void> publishAsync(String p_strTopic, MqttMessage p_msg, long p_lHandOffTimeout)
+		throws MqttException, InterruptedException
+	{
+		final long                    l_lStart = System.nanoTime();
+		final CompletableFuture<Void> l_future = new CompletableFuture<>();
+
+		if (!m_inflight.tryAcquire(p_lHandOffTimeout, TimeUnit.MILLISECONDS))
+			throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+
+		// pending deliveries keep the connection from being evicted
+		if (!acquire())
+		{
+			m_inflight.release();
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+		}
+
+		_handedOff();
+
+		try
+		{
+			_publish(p_strTopic, p_msg, new IMqttActionListener()
+			{
+				@Override
+				public void onSuccess(IMqttToken p_token)
+				{
+					_completeAsync(l_lStart, true);
+
+					l_future.complete(null);
+				}
+
+				@Override
+				public void onFailure(IMqttToken p_token, Throwable p_cause)
+				{
+					_completeAsync(l_lStart, false);
+
+					l_future.completeExceptionally(p_cause);
+				}
+			});
+		}
+		catch (MqttException | RuntimeException l_e)
+		{
+			_completeAsync(l_lStart, false);
+			throw l_e;
+		}
+
+		return l_future;
+	}
+
+
+	/**
+	 * Get a publisher that collects messages and hands them off to this
+	 * connection in batches.
+	 * <p>Publishers are shared by all callers that use the same
+	 * batching parameters.</p>
+	 * @param p_lLinger The maximum time in milliseconds a message waits
+	 *    for further messages before the batch is flushed.
+	 * @param p_iMaxMessages The maximum number of messages per batch.
+	 * @param p_iMaxBytes The maximum number of payload bytes per batch.
+	 * @param p_lHandOffTimeout The maximum time in milliseconds to wait
+	 *    for a free in-flight slot.
+	 * @return The publisher.
+	 */
+	public MQTTBatchingPublisher getBatchingPublisher(long p_lLinger,
+	                                                  int  p_iMaxMessages,
+	                                                  int  p_iMaxBytes,
+	                                                  long p_lHandOffTimeout)
+	{
+		final String l_strKey;
+
+		l_strKey = p_lLinger + "/" + p_iMaxMessages + "/" + p_iMaxBytes + "/" + p_lHandOffTimeout;
+
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				throw new IllegalStateException("The connection has been closed.");
+
+			return m_batchers.computeIfAbsent(l_strKey, p_strKey ->
+				new MQTTBatchingPublisher(this, p_lLinger, p_iMaxMessages, p_iMaxBytes, p_lHandOffTimeout));
+		}
+	}
+
+
+	private void _handedOff()
+	{
+		// the stall timeout starts with the first message in flight
+		if (getInflightCount() == 1)
+			m_lLastProgress = System.currentTimeMillis();
+	}
+
+
+	private void _completeAsync(long p_lStart, boolean p_bSuccess)
+	{
+		m_lLastProgress = System.currentTimeMillis();
+		m_statistics.record(System.nanoTime() - p_lStart, p_bSuccess);
+		m_inflight.release();
+		release();
+	}
+
+
+	/**
+	 * Publish a message. If the connection was lost the
+	 * client reconnects and retries once.
+	 * @param p_strTopic The topic.
+	 * @param p_msg The message.
+	 * @param p_listener A listener, or <code>null</code>.
+	 * @return The delivery token.
+	 * @throws MqttException If the message cannot be published.
+	 */
+	private IMqttToken _publish(String p_strTopic, MqttMessage p_msg, IMqttActionListener p_listener)
+		throws MqttException
+	{
+		ensureConnected();
+
+		try
+		{
+			return m_client.publish(p_strTopic, p_msg, null, p_listener);
+		}
+		catch (MqttException l_e)
+		{
+			if (!isConnectionError(l_e))
+				throw l_e;
+
+			ms_log.debug("Pooled MQTT client {} lost its connection. Retrying.", m_key);
+
+			ensureConnected();
+
+			return m_client.publish(p_strTopic, p_msg, null, p_listener);
+		}
+	}
+
+
+	/**
+	 * Test if the given exception signals that the connection is not available.
+	 * @param p_e The exception.
+	 * @return <code>true</code> if the exception is caused by a missing
+	 *    connection, or <code>false</code> otherwise.
+	 */
+	static boolean isConnectionError(MqttException p_e)
+	{
+		final int l_iReason = p_e.getReasonCode();
+
+		return
+			l_iReason == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED ||
+			l_iReason == MqttException.REASON_CODE_CONNECTION_LOST      ||
+			l_iReason == MqttException.REASON_CODE_CLIENT_DISCONNECTING;
+	}
+
+
+	/**
+	 * Register a user of this connection.
+	 * @param p_lMaxIdleTime The maximum time in milliseconds the connection
+	 *    may stay unused before it gets evicted.
+	 * @return <code>true</code> if the connection can be used, or
+	 *    <code>false</code> if it has already been closed.
+	 */
+	boolean acquire(long p_lMaxIdleTime)
+	{
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				return false;
+
+			m_iUsers++;
+			m_lMaxIdleTime = p_lMaxIdleTime;
+			m_lLastUsed    = System.currentTimeMillis();
+
+			return true;
+		}
+	}
+
+
+	/**
+	 * Register a user of this connection without changing its idle timeout.
+	 * @return <code>true</code> if the connection can be used, or
+	 *    <code>false</code> if it has already been closed.
+	 */
+	boolean acquire()
+	{
+		return acquire(m_lMaxIdleTime);
+	}
+
+
+	/**
+	 * Unregister a user of this connection.
+	 */
+	void release()
+	{
+		synchronized (m_lock)
+		{
+			if (m_iUsers > 0)
+				m_iUsers--;
+
+			m_lLastUsed = System.currentTimeMillis();
+		}
+	}
+
+
+	/**
+	 * Close the connection if it is not in use and either has been idle
+	 * for too long or is no longer connected.
+	 * @param p_lNow The current time in milliseconds.
+	 * @return <code>true</code> if the connection has been closed,
+	 *    or <code>false</code> otherwise.
+	 */
+	boolean closeIfEvictable(long p_lNow)
+	{
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				return true;
+
+			if (m_iUsers > 0)
+				return false;
+
+			if (m_client.isConnected() && p_lNow - m_lLastUsed < m_lMaxIdleTime)
+				return false;
+
+			m_bClosed = true;
+		}
+
+		ms_log.debug("Evicting pooled MQTT client {}.", m_key);
+
+		_close();
+
+		return true;
+	}
+
+
+	/**
+	 * Close the connection unconditionally.
+	 */
+	void close()
+	{
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				return;
+
+			m_bClosed = true;
+		}
+
+		_close();
+	}
+
+
+	private void _close()
+	{
+		final List<MQTTBatchingPublisher> l_batchers;
+
+		synchronized (m_lock)
+		{
+			l_batchers = new ArrayList<>(m_batchers.values());
+
+			m_batchers.clear();
+		}
+
+		for (MQTTBatchingPublisher l_batcher : l_batchers)
+			l_batcher.close();
+
+		MQTTUtil.disconnectAndClose(m_client, m_options.getConnectionTimeout() * 1000L);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append(super.toString());
+		l_sbuf.append('(');
+		l_sbuf.append(m_key);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_client.getClientId());
+		l_sbuf.append(')');
+
+		return l_sbuf.toString();
+	}
+}
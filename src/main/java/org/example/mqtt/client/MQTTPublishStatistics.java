@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Delivery statistics of a pooled MQTT connection.
+ * <p>Latencies are measured from handing a message to the client until
+ * the delivery has been completed according to its quality of service.</p>
+ */
+public final class MQTTPublishStatistics
+{
+	private final LongAdder m_delivered = new LongAdder();
+
+	private final LongAdder m_failed = new LongAdder();
+
+	private final LongAdder m_totalLatency = new LongAdder();
+
+	private final LongAccumulator m_maxLatency = new LongAccumulator(Math::max, 0L);
+
+
+	MQTTPublishStatistics()
+	{
+	}
+
+
+	/**
+	 * Record a completed delivery.
+	 * @param p_lLatencyNanos The latency in nanoseconds.
+	 * @param p_bSuccess <code>true</code> if the message has been delivered,
+	 *    or <code>false</code> if the delivery failed.
+	 */
+	void record(long p_lLatencyNanos, boolean p_bSuccess)
+	{
+		if (p_bSuccess)
+		{
+			m_delivered.increment();
+			m_totalLatency.add(p_lLatencyNanos);
+			m_maxLatency.accumulate(p_lLatencyNanos);
+		}
+		else
+		{
+			m_failed.increment();
+		}
+	}
+
+
+	/**
+	 * Get the number of delivered messages.
+	 * @return The number of delivered messages.
+	 */
+	public long getDeliveredCount()
+	{
+		return m_delivered.sum();
+	}
+
+
+	/**
+	 * Get the number of messages whose delivery failed.
+	 * @return The number of failed messages.
+	 */
+	public long getFailedCount()
+	{
+		return m_failed.sum();
+	}
+
+
+	/**
+	 * Get the average delivery latency in microseconds.
+	 * @return The average latency, or 0 if no message has been delivered yet.
+	 */
+	public long getAverageLatencyMicros()
+	{
+		final long l_lCount = m_delivered.sum();
+
+		return l_lCount > 0L ? m_totalLatency.sum() / l_lCount / 1000L : 0L;
+	}
+
+
+	/**
+	 * Get the maximum delivery latency in microseconds.
+	 * @return The maximum latency.
+	 */
+	public long getMaxLatencyMicros()
+	{
+		return m_maxLatency.get() / 1000L;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append("delivered=");
+		l_sbuf.append(getDeliveredCount());
+		l_sbuf.append(", failed=");
+		l_sbuf.append(getFailedCount());
+		l_sbuf.append(", avgLatencyMicros=");
+		l_sbuf.append(getAverageLatencyMicros());
+		l_sbuf.append(", maxLatencyMicros=");
+		l_sbuf.append(getMaxLatencyMicros());
+
+		return l_sbuf.toString();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+/**
+ * Determines what happens to a message if the {@link MQTTRateLimiter}
+ * has no permit available.
+ */
+public enum MQTTRateLimitMode
+{
+	/**
+	 * Wait for a permit up to a timeout, then fail.
+	 */
+	BLOCK,
+
+	/**
+	 * Fail immediately.
+	 */
+	FAIL,
+
+	/**
+	 * Append the message to the outbound spool. The spool delivers
+	 * its messages at the rate of the limiter.
+	 */
+	QUEUE
+}
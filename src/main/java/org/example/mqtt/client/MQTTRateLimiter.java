@@ -0,0 +1,384 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A token bucket that limits the rate of published messages.
+ * <p>The bucket holds up to <code>burst</code> permits and is refilled
+ * continuously at <code>rate</code> permits per second. Limiters are
+ * shared by all actions that use the same key, i.e. the same server URI
+ * and, optionally, the same topic prefix, so that the limit holds for
+ * the server no matter how many actions publish to it. All owners of a
+ * limiter must request the same rate and burst size; a conflicting
+ * request is rejected, unless it comes from the only owner, whose new
+ * values then replace the old ones.</p>
+ */
+public final class MQTTRateLimiter
+{
+	private static final ConcurrentMap<String, MQTTRateLimiter> ms_limiters = new ConcurrentHashMap<>();
+
+	private final String m_strKey;
+
+	private final LongAdder m_permitted = new LongAdder();
+
+	private final LongAdder m_throttled = new LongAdder();
+
+	private final LongAdder m_rejected = new LongAdder();
+
+	/** The owners, guarded by the registry. */
+	private final Set<String> m_owners = new HashSet<>();
+
+	private double m_dRate;
+
+	private int m_iBurst;
+
+	private double m_dPermits;
+
+	private long m_lLastRefill;
+
+
+	private MQTTRateLimiter(String p_strKey, double p_dRate, int p_iBurst)
+	{
+		m_strKey      = p_strKey;
+		m_dRate       = p_dRate;
+		m_iBurst      = p_iBurst;
+		m_dPermits    = p_iBurst;
+		m_lLastRefill = System.nanoTime();
+	}
+
+
+	/**
+	 * Get the limiter for the given key, and register the given owner.
+	 * The limiter is created if it does not exist yet.
+	 * @param p_strKey The key, e.g. the server URI.
+	 * @param p_dRate The number of permits per second.
+	 * @param p_iBurst The maximum number of permits that can be
+	 *    acquired without waiting.
+	 * @param p_strOwner The owner, e.g. the GUID of the workflow action.
+	 * @return The limiter.
+	 * @throws IllegalArgumentException If the settings are not valid, or
+	 *    if another owner has registered a different rate or burst size
+	 *    for the key.
+	 */
+	public static MQTTRateLimiter getLimiter(String p_strKey, double p_dRate, int p_iBurst, String p_strOwner)
+	{
+		MQTTRateLimiter l_limiter;
+
+		_checkSettings(p_dRate, p_iBurst);
+
+		synchronized (ms_limiters)
+		{
+			l_limiter = ms_limiters.get(p_strKey);
+
+			if (l_limiter == null)
+			{
+				l_limiter = new MQTTRateLimiter(p_strKey, p_dRate, p_iBurst);
+
+				ms_limiters.put(p_strKey, l_limiter);
+			}
+			else if (l_limiter._isConflicting(p_dRate, p_iBurst, p_strOwner))
+			{
+				throw new IllegalArgumentException(_getConflictMessage(l_limiter, p_dRate, p_iBurst));
+			}
+			else
+			{
+				// the only owner may change its limit
+				l_limiter._setLimit(p_dRate, p_iBurst);
+			}
+
+			l_limiter.m_owners.add(p_strOwner);
+		}
+
+		return l_limiter;
+	}
+
+
+	/**
+	 * Check if the given settings can be registered for the given key,
+	 * without registering them.
+	 * @param p_strKey The key, e.g. the server URI.
+	 * @param p_dRate The number of permits per second.
+	 * @param p_iBurst The maximum number of permits that can be
+	 *    acquired without waiting.
+	 * @param p_strOwner The owner, e.g. the GUID of the workflow action.
+	 * @throws IllegalArgumentException If the settings are not valid, or
+	 *    if another owner has registered a different rate or burst size
+	 *    for the key.
+	 * @see #getLimiter(String, double, int, String)
+	 */
+	public static void checkLimit(String p_strKey, double p_dRate, int p_iBurst, String p_strOwner)
+	{
+		final MQTTRateLimiter l_limiter;
+
+		_checkSettings(p_dRate, p_iBurst);
+
+		synchronized (ms_limiters)
+		{
+			l_limiter = ms_limiters.get(p_strKey);
+
+			if (l_limiter != null && l_limiter._isConflicting(p_dRate, p_iBurst, p_strOwner))
+				throw new IllegalArgumentException(_getConflictMessage(l_limiter, p_dRate, p_iBurst));
+		}
+	}
+
+
+	private static void _checkSettings(double p_dRate, int p_iBurst)
+	{
+		if (!(p_dRate > 0.0))
+			throw new IllegalArgumentException("The rate must be positive.");
+
+		if (p_iBurst < 1)
+			throw new IllegalArgumentException("The burst size must be positive.");
+	}
+
+
+	private static String _getConflictMessage(MQTTRateLimiter p_limiter, double p_dRate, int p_iBurst)
+	{
+		return "The rate limit of " + p_limiter.getKey() + " is already set to " + p_limiter.getRate() +
+		       " messages per second with a burst size of " + p_limiter.getBurst() + " by another action; " +
+		       p_dRate + " messages per second with a burst size of " + p_iBurst + " were requested.";
+	}
+
+
+	/**
+	 * Test if the given settings conflict with the settings of other owners.
+	 * Must be called while holding the registry lock.
+	 */
+	private boolean _isConflicting(double p_dRate, int p_iBurst, String p_strOwner)
+	{
+		if (getRate() == p_dRate && getBurst() == p_iBurst)
+			return false;
+
+		return !(m_owners.isEmpty() || (m_owners.size() == 1 && m_owners.contains(p_strOwner)));
+	}
+
+
+	private synchronized void _setLimit(double p_dRate, int p_iBurst)
+	{
+		_refill(System.nanoTime());
+
+		m_dRate    = p_dRate;
+		m_iBurst   = p_iBurst;
+		m_dPermits = Math.min(m_dPermits, p_iBurst);
+	}
+
+
+	/**
+	 * Get all limiters, e.g. to report their metrics.
+	 * @return The limiters.
+	 */
+	public static Collection<MQTTRateLimiter> getLimiters()
+	{
+		return Collections.unmodifiableCollection(ms_limiters.values());
+	}
+
+
+	private void _refill(long p_lNow)
+	{
+		m_dPermits    = Math.min(m_iBurst, m_dPermits + (p_lNow - m_lLastRefill) * m_dRate / 1.0e9);
+		m_lLastRefill = p_lNow;
+	}
+
+
+	/**
+	 * Take a permit if one is available, or compute the time until
+	 * the next permit will be available.
+	 * @return <code>0</code> if a permit has been taken, or the
+	 *    number of nanoseconds to wait otherwise.
+	 */
+	private synchronized long _tryAcquire()
+	{
+		_refill(System.nanoTime());
+
+		if (m_dPermits >= 1.0)
+		{
+			m_dPermits -= 1.0;
+			return 0L;
+		}
+
+		return Math.max(1L, (long)Math.ceil((1.0 - m_dPermits) * 1.0e9 / m_dRate));
+	}
+
+
+	/**
+	 * Take a permit without waiting.
+	 * @return <code>true</code> if a permit has been taken, or
+	 *    <code>false</code> if no permit is available.
+	 */
+	public boolean tryAcquire()
+	{
+		if (_tryAcquire() == 0L)
+		{
+			m_permitted.increment();
+			return true;
+		}
+
+		m_throttled.increment();
+		m_rejected.increment();
+
+		return false;
+	}
+
+
+	/**
+	 * Take a permit, waiting up to the given timeout.
+	 * @param p_lTimeout The maximum time to wait in milliseconds.
+	 * @return <code>true</code> if a permit has been taken, or
+	 *    <code>false</code> if the timeout elapsed.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	public boolean acquire(long p_lTimeout)
+		throws InterruptedException
+	{
+		final long l_lDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(p_lTimeout);
+		long       l_lWait;
+
+		l_lWait = _tryAcquire();
+
+		if (l_lWait == 0L)
+		{
+			m_permitted.increment();
+			return true;
+		}
+
+		m_throttled.increment();
+
+		do
+		{
+			final long l_lRemaining = l_lDeadline - System.nanoTime();
+
+			if (l_lRemaining <= 0L)
+			{
+				m_rejected.increment();
+				return false;
+			}
+
+			TimeUnit.NANOSECONDS.sleep(Math.min(l_lWait, l_lRemaining));
+
+			l_lWait = _tryAcquire();
+		}
+		while (l_lWait != 0L);
+
+		m_permitted.increment();
+
+		return true;
+	}
+
+
+	public String getKey()
+	{
+		return m_strKey;
+	}
+
+
+	/**
+	 * Get the number of permits per second.
+	 * @return The rate.
+	 */
+	public synchronized double getRate()
+	{
+		return m_dRate;
+	}
+
+
+	/**
+	 * Get the maximum number of permits that can be acquired without waiting.
+	 * @return The burst size.
+	 */
+	public synchronized int getBurst()
+	{
+		return m_iBurst;
+	}
+
+
+	/**
+	 * Get the number of permits that are currently available.
+	 * @return The number of available permits.
+	 */
+	public synchronized int getAvailablePermits()
+	{
+		_refill(System.nanoTime());
+
+		return (int)m_dPermits;
+	}
+
+
+	/**
+	 * Get the number of permits that have been granted.
+	 * @return The number of granted permits.
+	 */
+	public long getPermittedCount()
+	{
+		return m_permitted.sum();
+	}
+
+
+	/**
+	 * Get the number of requests that could not be granted immediately,
+	 * including the rejected ones.
+	 * @return The number of throttled requests.
+	 */
+	public long getThrottledCount()
+	{
+		return m_throttled.sum();
+	}
+
+
+	/**
+	 * Get the number of requests that have not been granted at all.
+	 * @return The number of rejected requests.
+	 */
+	public long getRejectedCount()
+	{
+		return m_rejected.sum();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append(m_strKey);
+		l_sbuf.append(": rate=");
+		l_sbuf.append(getRate());
+		l_sbuf.append(", burst=");
+		l_sbuf.append(getBurst());
+		l_sbuf.append(", available=");
+		l_sbuf.append(getAvailablePermits());
+		l_sbuf.append(", permitted=");
+		l_sbuf.append(getPermittedCount());
+		l_sbuf.append(", throttled=");
+		l_sbuf.append(getThrottledCount());
+		l_sbuf.append(", rejected=");
+		l_sbuf.append(getRejectedCount());
+
+		return l_sbuf.toString();
+	}
+}
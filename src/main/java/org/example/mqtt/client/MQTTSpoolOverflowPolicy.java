@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+/**
+ * Determines what happens if a message is appended to a
+ * {@link MQTTOutboundSpool} that has reached its size limit.
+ */
+public enum MQTTSpoolOverflowPolicy
+{
+	/**
+	 * The message is rejected with an exception.
+	 */
+	FAIL,
+
+	/**
+	 * The new message is discarded and a warning is logged.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * The oldest segment of the spool is discarded to make room
+	 * for the new message.
+	 */
+	DROP_OLDEST
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+
+
+/**
+ * Encodes and decodes MQTT message payloads.
+ * <p>Implementations must be thread-safe.</p>
+ */
+public interface IMQTTPayloadCodec
+{
+	/**
+	 * Get the identifier of this codec that is written into the payload header.
+	 * @return The identifier.
+	 */
+	public byte getId();
+
+
+	/**
+	 * Get the name of this codec as used in the configuration.
+	 * @return The name.
+	 */
+	public String getName();
+
+
+	/**
+	 * Encode the given payload.
+	 * @param p_payload The payload.
+	 * @param p_iOffset The offset of the data in the payload array.
+	 * @param p_iLength The length of the data.
+	 * @return The encoded data.
+	 * @throws IOException If the payload cannot be encoded.
+	 */
+	public byte[] encode(byte[] p_payload, int p_iOffset, int p_iLength)
+		throws IOException;
+
+
+	/**
+	 * Decode the given data.
+	 * <p>Implementations must not allocate more than <code>p_iMaxLength</code>
+	 * bytes for the decoded payload, since the data may have been crafted
+	 * to expand to an arbitrary size.</p>
+	 * @param p_data The encoded data.
+	 * @param p_iOffset The offset of the data in the array.
+	 * @param p_iLength The length of the data.
+	 * @param p_iMaxLength The maximum length of the decoded payload.
+	 * @return The decoded payload.
+	 * @throws IOException If the data cannot be decoded, or if the decoded
+	 *    payload would be longer than <code>p_iMaxLength</code> bytes.
+	 */
+	public byte[] decode(byte[] p_data, int p_iOffset, int p_iLength, int p_iMaxLength)
+		throws IOException;
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+
+/**
+ * The header of a chunk message of a chunked transfer.
+ * <p>Large payloads are published as a sequence of chunk messages to the
+ * same topic. Each chunk starts with the bytes <code>0xFE 'I' 'C'</code>,
+ * a version byte, the identifier of the transfer, the sequence number of
+ * the chunk, the total number of chunks (<code>-1</code> if the number is
+ * not known in advance), and a flag byte that marks the last chunk.</p>
+ */
+public final class MQTTChunkHeader
+{
+	/** The size of the chunk header in bytes. */
+	public static final int HEADER_SIZE = 29;
+
+	private static final byte MAGIC_0 = (byte)0xFE;
+
+	private static final byte MAGIC_1 = 'I';
+
+	private static final byte MAGIC_2 = 'C';
+
+	private static final byte VERSION = 1;
+
+	private static final byte FLAG_LAST = 0x01;
+
+	private final UUID m_transferId;
+
+	private final int m_iSequence;
+
+	private final int m_iTotal;
+
+	private final boolean m_bLast;
+
+
+	/**
+	 * Create a chunk header.
+	 * @param p_transferId The identifier of the transfer.
+	 * @param p_iSequence The zero-based sequence number of the chunk.
+	 * @param p_iTotal The total number of chunks, or <code>-1</code> if unknown.
+	 * @param p_bLast <code>true</code> if this is the last chunk of the transfer.
+	 */
+	public MQTTChunkHeader(UUID p_transferId, int p_iSequence, int p_iTotal, boolean p_bLast)
+	{
+		m_transferId = p_transferId;
+		m_iSequence  = p_iSequence;
+		m_iTotal     = p_iTotal;
+		m_bLast      = p_bLast;
+	}
+
+
+	/**
+	 * Test if the given payload starts with a chunk header.
+	 * @param p_payload The payload.
+	 * @return <code>true</code> if the payload is a chunk,
+	 *    or <code>false</code> otherwise.
+	 */
+	public static boolean hasHeader(byte[] p_payload)
+	{
+		return
+			p_payload.length >= HEADER_SIZE &&
+			p_payload[0] == MAGIC_0 &&
+			p_payload[1] == MAGIC_1 &&
+			p_payload[2] == MAGIC_2;
+	}
+
+
+	/**
+	 * Read the chunk header of the given payload.
+	 * @param p_payload The payload.
+	 * @return The chunk header.
+	 * @throws IOException If the payload has no valid chunk header.
+	 */
+	public static MQTTChunkHeader read(byte[] p_payload)
+		throws IOException
+	{
+		final ByteBuffer l_buf;
+		final UUID       l_id;
+		final int        l_iSequence;
+		final int        l_iTotal;
+		final byte       l_flags;
+
+		if (!hasHeader(p_payload))
+			throw new IOException("Missing chunk header.");
+
+		if (p_payload[3] != VERSION)
+			throw new IOException("Unsupported chunk header version " + p_payload[3] + ".");
+
+		l_buf       = ByteBuffer.wrap(p_payload, 4, HEADER_SIZE - 4);
+		l_id        = new UUID(l_buf.getLong(), l_buf.getLong());
+		l_iSequence = l_buf.getInt();
+		l_iTotal    = l_buf.getInt();
+		l_flags     = l_buf.get();
+
+		if (l_iSequence < 0 || l_iTotal < -1 || (l_iTotal >= 0 && l_iSequence >= l_iTotal))
+			throw new IOException("Invalid chunk sequence number " + l_iSequence + " of " + l_iTotal + ".");
+
+		return new MQTTChunkHeader(l_id, l_iSequence, l_iTotal, (l_flags & FLAG_LAST) != 0);
+	}
+
+
+	/**
+	 * Write this header to the beginning of the given buffer.
+	 * @param p_buf A buffer of at least {@link #HEADER_SIZE} bytes.
+	 */
+	public void write(byte[] p_buf)
+	{
+		ByteBuffer.wrap(p_buf, 0, HEADER_SIZE)
+			.put(MAGIC_0)
+			.put(MAGIC_1)
+			.put(MAGIC_2)
+			.put(VERSION)
+			.putLong(m_transferId.getMostSignificantBits())
+			.putLong(m_transferId.getLeastSignificantBits())
+			.putInt(m_iSequence)
+			.putInt(m_iTotal)
+			.put(m_bLast ? FLAG_LAST : 0);
+	}
+
+
+	public UUID getTransferId()
+	{
+		return m_transferId;
+	}
+
+
+	public int getSequence()
+	{
+		return m_iSequence;
+	}
+
+
+	/**
+	 * Get the total number of chunks of the transfer.
+	 * @return The total number of chunks, or <code>-1</code> if unknown.
+	 */
+	public int getTotal()
+	{
+		return m_iTotal;
+	}
+
+
+	public boolean isLast()
+	{
+		return m_bLast;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return m_transferId + "#" + m_iSequence + "/" + m_iTotal + (m_bLast ? " (last)" : "");
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+
+
+/**
+ * A codec that compresses the payload in the zlib format (RFC 1950).
+ */
+public final class MQTTDeflateCodec implements IMQTTPayloadCodec
+{
+	public static final String NAME = "deflate";
+
+
+	MQTTDeflateCodec()
+	{
+	}
+
+
+	@Override
+	public byte getId()
+	{
+		return 2;
+	}
+
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+
+	@Override
+	public byte[] encode(byte[] p_payload, int p_iOffset, int p_iLength)
+	{
+		return MQTTDeflateSupport.get().deflate(p_payload, p_iOffset, p_iLength);
+	}
+
+
+	@Override
+	public byte[] decode(byte[] p_data, int p_iOffset, int p_iLength, int p_iMaxLength)
+		throws IOException
+	{
+		return MQTTDeflateSupport.get().inflate(p_data, p_iOffset, p_iLength, p_iMaxLength);
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * A per-thread deflater, inflater, and scratch buffer that are
+ * reused by the deflate codec.
+ */
+final class MQTTDeflateSupport
+{
+	/** Upper bound of the scratch buffer that is kept between calls. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<MQTTDeflateSupport> ms_support =
+		ThreadLocal.withInitial(MQTTDeflateSupport::new);
+
+	private final Deflater m_deflater;
+
+	private final Inflater m_inflater;
+
+	private byte[] m_buf = new byte[8192];
+
+
+	private MQTTDeflateSupport()
+	{
+		m_deflater = new Deflater();
+		m_inflater = new Inflater();
+	}
+
+
+	/**
+	 * Get the instance of the current thread.
+	 * @return The instance.
+	 */
+	static MQTTDeflateSupport get()
+	{
+		return ms_support.get();
+	}
+
+
+	/**
+	 * Compress the given data in the zlib format.
+	 * @param p_data The data.
+	 * @param p_iOffset The offset of the data.
+	 * @param p_iLength The length of the data.
+	 * @return The compressed data.
+	 */
+	byte[] deflate(byte[] p_data, int p_iOffset, int p_iLength)
+	{
+		int l_iPos;
+
+		m_deflater.reset();
+		m_deflater.setInput(p_data, p_iOffset, p_iLength);
+		m_deflater.finish();
+
+		l_iPos = 0;
+
+		while (!m_deflater.finished())
+		{
+			if (l_iPos == m_buf.length)
+				m_buf = Arrays.copyOf(m_buf, m_buf.length * 2);
+
+			l_iPos += m_deflater.deflate(m_buf, l_iPos, m_buf.length - l_iPos);
+		}
+
+		return _result(l_iPos);
+	}
+
+
+	/**
+	 * Decompress the given data in the zlib format.
+	 * <p>The output is limited to <code>p_iMaxLength</code> bytes, so that
+	 * a small input that expands to a huge output cannot exhaust the heap.</p>
+	 * @param p_data The compressed data.
+	 * @param p_iOffset The offset of the compressed data.
+	 * @param p_iLength The length of the compressed data.
+	 * @param p_iMaxLength The maximum length of the decompressed data.
+	 * @return The decompressed data.
+	 * @throws IOException If the data is corrupt, or if the decompressed
+	 *    data would be longer than <code>p_iMaxLength</code> bytes.
+	 */
+	byte[] inflate(byte[] p_data, int p_iOffset, int p_iLength, int p_iMaxLength)
+		throws IOException
+	{
+		final int l_iLimit;
+		int       l_iPos;
+
+		m_inflater.reset();
+		m_inflater.setInput(p_data, p_iOffset, p_iLength);
+
+		// one byte more than allowed tells an exact fit from an overflow
+		l_iLimit = (int)Math.min(p_iMaxLength + 1L, Integer.MAX_VALUE - 8);
+		l_iPos   = 0;
+
+		try
+		{
+			while (!m_inflater.finished())
+			{
+				final int l_iInflated;
+
+				if (l_iPos == m_buf.length)
+					m_buf = Arrays.copyOf(m_buf, (int)Math.min(m_buf.length * 2L, l_iLimit));
+
+				l_iInflated = m_inflater.inflate(m_buf, l_iPos, Math.min(m_buf.length, l_iLimit) - l_iPos);
+
+				if (l_iInflated == 0 && !m_inflater.finished() &&
+				    (m_inflater.needsInput() || m_inflater.needsDictionary()))
+					throw new IOException("Truncated compressed data.");
+
+				l_iPos += l_iInflated;
+
+				if (l_iPos > p_iMaxLength)
+					throw new IOException("The decompressed data exceeds the maximum size of " + p_iMaxLength + " bytes.");
+			}
+		}
+		catch (DataFormatException l_e)
+		{
+			_trim();
+			throw new IOException("Corrupt compressed data.", l_e);
+		}
+		catch (IOException l_e)
+		{
+			_trim();
+			throw l_e;
+		}
+
+		return _result(l_iPos);
+	}
+
+
+	private byte[] _result(int p_iLength)
+	{
+		final byte[] l_result = Arrays.copyOf(m_buf, p_iLength);
+
+		_trim();
+
+		return l_result;
+	}
+
+
+	private void _trim()
+	{
+		if (m_buf.length > MAX_RETAINED_BUFFER_SIZE)
+			m_buf = new byte[8192];
+	}
+}
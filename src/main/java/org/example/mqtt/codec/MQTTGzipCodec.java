@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * A codec that compresses the payload in the GZIP format (RFC 1952).
+ * <p>The header, the trailer, and the checksum are handled by the
+ * GZIP streams of the JDK.</p>
+ */
+public final class MQTTGzipCodec implements IMQTTPayloadCodec
+{
+	public static final String NAME = "gzip";
+
+	private static final int BUFFER_SIZE = 8192;
+
+
+	MQTTGzipCodec()
+	{
+	}
+
+
+	@Override
+	public byte getId()
+	{
+		return 3;
+	}
+
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+
+	@Override
+	public byte[] encode(byte[] p_payload, int p_iOffset, int p_iLength)
+		throws IOException
+	{
+		final ByteArrayOutputStream l_out = new ByteArrayOutputStream(Math.min(p_iLength / 2 + 32, BUFFER_SIZE));
+
+		try (GZIPOutputStream l_gzip = new GZIPOutputStream(l_out, BUFFER_SIZE))
+		{
+			l_gzip.write(p_payload, p_iOffset, p_iLength);
+		}
+
+		return l_out.toByteArray();
+	}
+
+
+	@Override
+	public byte[] decode(byte[] p_data, int p_iOffset, int p_iLength, int p_iMaxLength)
+		throws IOException
+	{
+		final ByteArrayOutputStream l_out = new ByteArrayOutputStream((int)Math.min(p_iLength * 4L, BUFFER_SIZE));
+		final byte[]                l_buf = new byte[BUFFER_SIZE];
+
+		try (GZIPInputStream l_gzip = new GZIPInputStream(new ByteArrayInputStream(p_data, p_iOffset, p_iLength), BUFFER_SIZE))
+		{
+			int l_iRead;
+
+			while ((l_iRead = l_gzip.read(l_buf)) >= 0)
+			{
+				if (l_iRead > p_iMaxLength - l_out.size())
+					throw new IOException("The decompressed data exceeds the maximum size of " + p_iMaxLength + " bytes.");
+
+				l_out.write(l_buf, 0, l_iRead);
+			}
+		}
+
+		return l_out.toByteArray();
+	}
+}
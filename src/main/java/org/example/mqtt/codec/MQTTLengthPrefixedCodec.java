@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * A codec that frames the payload with its length as a
+ * 4-byte big-endian integer, so truncated messages are detected.
+ */
+public final class MQTTLengthPrefixedCodec implements IMQTTPayloadCodec
+{
+	public static final String NAME = "length-prefixed";
+
+
+	MQTTLengthPrefixedCodec()
+	{
+	}
+
+
+	@Override
+	public byte getId()
+	{
+		return 1;
+	}
+
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+
+	@Override
+	public byte[] encode(byte[] p_payload, int p_iOffset, int p_iLength)
+	{
+		final byte[] l_data = new byte[4 + p_iLength];
+
+		ByteBuffer.wrap(l_data).putInt(p_iLength).put(p_payload, p_iOffset, p_iLength);
+
+		return l_data;
+	}
+
+
+	@Override
+	public byte[] decode(byte[] p_data, int p_iOffset, int p_iLength, int p_iMaxLength)
+		throws IOException
+	{
+		final ByteBuffer l_buf = ByteBuffer.wrap(p_data, p_iOffset, p_iLength);
+		final int        l_iLength;
+		final byte[]     l_payload;
+
+		if (l_buf.remaining() < 4)
+			throw new IOException("Missing length prefix.");
+
+		l_iLength = l_buf.getInt();
+
+		if (l_iLength < 0 || l_iLength != l_buf.remaining())
+			throw new IOException("The payload length " + l_iLength + " does not match the frame length " + l_buf.remaining() + ".");
+
+		if (l_iLength > p_iMaxLength)
+			throw new IOException("The payload exceeds the maximum size of " + p_iMaxLength + " bytes.");
+
+		l_payload = new byte[l_iLength];
+
+		l_buf.get(l_payload);
+
+		return l_payload;
+	}
+}
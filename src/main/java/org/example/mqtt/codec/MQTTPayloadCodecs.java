@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import java.io.IOException;
+import java.util.Locale;
+
+
+/**
+ * Registry of the available payload codecs and handling of the codec header.
+ * <p>An encoded payload starts with the four bytes <code>0xFE 'I' 'X'</code>
+ * followed by the {@link IMQTTPayloadCodec#getId() identifier} of the codec.
+ * Consumers use the header to select the decoder, so producer and consumer
+ * do not need to be configured with the same codec. Payloads without the
+ * header are passed through unchanged.</p>
+ */
+public final class MQTTPayloadCodecs
+{
+	/** The size of the codec header in bytes. */
+	public static final int HEADER_SIZE = 4;
+
+	private static final byte MAGIC_0 = (byte)0xFE;
+
+	private static final byte MAGIC_1 = 'I';
+
+	private static final byte MAGIC_2 = 'X';
+
+	private static final IMQTTPayloadCodec[] ms_codecs =
+	{
+		new MQTTIdentityCodec(),
+		new MQTTLengthPrefixedCodec(),
+		new MQTTDeflateCodec(),
+		new MQTTGzipCodec()
+	};
+
+
+	private MQTTPayloadCodecs()
+	{
+	}
+
+
+	/**
+	 * Get the codec with the given name.
+	 * @param p_strName The name of the codec.
+	 * @return The codec.
+	 * @throws IllegalArgumentException If there is no codec with the given name.
+	 */
+	public static IMQTTPayloadCodec getCodec(String p_strName)
+	{
+		final String l_strName = p_strName.toLowerCase(Locale.ROOT);
+
+		for (IMQTTPayloadCodec l_codec : ms_codecs)
+		{
+			if (l_codec.getName().equals(l_strName))
+				return l_codec;
+		}
+
+		throw new IllegalArgumentException("Unknown payload codec " + p_strName + ".");
+	}
+
+
+	/**
+	 * Test if the given payload starts with a codec header.
+	 * @param p_payload The payload.
+	 * @return <code>true</code> if the payload has a codec header,
+	 *    or <code>false</code> otherwise.
+	 */
+	public static boolean hasHeader(byte[] p_payload)
+	{
+		return
+			p_payload.length >= HEADER_SIZE &&
+			p_payload[0] == MAGIC_0 &&
+			p_payload[1] == MAGIC_1 &&
+			p_payload[2] == MAGIC_2;
+	}
+
+
+	/**
+	 * Encode the given payload and prepend the codec header.
+	 * @param p_codec The codec.
+	 * @param p_payload The payload.
+	 * @return The encoded payload.
+	 * @throws IOException If the payload cannot be encoded.
+	 */
+	public static byte[] encode(IMQTTPayloadCodec p_codec, byte[] p_payload)
+		throws IOException
+	{
+		return encode(p_codec, p_payload, 0, p_payload.length);
+	}
+
+
+	/**
+	 * Encode a part of the given array and prepend the codec header.
+	 * @param p_codec The codec.
+	 * @param p_payload The array that contains the payload.
+	 * @param p_iOffset The offset of the payload.
+	 * @param p_iLength The length of the payload.
+	 * @return The encoded payload.
+	 * @throws IOException If the payload cannot be encoded.
+	 */
+	public static byte[] encode(IMQTTPayloadCodec p_codec, byte[] p_payload, int p_iOffset, int p_iLength)
+		throws IOException
+	{
+		final byte[] l_encoded = p_codec.encode(p_payload, p_iOffset, p_iLength);
+		final byte[] l_result  = new byte[HEADER_SIZE + l_encoded.length];
+
+		l_result[0] = MAGIC_0;
+		l_result[1] = MAGIC_1;
+		l_result[2] = MAGIC_2;
+		l_result[3] = p_codec.getId();
+
+		System.arraycopy(l_encoded, 0, l_result, HEADER_SIZE, l_encoded.length);
+
+		return l_result;
+	}
+
+
+	/**
+	 * Decode the given payload if it starts with a codec header.
+	 * @param p_payload The payload.
+	 * @param p_iMaxLength The maximum length of the decoded payload.
+	 * @return The decoded payload, or the given payload if it has no codec header.
+	 * @throws IOException If the payload cannot be decoded, or if the decoded
+	 *    payload would be longer than <code>p_iMaxLength</code> bytes.
+	 */
+	public static byte[] decode(byte[] p_payload, int p_iMaxLength)
+		throws IOException
+	{
+		final byte l_id;
+
+		if (!hasHeader(p_payload))
+			return p_payload;
+
+		l_id = p_payload[3];
+
+		for (IMQTTPayloadCodec l_codec : ms_codecs)
+		{
+			if (l_codec.getId() == l_id)
+				return l_codec.decode(p_payload, HEADER_SIZE, p_payload.length - HEADER_SIZE, p_iMaxLength);
+		}
+
+		throw new IOException("Unknown payload codec identifier " + l_id + ".");
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Exponential backoff with full jitter.
+ * <p>The n-th delay is a random value between zero and
+ * <code>min(maxDelay, initialDelay * multiplier^n)</code>, so that
+ * clients that failed at the same time do not retry in lockstep.
+ * Instances are not thread-safe.</p>
+ */
+public final class MQTTBackoff
+{
+	private final long   m_lInitialDelay;
+	private final double m_dMultiplier;
+	private final long   m_lMaxDelay;
+	private long         m_lMinDelay;
+	private int          m_iAttempts;
+
+
+	/**
+	 * @param p_lInitialDelay The upper bound of the first delay in milliseconds.
+	 * @param p_dMultiplier The factor by which the upper bound grows
+	 *    with each attempt.
+	 * @param p_lMaxDelay The maximum delay in milliseconds.
+	 * @throws IllegalArgumentException If a delay is not positive,
+	 *    or the multiplier is less than one.
+	 */
+	public MQTTBackoff(long p_lInitialDelay, double p_dMultiplier, long p_lMaxDelay)
+	{
+		if (p_lInitialDelay <= 0L || p_lMaxDelay <= 0L)
+			throw new IllegalArgumentException("The backoff delays must be positive.");
+
+		if (!(p_dMultiplier >= 1.0d))
+			throw new IllegalArgumentException("The backoff multiplier must be at least 1.");
+
+		m_lInitialDelay = p_lInitialDelay;
+		m_dMultiplier   = p_dMultiplier;
+		m_lMaxDelay     = p_lMaxDelay;
+	}
+
+
+	/**
+	 * Set a lower bound for the delays, e.g. to avoid busy waiting.
+	 * @param p_lMinDelay The minimum delay in milliseconds.
+	 * @return This backoff.
+	 */
+	public MQTTBackoff withMinDelay(long p_lMinDelay)
+	{
+		m_lMinDelay = Math.max(p_lMinDelay, 0L);
+
+		return this;
+	}
+
+
+	/**
+	 * Get the delay before the next attempt.
+	 * @return The delay in milliseconds.
+	 */
+	public long nextDelay()
+	{
+		final double l_dBound;
+		final long   l_lBound;
+
+		l_dBound = m_lInitialDelay * Math.pow(m_dMultiplier, m_iAttempts);
+		l_lBound = l_dBound >= m_lMaxDelay ? m_lMaxDelay : (long)l_dBound;
+
+		// stop counting once the bound is reached, so that the exponent cannot overflow
+		if (l_lBound < m_lMaxDelay)
+			m_iAttempts++;
+
+		return Math.max(m_lMinDelay, ThreadLocalRandom.current().nextLong(l_lBound + 1L));
+	}
+
+
+	/**
+	 * Start over with the initial delay, e.g. after a successful attempt.
+	 */
+	public void reset()
+	{
+		m_iAttempts = 0;
+	}
+}
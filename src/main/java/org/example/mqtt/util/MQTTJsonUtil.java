@@ -0,0 +1,509 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+
+/**
+ * Access to JSON payloads.
+ */
+public final class MQTTJsonUtil
+{
+	/** Limits the nesting of parsed documents, so that the stack cannot overflow. */
+	private static final int MAX_DEPTH = 512;
+
+	/** The Java number syntax is more lenient than the JSON syntax. */
+	private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+
+	private MQTTJsonUtil()
+	{
+	}
+
+
+	/**
+	 * Parse a JSON document into a tree of unmodifiable collections.
+	 * <p>Objects are mapped to a {@link Map} that keeps the order of the
+	 * fields, arrays to a {@link List}, integral numbers to {@link Long},
+	 * or {@link BigInteger} if they do not fit, other numbers to
+	 * {@link BigDecimal}, and the literals to {@link Boolean} and
+	 * <code>null</code>.</p>
+	 * @param p_json The UTF-8 encoded JSON document.
+	 * @return The value of the document.
+	 * @throws IllegalArgumentException If the document is malformed.
+	 */
+	public static Object parse(byte[] p_json)
+	{
+		final int[]  l_pos = new int[1];
+		final Object l_value;
+
+		l_value = _parseValue(p_json, l_pos, 0);
+
+		if (_skipWhitespace(p_json, l_pos[0]) < p_json.length)
+			throw _malformed(l_pos[0]);
+
+		return l_value;
+	}
+
+
+	/**
+	 * Get the value of a field of the top-level object of a JSON document.
+	 * <p>The document is scanned only up to the field. Nested objects
+	 * and arrays are skipped without being parsed.</p>
+	 * @param p_json The UTF-8 encoded JSON document.
+	 * @param p_strName The name of the field.
+	 * @return The value of a string field without quotes and escapes, the
+	 *    JSON text of any other value, or <code>null</code> if the document
+	 *    is not an object, does not have the field, or is malformed.
+	 */
+	public static String getTopLevelField(byte[] p_json, String p_strName)
+	{
+		final byte[] l_name = p_strName.getBytes(StandardCharsets.UTF_8);
+		int          i;
+
+		if (p_json == null)
+			return null;
+
+		i = _skipWhitespace(p_json, 0);
+
+		if (i >= p_json.length || p_json[i] != '{')
+			return null;
+
+		i = _skipWhitespace(p_json, i + 1);
+
+		if (i < p_json.length && p_json[i] == '}')
+			return null;
+
+		for (;;)
+		{
+			final int     l_iKeyEnd;
+			final int     l_iValueStart;
+			final int     l_iValueEnd;
+			final boolean l_bMatch;
+
+			if (i >= p_json.length || p_json[i] != '"')
+				return null;
+
+			l_iKeyEnd = _skipString(p_json, i);
+
+			if (l_iKeyEnd < 0)
+				return null;
+
+			l_bMatch = _isName(p_json, i, l_iKeyEnd, l_name, p_strName);
+			i        = _skipWhitespace(p_json, l_iKeyEnd);
+
+			if (i >= p_json.length || p_json[i] != ':')
+				return null;
+
+			l_iValueStart = _skipWhitespace(p_json, i + 1);
+			l_iValueEnd   = _skipValue(p_json, l_iValueStart);
+
+			if (l_iValueEnd < 0)
+				return null;
+
+			if (l_bMatch)
+			{
+				if (p_json[l_iValueStart] == '"')
+					return _decodeString(p_json, l_iValueStart, l_iValueEnd);
+				else
+					return new String(p_json, l_iValueStart, l_iValueEnd - l_iValueStart, StandardCharsets.UTF_8);
+			}
+
+			i = _skipWhitespace(p_json, l_iValueEnd);
+
+			if (i >= p_json.length || p_json[i] != ',')
+				return null;
+
+			i = _skipWhitespace(p_json, i + 1);
+		}
+	}
+
+
+	/**
+	 * Parse the value at the given position.
+	 * @param p_pos The position, which is advanced beyond the value.
+	 */
+	private static Object _parseValue(byte[] p_json, int[] p_pos, int p_iDepth)
+	{
+		final int i = _skipWhitespace(p_json, p_pos[0]);
+		final int l_iEnd;
+
+		if (i >= p_json.length)
+			throw _malformed(i);
+
+		if (p_iDepth > MAX_DEPTH)
+			throw new IllegalArgumentException("The JSON document is nested too deeply.");
+
+		switch (p_json[i])
+		{
+			case '{':
+				return _parseObject(p_json, p_pos, i, p_iDepth);
+
+			case '[':
+				return _parseArray(p_json, p_pos, i, p_iDepth);
+
+			case '"':
+				l_iEnd = _skipString(p_json, i);
+				p_pos[0] = l_iEnd;
+
+				if (l_iEnd < 0)
+					throw _malformed(i);
+
+				return _checkString(_decodeString(p_json, i, l_iEnd), i);
+
+			default:
+				l_iEnd = _skipValue(p_json, i);
+				p_pos[0] = l_iEnd;
+
+				if (l_iEnd < 0)
+					throw _malformed(i);
+
+				return _parseLiteral(new String(p_json, i, l_iEnd - i, StandardCharsets.US_ASCII), i);
+		}
+	}
+
+
+	private static Map<String, Object> _parseObject(byte[] p_json, int[] p_pos, int p_iStart, int p_iDepth)
+	{
+		final Map<String, Object> l_map = new LinkedHashMap<>();
+		int                       i;
+
+		i = _skipWhitespace(p_json, p_iStart + 1);
+
+		if (i < p_json.length && p_json[i] == '}')
+		{
+			p_pos[0] = i + 1;
+			return Collections.emptyMap();
+		}
+
+		for (;;)
+		{
+			final int    l_iKeyEnd;
+			final String l_strKey;
+
+			if (i >= p_json.length || p_json[i] != '"')
+				throw _malformed(i);
+
+			l_iKeyEnd = _skipString(p_json, i);
+
+			if (l_iKeyEnd < 0)
+				throw _malformed(i);
+
+			l_strKey = _checkString(_decodeString(p_json, i, l_iKeyEnd), i);
+			i        = _skipWhitespace(p_json, l_iKeyEnd);
+
+			if (i >= p_json.length || p_json[i] != ':')
+				throw _malformed(i);
+
+			p_pos[0] = i + 1;
+
+			l_map.put(l_strKey, _parseValue(p_json, p_pos, p_iDepth + 1));
+
+			i = _skipWhitespace(p_json, p_pos[0]);
+
+			if (i < p_json.length && p_json[i] == '}')
+			{
+				p_pos[0] = i + 1;
+				return Collections.unmodifiableMap(l_map);
+			}
+
+			if (i >= p_json.length || p_json[i] != ',')
+				throw _malformed(i);
+
+			i = _skipWhitespace(p_json, i + 1);
+		}
+	}
+
+
+	private static List<Object> _parseArray(byte[] p_json, int[] p_pos, int p_iStart, int p_iDepth)
+	{
+		final List<Object> l_list = new ArrayList<>();
+		int                i;
+
+		i = _skipWhitespace(p_json, p_iStart + 1);
+
+		if (i < p_json.length && p_json[i] == ']')
+		{
+			p_pos[0] = i + 1;
+			return Collections.emptyList();
+		}
+
+		p_pos[0] = i;
+
+		for (;;)
+		{
+			l_list.add(_parseValue(p_json, p_pos, p_iDepth + 1));
+
+			i = _skipWhitespace(p_json, p_pos[0]);
+
+			if (i < p_json.length && p_json[i] == ']')
+			{
+				p_pos[0] = i + 1;
+				return Collections.unmodifiableList(l_list);
+			}
+
+			if (i >= p_json.length || p_json[i] != ',')
+				throw _malformed(i);
+
+			p_pos[0] = i + 1;
+		}
+	}
+
+
+	private static Object _parseLiteral(String p_strLiteral, int p_iPos)
+	{
+		switch (p_strLiteral)
+		{
+			case "true":
+				return Boolean.TRUE;
+
+			case "false":
+				return Boolean.FALSE;
+
+			case "null":
+				return null;
+
+			default:
+				break;
+		}
+
+		if (!NUMBER.matcher(p_strLiteral).matches())
+			throw _malformed(p_iPos);
+
+		try
+		{
+			if (p_strLiteral.indexOf('.') < 0 && p_strLiteral.indexOf('e') < 0 && p_strLiteral.indexOf('E') < 0)
+			{
+				if (p_strLiteral.length() < 19)
+					return Long.valueOf(p_strLiteral);
+				else
+					return _narrow(new BigInteger(p_strLiteral));
+			}
+
+			return new BigDecimal(p_strLiteral);
+		}
+		catch (NumberFormatException l_e)
+		{
+			throw _malformed(p_iPos);
+		}
+	}
+
+
+	private static Number _narrow(BigInteger p_value)
+	{
+		return p_value.bitLength() < 64 ? (Number)Long.valueOf(p_value.longValue()) : p_value;
+	}
+
+
+	private static String _checkString(String p_str, int p_iPos)
+	{
+		if (p_str == null)
+			throw _malformed(p_iPos);
+
+		return p_str;
+	}
+
+
+	private static IllegalArgumentException _malformed(int p_iPos)
+	{
+		return new IllegalArgumentException("Malformed JSON document at position " + p_iPos + ".");
+	}
+
+
+	private static int _skipWhitespace(byte[] p_json, int p_iPos)
+	{
+		int i = p_iPos;
+
+		while (i < p_json.length && (p_json[i] == ' ' || p_json[i] == '\t' || p_json[i] == '\n' || p_json[i] == '\r'))
+			i++;
+
+		return i;
+	}
+
+
+	/**
+	 * Skip a string.
+	 * @return The position after the closing quote, or <code>-1</code>
+	 *    if the string is not terminated.
+	 */
+	private static int _skipString(byte[] p_json, int p_iPos)
+	{
+		for (int i = p_iPos + 1; i < p_json.length; i++)
+		{
+			if (p_json[i] == '\\')
+				i++;
+			else if (p_json[i] == '"')
+				return i + 1;
+		}
+
+		return -1;
+	}
+
+
+	/**
+	 * Skip a value of any type.
+	 * @return The position after the value, or <code>-1</code>
+	 *    if the value is malformed.
+	 */
+	private static int _skipValue(byte[] p_json, int p_iPos)
+	{
+		int l_iDepth = 0;
+		int i        = p_iPos;
+
+		if (i >= p_json.length)
+			return -1;
+
+		if (p_json[i] == '"')
+			return _skipString(p_json, i);
+
+		if (p_json[i] != '{' && p_json[i] != '[')
+		{
+			// a number or a literal
+			while (i < p_json.length && p_json[i] != ',' && p_json[i] != '}' && p_json[i] != ']' &&
+			       p_json[i] != ' ' && p_json[i] != '\t' && p_json[i] != '\n' && p_json[i] != '\r')
+				i++;
+
+			return i > p_iPos ? i : -1;
+		}
+
+		while (i < p_json.length)
+		{
+			switch (p_json[i])
+			{
+				case '"':
+					i = _skipString(p_json, i);
+
+					if (i < 0)
+						return -1;
+
+					continue;
+
+				case '{':
+				case '[':
+					l_iDepth++;
+					break;
+
+				case '}':
+				case ']':
+					if (--l_iDepth == 0)
+						return i + 1;
+					break;
+
+				default:
+					break;
+			}
+
+			i++;
+		}
+
+		return -1;
+	}
+
+
+	private static boolean _isName(byte[] p_json, int p_iStart, int p_iEnd, byte[] p_name, String p_strName)
+	{
+		// without escapes the key can be compared byte by byte
+		for (int i = p_iStart + 1; i < p_iEnd - 1; i++)
+		{
+			if (p_json[i] == '\\')
+				return p_strName.equals(_decodeString(p_json, p_iStart, p_iEnd));
+		}
+
+		return Arrays.equals(p_json, p_iStart + 1, p_iEnd - 1, p_name, 0, p_name.length);
+	}
+
+
+	/**
+	 * Decode a string including its quotes.
+	 * @return The string, or <code>null</code> if it contains an
+	 *    invalid escape sequence.
+	 */
+	private static String _decodeString(byte[] p_json, int p_iStart, int p_iEnd)
+	{
+		final StringBuilder l_sbuf = new StringBuilder(p_iEnd - p_iStart);
+		int                 l_iRun = p_iStart + 1;
+		int                 i      = l_iRun;
+
+		while (i < p_iEnd - 1)
+		{
+			final char l_ch;
+
+			if (p_json[i] != '\\')
+			{
+				i++;
+				continue;
+			}
+
+			l_sbuf.append(new String(p_json, l_iRun, i - l_iRun, StandardCharsets.UTF_8));
+
+			switch (p_json[i + 1])
+			{
+				case 'b': l_ch = '\b'; break;
+				case 'f': l_ch = '\f'; break;
+				case 'n': l_ch = '\n'; break;
+				case 'r': l_ch = '\r'; break;
+				case 't': l_ch = '\t'; break;
+
+				case 'u':
+					if (i + 6 > p_iEnd - 1)
+						return null;
+
+					try
+					{
+						l_ch = (char)Integer.parseInt(new String(p_json, i + 2, 4, StandardCharsets.US_ASCII), 16);
+					}
+					catch (NumberFormatException l_e)
+					{
+						return null;
+					}
+
+					i += 4;
+					break;
+
+				case '"':
+				case '\\':
+				case '/':
+					l_ch = (char)p_json[i + 1];
+					break;
+
+				default:
+					return null;
+			}
+
+			l_sbuf.append(l_ch);
+
+			i     += 2;
+			l_iRun = i;
+		}
+
+		l_sbuf.append(new String(p_json, l_iRun, p_iEnd - 1 - l_iRun, StandardCharsets.UTF_8));
+
+		return l_sbuf.toString();
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Conversion of values to MQTT message payloads.
+ */
+public final class MQTTPayloadUtil
+{
+	/** Upper bound of the scratch buffer that is kept between calls. */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> ms_scratch =
+		ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+
+	private static final ThreadLocal<CharBuffer> ms_chars =
+		ThreadLocal.withInitial(() -> CharBuffer.allocate(8192));
+
+	private static final ThreadLocal<CharsetEncoder> ms_encoder =
+		ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+		                                                     .onMalformedInput(CodingErrorAction.REPLACE)
+		                                                     .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+
+	private MQTTPayloadUtil()
+	{
+	}
+
+
+	/**
+	 * Test if values of the given type can be converted to a payload.
+	 * @param p_value The value.
+	 * @return <code>true</code> if the value is supported, or
+	 *    <code>false</code> otherwise.
+	 */
+	public static boolean isSupported(Object p_value)
+	{
+		return
+			p_value instanceof CharSequence ||
+			p_value instanceof byte[]       ||
+			p_value instanceof ByteBuffer   ||
+			p_value instanceof InputStream  ||
+			p_value instanceof Reader       ||
+			p_value instanceof File         ||
+			p_value instanceof Path;
+	}
+
+
+	/**
+	 * Convert the given value to a payload.
+	 * <p>Character data is encoded in UTF-8. Streams and readers are read
+	 * until their end and closed. Files are read with a single buffer of
+	 * the exact file size.</p>
+	 * @param p_value The value.
+	 * @return The payload, or <code>null</code> if the value is <code>null</code>.
+	 * @throws IOException If the value cannot be read.
+	 * @throws IllegalArgumentException If the type of the value is not supported.
+	 */
+	public static byte[] toPayload(Object p_value)
+		throws IOException
+	{
+		if (p_value == null)
+			return null;
+		else if (p_value instanceof byte[])
+			return (byte[])p_value;
+		else if (p_value instanceof CharSequence)
+			return _toPayload((CharSequence)p_value);
+		else if (p_value instanceof ByteBuffer)
+			return _toPayload((ByteBuffer)p_value);
+		else if (p_value instanceof InputStream)
+			return _toPayload((InputStream)p_value);
+		else if (p_value instanceof Reader)
+			return _toPayload((Reader)p_value);
+		else if (p_value instanceof File)
+			return _toPayload(((File)p_value).toPath());
+		else if (p_value instanceof Path)
+			return _toPayload((Path)p_value);
+		else
+			throw new IllegalArgumentException("Unsupported payload type " + p_value.getClass().getName() + ".");
+	}
+
+
+	/**
+	 * Get the size of the payload of the given value without reading it.
+	 * @param p_value The value.
+	 * @return The size in bytes, or <code>-1</code> if the size is not known
+	 *    before the value has been read.
+	 * @throws IOException If the size of a file cannot be determined.
+	 */
+	public static long getSize(Object p_value)
+		throws IOException
+	{
+		if (p_value instanceof byte[])
+			return ((byte[])p_value).length;
+		else if (p_value instanceof ByteBuffer)
+			return ((ByteBuffer)p_value).remaining();
+		else if (p_value instanceof File)
+			return ((File)p_value).length();
+		else if (p_value instanceof Path)
+			return Files.size((Path)p_value);
+		else
+			return -1L;
+	}
+
+
+	/**
+	 * Open a stream on the payload of the given value.
+	 * <p>Streams are returned as is, files are opened for reading. Other
+	 * values are converted to a payload first.</p>
+	 * @param p_value The value.
+	 * @return The stream.
+	 * @throws IOException If the value cannot be read.
+	 * @throws IllegalArgumentException If the type of the value is not supported.
+	 */
+	public static InputStream toInputStream(Object p_value)
+		throws IOException
+	{
+		if (p_value instanceof InputStream)
+			return (InputStream)p_value;
+		else if (p_value instanceof File)
+			return Files.newInputStream(((File)p_value).toPath());
+		else if (p_value instanceof Path)
+			return Files.newInputStream((Path)p_value);
+		else
+			return new ByteArrayInputStream(toPayload(p_value));
+	}
+
+
+	/**
+	 * Encode the given characters in UTF-8 into a per-thread scratch buffer.
+	 * <p>Strings are encoded with {@link String#getBytes(java.nio.charset.Charset)},
+	 * which the JDK optimizes for compact strings, into a buffer that wraps
+	 * the new array. Other character sequences are encoded with a per-thread
+	 * {@link CharsetEncoder}, so that no intermediate string is created.
+	 * The returned buffer is backed by an array and is only valid until
+	 * the next call on the same thread. Use this method if the encoded
+	 * characters are processed further, e.g. compressed, so that no
+	 * intermediate array is allocated. Unpaired surrogates are replaced
+	 * with <code>'?'</code>, like {@link String#getBytes(java.nio.charset.Charset)}
+	 * does. Texts that do not fit into the scratch buffer are encoded into
+	 * a new buffer that grows as needed.</p>
+	 * @param p_chars The characters.
+	 * @return The buffer that contains the encoded characters between its
+	 *    position and its limit.
+	 */
+	public static ByteBuffer encodeUtf8(CharSequence p_chars)
+	{
+		final CharsetEncoder l_encoder;
+		final long           l_lMaxBytes;
+		ByteBuffer           l_buf;
+
+		if (p_chars instanceof String)
+			return ByteBuffer.wrap(((String)p_chars).getBytes(StandardCharsets.UTF_8));
+
+		l_encoder   = ms_encoder.get();
+		l_lMaxBytes = (long)Math.ceil(l_encoder.maxBytesPerChar() * p_chars.length());
+		l_buf       = ms_scratch.get();
+
+		if (l_lMaxBytes > l_buf.capacity())
+		{
+			if (l_lMaxBytes > MAX_RETAINED_BUFFER_SIZE)
+			{
+				// start with the average size and grow, rather than reserving the maximum size
+				l_buf = ByteBuffer.allocate((int)Math.min(Integer.MAX_VALUE - 8L,
+				                                          (long)(l_encoder.averageBytesPerChar() * p_chars.length())));
+
+				return _encode(l_encoder, p_chars, l_buf);
+			}
+
+			l_buf = ByteBuffer.allocate(Math.min(MAX_RETAINED_BUFFER_SIZE, Math.max((int)l_lMaxBytes, 2 * l_buf.capacity())));
+
+			ms_scratch.set(l_buf);
+		}
+
+		l_buf.clear();
+
+		// the buffer has room for the maximum number of bytes, so it does not grow
+		return _encode(l_encoder, p_chars, l_buf);
+	}
+
+
+	/**
+	 * Encode the given characters into the given buffer, or into a larger
+	 * one if they do not fit.
+	 * <p>The characters are copied in blocks into an array-backed buffer,
+	 * since the encoder is considerably faster on arrays than on a
+	 * wrapped character sequence.</p>
+	 * @return The buffer that contains the encoded characters between its
+	 *    position and its limit.
+	 */
+	private static ByteBuffer _encode(CharsetEncoder p_encoder, CharSequence p_chars, ByteBuffer p_buf)
+	{
+		final CharBuffer l_in  = ms_chars.get();
+		ByteBuffer       l_buf = p_buf;
+		int              l_iPos = 0;
+
+		p_encoder.reset();
+		l_in.clear();
+
+		do
+		{
+			final int l_iCount = Math.min(l_in.remaining(), p_chars.length() - l_iPos);
+
+			_getChars(p_chars, l_iPos, l_iPos + l_iCount, l_in.array(), l_in.position());
+
+			l_in.position(l_in.position() + l_iCount);
+			l_iPos += l_iCount;
+
+			l_in.flip();
+
+			// malformed input is replaced, so the result is either underflow or overflow
+			while (p_encoder.encode(l_in, l_buf, l_iPos == p_chars.length()).isOverflow())
+				l_buf = _grow(l_buf);
+
+			// keeps the high surrogate of a pair that is split between blocks
+			l_in.compact();
+		}
+		while (l_iPos < p_chars.length());
+
+		while (p_encoder.flush(l_buf).isOverflow())
+			l_buf = _grow(l_buf);
+
+		return l_buf.flip();
+	}
+
+
+	private static void _getChars(CharSequence p_chars, int p_iBegin, int p_iEnd, char[] p_dst, int p_iDstBegin)
+	{
+		if (p_chars instanceof StringBuilder)
+		{
+			((StringBuilder)p_chars).getChars(p_iBegin, p_iEnd, p_dst, p_iDstBegin);
+		}
+		else if (p_chars instanceof StringBuffer)
+		{
+			((StringBuffer)p_chars).getChars(p_iBegin, p_iEnd, p_dst, p_iDstBegin);
+		}
+		else
+		{
+			for (int i = p_iBegin; i < p_iEnd; i++)
+				p_dst[p_iDstBegin++] = p_chars.charAt(i);
+		}
+	}
+
+
+	private static ByteBuffer _grow(ByteBuffer p_buf)
+	{
+		final long l_lCapacity = Math.min(Integer.MAX_VALUE - 8L, Math.max(16L, 2L * p_buf.capacity()));
+
+		if (l_lCapacity <= p_buf.capacity())
+			throw new IllegalArgumentException("The text is too large for a MQTT message.");
+
+		return ByteBuffer.allocate((int)l_lCapacity).put(p_buf.flip());
+	}
+
+
+	/**
+	 * Encode character data without creating an intermediate string.
+	 */
+	private static byte[] _toPayload(CharSequence p_chars)
+	{
+		final ByteBuffer l_buf;
+
+		if (p_chars instanceof String)
+			return ((String)p_chars).getBytes(StandardCharsets.UTF_8);
+
+		l_buf = encodeUtf8(p_chars);
+
+		// the scratch buffer is reused, so its array is never returned
+		if (l_buf != ms_scratch.get() && l_buf.limit() == l_buf.array().length)
+			return l_buf.array();
+
+		return Arrays.copyOf(l_buf.array(), l_buf.limit());
+	}
+
+
+	private static byte[] _toPayload(ByteBuffer p_buf)
+	{
+		final ByteBuffer l_buf = p_buf.duplicate();
+		final byte[]     l_payload;
+
+		if (l_buf.hasArray() && l_buf.arrayOffset() == 0 && l_buf.position() == 0 &&
+		    l_buf.remaining() == l_buf.array().length)
+			return l_buf.array();
+
+		l_payload = new byte[l_buf.remaining()];
+
+		l_buf.get(l_payload);
+
+		return l_payload;
+	}
+
+
+	private static byte[] _toPayload(InputStream p_in)
+		throws IOException
+	{
+		try (InputStream l_in = p_in)
+		{
+			return l_in.readAllBytes();
+		}
+	}
+
+
+	private static byte[] _toPayload(Reader p_reader)
+		throws IOException
+	{
+		final StringBuilder l_sbuf = new StringBuilder(8192);
+		final char[]        l_buf  = new char[8192];
+		int                 l_iRead;
+
+		try (Reader l_reader = p_reader)
+		{
+			while ((l_iRead = l_reader.read(l_buf)) != -1)
+				l_sbuf.append(l_buf, 0, l_iRead);
+		}
+
+		return _toPayload(l_sbuf);
+	}
+
+
+	private static byte[] _toPayload(Path p_path)
+		throws IOException
+	{
+		try (FileChannel l_channel = FileChannel.open(p_path, StandardOpenOption.READ))
+		{
+			final long       l_lSize = l_channel.size();
+			final ByteBuffer l_buf;
+
+			if (l_lSize > Integer.MAX_VALUE - 8)
+				throw new IOException("The file " + p_path + " is too large for a MQTT message.");
+
+			l_buf = ByteBuffer.allocate((int)l_lSize);
+
+			while (l_buf.hasRemaining())
+			{
+				if (l_channel.read(l_buf) < 0)
+					break;
+			}
+
+			if (l_buf.hasRemaining()) // the file has been truncated concurrently
+				return _toPayload(l_buf.flip());
+
+			return l_buf.array();
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A topic filter of a subscription together with its quality of service.
+ * <p>Shared subscriptions are given as <code>$share/&lt;group&gt;/&lt;filter&gt;</code>.
+ * The server delivers each message that matches a shared subscription to
+ * only one of the clients that subscribed with the same group.</p>
+ */
+public final class MQTTTopicFilter
+{
+	/** The prefix of shared subscriptions. */
+	public static final String SHARE_PREFIX = "$share/";
+
+	private static final String SEPARATOR = "/";
+
+	private final String m_strFilter;
+
+	private final String m_strShareGroup;
+
+	private final String[] m_levels;
+
+	private final int m_iQoS;
+
+
+	private MQTTTopicFilter(String p_strFilter, int p_iQoS)
+	{
+		m_strFilter = p_strFilter;
+		m_iQoS      = p_iQoS;
+
+		if (p_strFilter.startsWith(SHARE_PREFIX))
+		{
+			final int l_iSlash = p_strFilter.indexOf('/', SHARE_PREFIX.length());
+
+			m_strShareGroup = p_strFilter.substring(SHARE_PREFIX.length(), l_iSlash);
+			m_levels        = p_strFilter.substring(l_iSlash + 1).split(SEPARATOR, -1);
+		}
+		else
+		{
+			m_strShareGroup = null;
+			m_levels        = p_strFilter.split(SEPARATOR, -1);
+		}
+	}
+
+
+	/**
+	 * Create a topic filter.
+	 * @param p_strFilter The topic filter.
+	 * @param p_iQoS The quality of service.
+	 * @return The topic filter.
+	 * @throws IllegalArgumentException If the topic filter is not valid.
+	 */
+	public static MQTTTopicFilter create(String p_strFilter, int p_iQoS)
+	{
+		checkValidFilter(p_strFilter);
+
+		return new MQTTTopicFilter(p_strFilter, p_iQoS);
+	}
+
+
+	/**
+	 * Create a shared subscription.
+	 * @param p_strGroup The share group.
+	 * @param p_strFilter The topic filter.
+	 * @param p_iQoS The quality of service.
+	 * @return The topic filter <code>$share/&lt;group&gt;/&lt;filter&gt;</code>.
+	 * @throws IllegalArgumentException If the share group or the topic
+	 *    filter is not valid, or the topic filter is already shared.
+	 */
+	public static MQTTTopicFilter createShared(String p_strGroup, String p_strFilter, int p_iQoS)
+	{
+		checkValidShareGroup(p_strGroup);
+
+		if (p_strFilter == null || p_strFilter.isEmpty())
+			throw new IllegalArgumentException("Empty topic filter.");
+
+		if (p_strFilter.startsWith(SHARE_PREFIX))
+			throw new IllegalArgumentException("The topic filter " + p_strFilter + " is already a shared subscription.");
+
+		return create(SHARE_PREFIX + p_strGroup + SEPARATOR + p_strFilter, p_iQoS);
+	}
+
+
+	/**
+	 * Parse a list of topic filters.
+	 * <p>The entries of the list are separated by line breaks or commas.
+	 * Each entry is a topic filter optionally followed by a semicolon and
+	 * the quality of service, e.g. <code>sensors/+/temperature;1</code>.
+	 * Blank entries are ignored.</p>
+	 * @param p_strList The list.
+	 * @param p_iDefaultQoS The quality of service of entries without one.
+	 * @return The topic filters.
+	 * @throws IllegalArgumentException If an entry is not valid.
+	 */
+	public static List<MQTTTopicFilter> parseList(String p_strList, int p_iDefaultQoS)
+	{
+		final List<MQTTTopicFilter> l_filters = new ArrayList<>();
+
+		if (p_strList == null)
+			return l_filters;
+
+		for (String l_strEntry : p_strList.split("[,\\r\\n]"))
+		{
+			final int l_iSemicolon;
+			String    l_strFilter;
+			int       l_iQoS;
+
+			l_strFilter = l_strEntry.trim();
+
+			if (l_strFilter.isEmpty())
+				continue;
+
+			l_iSemicolon = l_strFilter.lastIndexOf(';');
+			l_iQoS       = p_iDefaultQoS;
+
+			if (l_iSemicolon >= 0)
+			{
+				try
+				{
+					l_iQoS = Integer.parseInt(l_strFilter.substring(l_iSemicolon + 1).trim());
+				}
+				catch (NumberFormatException l_e)
+				{
+					throw new IllegalArgumentException("Invalid quality of service in topic filter entry " + l_strEntry.trim() + ".");
+				}
+
+				l_strFilter = l_strFilter.substring(0, l_iSemicolon).trim();
+			}
+
+			l_filters.add(create(l_strFilter, l_iQoS));
+		}
+
+		return l_filters;
+	}
+
+
+	/**
+	 * Check the syntax of a topic filter.
+	 * <p>The multi-level wildcard <code>#</code> must be the last level,
+	 * and both wildcards must occupy an entire level. Shared subscriptions
+	 * must have a valid share group and a non-empty filter.</p>
+	 * @param p_strFilter The topic filter.
+	 * @throws IllegalArgumentException If the topic filter is not valid.
+	 */
+	public static void checkValidFilter(String p_strFilter)
+	{
+		final String[] l_levels;
+
+		if (p_strFilter == null || p_strFilter.isEmpty())
+			throw new IllegalArgumentException("Empty topic filter.");
+
+		if (p_strFilter.startsWith(SHARE_PREFIX))
+		{
+			final int l_iSlash = p_strFilter.indexOf('/', SHARE_PREFIX.length());
+
+			if (l_iSlash < 0 || l_iSlash == p_strFilter.length() - 1)
+				throw new IllegalArgumentException("The shared subscription " + p_strFilter + " does not have a topic filter.");
+
+			checkValidShareGroup(p_strFilter.substring(SHARE_PREFIX.length(), l_iSlash));
+		}
+
+		if (p_strFilter.indexOf('\0') >= 0)
+			throw new IllegalArgumentException("The topic filter " + p_strFilter + " contains a null character.");
+
+		if (p_strFilter.getBytes(StandardCharsets.UTF_8).length > MQTTTopicTemplate.MAX_TOPIC_LENGTH)
+			throw new IllegalArgumentException("The topic filter " + p_strFilter + " is too long.");
+
+		l_levels = p_strFilter.split(SEPARATOR, -1);
+
+		for (int i = 0; i < l_levels.length; i++)
+		{
+			final String l_strLevel = l_levels[i];
+
+			if (l_strLevel.equals("#"))
+			{
+				if (i != l_levels.length - 1)
+					throw new IllegalArgumentException("The wildcard # must be the last level of the topic filter " + p_strFilter + ".");
+			}
+			else if (!l_strLevel.equals("+") && (l_strLevel.indexOf('#') >= 0 || l_strLevel.indexOf('+') >= 0))
+			{
+				throw new IllegalArgumentException("A wildcard must occupy an entire level of the topic filter " + p_strFilter + ".");
+			}
+		}
+	}
+
+
+	/**
+	 * Check the name of a share group.
+	 * <p>The name must not be empty and must not contain
+	 * <code>/</code>, <code>+</code>, or <code>#</code>.</p>
+	 * @param p_strGroup The share group.
+	 * @throws IllegalArgumentException If the share group is not valid.
+	 */
+	public static void checkValidShareGroup(String p_strGroup)
+	{
+		if (p_strGroup == null || p_strGroup.isEmpty())
+			throw new IllegalArgumentException("Empty share group.");
+
+		if (p_strGroup.indexOf('/') >= 0 || p_strGroup.indexOf('+') >= 0 || p_strGroup.indexOf('#') >= 0)
+			throw new IllegalArgumentException("The share group " + p_strGroup + " must not contain /, +, or #.");
+	}
+
+
+	/**
+	 * Get the topic filter as it is subscribed.
+	 * @return The topic filter, including the share prefix and group
+	 *    of shared subscriptions.
+	 */
+	public String getFilter()
+	{
+		return m_strFilter;
+	}
+
+
+	/**
+	 * Get the share group.
+	 * @return The share group, or <code>null</code> if the
+	 *    subscription is not shared.
+	 */
+	public String getShareGroup()
+	{
+		return m_strShareGroup;
+	}
+
+
+	/**
+	 * Get the quality of service.
+	 * @return The quality of service.
+	 */
+	public int getQos()
+	{
+		return m_iQoS;
+	}
+
+
+	/**
+	 * Test if the given topic matches this filter.
+	 * <p>The share group of a shared subscription is not part of the
+	 * filter that is matched.</p>
+	 * @param p_strTopic The topic name.
+	 * @return <code>true</code> if the topic matches, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean matches(String p_strTopic)
+	{
+		final String[] l_levels = p_strTopic.split(SEPARATOR, -1);
+
+		// wildcards at the first level do not match topics that start with $
+		if (p_strTopic.startsWith("$") && _isWildcard(m_levels[0]))
+			return false;
+
+		for (int i = 0; i < m_levels.length; i++)
+		{
+			if (m_levels[i].equals("#"))
+				return true;
+
+			if (i >= l_levels.length)
+				return false;
+
+			if (!m_levels[i].equals("+") && !m_levels[i].equals(l_levels[i]))
+				return false;
+		}
+
+		return l_levels.length == m_levels.length;
+	}
+
+
+	/**
+	 * Test if there is a topic that matches both this filter and the given one.
+	 * <p>The server may deliver a message that matches overlapping
+	 * subscriptions of the same client more than once. This also applies
+	 * to shared subscriptions, regardless of their share groups.</p>
+	 * @param p_other The other filter.
+	 * @return <code>true</code> if the filters overlap, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean overlaps(MQTTTopicFilter p_other)
+	{
+		final String[] l_other = p_other.m_levels;
+
+		if (m_levels[0].startsWith("$") && _isWildcard(l_other[0]) ||
+		    l_other[0].startsWith("$") && _isWildcard(m_levels[0]))
+			return false;
+
+		for (int i = 0; ; i++)
+		{
+			final boolean l_bEnd      = i >= m_levels.length;
+			final boolean l_bOtherEnd = i >= l_other.length;
+
+			if (l_bEnd && l_bOtherEnd)
+				return true;
+
+			// "a/#" also matches "a"
+			if (l_bEnd)
+				return l_other[i].equals("#");
+
+			if (l_bOtherEnd)
+				return m_levels[i].equals("#");
+
+			if (m_levels[i].equals("#") || l_other[i].equals("#"))
+				return true;
+
+			if (!m_levels[i].equals("+") && !l_other[i].equals("+") && !m_levels[i].equals(l_other[i]))
+				return false;
+		}
+	}
+
+
+	private static boolean _isWildcard(String p_strLevel)
+	{
+		return p_strLevel.equals("+") || p_strLevel.equals("#");
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return m_strFilter + ";" + m_iQoS;
+	}
+}
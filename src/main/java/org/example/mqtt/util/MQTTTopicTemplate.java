@@ -0,0 +1,296 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A precompiled topic name with placeholders.
+ * <p>Placeholders are enclosed in curly braces. <code>{name}</code> refers
+ * to a context variable, <code>{field:guid}</code> to a data field of the
+ * current record, e.g. <code>plant/{site}/line/{lineId}/status</code>.
+ * The template is parsed once into a list of segments, so rendering
+ * neither parses nor matches regular expressions. Literal curly braces
+ * are written twice, e.g. <code>a/{{b}}/{c}</code> yields
+ * <code>a/{b}/</code> followed by the value of <code>c</code>.</p>
+ */
+public final class MQTTTopicTemplate
+{
+	/**
+	 * Provides the values of placeholders.
+	 */
+	@FunctionalInterface
+	public interface IValueResolver
+	{
+		/**
+		 * Get the value of a placeholder.
+		 * @param p_strName The name of the context variable, or the GUID of the data field.
+		 * @param p_bDataField <code>true</code> if the placeholder refers to a
+		 *    data field, or <code>false</code> if it refers to a context variable.
+		 * @return The value, or <code>null</code>.
+		 * @throws Exception If the value cannot be determined.
+		 */
+		Object getValue(String p_strName, boolean p_bDataField)
+			throws Exception;
+	}
+
+	/** The maximum length of a topic name in bytes. */
+	public static final int MAX_TOPIC_LENGTH = 65535;
+
+	private static final String FIELD_PREFIX = "field:";
+
+	private static final int MAX_RETAINED_CAPACITY = 1024;
+
+	private static final ThreadLocal<StringBuilder> ms_builder =
+		ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+	private final String m_strTemplate;
+
+	/** Literals are stored as strings, placeholders with their type. */
+	private final Object[] m_segments;
+
+
+	private static final class Placeholder
+	{
+		private final String m_strName;
+
+		private final boolean m_bDataField;
+
+		private Placeholder(String p_strName, boolean p_bDataField)
+		{
+			m_strName    = p_strName;
+			m_bDataField = p_bDataField;
+		}
+	}
+
+
+	private MQTTTopicTemplate(String p_strTemplate, Object[] p_segments)
+	{
+		m_strTemplate = p_strTemplate;
+		m_segments    = p_segments;
+	}
+
+
+	/**
+	 * Parse the given template.
+	 * @param p_strTemplate The template.
+	 * @return The compiled template.
+	 * @throws IllegalArgumentException If the template is not a valid topic name.
+	 */
+	public static MQTTTopicTemplate compile(String p_strTemplate)
+	{
+		final List<Object>  l_segments = new ArrayList<>();
+		final StringBuilder l_sbufLiteral = new StringBuilder();
+		int                 l_iLiteralLength = 0;
+		int                 l_iPos = 0;
+
+		if (p_strTemplate == null || p_strTemplate.isEmpty())
+			throw new IllegalArgumentException("The topic name must not be empty.");
+
+		while (l_iPos < p_strTemplate.length())
+		{
+			final char l_ch   = p_strTemplate.charAt(l_iPos);
+			final char l_next = l_iPos + 1 < p_strTemplate.length() ? p_strTemplate.charAt(l_iPos + 1) : '\u0000';
+
+			if ((l_ch == '{' || l_ch == '}') && l_next == l_ch)
+			{
+				// escaped brace
+				l_sbufLiteral.append(l_ch);
+				l_iPos += 2;
+			}
+			else if (l_ch == '{')
+			{
+				final int l_iClose = p_strTemplate.indexOf('}', l_iPos + 1);
+
+				if (l_iClose < 0)
+					throw new IllegalArgumentException("Unterminated placeholder in topic name " + p_strTemplate + ".");
+
+				l_iLiteralLength += _addLiteral(l_segments, l_sbufLiteral);
+
+				l_segments.add(_parsePlaceholder(p_strTemplate, p_strTemplate.substring(l_iPos + 1, l_iClose)));
+
+				l_iPos = l_iClose + 1;
+			}
+			else if (l_ch == '}')
+			{
+				throw new IllegalArgumentException("Unbalanced '}' in topic name " + p_strTemplate + ".");
+			}
+			else
+			{
+				if (l_ch == '+' || l_ch == '#')
+					throw new IllegalArgumentException("The topic name " + p_strTemplate + " must not contain wildcards.");
+
+				if (l_ch == '\u0000')
+					throw new IllegalArgumentException("The topic name " + p_strTemplate + " must not contain null characters.");
+
+				l_sbufLiteral.append(l_ch);
+				l_iPos++;
+			}
+		}
+
+		l_iLiteralLength += _addLiteral(l_segments, l_sbufLiteral);
+
+		if (l_iLiteralLength > MAX_TOPIC_LENGTH)
+			throw new IllegalArgumentException("The topic name " + p_strTemplate + " is too long.");
+
+		return new MQTTTopicTemplate(p_strTemplate, l_segments.toArray());
+	}
+
+
+	/**
+	 * Append the collected literal to the segments, if any.
+	 * @param p_segments The segments.
+	 * @param p_sbufLiteral The literal, which is cleared afterwards.
+	 * @return The length of the literal in bytes.
+	 */
+	private static int _addLiteral(List<Object> p_segments, StringBuilder p_sbufLiteral)
+	{
+		final String l_strLiteral;
+
+		if (p_sbufLiteral.length() == 0)
+			return 0;
+
+		l_strLiteral = p_sbufLiteral.toString();
+		p_sbufLiteral.setLength(0);
+
+		p_segments.add(l_strLiteral);
+
+		return l_strLiteral.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+
+	private static Placeholder _parsePlaceholder(String p_strTemplate, String p_strPlaceholder)
+	{
+		final String  l_strName;
+		final boolean l_bDataField;
+
+		l_bDataField = p_strPlaceholder.startsWith(FIELD_PREFIX);
+		l_strName    = (l_bDataField ? p_strPlaceholder.substring(FIELD_PREFIX.length()) : p_strPlaceholder).trim();
+
+		if (l_strName.isEmpty())
+			throw new IllegalArgumentException("Empty placeholder in topic name " + p_strTemplate + ".");
+
+		if (l_strName.indexOf('{') >= 0)
+			throw new IllegalArgumentException("Nested placeholder in topic name " + p_strTemplate + ".");
+
+		return new Placeholder(l_strName, l_bDataField);
+	}
+
+
+	/**
+	 * Get the template this object has been compiled from.
+	 * @return The template.
+	 */
+	public String getTemplate()
+	{
+		return m_strTemplate;
+	}
+
+
+	/**
+	 * Test if the template contains placeholders.
+	 * @return <code>true</code> if the template does not contain any
+	 *    placeholders, or <code>false</code> otherwise.
+	 */
+	public boolean isConstant()
+	{
+		return m_segments.length == 1 && m_segments[0] instanceof String;
+	}
+
+
+	/**
+	 * Create the topic name.
+	 * <p>The values of placeholders must not be <code>null</code>, and must
+	 * not contain wildcards or null characters.</p>
+	 * @param p_resolver Provides the values of the placeholders.
+	 * @return The topic name.
+	 * @throws IllegalArgumentException If a value is not valid in a topic name.
+	 * @throws Exception If a value cannot be determined.
+	 */
+	public String render(IValueResolver p_resolver)
+		throws Exception
+	{
+		final StringBuilder l_sbuf;
+		final String        l_strTopic;
+
+		if (isConstant())
+			return (String)m_segments[0];
+
+		l_sbuf = ms_builder.get();
+		l_sbuf.setLength(0);
+
+		for (Object l_segment : m_segments)
+		{
+			if (l_segment instanceof String)
+			{
+				l_sbuf.append((String)l_segment);
+			}
+			else
+			{
+				final Placeholder l_placeholder = (Placeholder)l_segment;
+				final Object      l_value;
+				final int         l_iStart;
+
+				l_value = p_resolver.getValue(l_placeholder.m_strName, l_placeholder.m_bDataField);
+
+				if (l_value == null)
+				{
+					throw new IllegalArgumentException
+						("No value for placeholder " + l_placeholder.m_strName + " in topic name " + m_strTemplate + ".");
+				}
+
+				l_iStart = l_sbuf.length();
+				l_sbuf.append(l_value);
+
+				for (int i = l_iStart; i < l_sbuf.length(); i++)
+				{
+					final char l_ch = l_sbuf.charAt(i);
+
+					if (l_ch == '+' || l_ch == '#' || l_ch == '\u0000')
+					{
+						throw new IllegalArgumentException
+							("Invalid value for placeholder " + l_placeholder.m_strName + " in topic name " + m_strTemplate + ".");
+					}
+				}
+			}
+		}
+
+		l_strTopic = l_sbuf.toString();
+
+		// the UTF-8 length is at most three times the number of chars
+		if (3 * l_sbuf.length() > MAX_TOPIC_LENGTH &&
+		    l_strTopic.getBytes(StandardCharsets.UTF_8).length > MAX_TOPIC_LENGTH)
+			throw new IllegalArgumentException("The topic name " + l_strTopic + " is too long.");
+
+		if (l_sbuf.capacity() > MAX_RETAINED_CAPACITY)
+			ms_builder.remove();
+
+		return l_strTopic;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return m_strTemplate;
+	}
+}
@@ -18,6 +18,11 @@
 package org.example.mqtt.util;
 
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -33,12 +38,47 @@ public final class MQTTUtil
 	/** Helper for logging.*/
 	private static final Logger ms_log = LoggerFactory.getLogger(MQTTUtil.class);
 
+	private static volatile String ms_strNodeName;
+
 
 	private MQTTUtil()
 	{
 	}
 
 
+	/**
+	 * Get a name that identifies this cluster node in client identifiers.
+	 * <p>The name is the host name with all characters except letters,
+	 * digits, <code>.</code>, <code>-</code>, and <code>_</code> removed.
+	 * If the host name cannot be determined, a random name is chosen that
+	 * remains the same until the JVM is restarted.</p>
+	 * @return The node name.
+	 */
+	public static String getNodeName()
+	{
+		String l_strName = ms_strNodeName;
+
+		if (l_strName == null)
+		{
+			try
+			{
+				l_strName = InetAddress.getLocalHost().getHostName().replaceAll("[^A-Za-z0-9._-]", "");
+			}
+			catch (UnknownHostException l_e)
+			{
+				ms_log.warn("Cannot determine the host name.", l_e);
+			}
+
+			if (l_strName == null || l_strName.isEmpty())
+				l_strName = UUID.randomUUID().toString();
+
+			ms_strNodeName = l_strName;
+		}
+
+		return l_strName;
+	}
+
+
 	/**
 	 * Close a persistence object without throwing an exception.
 	 * @param p_persistence The persistence object, or <code>null</code>.
@@ -116,6 +156,85 @@ public final class MQTTUtil
 	}
 
 
+	/**
+	 * Close an asynchronous MQTT client without throwing an exception.
+	 * @param p_client The MQTT client, or <code>null</code>.
+	 * @return Always <code>null</code>.
+	 */
+	public static IMqttAsyncClient close(IMqttAsyncClient p_client)
+	{
+		if (p_client != null)
+		{
+			try
+			{
+				p_client.close();
+			}
+			catch (Exception l_e)
+			{
+				ms_log.error("Error while closing the MQTT client.", l_e);
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Disconnect and close an asynchronous MQTT client without throwing an exception.
+	 * @param p_client The MQTT client, or <code>null</code>.
+	 * @param p_lTimeout A timeout for disconnecting.
+	 * @return Always <code>null</code>.
+	 */
+	public static IMqttAsyncClient disconnectAndClose(IMqttAsyncClient p_client, long p_lTimeout)
+	{
+		if (p_client != null && p_client.isConnected())
+		{
+			try
+			{
+				try
+				{
+					p_client.disconnect(p_lTimeout).waitForCompletion(p_lTimeout);
+				}
+				catch (MqttException l_e)
+				{
+					p_client.disconnectForcibly(p_lTimeout / 2L, p_lTimeout / 2L);
+				}
+			}
+			catch (Exception l_e)
+			{
+				ms_log.error("Error while closing the MQTT client.", l_e);
+			}
+		}
+
+		return close(p_client);
+	}
+
+
+	/**
+	 * Test if the given exception signals that the server cannot be reached
+	 * or that the connection to the server has been lost.
+	 * @param p_e The exception.
+	 * @return <code>true</code> if the server is not available,
+	 *    or <code>false</code> otherwise.
+	 */
+	public static boolean isServerUnavailable(MqttException p_e)
+	{
+		switch (p_e.getReasonCode())
+		{
+		case MqttException.REASON_CODE_BROKER_UNAVAILABLE:
+		case MqttException.REASON_CODE_CLIENT_TIMEOUT:
+		case MqttException.REASON_CODE_SERVER_CONNECT_ERROR:
+		case MqttException.REASON_CODE_CONNECTION_LOST:
+		case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+		case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+
 	/**
 	 * Unsubscribe a MQTT client without throwing an exception.
 	 * @param p_client The MQTT client, or <code>null</code>.
@@ -135,4 +254,25 @@ public final class MQTTUtil
 			}
 		}
 	}
+
+
+	/**
+	 * Unsubscribe a MQTT client from several topics without throwing an exception.
+	 * @param p_client The MQTT client, or <code>null</code>.
+	 * @param p_topics The topics to unsubscribe from.
+	 */
+	public static void unsubscribe(IMqttClient p_client, String[] p_topics)
+	{
+		if (p_client != null && p_client.isConnected() && p_topics.length > 0)
+		{
+			try
+			{
+				p_client.unsubscribe(p_topics);
+			}
+			catch (Exception l_e)
+			{
+				ms_log.error("Error while unsubscribing MQTT the client from topics " + String.join(", ", p_topics) + ".", l_e);
+			}
+		}
+	}
 }
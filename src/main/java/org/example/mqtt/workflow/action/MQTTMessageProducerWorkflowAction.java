@@ -18,7 +18,21 @@
 package org.example.mqtt.workflow.action;
 
 
-import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
@@ -26,7 +40,22 @@ import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.example.mqtt.client.MQTTBatchingPublisher;
+import org.example.mqtt.client.MQTTConnectionKey;
+import org.example.mqtt.client.MQTTConnectionPool;
+import org.example.mqtt.client.MQTTOutboundSpool;
+import org.example.mqtt.client.MQTTPooledConnection;
+import org.example.mqtt.client.MQTTRateLimitMode;
+import org.example.mqtt.client.MQTTRateLimiter;
+import org.example.mqtt.client.MQTTSpoolOverflowPolicy;
+import org.example.mqtt.codec.IMQTTPayloadCodec;
+import org.example.mqtt.codec.MQTTChunkHeader;
+import org.example.mqtt.codec.MQTTPayloadCodecs;
+import org.example.mqtt.util.MQTTPayloadUtil;
+import org.example.mqtt.util.MQTTTopicTemplate;
+import org.example.mqtt.util.MQTTUtil;
 import org.example.mqtt.workflow.QOS;
+import org.slf4j.Logger;
 
 import de.uplanet.lucy.server.ContextValue;
 import de.uplanet.lucy.server.IProcessingContext;
@@ -37,6 +66,7 @@ import de.uplanet.lucy.server.businesslogic.util.IDataRecord;
 import de.uplanet.lucy.server.dataobjects.IValueHolder;
 import de.uplanet.lucy.server.workflow.IWorkflowProcessingContext;
 import de.uplanet.lucy.server.workflow.InvalidProcessingContextWorkflowException;
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
 import de.uplanet.lucy.server.workflow.WorkflowException;
 import de.uplanet.lucy.server.workflow.WorkflowTransition;
 import de.uplanet.lucy.server.workflow.action.AbstractWorkflowAction;
@@ -50,6 +80,9 @@ import de.uplanet.util.InvalidPropertyException;
  */
 public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAction
 {
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTMessageProducerWorkflowAction.class);
+
 	public static final class DataCfg
 	{
 		private String m_strTextData;
@@ -105,10 +138,62 @@ public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAct
 	}
 
 
+	/**
+	 * Reads the current record at most once per processed event, no
+	 * matter how many data fields the message and the topic refer to.
+	 */
+	private static final class CurrentRecord
+	{
+		private final IProcessingContext m_ctx;
+
+		private IDataRecord m_record;
+
+
+		private CurrentRecord(IProcessingContext p_ctx)
+		{
+			m_ctx = p_ctx;
+		}
+
+
+		/**
+		 * Get the value holder of a data field of the current record.
+		 * <p>The workflow API offers no read of single columns, so the
+		 * complete record is read on first use.</p>
+		 * @param p_strFieldGuid The GUID of the data field.
+		 * @return The value holder of the field, or <code>null</code>.
+		 * @throws Exception If the record cannot be read.
+		 */
+		private IValueHolder<?> getValueHolder(String p_strFieldGuid)
+			throws Exception
+		{
+			if (m_record == null)
+			{
+				final IBusinessLogicProcessingContext l_ctx;
+
+				if (!(m_ctx instanceof IBusinessLogicProcessingContext))
+					throw new InvalidProcessingContextWorkflowException(m_ctx);
+
+				l_ctx = (IBusinessLogicProcessingContext)m_ctx;
+
+				if (!BusinessLogicWorkflowUtil.hasRecord(l_ctx))
+					throw new WorkflowException("No data record in the processing context.");
+
+				m_record = BusinessLogicWorkflowUtil.readFullRecord(l_ctx, PERMISSION_CHECK.NO);
+			}
+
+			return m_record.getValueHolderByFieldGuid(p_strFieldGuid);
+		}
+	}
+
+
 	private String m_strServerUri;
 
 	private String m_strTopic;
 
+	private boolean m_bTopicTemplate;
+
+	private volatile MQTTTopicTemplate m_topicTemplate;
+
 	private String m_strClientId;
 
 	private int m_iQoS = QOS.AT_MOST_ONCE_DELIVERY;
@@ -125,6 +210,56 @@ public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAct
 
 	private long m_lQuiesceTimeout = 5000L;
 
+	private boolean m_bPooledConnection;
+
+	private long m_lPooledConnectionIdleTimeout = 300000L;
+
+	private boolean m_bAsyncPublish;
+
+	private int m_iMaxInflight = MqttConnectOptions.MAX_INFLIGHT_DEFAULT;
+
+	private long m_lAsyncHandOffTimeout = 5000L;
+
+	private boolean m_bBatchPublish;
+
+	private long m_lBatchLinger = 5L;
+
+	private int m_iBatchMaxMessages = 100;
+
+	private int m_iBatchMaxBytes = 65536;
+
+	private String m_strSpoolDirectory;
+
+	private int m_iSpoolSegmentSize = 16 * 1024 * 1024;
+
+	private int m_iSpoolMaxSegments = 16;
+
+	private String m_strSpoolOverflowPolicy = MQTTSpoolOverflowPolicy.FAIL.name();
+
+	private long m_lSpoolRetryInterval = 5000L;
+
+	private long m_lSpoolForceInterval = 1000L;
+
+	private volatile MQTTOutboundSpool m_spool;
+
+	private String m_strCodec;
+
+	private int m_iChunkSize;
+
+	private double m_dRateLimit;
+
+	private int m_iRateLimitBurst;
+
+	private String m_strRateLimitTopicPrefix;
+
+	private String m_strRateLimitMode = MQTTRateLimitMode.BLOCK.name();
+
+	private long m_lRateLimitTimeout = 5000L;
+
+	private volatile MQTTRateLimiter m_rateLimiter;
+
+	private final LongAdder m_asyncFailures = new LongAdder();
+
 
 	/**
 	 * @param p_strGuid The GUID of the workflow action.
@@ -153,11 +288,14 @@ public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAct
 	public void setServerUri(String p_strServerUri)
 	{
 		m_strServerUri = p_strServerUri;
+		m_rateLimiter  = null;
 	}
 
 
 	/**
 	 * Get the topic name;
+	 * <p>If {@link #isTopicTemplate()} is <code>true</code>, the topic name
+	 * may contain placeholders.</p>
 	 * @return The topic name.
 	 */
 	public String getTopic()
@@ -168,10 +306,97 @@ public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAct
 	/**
 	 * Set the topic name;
 	 * @param p_strTopicName The topic name.
+	 * @see #getTopic()
 	 */
 	public void setTopic(String p_strTopicName)
 	{
-		m_strTopic = p_strTopicName;
+		m_strTopic      = p_strTopicName;
+		m_topicTemplate = null;
+	}
+
+
+	/**
+	 * Test if the topic name is a template.
+	 * <p>A template may contain placeholders, e.g.
+	 * <code>plant/{site}/line/{field:guid}/status</code>, where
+	 * <code>{name}</code> is replaced with the value of a context variable,
+	 * and <code>{field:guid}</code> with the value of a data field of the
+	 * current record. Literal curly braces are written twice. By default
+	 * the topic name is used as it is.</p>
+	 * @return <code>true</code> if the topic name is a template, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isTopicTemplate()
+	{
+		return m_bTopicTemplate;
+	}
+
+	/**
+	 * Set whether the topic name is a template.
+	 * @param p_bTopicTemplate <code>true</code> if the topic name is a
+	 *    template, or <code>false</code> otherwise.
+	 * @see #isTopicTemplate()
+	 */
+	public void setTopicTemplate(boolean p_bTopicTemplate)
+	{
+		m_bTopicTemplate = p_bTopicTemplate;
+		m_topicTemplate  = null;
+	}
+
+
+	/**
+	 * Parse the topic name into a template, if it is one.
+	 * @throws IllegalArgumentException If the topic name is not valid.
+	 */
+	void compileTopicTemplate()
+	{
+		if (isTopicTemplate())
+			m_topicTemplate = MQTTTopicTemplate.compile(getTopic());
+	}
+
+
+	/**
+	 * Create the topic name for the current message.
+	 * @param p_ctx The processing context.
+	 * @param p_record The current record.
+	 * @return The topic name.
+	 * @throws Exception If a placeholder cannot be replaced.
+	 */
+	private String _getTopic(IProcessingContext p_ctx, CurrentRecord p_record)
+		throws Exception
+	{
+		MQTTTopicTemplate l_template = m_topicTemplate;
+
+		if (!isTopicTemplate())
+			return getTopic();
+
+		if (l_template == null)
+		{
+			l_template      = MQTTTopicTemplate.compile(getTopic());
+			m_topicTemplate = l_template;
+		}
+
+		try
+		{
+			return l_template.render((p_strName, p_bDataField) ->
+			{
+				Object l_value;
+
+				if (p_bDataField)
+					l_value = p_record.getValueHolder(p_strName);
+				else
+					l_value = ContextValue.getContextValue(p_ctx, p_strName);
+
+				if (l_value instanceof IValueHolder<?>)
+					l_value = ((IValueHolder<?>)l_value).getValue();
+
+				return l_value;
+			});
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowException(l_e.getMessage());
+		}
 	}
 
 
@@ -368,148 +593,1316 @@ public final class MQTTMessageProducerWorkflowAction extends AbstractWorkflowAct
 
 
 	/**
-	 * Create the MQTT client used to connect to the server.
-	 * @return A MQTT client.
-	 * @throws MqttException If an error occurred.
+	 * This property determines if messages are published via a long-lived
+	 * connection from the server-wide connection pool.
+	 * <p>If <code>false</code> (default) a new connection is created for
+	 * each message and closed afterwards. Otherwise the connection is shared
+	 * with all workflow actions that use the same server URI, client
+	 * identifier, credentials, and connection options. If no
+	 * {@link #getClientId() client identifier} is configured, the pool
+	 * generates a unique one.</p>
+	 * @return <code>true</code> if a pooled connection is used, or
+	 *    <code>false</code> otherwise.
 	 */
-	private IMqttClient _createClient(IWorkflowProcessingContext p_wfCtx)
-		throws MqttException
+	public boolean isPooledConnection()
 	{
-		final MqttClient l_client;
+		return m_bPooledConnection;
+	}
 
-		if (getServerUri() == null) // cannot occur under normal circumstances; see configurator
-			throw new IllegalStateException("No server URI given.");
+	/**
+	 * This property determines if messages are published via a long-lived
+	 * connection from the server-wide connection pool.
+	 * @param p_bPooledConnection <code>true</code> if a pooled connection
+	 *    should be used, or <code>false</code> otherwise.
+	 * @see #isPooledConnection()
+	 */
+	public void setPooledConnection(boolean p_bPooledConnection)
+	{
+		m_bPooledConnection = p_bPooledConnection;
+	}
 
-		l_client = new MqttClient(getServerUri(), _getClientId(p_wfCtx), new MemoryPersistence());
 
-		return l_client;
+	/**
+	 * Get the time in milliseconds a pooled connection may stay unused
+	 * before it is closed.
+	 * <p>The default value is 300000 milliseconds (five minutes).</p>
+	 * @return The idle timeout in milliseconds.
+	 */
+	public long getPooledConnectionIdleTimeout()
+	{
+		return m_lPooledConnectionIdleTimeout;
+	}
+
+	/**
+	 * Set the time in milliseconds a pooled connection may stay unused
+	 * before it is closed.
+	 * @param p_lTimeout The idle timeout in milliseconds.
+	 */
+	public void setPooledConnectionIdleTimeout(long p_lTimeout)
+	{
+		m_lPooledConnectionIdleTimeout = p_lTimeout;
 	}
 
 
 	/**
-	 * Get the MQTT options used to connect to the server.
-	 * @return MQTT options.
+	 * This property determines if messages are published asynchronously.
+	 * <p>If <code>true</code> the workflow continues as soon as the message
+	 * has been handed off to a {@link #isPooledConnection() pooled connection},
+	 * without waiting for the acknowledgement of the server. Since the workflow
+	 * has already moved on when the delivery completes, delivery failures
+	 * are counted (see {@link #getAsyncFailureCount()}) and written to the
+	 * error log. If a {@link #getSpoolDirectory() spool directory} is set,
+	 * messages whose delivery failed are appended to the spool and delivered
+	 * again from there, possibly after messages that were published later.
+	 * Asynchronous publishing always uses a pooled connection.</p>
+	 * <p>The default value is <code>false</code>.</p>
+	 * @return <code>true</code> if messages are published asynchronously,
+	 *    or <code>false</code> otherwise.
 	 */
-	private MqttConnectOptions _getOptions()
+	public boolean isAsyncPublish()
 	{
-		final MqttConnectOptions l_options;
+		return m_bAsyncPublish;
+	}
 
-		l_options = new MqttConnectOptions();
+	/**
+	 * This property determines if messages are published asynchronously.
+	 * @param p_bAsyncPublish <code>true</code> if messages should be
+	 *    published asynchronously, or <code>false</code> otherwise.
+	 * @see #isAsyncPublish()
+	 */
+	public void setAsyncPublish(boolean p_bAsyncPublish)
+	{
+		m_bAsyncPublish = p_bAsyncPublish;
+	}
 
-		l_options.setCleanSession(true); // do not remember state
-		l_options.setAutomaticReconnect(false);
-		l_options.setConnectionTimeout(getConnectionTimeout());
 
-		if (getUserName() != null)
-		{
-			l_options.setUserName(getUserName());
+	/**
+	 * Get the number of asynchronous deliveries of this action that failed,
+	 * including the ones that have been spooled afterwards.
+	 * @return The number of failed deliveries since the action was created.
+	 * @see #isAsyncPublish()
+	 */
+	public long getAsyncFailureCount()
+	{
+		return m_asyncFailures.sum();
+	}
 
-			if (getPassword() != null)
-				l_options.setPassword(getPassword().toCharArray());
-		}
 
-		return l_options;
+	/**
+	 * Get the maximum number of messages that may be in flight on
+	 * a pooled connection at the same time.
+	 * <p>If {@link #isBatchPublish()} is <code>true</code> at least
+	 * {@link #getBatchMaxMessages()} messages may be in flight, so that
+	 * a full batch can be handed off without waiting. The default value
+	 * is 10.</p>
+	 * @return The maximum number of messages in flight.
+	 */
+	public int getMaxInflight()
+	{
+		return m_iMaxInflight;
 	}
 
+	/**
+	 * Set the maximum number of messages that may be in flight on
+	 * a pooled connection at the same time.
+	 * @param p_iMaxInflight The maximum number of messages in flight.
+	 */
+	public void setMaxInflight(int p_iMaxInflight)
+	{
+		m_iMaxInflight = p_iMaxInflight;
+	}
 
-	@Override
-	public WorkflowTransition process(IWorkflowEvent p_evt, IWorkflowProcessingContext p_wfCtx, IProcessingContext p_ctx)
-		throws InterruptedException, Exception
+
+	/**
+	 * Get the maximum time in milliseconds a publish via a pooled
+	 * connection waits for a free in-flight slot before it fails.
+	 * <p>The timeout applies to asynchronous and synchronous publishes.
+	 * The default value is 5000 milliseconds.</p>
+	 * @return The timeout in milliseconds.
+	 */
+	public long getAsyncHandOffTimeout()
 	{
-		final MqttMessage l_msg;
-		final IMqttClient l_client;
+		return m_lAsyncHandOffTimeout;
+	}
 
-		if (!isActive())
-			return m_wftEfferent;
+	/**
+	 * Set the maximum time in milliseconds a publish via a pooled
+	 * connection waits for a free in-flight slot before it fails.
+	 * @param p_lTimeout The timeout in milliseconds.
+	 */
+	public void setAsyncHandOffTimeout(long p_lTimeout)
+	{
+		m_lAsyncHandOffTimeout = p_lTimeout;
+	}
 
-		// determine the data to be sent
-		l_msg = _getMessageData(p_evt, p_ctx);
 
-		if (l_msg == null)
-		{
-			if (isNoMessageDataIsError())
-				throw new WorkflowException("No data to create the MQTT message.");
+	/**
+	 * This property determines if messages of concurrent workflow runs are
+	 * collected and handed off to a pooled connection in batches.
+	 * <p>A batch is flushed when its oldest message has waited for
+	 * {@link #getBatchLinger()} milliseconds, or when it contains
+	 * {@link #getBatchMaxMessages()} messages or {@link #getBatchMaxBytes()}
+	 * payload bytes. Unless {@link #isAsyncPublish()} is <code>true</code>
+	 * the workflow waits until its message has been delivered. Batching
+	 * always uses a pooled connection.</p>
+	 * <p>The default value is <code>false</code>.</p>
+	 * @return <code>true</code> if messages are published in batches,
+	 *    or <code>false</code> otherwise.
+	 */
+	public boolean isBatchPublish()
+	{
+		return m_bBatchPublish;
+	}
 
-			return m_wftEfferent;
-		}
+	/**
+	 * This property determines if messages of concurrent workflow runs are
+	 * collected and handed off to a pooled connection in batches.
+	 * @param p_bBatchPublish <code>true</code> if messages should be
+	 *    published in batches, or <code>false</code> otherwise.
+	 * @see #isBatchPublish()
+	 */
+	public void setBatchPublish(boolean p_bBatchPublish)
+	{
+		m_bBatchPublish = p_bBatchPublish;
+	}
 
-		l_client = _createClient(p_wfCtx);
 
-		try
-		{
-			l_client.connect(_getOptions());
+	/**
+	 * Get the maximum time in milliseconds a message waits for further
+	 * messages before its batch is flushed.
+	 * <p>The default value is 5 milliseconds.</p>
+	 * @return The linger time in milliseconds.
+	 */
+	public long getBatchLinger()
+	{
+		return m_lBatchLinger;
+	}
 
-			l_msg.setQos(getQos());
+	/**
+	 * Set the maximum time in milliseconds a message waits for further
+	 * messages before its batch is flushed.
+	 * @param p_lLinger The linger time in milliseconds.
+	 */
+	public void setBatchLinger(long p_lLinger)
+	{
+		m_lBatchLinger = p_lLinger;
+	}
 
-			l_client.publish(getTopic(), l_msg);
-		}
-		finally
-		{
-			l_client.disconnect(getQuiesceTimeout());
-			l_client.close();
-		}
 
-		return m_wftEfferent;
+	/**
+	 * Get the number of messages that causes a batch to be flushed.
+	 * <p>The default value is 100.</p>
+	 * @return The maximum number of messages per batch.
+	 */
+	public int getBatchMaxMessages()
+	{
+		return m_iBatchMaxMessages;
+	}
+
+	/**
+	 * Set the number of messages that causes a batch to be flushed.
+	 * @param p_iMaxMessages The maximum number of messages per batch.
+	 */
+	public void setBatchMaxMessages(int p_iMaxMessages)
+	{
+		m_iBatchMaxMessages = p_iMaxMessages;
 	}
 
 
 	/**
-	 * Get the MQTT message. Either character data, or a byte arrays
-	 * are supported as input.
-	 * @param p_evt The current workflow event.
-	 * @param p_ctx The processing context.
-	 * @return The message or <code>null</code>.
-	 * @throws InvalidPropertyException
-	 * @throws WorkflowException
-	 * @throws BlException
+	 * Get the number of payload bytes that causes a batch to be flushed.
+	 * <p>The default value is 65536 bytes.</p>
+	 * @return The maximum number of payload bytes per batch.
 	 */
-	private MqttMessage _getMessageData(IWorkflowEvent p_evt, IProcessingContext p_ctx)
-		throws Exception
+	public int getBatchMaxBytes()
 	{
-		Object       l_value;
-		final byte[] l_payload;
+		return m_iBatchMaxBytes;
+	}
 
-		if (m_dataCfg.hasText())
-		{
-			l_value = m_dataCfg.getText();
-		}
-		else if (m_dataCfg.hasContextVariableName())
-		{
-			l_value = ContextValue.getContextValue(p_ctx, m_dataCfg.getContextVariableName());
-		}
-		else if (m_dataCfg.hasDataFieldGuid())
-		{
-			final IDataRecord l_recSrcFull;
+	/**
+	 * Set the number of payload bytes that causes a batch to be flushed.
+	 * @param p_iMaxBytes The maximum number of payload bytes per batch.
+	 */
+	public void setBatchMaxBytes(int p_iMaxBytes)
+	{
+		m_iBatchMaxBytes = p_iMaxBytes;
+	}
+
+
+	/**
+	 * Get the directory of the outbound spool.
+	 * <p>If a directory is given, messages that cannot be published because
+	 * the server is not available are stored in the spool and delivered in
+	 * order by a background thread as soon as the server is reachable again.
+	 * As long as the spool is not empty, new messages are appended to the
+	 * spool without trying to connect, so the workflow is not slowed down
+	 * by connection timeouts during an outage.</p>
+	 * <p>Each action should use its own directory. The default value is
+	 * <code>null</code> (no spool).</p>
+	 * @return The spool directory, or <code>null</code>.
+	 */
+	public String getSpoolDirectory()
+	{
+		return m_strSpoolDirectory;
+	}
+
+	/**
+	 * Set the directory of the outbound spool.
+	 * @param p_strDirectory The spool directory, or <code>null</code>.
+	 * @see #getSpoolDirectory()
+	 */
+	public void setSpoolDirectory(String p_strDirectory)
+	{
+		m_strSpoolDirectory = p_strDirectory;
+	}
 
-			if (!(p_ctx instanceof IBusinessLogicProcessingContext))
-				throw new InvalidProcessingContextWorkflowException(p_ctx);
 
-			if (!BusinessLogicWorkflowUtil.hasRecord((IBusinessLogicProcessingContext)p_ctx))
-				throw new WorkflowException("No data record in the processing context.");
+	/**
+	 * Get the size of a spool segment file in bytes.
+	 * <p>The default value is 16 MiB.</p>
+	 * @return The segment size.
+	 */
+	public int getSpoolSegmentSize()
+	{
+		return m_iSpoolSegmentSize;
+	}
 
-			l_recSrcFull = BusinessLogicWorkflowUtil.readFullRecord
-				((IBusinessLogicProcessingContext)p_ctx, PERMISSION_CHECK.NO);
+	/**
+	 * Set the size of a spool segment file in bytes.
+	 * @param p_iSize The segment size.
+	 */
+	public void setSpoolSegmentSize(int p_iSize)
+	{
+		m_iSpoolSegmentSize = p_iSize;
+	}
 
-			l_value = l_recSrcFull.getValueHolderByFieldGuid(m_dataCfg.getDataFieldGuid());
-		}
-		else
-		{
-			// should not occur - see configurator
-			throw new WorkflowException("No message data configured.");
-		}
 
-		if (l_value instanceof IValueHolder<?>)
-			l_value = ((IValueHolder<?>)l_value).getValue();
+	/**
+	 * Get the maximum number of spool segment files.
+	 * <p>The default value is 16.</p>
+	 * @return The maximum number of segment files.
+	 */
+	public int getSpoolMaxSegments()
+	{
+		return m_iSpoolMaxSegments;
+	}
 
-		if (l_value == null)
-			l_payload = null;
-		else if (l_value instanceof CharSequence)
-			l_payload = l_value.toString().getBytes(StandardCharsets.UTF_8);
-		else if (l_value instanceof byte[])
-			l_payload = (byte[])l_value;
-		else
-			throw new WorkflowException("Sorry, the type " + l_value.getClass().getName() + " is not supported yet.");
+	/**
+	 * Set the maximum number of spool segment files.
+	 * @param p_iMaxSegments The maximum number of segment files.
+	 */
+	public void setSpoolMaxSegments(int p_iMaxSegments)
+	{
+		m_iSpoolMaxSegments = p_iMaxSegments;
+	}
+
+
+	/**
+	 * Get the policy that is applied when the spool is full. This is
+	 * the name of one of the {@link MQTTSpoolOverflowPolicy} constants.
+	 * <p>The default value is <code>FAIL</code>.</p>
+	 * @return The overflow policy.
+	 */
+	public String getSpoolOverflowPolicy()
+	{
+		return m_strSpoolOverflowPolicy;
+	}
+
+	/**
+	 * Set the policy that is applied when the spool is full.
+	 * @param p_strPolicy The name of one of the {@link MQTTSpoolOverflowPolicy}
+	 *    constants.
+	 */
+	public void setSpoolOverflowPolicy(String p_strPolicy)
+	{
+		m_strSpoolOverflowPolicy = p_strPolicy;
+	}
+
+
+	/**
+	 * Get the time in milliseconds the spool waits before it retries
+	 * a delivery after the server was not available.
+	 * <p>The default value is 5000 milliseconds.</p>
+	 * @return The retry interval in milliseconds.
+	 */
+	public long getSpoolRetryInterval()
+	{
+		return m_lSpoolRetryInterval;
+	}
+
+	/**
+	 * Set the time in milliseconds the spool waits before it retries
+	 * a delivery after the server was not available.
+	 * @param p_lInterval The retry interval in milliseconds.
+	 */
+	public void setSpoolRetryInterval(long p_lInterval)
+	{
+		m_lSpoolRetryInterval = p_lInterval;
+	}
+
+
+	/**
+	 * Get the maximum time in milliseconds spooled messages may stay
+	 * in memory before they are forced to the storage device.
+	 * <p>Messages that have not been forced yet are lost if the operating
+	 * system crashes. A value of <code>0</code> forces every message when
+	 * it is spooled, which is safe but slow. The default value is 1000
+	 * milliseconds.</p>
+	 * @return The force interval in milliseconds.
+	 */
+	public long getSpoolForceInterval()
+	{
+		return m_lSpoolForceInterval;
+	}
+
+	/**
+	 * Set the maximum time in milliseconds spooled messages may stay
+	 * in memory before they are forced to the storage device.
+	 * @param p_lInterval The force interval in milliseconds.
+	 * @see #getSpoolForceInterval()
+	 */
+	public void setSpoolForceInterval(long p_lInterval)
+	{
+		m_lSpoolForceInterval = p_lInterval;
+	}
+
+
+	/**
+	 * Open the outbound spool of this action, if a spool directory is set,
+	 * so that messages left over from a previous run are delivered
+	 * without waiting for a new message.
+	 * @throws IOException If the spool cannot be opened.
+	 */
+	void openSpool()
+		throws IOException
+	{
+		if (getSpoolDirectory() != null)
+			_getSpool();
+	}
+
+
+	/**
+	 * Release the outbound spool of this action. The spool is closed
+	 * when no other action uses it.
+	 */
+	void closeSpool()
+	{
+		final MQTTOutboundSpool l_spool = m_spool;
+
+		if (l_spool != null)
+		{
+			m_spool = null;
+			l_spool.release(getGuid());
+		}
+	}
+
+
+	/**
+	 * Get the outbound spool of this action.
+	 * @return The spool.
+	 * @throws IOException If the spool cannot be opened.
+	 */
+	private MQTTOutboundSpool _getSpool()
+		throws IOException
+	{
+		MQTTOutboundSpool l_spool = m_spool;
+
+		if (l_spool == null)
+		{
+			l_spool = MQTTOutboundSpool.getSpool(Paths.get(getSpoolDirectory()),
+			                                     getSpoolSegmentSize(),
+			                                     getSpoolMaxSegments(),
+			                                     MQTTSpoolOverflowPolicy.valueOf(getSpoolOverflowPolicy()),
+			                                     _getConnectionKey(),
+			                                     getPooledConnectionIdleTimeout(),
+			                                     getSpoolRetryInterval(),
+			                                     getSpoolForceInterval(),
+			                                     getGuid());
+
+			if (MQTTRateLimitMode.QUEUE.name().equals(getRateLimitMode()))
+				l_spool.setRateLimiter(_getRateLimiter());
+
+			m_spool = l_spool;
+		}
+
+		return l_spool;
+	}
+
+
+	/**
+	 * Get the name of the codec that is used to encode the payload.
+	 * <p>Supported codecs are <code>identity</code>, <code>length-prefixed</code>,
+	 * <code>deflate</code>, and <code>gzip</code>. Encoded payloads start with
+	 * a small header that identifies the codec, so the
+	 * {@link org.example.mqtt.workflow.eventsource.MQTTWorkflowEventSource MQTT event source}
+	 * decodes them automatically. The default value is <code>null</code>,
+	 * i.e. the payload is sent as is, without a header.</p>
+	 * @return The codec name, or <code>null</code>.
+	 */
+	public String getCodec()
+	{
+		return m_strCodec;
+	}
+
+	/**
+	 * Set the name of the codec that is used to encode the payload.
+	 * @param p_strCodec The codec name, or <code>null</code>.
+	 * @see #getCodec()
+	 */
+	public void setCodec(String p_strCodec)
+	{
+		m_strCodec = p_strCodec;
+	}
+
+
+	/**
+	 * Get the maximum number of payload bytes per chunk of a chunked transfer.
+	 * <p>If this property is positive, stream and file values that are larger
+	 * than the chunk size, or whose size is not known in advance, are read
+	 * as a stream and published as a sequence of chunk messages, each
+	 * starting with a {@link MQTTChunkHeader}. The
+	 * {@link org.example.mqtt.workflow.eventsource.MQTTWorkflowEventSource MQTT event source}
+	 * reassembles the chunks into a file. Chunks are neither encoded with the
+	 * {@link #getCodec() codec}, nor spooled. The default value is <code>0</code>,
+	 * i.e. payloads are never chunked.</p>
+	 * @return The chunk size in bytes.
+	 */
+	public int getChunkSize()
+	{
+		return m_iChunkSize;
+	}
+
+	/**
+	 * Set the maximum number of payload bytes per chunk of a chunked transfer.
+	 * @param p_iChunkSize The chunk size in bytes.
+	 * @see #getChunkSize()
+	 */
+	public void setChunkSize(int p_iChunkSize)
+	{
+		m_iChunkSize = p_iChunkSize;
+	}
+
+
+	/**
+	 * Get the maximum number of messages per second.
+	 * <p>If this property is positive, messages are subject to a token
+	 * bucket that is shared by all actions with the same server URI and
+	 * {@link #getRateLimitTopicPrefix() topic prefix}. These actions must
+	 * use the same rate and {@link #getRateLimitBurst() burst size}. The
+	 * default value is <code>0</code>, i.e. the rate is not limited.</p>
+	 * @return The maximum number of messages per second.
+	 */
+	public double getRateLimit()
+	{
+		return m_dRateLimit;
+	}
+
+	/**
+	 * Set the maximum number of messages per second.
+	 * @param p_dRateLimit The maximum number of messages per second.
+	 * @see #getRateLimit()
+	 */
+	public void setRateLimit(double p_dRateLimit)
+	{
+		m_dRateLimit  = p_dRateLimit;
+		m_rateLimiter = null;
+	}
+
+
+	/**
+	 * Get the maximum number of messages that can be published
+	 * at once without being throttled.
+	 * <p>The default value is <code>0</code>, i.e. the burst size
+	 * is the rate limit rounded up.</p>
+	 * @return The burst size.
+	 */
+	public int getRateLimitBurst()
+	{
+		return m_iRateLimitBurst;
+	}
+
+	/**
+	 * Set the maximum number of messages that can be published
+	 * at once without being throttled.
+	 * @param p_iBurst The burst size.
+	 */
+	public void setRateLimitBurst(int p_iBurst)
+	{
+		m_iRateLimitBurst = p_iBurst;
+		m_rateLimiter     = null;
+	}
+
+
+	/**
+	 * Get the topic prefix the rate limit applies to.
+	 * <p>If this property is set, only messages whose topic starts with
+	 * the prefix are limited, and they share a token bucket per server URI
+	 * and prefix. The default value is <code>null</code>, i.e. all messages
+	 * to the server share one token bucket.</p>
+	 * @return The topic prefix, or <code>null</code>.
+	 */
+	public String getRateLimitTopicPrefix()
+	{
+		return m_strRateLimitTopicPrefix;
+	}
+
+	/**
+	 * Set the topic prefix the rate limit applies to.
+	 * @param p_strPrefix The topic prefix, or <code>null</code>.
+	 */
+	public void setRateLimitTopicPrefix(String p_strPrefix)
+	{
+		m_strRateLimitTopicPrefix = p_strPrefix;
+		m_rateLimiter             = null;
+	}
+
+
+	/**
+	 * Get what happens if the rate limit is exceeded.
+	 * <p>Either <code>BLOCK</code> (default) to wait up to
+	 * {@link #getRateLimitTimeout()} milliseconds, <code>FAIL</code> to
+	 * fail immediately, or <code>QUEUE</code> to append the message to the
+	 * {@link #getSpoolDirectory() spool}, which then delivers its messages
+	 * at the limited rate.</p>
+	 * @return The rate limit mode.
+	 */
+	public String getRateLimitMode()
+	{
+		return m_strRateLimitMode;
+	}
+
+	/**
+	 * Set what happens if the rate limit is exceeded.
+	 * @param p_strMode The rate limit mode.
+	 * @see #getRateLimitMode()
+	 */
+	public void setRateLimitMode(String p_strMode)
+	{
+		m_strRateLimitMode = p_strMode;
+	}
+
+
+	/**
+	 * Get the time in milliseconds to wait for a permit if the
+	 * rate limit mode is <code>BLOCK</code>.
+	 * <p>The default value is 5000 milliseconds.</p>
+	 * @return The timeout in milliseconds.
+	 */
+	public long getRateLimitTimeout()
+	{
+		return m_lRateLimitTimeout;
+	}
+
+	/**
+	 * Set the time in milliseconds to wait for a permit if the
+	 * rate limit mode is <code>BLOCK</code>.
+	 * @param p_lTimeout The timeout in milliseconds.
+	 */
+	public void setRateLimitTimeout(long p_lTimeout)
+	{
+		m_lRateLimitTimeout = p_lTimeout;
+	}
+
+
+	/**
+	 * Get the key of the token bucket this action shares with other actions.
+	 * @return The server URI, followed by the topic prefix if one is set.
+	 */
+	String getRateLimiterKey()
+	{
+		if (getRateLimitTopicPrefix() != null)
+			return getServerUri() + " " + getRateLimitTopicPrefix();
+		else
+			return getServerUri();
+	}
+
+
+	/**
+	 * Get the burst size that is actually used.
+	 * @return The burst size, or the rate limit rounded up if no burst
+	 *    size is set.
+	 */
+	int getEffectiveRateLimitBurst()
+	{
+		return getRateLimitBurst() > 0 ? getRateLimitBurst() : (int)Math.ceil(getRateLimit());
+	}
+
+
+	/**
+	 * Register this action with its rate limiter, if the rate is limited.
+	 * @throws IllegalArgumentException If another action has registered a
+	 *    different rate or burst size for the same server and topic prefix.
+	 */
+	void registerRateLimiter()
+	{
+		if (getRateLimit() > 0.0)
+			m_rateLimiter = MQTTRateLimiter.getLimiter(getRateLimiterKey(), getRateLimit(), getEffectiveRateLimitBurst(), getGuid());
+	}
+
+
+	/**
+	 * Get the rate limiter that applies to messages of this action.
+	 * @return The rate limiter, or <code>null</code> if the rate is not limited.
+	 */
+	private MQTTRateLimiter _getRateLimiter()
+	{
+		MQTTRateLimiter l_limiter = m_rateLimiter;
+
+		if (!(getRateLimit() > 0.0))
+			return null;
+
+		if (l_limiter == null)
+		{
+			l_limiter     = MQTTRateLimiter.getLimiter(getRateLimiterKey(), getRateLimit(), getEffectiveRateLimitBurst(), getGuid());
+			m_rateLimiter = l_limiter;
+		}
+
+		return l_limiter;
+	}
+
+
+	/**
+	 * Get the rate limiter that applies to the given topic.
+	 * @param p_strTopic The topic name.
+	 * @return The rate limiter, or <code>null</code> if the rate is not limited.
+	 */
+	private MQTTRateLimiter _getRateLimiter(String p_strTopic)
+	{
+		if (getRateLimitTopicPrefix() != null && !p_strTopic.startsWith(getRateLimitTopicPrefix()))
+			return null;
+
+		return _getRateLimiter();
+	}
+
+
+	/**
+	 * Take a permit from the rate limiter according to the rate limit mode.
+	 * @param p_limiter The rate limiter.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message.
+	 * @return <code>true</code> if the message can be published, or
+	 *    <code>false</code> if it has been queued.
+	 * @throws WorkflowException If the rate limit has been exceeded.
+	 * @throws Exception If the message cannot be queued.
+	 */
+	private boolean _acquirePermit(MQTTRateLimiter p_limiter, String p_strTopic, MqttMessage p_msg)
+		throws Exception
+	{
+		switch (MQTTRateLimitMode.valueOf(getRateLimitMode()))
+		{
+		case FAIL:
+			if (p_limiter.tryAcquire())
+				return true;
+			break;
+
+		case BLOCK:
+			if (p_limiter.acquire(getRateLimitTimeout()))
+				return true;
+			break;
+
+		case QUEUE:
+		{
+			final MQTTOutboundSpool l_spool = _getSpool();
+
+			// preserve the order of messages
+			if (l_spool.isEmpty() && p_limiter.tryAcquire())
+				return true;
+
+			l_spool.append(p_strTopic, p_msg);
+
+			return false;
+		}
+		}
+
+		throw new WorkflowException("The rate limit for " + p_limiter.getKey() + " has been exceeded.");
+	}
+
+
+	/**
+	 * Get the key that identifies the pooled connection of this action.
+	 * @return The connection key.
+	 */
+	private MQTTConnectionKey _getConnectionKey()
+	{
+		if (getServerUri() == null) // cannot occur under normal circumstances; see configurator
+			throw new IllegalStateException("No server URI given.");
+
+		return new MQTTConnectionKey(getServerUri(),
+		                             getClientId(),
+		                             getUserName(),
+		                             getPassword(),
+		                             getConnectionTimeout(),
+		                             MqttConnectOptions.KEEP_ALIVE_INTERVAL_DEFAULT,
+		                             isBatchPublish() ? Math.max(getMaxInflight(), getBatchMaxMessages()) : getMaxInflight());
+	}
+
+
+	/**
+	 * Create the MQTT client used to connect to the server.
+	 * @return A MQTT client.
+	 * @throws MqttException If an error occurred.
+	 */
+	private IMqttClient _createClient(IWorkflowProcessingContext p_wfCtx)
+		throws MqttException
+	{
+		final MqttClient l_client;
+
+		if (getServerUri() == null) // cannot occur under normal circumstances; see configurator
+			throw new IllegalStateException("No server URI given.");
+
+		l_client = new MqttClient(getServerUri(), _getClientId(p_wfCtx), new MemoryPersistence());
+
+		return l_client;
+	}
+
+
+	/**
+	 * Get the MQTT options used to connect to the server.
+	 * @return MQTT options.
+	 */
+	private MqttConnectOptions _getOptions()
+	{
+		final MqttConnectOptions l_options;
+
+		l_options = new MqttConnectOptions();
+
+		l_options.setCleanSession(true); // do not remember state
+		l_options.setAutomaticReconnect(false);
+		l_options.setConnectionTimeout(getConnectionTimeout());
+
+		if (getUserName() != null)
+		{
+			l_options.setUserName(getUserName());
+
+			if (getPassword() != null)
+				l_options.setPassword(getPassword().toCharArray());
+		}
+
+		return l_options;
+	}
+
+
+	@Override
+	public WorkflowTransition process(IWorkflowEvent p_evt, IWorkflowProcessingContext p_wfCtx, IProcessingContext p_ctx)
+		throws InterruptedException, Exception
+	{
+		final CurrentRecord   l_record;
+		final Object          l_value;
+		final MqttMessage     l_msg;
+		final String          l_strTopic;
+		final MQTTRateLimiter l_limiter;
+
+		if (!isActive())
+			return m_wftEfferent;
+
+		// the data fields of the message and of the topic come from one read
+		l_record = new CurrentRecord(p_ctx);
+
+		// determine the data to be sent
+		l_value = _getMessageValue(p_evt, p_ctx, l_record);
+
+		if (l_value == null)
+		{
+			if (isNoMessageDataIsError())
+				throw new WorkflowException("No data to create the MQTT message.");
+
+			return m_wftEfferent;
+		}
+
+		l_strTopic = _getTopic(p_ctx, l_record);
+
+		if (_isChunked(l_value))
+		{
+			_publishChunked(l_strTopic, l_value, p_wfCtx);
+
+			return m_wftEfferent;
+		}
+
+		l_msg = _createMessage(l_value);
+
+		l_msg.setQos(getQos());
+
+		l_limiter = _getRateLimiter(l_strTopic);
+
+		if (l_limiter != null && !_acquirePermit(l_limiter, l_strTopic, l_msg))
+			return m_wftEfferent; // the message has been queued
+
+		if (getSpoolDirectory() != null)
+			_publishOrSpool(l_strTopic, l_msg, p_wfCtx);
+		else
+			_publish(l_strTopic, l_msg, p_wfCtx);
+
+		return m_wftEfferent;
+	}
+
+
+	/**
+	 * Publish the message, or append it to the spool if the server is not
+	 * available or if there are still spooled messages to be delivered.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message.
+	 * @param p_wfCtx The workflow processing context.
+	 * @throws Exception If an error occurred.
+	 */
+	private void _publishOrSpool(String p_strTopic, MqttMessage p_msg, IWorkflowProcessingContext p_wfCtx)
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool = _getSpool();
+
+		// preserve the order of messages
+		if (l_spool.isEmpty())
+		{
+			try
+			{
+				_publish(p_strTopic, p_msg, p_wfCtx);
+				return;
+			}
+			catch (MqttException l_e)
+			{
+				if (!MQTTUtil.isServerUnavailable(l_e))
+					throw l_e;
+
+				ms_log.warn("The MQTT server " + getServerUri() + " is not available. Spooling messages.", l_e);
+			}
+		}
+
+		l_spool.append(p_strTopic, p_msg);
+	}
+
+
+	/**
+	 * Publish the message either via a pooled connection or via
+	 * a dedicated connection.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message.
+	 * @param p_wfCtx The workflow processing context.
+	 * @throws Exception If an error occurred.
+	 */
+	private void _publish(String p_strTopic, MqttMessage p_msg, IWorkflowProcessingContext p_wfCtx)
+		throws Exception
+	{
+		if (isPooledConnection() || isAsyncPublish() || isBatchPublish())
+			_publishPooled(p_strTopic, p_msg);
+		else
+			_publishDedicated(p_strTopic, p_msg, p_wfCtx);
+	}
+
+
+	/**
+	 * Publish the message via a dedicated connection that is
+	 * closed afterwards.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message.
+	 * @param p_wfCtx The workflow processing context.
+	 * @throws MqttException If an error occurred.
+	 */
+	private void _publishDedicated(String p_strTopic, MqttMessage p_msg, IWorkflowProcessingContext p_wfCtx)
+		throws MqttException
+	{
+		final IMqttClient l_client;
+
+		l_client = _createClient(p_wfCtx);
+
+		try
+		{
+			l_client.connect(_getOptions());
+			l_client.publish(p_strTopic, p_msg);
+		}
+		finally
+		{
+			// disconnects only if the connect succeeded, and does not mask an error
+			MQTTUtil.disconnectAndClose(l_client, getQuiesceTimeout());
+		}
+	}
+
+
+	/**
+	 * Publish the message via a pooled connection.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message.
+	 * @throws MqttException If an error occurred.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	private void _publishPooled(String p_strTopic, MqttMessage p_msg)
+		throws MqttException, InterruptedException
+	{
+		final MQTTConnectionPool   l_pool;
+		final MQTTPooledConnection l_conn;
+
+		l_pool = MQTTConnectionPool.getInstance();
+		l_conn = l_pool.acquire(_getConnectionKey(), getPooledConnectionIdleTimeout());
+
+		try
+		{
+			if (isBatchPublish())
+			{
+				final MQTTBatchingPublisher l_batcher;
+
+				l_batcher = l_conn.getBatchingPublisher(getBatchLinger(),
+				                                        getBatchMaxMessages(),
+				                                        getBatchMaxBytes(),
+				                                        getAsyncHandOffTimeout());
+
+				_complete(p_strTopic, p_msg, l_batcher.submit(p_strTopic, p_msg), _getDeliveryWaitTime(l_conn));
+			}
+			else if (isAsyncPublish())
+			{
+				_complete(p_strTopic,
+				          p_msg,
+				          l_conn.publishAsync(p_strTopic, p_msg, getAsyncHandOffTimeout()),
+				          _getDeliveryWaitTime(l_conn));
+			}
+			else
+			{
+				l_conn.publish(p_strTopic, p_msg, getAsyncHandOffTimeout());
+			}
+		}
+		finally
+		{
+			l_pool.release(l_conn);
+		}
+	}
+
+
+	/**
+	 * Test if the given value must be published in chunks.
+	 * @param p_value The value.
+	 * @return <code>true</code> if the value must be chunked, or
+	 *    <code>false</code> otherwise.
+	 * @throws IOException If the size of the value cannot be determined.
+	 */
+	private boolean _isChunked(Object p_value)
+		throws IOException
+	{
+		final long l_lSize;
+
+		if (getChunkSize() <= 0)
+			return false;
+
+		if (!(p_value instanceof InputStream || p_value instanceof File || p_value instanceof Path))
+			return false;
+
+		l_lSize = MQTTPayloadUtil.getSize(p_value);
+
+		return l_lSize < 0L || l_lSize > getChunkSize();
+	}
+
+
+	/**
+	 * Publish the given value as a sequence of chunk messages.
+	 * <p>All chunks of a transfer are published via the same connection,
+	 * so they arrive in order. Via a pooled connection the chunks are
+	 * pipelined.</p>
+	 * @param p_strTopic The topic name.
+	 * @param p_value The value.
+	 * @param p_wfCtx The workflow processing context.
+	 * @throws Exception If an error occurred.
+	 */
+	private void _publishChunked(String p_strTopic, Object p_value, IWorkflowProcessingContext p_wfCtx)
+		throws Exception
+	{
+		final MQTTRateLimiter l_limiter = _getRateLimiter(p_strTopic);
+
+		if (isPooledConnection() || isAsyncPublish() || isBatchPublish())
+		{
+			final MQTTConnectionPool            l_pool;
+			final MQTTPooledConnection          l_conn;
+			final List<CompletableFuture<Void>> l_deliveries = new ArrayList<>();
+			final long                          l_lWaitTime;
+
+			l_pool      = MQTTConnectionPool.getInstance();
+			l_conn      = l_pool.acquire(_getConnectionKey(), getPooledConnectionIdleTimeout());
+			l_lWaitTime = _getDeliveryWaitTime(l_conn);
+
+			try
+			{
+				_writeChunks(p_value, l_limiter, p_msg ->
+					l_deliveries.add(l_conn.publishAsync(p_strTopic, p_msg, getAsyncHandOffTimeout())));
+			}
+			finally
+			{
+				l_pool.release(l_conn);
+			}
+
+			for (CompletableFuture<Void> l_delivery : l_deliveries)
+				_complete(p_strTopic, null, l_delivery, l_lWaitTime); // chunks cannot be spooled individually
+		}
+		else
+		{
+			final IMqttClient l_client;
+
+			l_client = _createClient(p_wfCtx);
+
+			try
+			{
+				l_client.connect(_getOptions());
+
+				_writeChunks(p_value, l_limiter, p_msg -> l_client.publish(p_strTopic, p_msg));
+			}
+			finally
+			{
+				// disconnects only if the connect succeeded, and does not mask an error
+				MQTTUtil.disconnectAndClose(l_client, getQuiesceTimeout());
+			}
+		}
+	}
+
+
+	/**
+	 * Receives the chunk messages of a chunked transfer.
+	 */
+	@FunctionalInterface
+	private interface IChunkSink
+	{
+		void publish(MqttMessage p_msg)
+			throws Exception;
+	}
+
+
+	/**
+	 * Read the given value as a stream and pass it to the sink in chunks.
+	 * <p>At most two chunks are held in memory at a time: the current one,
+	 * and the next one that is read ahead to determine the last chunk if
+	 * the size is not known in advance.</p>
+	 * @param p_value The value.
+	 * @param p_limiter The rate limiter, or <code>null</code>.
+	 * @param p_sink The receiver of the chunk messages.
+	 * @throws Exception If an error occurred.
+	 */
+	private void _writeChunks(Object p_value, MQTTRateLimiter p_limiter, IChunkSink p_sink)
+		throws Exception
+	{
+		final int  l_iChunkSize = getChunkSize();
+		final long l_lSize      = MQTTPayloadUtil.getSize(p_value);
+		final UUID l_id         = UUID.randomUUID();
+		final int  l_iTotal;
+		byte[]     l_chunk;
+		int        l_iLength;
+		int        l_iSequence;
+
+		if (l_lSize < 0L)
+			l_iTotal = -1;
+		else if ((l_lSize + l_iChunkSize - 1) / l_iChunkSize > Integer.MAX_VALUE)
+			throw new WorkflowException("Too many chunks for a payload of " + l_lSize + " bytes.");
+		else
+			l_iTotal = (int)Math.max(1L, (l_lSize + l_iChunkSize - 1) / l_iChunkSize);
+
+		try (InputStream l_in = MQTTPayloadUtil.toInputStream(p_value))
+		{
+			l_chunk     = new byte[MQTTChunkHeader.HEADER_SIZE + l_iChunkSize];
+			l_iLength   = l_in.readNBytes(l_chunk, MQTTChunkHeader.HEADER_SIZE, l_iChunkSize);
+			l_iSequence = 0;
+
+			for (;;)
+			{
+				final MqttMessage l_msg;
+				byte[]            l_next        = null;
+				int               l_iNextLength = 0;
+
+				if (l_iLength == l_iChunkSize && (l_iTotal < 0 || l_iSequence + 1 < l_iTotal))
+				{
+					l_next        = new byte[MQTTChunkHeader.HEADER_SIZE + l_iChunkSize];
+					l_iNextLength = l_in.readNBytes(l_next, MQTTChunkHeader.HEADER_SIZE, l_iChunkSize);
+				}
+
+				new MQTTChunkHeader(l_id, l_iSequence, l_iTotal, l_iNextLength == 0).write(l_chunk);
+
+				if (l_iLength < l_iChunkSize)
+					l_chunk = Arrays.copyOf(l_chunk, MQTTChunkHeader.HEADER_SIZE + l_iLength);
+
+				l_msg = new MqttMessage(l_chunk);
+
+				l_msg.setQos(getQos());
+
+				// chunks cannot be dropped or queued individually
+				if (p_limiter != null && !p_limiter.acquire(getRateLimitTimeout()))
+					throw new WorkflowException("The rate limit for " + p_limiter.getKey() + " has been exceeded.");
+
+				p_sink.publish(l_msg);
+
+				if (l_iNextLength == 0)
+					break;
+
+				l_chunk   = l_next;
+				l_iLength = l_iNextLength;
+				l_iSequence++;
+			}
+		}
+	}
+
+
+	/**
+	 * Get the maximum time to wait for the completion of a delivery via
+	 * the given pooled connection.
+	 * <p>The time covers the batch linger time if {@link #isBatchPublish()}
+	 * is <code>true</code>, the hand-off timeout, and the connect wait
+	 * time of the connection as the time to wait for an acknowledgement,
+	 * see {@link MQTTPooledConnection#getConnectWaitTime()}.</p>
+	 * @param p_conn The connection.
+	 * @return The time in milliseconds.
+	 */
+	private long _getDeliveryWaitTime(MQTTPooledConnection p_conn)
+	{
+		final long l_lLinger = isBatchPublish() ? Math.max(0L, getBatchLinger()) : 0L;
+
+		return l_lLinger + getAsyncHandOffTimeout() + p_conn.getConnectWaitTime();
+	}
+
+
+	/**
+	 * Either wait for the completion of a delivery, or, if
+	 * {@link #isAsyncPublish()} is <code>true</code>, make sure
+	 * that a failed delivery is handled.
+	 * <p>A delivery that has not completed within the wait time fails
+	 * with {@link MqttException#REASON_CODE_CLIENT_TIMEOUT}, so the
+	 * message is spooled if there is a spool. Since the message may still
+	 * be delivered after the timeout, it may be delivered twice.</p>
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message, or <code>null</code> if a failed
+	 *    delivery must not be spooled.
+	 * @param p_future The delivery.
+	 * @param p_lWaitTime The maximum time in milliseconds to wait
+	 *    for the completion of the delivery.
+	 * @throws MqttException If the delivery failed or timed out.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	private void _complete(String p_strTopic, MqttMessage p_msg, CompletableFuture<Void> p_future, long p_lWaitTime)
+		throws MqttException, InterruptedException
+	{
+		if (isAsyncPublish())
+		{
+			p_future.whenComplete((p_void, p_cause) ->
+			{
+				if (p_cause != null)
+					_asyncDeliveryFailed(p_strTopic, p_msg, p_cause);
+			});
+
+			return;
+		}
+
+		try
+		{
+			p_future.get(p_lWaitTime, TimeUnit.MILLISECONDS);
+		}
+		catch (ExecutionException l_e)
+		{
+			if (l_e.getCause() instanceof MqttException)
+				throw (MqttException)l_e.getCause();
+
+			throw new MqttException(l_e.getCause());
+		}
+		catch (TimeoutException l_e)
+		{
+			throw new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT);
+		}
+	}
+
+
+	/**
+	 * Count a failed asynchronous delivery, and append the message to the
+	 * spool if there is one.
+	 * @param p_strTopic The topic name.
+	 * @param p_msg The message, or <code>null</code>.
+	 * @param p_cause The cause of the failure.
+	 */
+	private void _asyncDeliveryFailed(String p_strTopic, MqttMessage p_msg, Throwable p_cause)
+	{
+		m_asyncFailures.increment();
+
+		if (p_msg != null && getSpoolDirectory() != null)
+		{
+			try
+			{
+				_getSpool().append(p_strTopic, p_msg);
+
+				ms_log.warn("Asynchronous delivery of a MQTT message to topic " + p_strTopic +
+				            " failed. The message has been spooled.", p_cause);
+				return;
+			}
+			catch (Exception l_e)
+			{
+				p_cause.addSuppressed(l_e);
+			}
+		}
+
+		ms_log.error("Asynchronous delivery of a MQTT message to topic " + p_strTopic + " failed.", p_cause);
+	}
+
+
+	/**
+	 * Get the value the MQTT message is created from. Either character
+	 * data, binary data, streams, or files are supported as input.
+	 * @param p_evt The current workflow event.
+	 * @param p_ctx The processing context.
+	 * @param p_record The current record.
+	 * @return The value or <code>null</code>.
+	 * @throws InvalidPropertyException
+	 * @throws WorkflowException
+	 * @throws BlException
+	 */
+	private Object _getMessageValue(IWorkflowEvent p_evt, IProcessingContext p_ctx, CurrentRecord p_record)
+		throws Exception
+	{
+		Object l_value;
+
+		if (m_dataCfg.hasText())
+		{
+			l_value = m_dataCfg.getText();
+		}
+		else if (m_dataCfg.hasContextVariableName())
+		{
+			l_value = ContextValue.getContextValue(p_ctx, m_dataCfg.getContextVariableName());
+		}
+		else if (m_dataCfg.hasDataFieldGuid())
+		{
+			l_value = p_record.getValueHolder(m_dataCfg.getDataFieldGuid());
+		}
+		else
+		{
+			// should not occur - see configurator
+			throw new WorkflowException("No message data configured.");
+		}
+
+		if (l_value instanceof IValueHolder<?>)
+			l_value = ((IValueHolder<?>)l_value).getValue();
+
+		if (l_value != null && !MQTTPayloadUtil.isSupported(l_value))
+			throw new WorkflowException("Sorry, the type " + l_value.getClass().getName() + " is not supported yet.");
+
+		return l_value;
+	}
+
+
+	/**
+	 * Create the MQTT message from the given value.
+	 * @param p_value The value.
+	 * @return The message.
+	 * @throws IOException If the value cannot be read or encoded.
+	 */
+	private MqttMessage _createMessage(Object p_value)
+		throws IOException
+	{
+		final IMQTTPayloadCodec l_codec;
+		final byte[]            l_payload;
+
+		if (getCodec() == null)
+			return new MqttMessage(MQTTPayloadUtil.toPayload(p_value));
+
+		l_codec = MQTTPayloadCodecs.getCodec(getCodec());
+
+		if (p_value instanceof CharSequence)
+		{
+			// encode into the per-thread buffer, the codec creates the payload array
+			final ByteBuffer l_buf = MQTTPayloadUtil.encodeUtf8((CharSequence)p_value);
+
+			return new MqttMessage(MQTTPayloadCodecs.encode(l_codec,
+			                                                l_buf.array(),
+			                                                l_buf.arrayOffset() + l_buf.position(),
+			                                                l_buf.remaining()));
+		}
+
+		l_payload = MQTTPayloadUtil.toPayload(p_value);
 
-		return l_payload != null ? new MqttMessage(l_payload) : null;
+		return new MqttMessage(MQTTPayloadCodecs.encode(l_codec, l_payload));
 	}
 }
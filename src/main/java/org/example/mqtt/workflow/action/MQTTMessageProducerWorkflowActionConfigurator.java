@@ -18,6 +18,15 @@
 package org.example.mqtt.workflow.action;
 
 
+import java.io.IOException;
+
+import org.example.mqtt.client.MQTTConnectionPool;
+import org.example.mqtt.client.MQTTRateLimitMode;
+import org.example.mqtt.client.MQTTRateLimiter;
+import org.example.mqtt.client.MQTTSpoolOverflowPolicy;
+import org.example.mqtt.codec.MQTTChunkHeader;
+import org.example.mqtt.codec.MQTTPayloadCodecs;
+import org.example.mqtt.util.MQTTTopicTemplate;
 import org.example.mqtt.workflow.QOS;
 
 import de.uplanet.lucy.server.workflow.AbstractWorkflowObjectConfigurator;
@@ -33,6 +42,10 @@ import de.uplanet.util.BooleanUtil;
 public final class MQTTMessageProducerWorkflowActionConfigurator
 	extends AbstractWorkflowObjectConfigurator
 {
+	/** The maximum payload size of a MQTT message minus the size of a chunk header. */
+	private static final int MAX_CHUNK_SIZE = 268435455 - 65535 - MQTTChunkHeader.HEADER_SIZE;
+
+
 	public MQTTMessageProducerWorkflowActionConfigurator()
 	{
 	}
@@ -55,7 +68,46 @@ public final class MQTTMessageProducerWorkflowActionConfigurator
 	public void configureEngage(IWorkflowConfigurationContext p_ctx, IWorkflowObject p_wfObj)
 		throws WorkflowConfigurationException
 	{
-		_checkConfiguration((MQTTMessageProducerWorkflowAction)p_wfObj);
+		final MQTTMessageProducerWorkflowAction l_action = (MQTTMessageProducerWorkflowAction)p_wfObj;
+
+		_checkConfiguration(l_action);
+
+		// parse the topic template once instead of per message
+		l_action.compileTopicTemplate();
+
+		try
+		{
+			l_action.registerRateLimiter();
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowConfigurationException(l_e.getMessage());
+		}
+
+		// pooled connections are closed when the last action is disengaged
+		MQTTConnectionPool.getInstance().open(l_action.getGuid());
+
+		try
+		{
+			// replay messages that have been spooled before a restart
+			l_action.openSpool();
+		}
+		catch (IOException l_e)
+		{
+			throw new WorkflowConfigurationException("Cannot open the spool directory " +
+			                                         l_action.getSpoolDirectory() + ": " + l_e.getMessage());
+		}
+	}
+
+
+	@Override
+	public void configureDisengage(IWorkflowConfigurationContext p_ctx, IWorkflowObject p_wfObj)
+		throws WorkflowConfigurationException
+	{
+		// the spool delivers via the pool, so it is closed first
+		((MQTTMessageProducerWorkflowAction)p_wfObj).closeSpool();
+
+		MQTTConnectionPool.getInstance().close(p_wfObj.getGuid());
 	}
 
 
@@ -71,9 +123,129 @@ public final class MQTTMessageProducerWorkflowActionConfigurator
 		if (p_wfObj.getTopic() == null || p_wfObj.getTopic().isEmpty())
 			throw new WorkflowConfigurationException("No topic name given.");
 
+		if (p_wfObj.isTopicTemplate())
+		{
+			try
+			{
+				MQTTTopicTemplate.compile(p_wfObj.getTopic());
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException(l_e.getMessage());
+			}
+		}
+
 		if (p_wfObj.getConnectionTimeout() < 0)
 			throw new WorkflowConfigurationException("The connection timeout must not be negative.");
 
+		if ((p_wfObj.isPooledConnection() || p_wfObj.isAsyncPublish() || p_wfObj.isBatchPublish()) &&
+		    p_wfObj.getPooledConnectionIdleTimeout() <= 0L)
+			throw new WorkflowConfigurationException("The idle timeout of pooled connections must be positive.");
+
+		if (p_wfObj.getMaxInflight() < 1)
+			throw new WorkflowConfigurationException("The maximum number of messages in flight must be positive.");
+
+		if (p_wfObj.getAsyncHandOffTimeout() < 0L)
+			throw new WorkflowConfigurationException("The asynchronous hand-off timeout must not be negative.");
+
+		if (p_wfObj.isBatchPublish())
+		{
+			if (p_wfObj.getBatchLinger() < 0L)
+				throw new WorkflowConfigurationException("The batch linger time must not be negative.");
+
+			if (p_wfObj.getBatchMaxMessages() < 1)
+				throw new WorkflowConfigurationException("The maximum number of messages per batch must be positive.");
+
+			if (p_wfObj.getBatchMaxBytes() < 1)
+				throw new WorkflowConfigurationException("The maximum number of bytes per batch must be positive.");
+		}
+
+		if (p_wfObj.getSpoolDirectory() != null)
+		{
+			if (p_wfObj.getSpoolDirectory().isEmpty())
+				throw new WorkflowConfigurationException("The spool directory must not be empty.");
+
+			if (p_wfObj.getSpoolSegmentSize() < 1024)
+				throw new WorkflowConfigurationException("The spool segment size must be at least 1024 bytes.");
+
+			if (p_wfObj.getSpoolMaxSegments() < 2)
+				throw new WorkflowConfigurationException("The spool must allow at least two segments.");
+
+			if (p_wfObj.getSpoolRetryInterval() <= 0L)
+				throw new WorkflowConfigurationException("The spool retry interval must be positive.");
+
+			if (p_wfObj.getSpoolForceInterval() < 0L)
+				throw new WorkflowConfigurationException("The spool force interval must not be negative.");
+
+			try
+			{
+				MQTTSpoolOverflowPolicy.valueOf(String.valueOf(p_wfObj.getSpoolOverflowPolicy()));
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException
+					("Invalid spool overflow policy " + p_wfObj.getSpoolOverflowPolicy() + ".");
+			}
+		}
+
+		if (p_wfObj.getRateLimit() < 0.0 || Double.isNaN(p_wfObj.getRateLimit()))
+			throw new WorkflowConfigurationException("The rate limit must not be negative.");
+
+		if (p_wfObj.getRateLimit() > 0.0)
+		{
+			final MQTTRateLimitMode l_mode;
+
+			if (p_wfObj.getRateLimitBurst() < 0)
+				throw new WorkflowConfigurationException("The rate limit burst size must not be negative.");
+
+			if (p_wfObj.getRateLimitTimeout() < 0L)
+				throw new WorkflowConfigurationException("The rate limit timeout must not be negative.");
+
+			try
+			{
+				l_mode = MQTTRateLimitMode.valueOf(String.valueOf(p_wfObj.getRateLimitMode()));
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException
+					("Invalid rate limit mode " + p_wfObj.getRateLimitMode() + ".");
+			}
+
+			if (l_mode == MQTTRateLimitMode.QUEUE && p_wfObj.getSpoolDirectory() == null)
+				throw new WorkflowConfigurationException("The rate limit mode QUEUE requires a spool directory.");
+
+			// actions that share a token bucket must agree on its limit
+			try
+			{
+				MQTTRateLimiter.checkLimit(p_wfObj.getRateLimiterKey(),
+				                           p_wfObj.getRateLimit(),
+				                           p_wfObj.getEffectiveRateLimitBurst(),
+				                           p_wfObj.getGuid());
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException(l_e.getMessage());
+			}
+		}
+
+		if (p_wfObj.getChunkSize() < 0)
+			throw new WorkflowConfigurationException("The chunk size must not be negative.");
+
+		if (p_wfObj.getChunkSize() > MAX_CHUNK_SIZE)
+			throw new WorkflowConfigurationException("The chunk size must not exceed " + MAX_CHUNK_SIZE + " bytes.");
+
+		if (p_wfObj.getCodec() != null)
+		{
+			try
+			{
+				MQTTPayloadCodecs.getCodec(p_wfObj.getCodec());
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException(l_e.getMessage());
+			}
+		}
+
 		QOS.checkValidQoS(p_wfObj.getQos());
 
 		l_dataCfg = p_wfObj.getData();
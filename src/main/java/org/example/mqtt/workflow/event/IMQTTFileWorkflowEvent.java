@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.io.File;
+
+import de.uplanet.annotation.Scriptable;
+
+
+/**
+ * An event that is created when all chunks of a chunked transfer
+ * have been received and reassembled into a file.
+ * <p>The file is deleted after the event has been processed.</p>
+ */
+@Scriptable
+public interface IMQTTFileWorkflowEvent extends IMQTTWorkflowEvent
+{
+	/**
+	 * Get the topic the chunks were published to.
+	 * @return The topic.
+	 */
+	public String getTopic();
+
+
+	/**
+	 * Get the file that contains the reassembled payload.
+	 * @return The file.
+	 */
+	public File getFile();
+
+
+	/**
+	 * Get the size of the reassembled payload.
+	 * @return The size in bytes.
+	 */
+	public long getSize();
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.util.List;
+
+import de.uplanet.annotation.Scriptable;
+
+
+/**
+ * An event that carries several received messages at once.
+ * <p>The event is created instead of one {@link IMQTTMessageWorkflowEvent}
+ * per message if the event source collects messages into batches. The
+ * messages are in the order of arrival, e.g.</p>
+ * <pre>
+ * g_event.messages.each { msg -&gt;
+ *     def payload = new String(msg.message.payload, "UTF-8")
+ *     ...
+ * }
+ * </pre>
+ */
+@Scriptable
+public interface IMQTTMessageBatchWorkflowEvent extends IMQTTWorkflowEvent
+{
+	/**
+	 * Get the messages of this batch.
+	 * @return An unmodifiable list of the messages in the order of arrival.
+	 */
+	public List<IMQTTMessageWorkflowEvent> getMessages();
+
+
+	/**
+	 * Get the number of messages in this batch.
+	 * @return The number of messages.
+	 */
+	public int getSize();
+}
@@ -18,6 +18,8 @@
 package org.example.mqtt.workflow.event;
 
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
 
 import de.uplanet.annotation.Scriptable;
@@ -41,4 +43,72 @@ public interface IMQTTMessageWorkflowEvent extends IMQTTWorkflowEvent
 	 * @return The received MQTT message that is associated with this event.
 	 */
 	public MqttReceivedMessage getMessage();
+
+
+	/**
+	 * Get the payload of the message.
+	 * <p>The array is not copied and must not be modified.</p>
+	 * @return The payload.
+	 */
+	public byte[] getPayload();
+
+
+	/**
+	 * Get the quality of service the message was delivered with.
+	 * @return The quality of service.
+	 */
+	public int getQos();
+
+
+	/**
+	 * Test if the message was retained by the server.
+	 * @return <code>true</code> if the message was retained, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isRetained();
+
+
+	/**
+	 * Test if the message may be a redelivery.
+	 * @return <code>true</code> if the duplicate flag is set, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isDuplicate();
+
+
+	/**
+	 * Get the identifier of the message, which is used to acknowledge it.
+	 * @return The identifier.
+	 */
+	public int getMessageId();
+
+
+	/**
+	 * Get the payload of the message as an UTF-8 encoded string.
+	 * <p>The string is decoded once per event.</p>
+	 * @return The payload as a string.
+	 */
+	public String getPayloadAsString();
+
+
+	/**
+	 * Get the payload of the message as a parsed JSON document.
+	 * <p>The payload is parsed once per event, when this method is called
+	 * for the first time. Objects are represented by unmodifiable maps,
+	 * arrays by unmodifiable lists, so that scripts can access fields
+	 * like <code>g_event.payloadAsJson.sensor.temperature</code>.</p>
+	 * @return The value of the JSON document.
+	 * @throws IllegalArgumentException If the payload is not a valid
+	 *    JSON document.
+	 */
+	public Object getPayloadAsJson();
+
+
+	/**
+	 * Get a read-only view of the payload of the message.
+	 * <p>The payload is not copied. Each call returns a buffer with its
+	 * own position and limit.</p>
+	 * @return The payload.
+	 */
+	public ByteBuffer getPayloadBuffer();
 }
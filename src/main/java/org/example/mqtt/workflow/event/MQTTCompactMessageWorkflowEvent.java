@@ -0,0 +1,184 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
+
+
+/**
+ * A message event that keeps only the payload and the attributes
+ * of the received message.
+ * <p>The event does not retain the message object of the MQTT client,
+ * which reduces the memory used by events that wait to be processed.
+ * {@link #getMessage()} creates an equivalent message on each call.</p>
+ */
+public final class MQTTCompactMessageWorkflowEvent implements IMQTTMessageWorkflowEvent
+{
+	private static final byte QOS_MASK = 0x03;
+
+	private static final byte RETAINED = 0x04;
+
+	private static final byte DUPLICATE = 0x08;
+
+	private final String m_strEventSourceGuid;
+
+	private final String m_strTopic;
+
+	private final byte[] m_payload;
+
+	private final int m_iMessageId;
+
+	private final byte m_flags;
+
+	private MQTTPayloadViews m_views;
+
+
+	/**
+	 * @param p_strEventSourceGuid The GUID of the event source.
+	 * @param p_strTopic The topic. Event sources should pass the same
+	 *    instance for equal topics, so that it is shared by queued events.
+	 * @param p_message The received message.
+	 */
+	public MQTTCompactMessageWorkflowEvent(String p_strEventSourceGuid, String p_strTopic, MqttMessage p_message)
+	{
+		m_strEventSourceGuid = p_strEventSourceGuid;
+		m_strTopic           = p_strTopic;
+		m_payload            = p_message.getPayload();
+		m_iMessageId         = p_message.getId();
+		m_flags              = (byte)((p_message.getQos() & QOS_MASK) |
+		                              (p_message.isRetained()  ? RETAINED  : 0) |
+		                              (p_message.isDuplicate() ? DUPLICATE : 0));
+	}
+
+
+	@Override
+	public String getEventSourceGuid()
+	{
+		return m_strEventSourceGuid;
+	}
+
+
+	@Override
+	public String getTopic()
+	{
+		return m_strTopic;
+	}
+
+
+	@Override
+	public MqttReceivedMessage getMessage()
+	{
+		final MqttReceivedMessage l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(m_payload);
+		l_message.setQos(getQos());
+		l_message.setRetained(isRetained());
+		l_message.setDuplicate(isDuplicate());
+		l_message.setMessageId(m_iMessageId);
+		l_message.setId(m_iMessageId);
+
+		return l_message;
+	}
+
+
+	@Override
+	public byte[] getPayload()
+	{
+		return m_payload;
+	}
+
+
+	@Override
+	public int getQos()
+	{
+		return m_flags & QOS_MASK;
+	}
+
+
+	@Override
+	public boolean isRetained()
+	{
+		return (m_flags & RETAINED) != 0;
+	}
+
+
+	@Override
+	public boolean isDuplicate()
+	{
+		return (m_flags & DUPLICATE) != 0;
+	}
+
+
+	@Override
+	public int getMessageId()
+	{
+		return m_iMessageId;
+	}
+
+
+	@Override
+	public String getPayloadAsString()
+	{
+		return _getViews().getString();
+	}
+
+
+	@Override
+	public Object getPayloadAsJson()
+	{
+		return _getViews().getJson();
+	}
+
+
+	@Override
+	public ByteBuffer getPayloadBuffer()
+	{
+		return _getViews().getBuffer();
+	}
+
+
+	private synchronized MQTTPayloadViews _getViews()
+	{
+		if (m_views == null)
+			m_views = new MQTTPayloadViews(m_payload);
+
+		return m_views;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append(super.toString());
+		l_sbuf.append('(');
+		l_sbuf.append(m_strEventSourceGuid);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_strTopic);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_payload.length);
+		l_sbuf.append(" bytes)");
+
+		return l_sbuf.toString();
+	}
+}
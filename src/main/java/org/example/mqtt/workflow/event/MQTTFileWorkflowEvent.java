@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.io.File;
+
+
+public final class MQTTFileWorkflowEvent implements IMQTTFileWorkflowEvent
+{
+	private final String m_strEventSourceGuid;
+
+	private final String m_strTopic;
+
+	private final File m_file;
+
+	private final long m_lSize;
+
+
+	public MQTTFileWorkflowEvent(String p_strEventSourceGuid, String p_strTopic, File p_file, long p_lSize)
+	{
+		m_strEventSourceGuid = p_strEventSourceGuid;
+		m_strTopic           = p_strTopic;
+		m_file               = p_file;
+		m_lSize              = p_lSize;
+	}
+
+
+	@Override
+	public String getEventSourceGuid()
+	{
+		return m_strEventSourceGuid;
+	}
+
+
+	@Override
+	public String getTopic()
+	{
+		return m_strTopic;
+	}
+
+
+	@Override
+	public File getFile()
+	{
+		return m_file;
+	}
+
+
+	@Override
+	public long getSize()
+	{
+		return m_lSize;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append(super.toString());
+		l_sbuf.append('(');
+		l_sbuf.append(m_strEventSourceGuid);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_strTopic);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_file);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_lSize);
+		l_sbuf.append(')');
+
+		return l_sbuf.toString();
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.util.Collections;
+import java.util.List;
+
+
+public final class MQTTMessageBatchWorkflowEvent implements IMQTTMessageBatchWorkflowEvent
+{
+	private final String m_strEventSourceGuid;
+
+	private final List<IMQTTMessageWorkflowEvent> m_messages;
+
+
+	/**
+	 * @param p_strEventSourceGuid The GUID of the event source.
+	 * @param p_messages The messages. The list is not copied and
+	 *    must not be modified afterwards.
+	 */
+	public MQTTMessageBatchWorkflowEvent(String p_strEventSourceGuid, List<? extends IMQTTMessageWorkflowEvent> p_messages)
+	{
+		m_strEventSourceGuid = p_strEventSourceGuid;
+		m_messages           = Collections.unmodifiableList(p_messages);
+	}
+
+
+	@Override
+	public String getEventSourceGuid()
+	{
+		return m_strEventSourceGuid;
+	}
+
+
+	@Override
+	public List<IMQTTMessageWorkflowEvent> getMessages()
+	{
+		return m_messages;
+	}
+
+
+	@Override
+	public int getSize()
+	{
+		return m_messages.size();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder l_sbuf = new StringBuilder(128);
+
+		l_sbuf.append(super.toString());
+		l_sbuf.append('(');
+		l_sbuf.append(m_strEventSourceGuid);
+		l_sbuf.append(", ");
+		l_sbuf.append(m_messages.size());
+		l_sbuf.append(" messages)");
+
+		return l_sbuf.toString();
+	}
+}
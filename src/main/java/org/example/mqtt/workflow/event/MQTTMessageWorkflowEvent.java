@@ -18,6 +18,8 @@
 package org.example.mqtt.workflow.event;
 
 
+import java.nio.ByteBuffer;
+
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
 
 
@@ -32,6 +34,8 @@ public final class MQTTMessageWorkflowEvent implements IMQTTMessageWorkflowEvent
 
 	private final MqttReceivedMessage m_message;
 
+	private MQTTPayloadViews m_views;
+
 
 	public MQTTMessageWorkflowEvent(String p_strEventSourceGuid, String p_strTopic, MqttReceivedMessage p_message)
 	{
@@ -62,6 +66,71 @@ public final class MQTTMessageWorkflowEvent implements IMQTTMessageWorkflowEvent
 	}
 
 
+	@Override
+	public byte[] getPayload()
+	{
+		return m_message.getPayload();
+	}
+
+
+	@Override
+	public int getQos()
+	{
+		return m_message.getQos();
+	}
+
+
+	@Override
+	public boolean isRetained()
+	{
+		return m_message.isRetained();
+	}
+
+
+	@Override
+	public boolean isDuplicate()
+	{
+		return m_message.isDuplicate();
+	}
+
+
+	@Override
+	public int getMessageId()
+	{
+		return m_message.getId();
+	}
+
+
+	@Override
+	public String getPayloadAsString()
+	{
+		return _getViews().getString();
+	}
+
+
+	@Override
+	public Object getPayloadAsJson()
+	{
+		return _getViews().getJson();
+	}
+
+
+	@Override
+	public ByteBuffer getPayloadBuffer()
+	{
+		return _getViews().getBuffer();
+	}
+
+
+	private synchronized MQTTPayloadViews _getViews()
+	{
+		if (m_views == null)
+			m_views = new MQTTPayloadViews(m_message.getPayload());
+
+		return m_views;
+	}
+
+
 	@Override
 	public String toString()
 	{
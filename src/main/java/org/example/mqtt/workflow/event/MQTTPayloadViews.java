@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.event;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.example.mqtt.util.MQTTJsonUtil;
+
+
+/**
+ * The decoded forms of a message payload, each computed at most once.
+ * <p>Events create an instance only when a decoded form is requested
+ * for the first time, so that queued events that are never decoded
+ * do not carry the fields.</p>
+ */
+final class MQTTPayloadViews
+{
+	private final byte[] m_payload;
+
+	private String m_strPayload;
+
+	private Object m_json;
+
+	private boolean m_bJsonParsed;
+
+	private ByteBuffer m_buffer;
+
+
+	MQTTPayloadViews(byte[] p_payload)
+	{
+		m_payload = p_payload;
+	}
+
+
+	synchronized String getString()
+	{
+		if (m_strPayload == null)
+			m_strPayload = new String(m_payload, StandardCharsets.UTF_8);
+
+		return m_strPayload;
+	}
+
+
+	synchronized Object getJson()
+	{
+		if (!m_bJsonParsed)
+		{
+			m_json        = MQTTJsonUtil.parse(m_payload);
+			m_bJsonParsed = true;
+		}
+
+		return m_json;
+	}
+
+
+	synchronized ByteBuffer getBuffer()
+	{
+		if (m_buffer == null)
+			m_buffer = ByteBuffer.wrap(m_payload).asReadOnlyBuffer();
+
+		// the callers must not share the position
+		return m_buffer.duplicate();
+	}
+}
@@ -20,6 +20,8 @@ package org.example.mqtt.workflow.eventhandler;
 
 import org.example.mqtt.workflow.event.IAfterStopMQTTWorkflowEvent;
 import org.example.mqtt.workflow.event.IBeforeStartMQTTWorkflowEvent;
+import org.example.mqtt.workflow.event.IMQTTFileWorkflowEvent;
+import org.example.mqtt.workflow.event.IMQTTMessageBatchWorkflowEvent;
 import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
 import org.example.mqtt.workflow.event.IMQTTWorkflowEvent;
 
@@ -43,6 +45,10 @@ public final class MQTTWorkflowEventHandler extends AbstractWorkflowEventHandler
 
 	private boolean m_bHandleMessageEvent = true;
 
+	private boolean m_bHandleFileEvent = true;
+
+	private boolean m_bHandleBatchEvent = true;
+
 
 	public MQTTWorkflowEventHandler(String p_strGuid)
 	{
@@ -94,6 +100,28 @@ public final class MQTTWorkflowEventHandler extends AbstractWorkflowEventHandler
 	}
 
 
+	public boolean isHandleFileEvent()
+	{
+		return m_bHandleFileEvent;
+	}
+
+	public void setHandleFileEvent(boolean p_bHandleFileEvent)
+	{
+		m_bHandleFileEvent = p_bHandleFileEvent;
+	}
+
+
+	public boolean isHandleBatchEvent()
+	{
+		return m_bHandleBatchEvent;
+	}
+
+	public void setHandleBatchEvent(boolean p_bHandleBatchEvent)
+	{
+		m_bHandleBatchEvent = p_bHandleBatchEvent;
+	}
+
+
 	@Override
 	public boolean isHandlerFor(IWorkflowEvent p_evt, IWorkflowProcessingContext p_wfCtx)
 	{
@@ -143,6 +171,10 @@ public final class MQTTWorkflowEventHandler extends AbstractWorkflowEventHandler
 		// the rest of the filter chain...
 		if (p_evt instanceof IMQTTMessageWorkflowEvent)
 			return m_bHandleMessageEvent;
+		else if (p_evt instanceof IMQTTFileWorkflowEvent)
+			return m_bHandleFileEvent;
+		else if (p_evt instanceof IMQTTMessageBatchWorkflowEvent)
+			return m_bHandleBatchEvent;
 		else if (p_evt instanceof IBeforeStartMQTTWorkflowEvent)
 			return m_bHandleBeforeStartEvent;
 		else if (p_evt instanceof IAfterStopMQTTWorkflowEvent)
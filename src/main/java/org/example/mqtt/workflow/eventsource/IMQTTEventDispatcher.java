@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+/**
+ * Executes the dispatch of workflow events.
+ */
+interface IMQTTEventDispatcher
+{
+	/**
+	 * Execute the given task.
+	 * <p>If the dispatcher is saturated the caller is blocked until
+	 * there is room for the task. This propagates backpressure to the
+	 * MQTT client. Tasks that are dispatched after the dispatcher has
+	 * been closed are discarded.</p>
+	 * <p>Dispatchers that preserve an order execute tasks with equal keys
+	 * in the order in which they have been dispatched. Other dispatchers
+	 * ignore the key.</p>
+	 * @param p_strKey The ordering key, or <code>null</code>.
+	 * @param p_task The task.
+	 * @throws InterruptedException If the current thread has been interrupted.
+	 */
+	public void dispatch(String p_strKey, Runnable p_task)
+		throws InterruptedException;
+
+
+	/**
+	 * Get the number of tasks that have been accepted but not completed yet.
+	 * @return The number of pending tasks.
+	 */
+	public int getBacklog();
+
+
+	/**
+	 * Stop accepting tasks and wait for pending tasks to complete.
+	 * @param p_lTimeout The maximum time to wait in milliseconds. Tasks
+	 *    that are still pending afterwards are abandoned.
+	 */
+	public void close(long p_lTimeout);
+}
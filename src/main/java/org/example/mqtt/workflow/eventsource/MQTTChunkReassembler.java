@@ -0,0 +1,468 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.example.mqtt.codec.MQTTChunkHeader;
+import org.slf4j.Logger;
+
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
+
+
+/**
+ * Reassembles the chunks of chunked transfers into temporary files.
+ * <p>Chunks are written to the file as they arrive, so a transfer never
+ * occupies more heap than a single chunk. Chunks must arrive in order;
+ * redelivered chunks are ignored, and a missing chunk aborts the
+ * transfer. Transfers that do not make progress within the timeout
+ * are discarded. The number of transfers in progress, and the number of
+ * bytes held in temporary files, are limited; a transfer that would
+ * exceed one of the limits is discarded.</p>
+ * <p>Chunk messages are not acknowledged when they are written, but
+ * only when the event of the complete transfer has been processed,
+ * see {@link CompletedTransfer#acknowledge()}. Chunks that are ignored
+ * are acknowledged right away.</p>
+ */
+final class MQTTChunkReassembler
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTChunkReassembler.class);
+
+	/** The number of completed transfers that are remembered to detect redeliveries. */
+	private static final int COMPLETED_TRANSFERS = 256;
+
+	/**
+	 * Acknowledges chunk messages.
+	 */
+	@FunctionalInterface
+	interface IAcknowledger
+	{
+		/**
+		 * Acknowledge a message.
+		 * @param p_iMessageId The identifier of the message.
+		 * @param p_iQos The quality of service of the message.
+		 */
+		void acknowledge(int p_iMessageId, int p_iQos);
+	}
+
+	/**
+	 * A transfer whose chunks have all been written.
+	 */
+	static final class CompletedTransfer
+	{
+		private final MQTTChunkReassembler m_owner;
+
+		private final Path m_file;
+
+		private final long m_lSize;
+
+		private final int[] m_acks;
+
+		private CompletedTransfer(MQTTChunkReassembler p_owner, Path p_file, long p_lSize, int[] p_acks)
+		{
+			m_owner = p_owner;
+			m_file  = p_file;
+			m_lSize = p_lSize;
+			m_acks  = p_acks;
+		}
+
+		/**
+		 * Get the file that contains the reassembled payload.
+		 * The caller must {@link #delete() delete} the file.
+		 * @return The file.
+		 */
+		Path getFile()
+		{
+			return m_file;
+		}
+
+		/**
+		 * Get the size of the reassembled payload.
+		 * @return The size in bytes.
+		 */
+		long getSize()
+		{
+			return m_lSize;
+		}
+
+		/**
+		 * Delete the file, and release its size from the total size
+		 * of the reassembler.
+		 * @throws IOException If the file cannot be deleted.
+		 */
+		void delete()
+			throws IOException
+		{
+			m_owner._release(m_lSize);
+
+			Files.deleteIfExists(m_file);
+		}
+
+		/**
+		 * Acknowledge all chunk messages of the transfer.
+		 */
+		void acknowledge()
+		{
+			for (int l_iAck : m_acks)
+				m_owner.m_acknowledger.acknowledge(l_iAck >>> 2, l_iAck & 0x03);
+		}
+	}
+
+	private static final class TransferKey
+	{
+		private final String m_strTopic;
+
+		private final UUID m_id;
+
+		private TransferKey(String p_strTopic, UUID p_id)
+		{
+			m_strTopic = p_strTopic;
+			m_id       = p_id;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * m_strTopic.hashCode() + m_id.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object p_obj)
+		{
+			if (!(p_obj instanceof TransferKey))
+				return false;
+
+			return m_strTopic.equals(((TransferKey)p_obj).m_strTopic) && m_id.equals(((TransferKey)p_obj).m_id);
+		}
+	}
+
+	private static final class Transfer
+	{
+		private final Path m_file;
+
+		private final FileChannel m_channel;
+
+		private int m_iNextSequence;
+
+		private long m_lSize;
+
+		private long m_lLastChunk;
+
+		/** The message identifiers and QoS of the chunks, packed into <code>id &lt;&lt; 2 | qos</code>. */
+		private int[] m_acks = new int[16];
+
+		private int m_iAckCount;
+
+		private Transfer(Path p_file, FileChannel p_channel)
+		{
+			m_file    = p_file;
+			m_channel = p_channel;
+		}
+
+		private void addAck(int p_iMessageId, int p_iQos)
+		{
+			if (m_iAckCount == m_acks.length)
+				m_acks = Arrays.copyOf(m_acks, m_acks.length * 2);
+
+			m_acks[m_iAckCount++] = p_iMessageId << 2 | p_iQos;
+		}
+	}
+
+
+	private final Path m_directory;
+
+	private final long m_lTimeout;
+
+	private final long m_lMaxSize;
+
+	private final int m_iMaxTransfers;
+
+	private final long m_lMaxTotalSize;
+
+	private final IAcknowledger m_acknowledger;
+
+	/** The size of the temporary files of transfers in progress, and of completed transfers that have not been deleted. */
+	private long m_lTotalSize;
+
+	private final Map<TransferKey, Transfer> m_transfers = new HashMap<>();
+
+	private final Map<TransferKey, Boolean> m_completed = new LinkedHashMap<TransferKey, Boolean>()
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TransferKey, Boolean> p_eldest)
+		{
+			return size() > COMPLETED_TRANSFERS;
+		}
+	};
+
+
+	/**
+	 * @param p_directory The directory for temporary files.
+	 * @param p_lTimeout The time in milliseconds after which an incomplete
+	 *    transfer without a new chunk is discarded.
+	 * @param p_lMaxSize The maximum size of a reassembled payload in bytes.
+	 * @param p_iMaxTransfers The maximum number of transfers in progress.
+	 * @param p_lMaxTotalSize The maximum number of bytes in the temporary
+	 *    files of transfers in progress and of completed transfers that
+	 *    have not been deleted.
+	 * @param p_acknowledger Acknowledges the chunk messages.
+	 */
+	MQTTChunkReassembler(Path          p_directory,
+	                     long          p_lTimeout,
+	                     long          p_lMaxSize,
+	                     int           p_iMaxTransfers,
+	                     long          p_lMaxTotalSize,
+	                     IAcknowledger p_acknowledger)
+	{
+		m_directory     = p_directory;
+		m_lTimeout      = p_lTimeout;
+		m_lMaxSize      = p_lMaxSize;
+		m_iMaxTransfers = p_iMaxTransfers;
+		m_lMaxTotalSize = p_lMaxTotalSize;
+		m_acknowledger  = p_acknowledger;
+	}
+
+
+	/**
+	 * Get the number of bytes in the temporary files of transfers in
+	 * progress and of completed transfers that have not been deleted.
+	 * @return The number of bytes.
+	 */
+	synchronized long getTotalSize()
+	{
+		return m_lTotalSize;
+	}
+
+
+	/**
+	 * Add a chunk to its transfer.
+	 * @param p_strTopic The topic the chunk was published to.
+	 * @param p_payload The payload of the chunk message, including the chunk header.
+	 * @param p_iMessageId The identifier of the chunk message.
+	 * @param p_iQos The quality of service of the chunk message.
+	 * @return The completed transfer if this was the last chunk of the
+	 *    transfer, or <code>null</code> otherwise.
+	 * @throws IOException If the chunk is not valid, or cannot be written.
+	 *    The transfer the chunk belongs to is discarded in this case, and
+	 *    its chunks are not acknowledged.
+	 */
+	synchronized CompletedTransfer append(String p_strTopic, byte[] p_payload, int p_iMessageId, int p_iQos)
+		throws IOException
+	{
+		final long            l_lNow = System.currentTimeMillis();
+		final MQTTChunkHeader l_header;
+		final TransferKey     l_key;
+		final long            l_lChunkSize;
+		Transfer              l_transfer;
+
+		_expire(l_lNow);
+
+		l_header   = MQTTChunkHeader.read(p_payload);
+		l_key      = new TransferKey(p_strTopic, l_header.getTransferId());
+		l_transfer = m_transfers.get(l_key);
+
+		if (l_transfer == null)
+		{
+			if (m_completed.containsKey(l_key))
+			{
+				// redelivery
+				m_acknowledger.acknowledge(p_iMessageId, p_iQos);
+				return null;
+			}
+
+			if (l_header.getSequence() != 0)
+			{
+				ms_log.warn("Ignoring chunk " + l_header + " on topic " + p_strTopic + " of an unknown transfer.");
+				m_acknowledger.acknowledge(p_iMessageId, p_iQos);
+				return null;
+			}
+
+			if (m_transfers.size() >= m_iMaxTransfers)
+			{
+				throw new IOException
+					("Cannot start the transfer " + l_header.getTransferId() + " on topic " + p_strTopic +
+					 ", since " + m_iMaxTransfers + " transfers are in progress.");
+			}
+
+			l_transfer = _open();
+
+			m_transfers.put(l_key, l_transfer);
+		}
+		else if (l_header.getSequence() < l_transfer.m_iNextSequence)
+		{
+			// redelivery
+			m_acknowledger.acknowledge(p_iMessageId, p_iQos);
+			return null;
+		}
+
+		try
+		{
+			if (l_header.getSequence() > l_transfer.m_iNextSequence)
+			{
+				throw new IOException
+					("Missing chunk " + l_transfer.m_iNextSequence + " of transfer " +
+					 l_header.getTransferId() + " on topic " + p_strTopic + ".");
+			}
+
+			l_lChunkSize = p_payload.length - MQTTChunkHeader.HEADER_SIZE;
+
+			if (l_transfer.m_lSize + l_lChunkSize > m_lMaxSize)
+			{
+				throw new IOException
+					("The transfer " + l_header.getTransferId() + " on topic " + p_strTopic +
+					 " exceeds the maximum size of " + m_lMaxSize + " bytes.");
+			}
+
+			if (m_lTotalSize + l_lChunkSize > m_lMaxTotalSize)
+			{
+				throw new IOException
+					("The transfer " + l_header.getTransferId() + " on topic " + p_strTopic +
+					 " exceeds the maximum total size of " + m_lMaxTotalSize + " bytes of all transfers.");
+			}
+
+			_write(l_transfer.m_channel, p_payload);
+
+			l_transfer.m_lSize += l_lChunkSize;
+			m_lTotalSize       += l_lChunkSize;
+
+			l_transfer.addAck(p_iMessageId, p_iQos);
+			l_transfer.m_iNextSequence++;
+			l_transfer.m_lLastChunk = l_lNow;
+
+			if (!l_header.isLast())
+				return null;
+
+			m_transfers.remove(l_key);
+			m_completed.put(l_key, Boolean.TRUE);
+			l_transfer.m_channel.close();
+
+			return new CompletedTransfer(this,
+			                             l_transfer.m_file,
+			                             l_transfer.m_lSize,
+			                             Arrays.copyOf(l_transfer.m_acks, l_transfer.m_iAckCount));
+		}
+		catch (IOException l_e)
+		{
+			m_transfers.remove(l_key);
+			_discard(l_transfer);
+
+			throw l_e;
+		}
+	}
+
+
+	private Transfer _open()
+		throws IOException
+	{
+		final Path l_file;
+
+		Files.createDirectories(m_directory);
+
+		l_file = Files.createTempFile(m_directory, "ix-mqtt-transfer-", ".tmp");
+
+		try
+		{
+			return new Transfer(l_file, FileChannel.open(l_file, StandardOpenOption.WRITE));
+		}
+		catch (IOException l_e)
+		{
+			Files.deleteIfExists(l_file);
+			throw l_e;
+		}
+	}
+
+
+	private static void _write(FileChannel p_channel, byte[] p_payload)
+		throws IOException
+	{
+		final ByteBuffer l_buf;
+
+		l_buf = ByteBuffer.wrap(p_payload, MQTTChunkHeader.HEADER_SIZE, p_payload.length - MQTTChunkHeader.HEADER_SIZE);
+
+		while (l_buf.hasRemaining())
+			p_channel.write(l_buf);
+	}
+
+
+	private void _expire(long p_lNow)
+	{
+		final Iterator<Transfer> l_iter = m_transfers.values().iterator();
+
+		while (l_iter.hasNext())
+		{
+			final Transfer l_transfer = l_iter.next();
+
+			if (p_lNow - l_transfer.m_lLastChunk > m_lTimeout)
+			{
+				ms_log.warn("Discarding the incomplete chunked transfer " + l_transfer.m_file + ".");
+
+				l_iter.remove();
+				_discard(l_transfer);
+			}
+		}
+	}
+
+
+	private synchronized void _release(long p_lSize)
+	{
+		m_lTotalSize -= p_lSize;
+	}
+
+
+	private void _discard(Transfer p_transfer)
+	{
+		m_lTotalSize -= p_transfer.m_lSize;
+
+		try
+		{
+			p_transfer.m_channel.close();
+			Files.deleteIfExists(p_transfer.m_file);
+		}
+		catch (IOException l_e)
+		{
+			ms_log.warn("Cannot delete the temporary file " + p_transfer.m_file + ".", l_e);
+		}
+	}
+
+
+	/**
+	 * Discard all incomplete transfers.
+	 */
+	synchronized void close()
+	{
+		for (Transfer l_transfer : m_transfers.values())
+			_discard(l_transfer);
+
+		m_transfers.clear();
+	}
+}
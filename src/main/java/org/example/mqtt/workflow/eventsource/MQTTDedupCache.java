@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A fixed-size cache of 64-bit message hashes whose entries
+ * expire after a given time.
+ * <p>The cache is organized in buckets of a few slots. If all slots of
+ * a bucket are in use, the oldest entry is evicted, so under pressure
+ * a duplicate may go undetected, but a message is never reported as
+ * a duplicate unless its hash has been seen before.</p>
+ */
+final class MQTTDedupCache
+{
+	/** The number of slots per bucket. */
+	private static final int WAYS = 4;
+
+	/** Marks an empty slot. */
+	private static final long EMPTY = 0L;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long[] m_hashes;
+
+	private final long[] m_times;
+
+	private final int m_iBucketMask;
+
+	private final long m_lTimeToLive;
+
+	private long m_lHits;
+
+	private long m_lMisses;
+
+
+	/**
+	 * @param p_iCapacity The number of entries the cache should hold.
+	 * @param p_lTimeToLive The time in milliseconds after which an entry expires.
+	 */
+	MQTTDedupCache(int p_iCapacity, long p_lTimeToLive)
+	{
+		final int l_iBuckets;
+
+		l_iBuckets = Integer.highestOneBit(Math.max((Math.min(p_iCapacity, 1 << 28) + WAYS - 1) / WAYS, 1) * 2 - 1);
+
+		m_hashes      = new long[l_iBuckets * WAYS];
+		m_times       = new long[l_iBuckets * WAYS];
+		m_iBucketMask = l_iBuckets - 1;
+		m_lTimeToLive = TimeUnit.MILLISECONDS.toNanos(p_lTimeToLive);
+	}
+
+
+	/**
+	 * Compute the hash of a message.
+	 * @param p_strKey A string, e.g. the topic, or <code>null</code>.
+	 * @param p_payload The payload, or <code>null</code>.
+	 * @return The hash.
+	 */
+	static long hash(String p_strKey, byte[] p_payload)
+	{
+		long l_lHash = FNV_OFFSET_BASIS;
+
+		if (p_strKey != null)
+		{
+			for (int i = 0; i < p_strKey.length(); i++)
+			{
+				final char l_ch = p_strKey.charAt(i);
+
+				l_lHash = (l_lHash ^ (l_ch & 0xFF)) * FNV_PRIME;
+				l_lHash = (l_lHash ^ (l_ch >>> 8)) * FNV_PRIME;
+			}
+		}
+
+		// separate the key from the payload, so that "a" + "bc" differs from "ab" + "c"
+		l_lHash = (l_lHash ^ 0xFF) * FNV_PRIME;
+
+		if (p_payload != null)
+		{
+			for (byte l_b : p_payload)
+				l_lHash = (l_lHash ^ (l_b & 0xFF)) * FNV_PRIME;
+		}
+
+		return l_lHash;
+	}
+
+
+	/**
+	 * Add a hash to the cache.
+	 * @param p_lHash The hash.
+	 * @return <code>true</code> if the hash has been added, or
+	 *    <code>false</code> if it is already in the cache.
+	 */
+	boolean add(long p_lHash)
+	{
+		return add(p_lHash, true);
+	}
+
+
+	/**
+	 * Add a hash to the cache.
+	 * @param p_lHash The hash.
+	 * @param p_bDetect <code>true</code> if a hash that is already in the
+	 *    cache should be reported, or <code>false</code> if its time should
+	 *    be refreshed instead, e.g. because the message is not a redelivery.
+	 * @return <code>true</code> if the hash has been added or refreshed, or
+	 *    <code>false</code> if it is already in the cache and should be
+	 *    reported.
+	 */
+	synchronized boolean add(long p_lHash, boolean p_bDetect)
+	{
+		final long l_lHash  = p_lHash != EMPTY ? p_lHash : 1L;
+		final int  l_iStart = _getBucket(l_lHash) * WAYS;
+		final long l_lNow   = System.nanoTime();
+		int        l_iVictim;
+		long       l_lVictimAge;
+
+		l_iVictim    = l_iStart;
+		l_lVictimAge = -1L;
+
+		for (int i = l_iStart; i < l_iStart + WAYS; i++)
+		{
+			final long l_lAge = m_hashes[i] == EMPTY ? Long.MAX_VALUE : l_lNow - m_times[i];
+
+			if (m_hashes[i] == l_lHash && l_lAge <= m_lTimeToLive)
+			{
+				if (p_bDetect)
+				{
+					m_lHits++;
+					return false;
+				}
+
+				m_times[i] = l_lNow;
+				m_lMisses++;
+
+				return true;
+			}
+
+			if (l_lAge > l_lVictimAge)
+			{
+				l_iVictim    = i;
+				l_lVictimAge = l_lAge;
+			}
+		}
+
+		m_hashes[l_iVictim] = l_lHash;
+		m_times[l_iVictim]  = l_lNow;
+		m_lMisses++;
+
+		return true;
+	}
+
+
+	/**
+	 * Remove a hash from the cache, e.g. because the processing of
+	 * the message failed and a redelivery must not be dropped.
+	 * @param p_lHash The hash.
+	 */
+	synchronized void remove(long p_lHash)
+	{
+		final long l_lHash  = p_lHash != EMPTY ? p_lHash : 1L;
+		final int  l_iStart = _getBucket(l_lHash) * WAYS;
+
+		for (int i = l_iStart; i < l_iStart + WAYS; i++)
+		{
+			if (m_hashes[i] == l_lHash)
+				m_hashes[i] = EMPTY;
+		}
+	}
+
+
+	/**
+	 * Get the number of messages that have been found in the cache.
+	 * @return The number of duplicates.
+	 */
+	synchronized long getHits()
+	{
+		return m_lHits;
+	}
+
+
+	/**
+	 * Get the number of messages that have not been found in the cache.
+	 * @return The number of first deliveries.
+	 */
+	synchronized long getMisses()
+	{
+		return m_lMisses;
+	}
+
+
+	private int _getBucket(long p_lHash)
+	{
+		return (int)(p_lHash ^ (p_lHash >>> 32)) & m_iBucketMask;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+/**
+ * Determines the key that identifies redelivered copies of a message if
+ * the {@link MQTTWorkflowEventSource} drops duplicates.
+ */
+public enum MQTTDedupKey
+{
+	/**
+	 * A hash of the topic and the payload of the message.
+	 */
+	TOPIC_PAYLOAD,
+
+	/**
+	 * The value of a top-level field of a JSON payload, e.g. a message
+	 * identifier assigned by the producer. Messages without the field
+	 * are identified by their topic and payload.
+	 */
+	PAYLOAD_FIELD
+}
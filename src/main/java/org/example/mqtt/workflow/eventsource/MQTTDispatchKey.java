@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+/**
+ * Determines the key that assigns a received message to a lane if the
+ * {@link MQTTWorkflowEventSource} dispatches in the
+ * {@link MQTTDispatchMode#PARTITIONED partitioned} mode.
+ */
+public enum MQTTDispatchKey
+{
+	/**
+	 * The topic of the message.
+	 */
+	TOPIC,
+
+	/**
+	 * A single level of the topic, e.g. the device identifier
+	 * in <code>devices/4711/state</code>.
+	 */
+	TOPIC_SEGMENT,
+
+	/**
+	 * The value of a top-level field of a JSON payload.
+	 */
+	PAYLOAD_FIELD
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+/**
+ * Determines how the {@link MQTTWorkflowEventSource} dispatches
+ * workflow events for received messages.
+ */
+public enum MQTTDispatchMode
+{
+	/**
+	 * Events are dispatched on the callback thread of the MQTT client,
+	 * one after the other.
+	 */
+	DIRECT,
+
+	/**
+	 * Events are handed to a pool of dispatch threads with a bounded
+	 * queue. Events may be processed concurrently and in any order.
+	 */
+	EXECUTOR,
+
+	/**
+	 * Events are assigned to one of several serial lanes by the hash of
+	 * a {@link MQTTDispatchKey key}. Events with the same key are processed
+	 * in the order of arrival, events with different keys may be processed
+	 * concurrently.
+	 */
+	PARTITIONED
+}
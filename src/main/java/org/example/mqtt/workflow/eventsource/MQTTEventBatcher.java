@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.slf4j.Logger;
+
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
+
+
+/**
+ * Collects message events into batches.
+ * <p>A batch is handed to the sink when it has reached the maximum
+ * number of messages, or when its first message has waited for the
+ * linger time. If the events are dispatched to lanes, there is one batch
+ * per lane, so the batches keep the order of the events of each lane.
+ * Batches are handed to the sink while the lock is held, which keeps
+ * the order of consecutive batches of the same lane.</p>
+ */
+final class MQTTEventBatcher
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTEventBatcher.class);
+
+	/**
+	 * Receives complete batches.
+	 */
+	@FunctionalInterface
+	interface IBatchSink
+	{
+		/**
+		 * Dispatch a batch.
+		 * @param p_strKey The ordering key of the first event of the batch.
+		 * @param p_batch The events.
+		 * @throws InterruptedException If the current thread has been interrupted.
+		 */
+		void dispatch(String p_strKey, List<IMQTTMessageWorkflowEvent> p_batch)
+			throws InterruptedException;
+	}
+
+	private static final class Batch
+	{
+		private String m_strKey;
+
+		private List<IMQTTMessageWorkflowEvent> m_events = new ArrayList<>();
+
+		private long m_lDeadline;
+	}
+
+
+	private final Batch[] m_batches;
+
+	private final ToIntFunction<String> m_partitioner;
+
+	private final int m_iMaxMessages;
+
+	private final long m_lLingerNanos;
+
+	private final IBatchSink m_sink;
+
+	private final Object m_lock = new Object();
+
+	private final Thread m_thread;
+
+	private boolean m_bClosed;
+
+
+	/**
+	 * @param p_strName The name of the thread that flushes expired batches.
+	 * @param p_iPartitions The number of lanes.
+	 * @param p_partitioner Maps an ordering key to its lane.
+	 * @param p_iMaxMessages The maximum number of events per batch.
+	 * @param p_lLinger The maximum time in milliseconds the first event
+	 *    of a batch waits for further events.
+	 * @param p_sink The sink.
+	 */
+	MQTTEventBatcher(String                p_strName,
+	                 int                   p_iPartitions,
+	                 ToIntFunction<String> p_partitioner,
+	                 int                   p_iMaxMessages,
+	                 long                  p_lLinger,
+	                 IBatchSink            p_sink)
+	{
+		m_batches      = new Batch[p_iPartitions];
+		m_partitioner  = p_partitioner;
+		m_iMaxMessages = Math.max(1, p_iMaxMessages);
+		m_lLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, p_lLinger));
+		m_sink         = p_sink;
+		m_thread       = new Thread(this::_run, p_strName);
+
+		for (int i = 0; i < m_batches.length; i++)
+			m_batches[i] = new Batch();
+
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+
+	/**
+	 * Add an event to the batch of its lane.
+	 * <p>Events that are added after the batcher has been closed
+	 * are discarded.</p>
+	 * @param p_strKey The ordering key, or <code>null</code>.
+	 * @param p_evt The event.
+	 * @throws InterruptedException If the current thread has been interrupted
+	 *    while the sink was blocked.
+	 */
+	void add(String p_strKey, IMQTTMessageWorkflowEvent p_evt)
+		throws InterruptedException
+	{
+		synchronized (m_lock)
+		{
+			final Batch l_batch;
+
+			if (m_bClosed)
+				return;
+
+			l_batch = m_batches[m_partitioner.applyAsInt(p_strKey)];
+
+			if (l_batch.m_events.isEmpty())
+			{
+				l_batch.m_strKey    = p_strKey;
+				l_batch.m_lDeadline = System.nanoTime() + m_lLingerNanos;
+
+				m_lock.notifyAll();
+			}
+
+			l_batch.m_events.add(p_evt);
+
+			if (l_batch.m_events.size() >= m_iMaxMessages)
+				_flush(l_batch);
+		}
+	}
+
+
+	/**
+	 * Stop the batcher and hand all pending batches to the sink.
+	 * @param p_lTimeout The maximum time in milliseconds to wait
+	 *    for the pending batches to be handed off.
+	 */
+	void close(long p_lTimeout)
+	{
+		synchronized (m_lock)
+		{
+			m_bClosed = true;
+			m_lock.notifyAll();
+		}
+
+		try
+		{
+			m_thread.join(Math.max(1L, p_lTimeout));
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (m_thread.isAlive())
+			m_thread.interrupt();
+	}
+
+
+	private void _run()
+	{
+		synchronized (m_lock)
+		{
+			try
+			{
+				while (!m_bClosed)
+				{
+					final long l_lNow  = System.nanoTime();
+					long       l_lNext = Long.MAX_VALUE;
+
+					for (Batch l_batch : m_batches)
+					{
+						if (l_batch.m_events.isEmpty())
+							continue;
+
+						if (l_batch.m_lDeadline - l_lNow <= 0L)
+							_flush(l_batch);
+						else
+							l_lNext = Math.min(l_lNext, l_batch.m_lDeadline - l_lNow);
+					}
+
+					if (l_lNext == Long.MAX_VALUE)
+						m_lock.wait();
+					else
+						m_lock.wait(l_lNext / 1000000L, (int)(l_lNext % 1000000L));
+				}
+
+				for (Batch l_batch : m_batches)
+				{
+					if (!l_batch.m_events.isEmpty())
+						_flush(l_batch);
+				}
+			}
+			catch (InterruptedException l_e)
+			{
+				m_bClosed = true;
+			}
+		}
+	}
+
+
+	/**
+	 * Hand a batch to the sink. The caller must hold the lock.
+	 */
+	private void _flush(Batch p_batch)
+		throws InterruptedException
+	{
+		final List<IMQTTMessageWorkflowEvent> l_events = p_batch.m_events;
+
+		p_batch.m_events = new ArrayList<>(Math.min(m_iMaxMessages, 1024));
+
+		try
+		{
+			m_sink.dispatch(p_batch.m_strKey, l_events);
+		}
+		catch (RuntimeException l_e)
+		{
+			ms_log.error("Error while dispatching a batch of " + l_events.size() + " MQTT messages.", l_e);
+		}
+	}
+}
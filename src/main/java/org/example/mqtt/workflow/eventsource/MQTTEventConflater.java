@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.slf4j.Logger;
+
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
+
+
+/**
+ * Keeps only the latest message event per topic, and hands the
+ * survivors to a sink at the end of each interval.
+ * <p>At most one event per topic is handed off per interval, and a
+ * new event of a topic is held until the next interval. The events of
+ * a topic are therefore processed in order only if the sink processes
+ * the events of a topic one after the other, e.g. with the dispatch
+ * modes <code>DIRECT</code> and <code>PARTITIONED</code> with a topic
+ * based dispatch key. With the dispatch mode <code>EXECUTOR</code>
+ * an event may be processed concurrently with, or even after, the
+ * event of the same topic that has been handed off in the next
+ * interval.</p>
+ */
+final class MQTTEventConflater
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTEventConflater.class);
+
+	/**
+	 * Receives the latest events.
+	 */
+	@FunctionalInterface
+	interface IConflatedSink
+	{
+		/**
+		 * Dispatch an event.
+		 * @param p_strKey The ordering key of the event.
+		 * @param p_evt The event.
+		 * @throws InterruptedException If the current thread has been interrupted.
+		 */
+		void dispatch(String p_strKey, IMQTTMessageWorkflowEvent p_evt)
+			throws InterruptedException;
+	}
+
+	private static final class Entry
+	{
+		private final String m_strKey;
+
+		private final IMQTTMessageWorkflowEvent m_evt;
+
+
+		private Entry(String p_strKey, IMQTTMessageWorkflowEvent p_evt)
+		{
+			m_strKey = p_strKey;
+			m_evt    = p_evt;
+		}
+	}
+
+
+	private final Map<String, Entry> m_latest = new ConcurrentHashMap<>();
+
+	private final long m_lIntervalNanos;
+
+	private final IConflatedSink m_sink;
+
+	private final AtomicLong m_lConflated = new AtomicLong();
+
+	private final Object m_lock = new Object();
+
+	private final Thread m_thread;
+
+	private volatile boolean m_bClosed;
+
+
+	/**
+	 * @param p_strName The name of the thread that hands off the events.
+	 * @param p_lInterval The interval in milliseconds.
+	 * @param p_sink The sink.
+	 */
+	MQTTEventConflater(String p_strName, long p_lInterval, IConflatedSink p_sink)
+	{
+		m_lIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, p_lInterval));
+		m_sink           = p_sink;
+		m_thread         = new Thread(this::_run, p_strName);
+
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+
+	/**
+	 * Add an event, replacing a pending event of the same topic.
+	 * <p>An event that is added after the conflater has been closed
+	 * is not accepted, since the pending events may already have been
+	 * handed off for the last time. In this case the given event is
+	 * returned.</p>
+	 * @param p_strKey The ordering key, or <code>null</code>.
+	 * @param p_evt The event.
+	 * @return The replaced event or the given event, which will not be
+	 *    dispatched, or <code>null</code> if there was no pending event
+	 *    of the topic.
+	 */
+	IMQTTMessageWorkflowEvent add(String p_strKey, IMQTTMessageWorkflowEvent p_evt)
+	{
+		final Entry l_previous;
+
+		// the final flush starts after m_bClosed has been set under the lock,
+		// so it sees every event that has been added before
+		synchronized (m_lock)
+		{
+			if (m_bClosed)
+				return p_evt;
+
+			l_previous = m_latest.put(p_evt.getTopic(), new Entry(p_strKey, p_evt));
+		}
+
+		if (l_previous == null)
+			return null;
+
+		m_lConflated.incrementAndGet();
+
+		return l_previous.m_evt;
+	}
+
+
+	/**
+	 * Get the number of events that have been replaced by a later
+	 * event of the same topic.
+	 * @return The number of events.
+	 */
+	long getConflated()
+	{
+		return m_lConflated.get();
+	}
+
+
+	/**
+	 * Stop the conflater and hand all pending events to the sink.
+	 * @param p_lTimeout The maximum time in milliseconds to wait
+	 *    for the pending events to be handed off.
+	 */
+	void close(long p_lTimeout)
+	{
+		synchronized (m_lock)
+		{
+			m_bClosed = true;
+			m_lock.notifyAll();
+		}
+
+		try
+		{
+			m_thread.join(Math.max(1L, p_lTimeout));
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		if (m_thread.isAlive())
+			m_thread.interrupt();
+	}
+
+
+	private void _run()
+	{
+		long l_lDeadline = System.nanoTime() + m_lIntervalNanos;
+
+		try
+		{
+			while (_await(l_lDeadline))
+			{
+				_flush();
+
+				l_lDeadline += m_lIntervalNanos;
+			}
+
+			_flush();
+		}
+		catch (InterruptedException l_e)
+		{
+			// closed while the sink was blocked
+		}
+	}
+
+
+	/**
+	 * Wait until the given deadline.
+	 * @return <code>false</code> if the conflater has been closed.
+	 */
+	private boolean _await(long p_lDeadline)
+		throws InterruptedException
+	{
+		synchronized (m_lock)
+		{
+			long l_lWait;
+
+			while (!m_bClosed && (l_lWait = p_lDeadline - System.nanoTime()) > 0L)
+				m_lock.wait(l_lWait / 1000000L, (int)(l_lWait % 1000000L));
+
+			return !m_bClosed;
+		}
+	}
+
+
+	/**
+	 * Hand the pending events to the sink. Events that are added
+	 * meanwhile are handed off now or with the next interval.
+	 */
+	private void _flush()
+		throws InterruptedException
+	{
+		for (String l_strTopic : m_latest.keySet())
+		{
+			final Entry l_entry = m_latest.remove(l_strTopic);
+
+			if (l_entry == null)
+				continue;
+
+			try
+			{
+				m_sink.dispatch(l_entry.m_strKey, l_entry.m_evt);
+			}
+			catch (RuntimeException l_e)
+			{
+				ms_log.error("Error while dispatching a conflated MQTT message on topic " + l_strTopic + ".", l_e);
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
+
+
+/**
+ * Executes tasks on a fixed number of worker threads that
+ * take them from a bounded queue.
+ * <p>The workers are either platform daemon threads or virtual threads.
+ * Workers are never interrupted, so a workflow that is running when the
+ * dispatcher is closed runs to completion.</p>
+ */
+final class MQTTExecutorDispatcher implements IMQTTEventDispatcher
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTExecutorDispatcher.class);
+
+	/** The interval in milliseconds in which blocked callers and idle workers check if the dispatcher has been closed. */
+	private static final long CLOSED_CHECK_INTERVAL = 100L;
+
+	private final BlockingQueue<Runnable> m_queue;
+
+	private final Thread[] m_workers;
+
+	private final AtomicInteger m_active = new AtomicInteger();
+
+	private volatile boolean m_bClosed;
+
+
+	/**
+	 * @param p_strName The name prefix of the worker threads.
+	 * @param p_iThreads The number of worker threads.
+	 * @param p_iQueueCapacity The maximum number of tasks waiting for a worker.
+	 * @param p_bVirtualThreads <code>true</code> if the workers should be
+	 *    virtual threads, or <code>false</code> for platform threads.
+	 */
+	MQTTExecutorDispatcher(String p_strName, int p_iThreads, int p_iQueueCapacity, boolean p_bVirtualThreads)
+	{
+		final ThreadFactory l_factory;
+
+		m_queue   = new ArrayBlockingQueue<>(p_iQueueCapacity);
+		m_workers = new Thread[p_iThreads];
+
+		if (p_bVirtualThreads)
+			l_factory = Thread.ofVirtual().name(p_strName + "-", 0L).factory();
+		else
+			l_factory = Thread.ofPlatform().daemon().name(p_strName + "-", 0L).factory();
+
+		for (int i = 0; i < m_workers.length; i++)
+		{
+			m_workers[i] = l_factory.newThread(this::_work);
+			m_workers[i].start();
+		}
+	}
+
+
+	@Override
+	public void dispatch(String p_strKey, Runnable p_task)
+		throws InterruptedException
+	{
+		// messages may still arrive while the source is stopping, and a
+		// caller that waits for room must not block the close
+		while (!m_bClosed)
+		{
+			if (m_queue.offer(p_task, CLOSED_CHECK_INTERVAL, TimeUnit.MILLISECONDS))
+				return;
+		}
+	}
+
+
+	@Override
+	public int getBacklog()
+	{
+		return m_queue.size() + m_active.get();
+	}
+
+
+	private void _work()
+	{
+		try
+		{
+			for (;;)
+			{
+				final Runnable l_task = m_queue.poll(CLOSED_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+
+				if (l_task == null)
+				{
+					if (m_bClosed)
+						return;
+
+					continue;
+				}
+
+				m_active.incrementAndGet();
+
+				try
+				{
+					l_task.run();
+				}
+				catch (RuntimeException | Error l_e)
+				{
+					ms_log.error("Error while dispatching a MQTT workflow event.", l_e);
+				}
+				finally
+				{
+					m_active.decrementAndGet();
+				}
+			}
+		}
+		catch (InterruptedException l_e)
+		{
+			ms_log.warn("A MQTT dispatch worker has been interrupted.");
+		}
+	}
+
+
+	/**
+	 * Stop accepting tasks without waiting. Callers that are
+	 * blocked in {@link #dispatch(String, Runnable)} return.
+	 */
+	void closeQueue()
+	{
+		m_bClosed = true;
+	}
+
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The workers execute the queued tasks until the timeout elapses.
+	 * Tasks that have not been started by then are rejected, i.e. removed
+	 * from the queue without being executed. Running tasks are not
+	 * interrupted; the workers terminate after they have completed.</p>
+	 */
+	@Override
+	public void close(long p_lTimeout)
+	{
+		final long           l_lDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(p_lTimeout);
+		final List<Runnable> l_rejected  = new ArrayList<>();
+
+		closeQueue();
+
+		try
+		{
+			// the workers exit as soon as the queue is empty
+			for (Thread l_worker : m_workers)
+				TimeUnit.NANOSECONDS.timedJoin(l_worker, Math.max(1L, l_lDeadline - System.nanoTime()));
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		m_queue.drainTo(l_rejected);
+
+		if (!l_rejected.isEmpty())
+			ms_log.warn("Rejecting " + l_rejected.size() + " pending MQTT workflow events.");
+
+		if (m_active.get() > 0)
+			ms_log.warn("Leaving " + m_active.get() + " running MQTT workflow events to complete in the background.");
+	}
+}
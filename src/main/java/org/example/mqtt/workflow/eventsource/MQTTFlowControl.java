@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import de.uplanet.lucy.server.workflow.WorkflowLogger;
+
+
+/**
+ * Decides when the consumption of messages must be paused, because too
+ * many received messages wait to be processed.
+ * <p>The backlog is the number of messages that have been accepted but
+ * not yet processed. When it reaches the high watermark, the consumption
+ * is paused until the backlog has dropped to the low watermark. Each
+ * transition is reported to a listener, which pauses the consumption by
+ * unsubscribing from the topic filters and resumes it by subscribing
+ * again. Neither {@link #acquire()} nor {@link #release(int)} ever block,
+ * so the callback thread of the MQTT client keeps reading from the
+ * network connection, and the connection is kept alive.</p>
+ */
+final class MQTTFlowControl
+{
+	/** Helper for logging.*/
+	private static final Logger ms_log = new WorkflowLogger(MQTTFlowControl.class);
+
+	private final String m_strLogPrologue;
+
+	private final int m_iHighWatermark;
+
+	private final int m_iLowWatermark;
+
+	private final Runnable m_listener;
+
+	private final Object m_lock = new Object();
+
+	private int m_iBacklog;
+
+	private boolean m_bPaused;
+
+	private boolean m_bClosed;
+
+	private long m_lPauseStart;
+
+	private long m_lPauseCount;
+
+	private long m_lPausedNanos;
+
+
+	/**
+	 * @param p_strLogPrologue The prologue of log messages.
+	 * @param p_iHighWatermark The backlog that pauses the consumption,
+	 *    or <code>0</code> if the consumption is never paused.
+	 * @param p_iLowWatermark The backlog that resumes the consumption.
+	 * @param p_listener Called after the consumption has been paused
+	 *    or resumed. The listener must not block, and should query
+	 *    {@link #isPaused()}, since two transitions may be reported
+	 *    in any order.
+	 */
+	MQTTFlowControl(String p_strLogPrologue, int p_iHighWatermark, int p_iLowWatermark, Runnable p_listener)
+	{
+		m_strLogPrologue = p_strLogPrologue;
+		m_iHighWatermark = p_iHighWatermark;
+		m_iLowWatermark  = p_iLowWatermark;
+		m_listener       = p_listener;
+	}
+
+
+	/**
+	 * Account for a received message. The consumption is paused
+	 * if the backlog reaches the high watermark.
+	 * <p>Messages that arrive while the consumption is paused, e.g.
+	 * because the server has sent them before the pause took effect,
+	 * are accepted as well.</p>
+	 */
+	void acquire()
+	{
+		synchronized (m_lock)
+		{
+			m_iBacklog++;
+
+			if (m_iHighWatermark <= 0 || m_iBacklog < m_iHighWatermark || m_bPaused || m_bClosed)
+				return;
+
+			m_bPaused     = true;
+			m_lPauseStart = System.nanoTime();
+			m_lPauseCount++;
+		}
+
+		ms_log.warn(m_strLogPrologue + " Pausing the consumption of MQTT messages, since " +
+		            m_iHighWatermark + " messages wait to be processed.");
+
+		m_listener.run();
+	}
+
+
+	/**
+	 * Account for processed messages. A paused consumption is resumed
+	 * if the backlog has dropped to the low watermark.
+	 * @param p_iCount The number of messages.
+	 */
+	void release(int p_iCount)
+	{
+		final long l_lPause;
+
+		synchronized (m_lock)
+		{
+			m_iBacklog -= p_iCount;
+
+			if (!m_bPaused || m_iBacklog > m_iLowWatermark)
+				return;
+
+			l_lPause        = System.nanoTime() - m_lPauseStart;
+			m_bPaused       = false;
+			m_lPausedNanos += l_lPause;
+
+			if (m_bClosed)
+				return;
+		}
+
+		ms_log.info(m_strLogPrologue + " Resuming the consumption of MQTT messages after " +
+		            TimeUnit.NANOSECONDS.toMillis(l_lPause) + " ms.");
+
+		m_listener.run();
+	}
+
+
+	/**
+	 * Stop reporting transitions, e.g. because the event source is stopping.
+	 */
+	void close()
+	{
+		synchronized (m_lock)
+		{
+			m_bClosed = true;
+		}
+	}
+
+
+	/**
+	 * Get the number of messages that have been accepted but not processed yet.
+	 * @return The backlog.
+	 */
+	int getBacklog()
+	{
+		synchronized (m_lock)
+		{
+			return m_iBacklog;
+		}
+	}
+
+
+	/**
+	 * Test if the consumption is paused.
+	 * @return <code>true</code> if the consumption is paused, or
+	 *    <code>false</code> otherwise.
+	 */
+	boolean isPaused()
+	{
+		synchronized (m_lock)
+		{
+			return m_bPaused;
+		}
+	}
+
+
+	/**
+	 * Get how often the consumption has been paused.
+	 * @return The number of pauses.
+	 */
+	long getPauseCount()
+	{
+		synchronized (m_lock)
+		{
+			return m_lPauseCount;
+		}
+	}
+
+
+	/**
+	 * Get the total time the consumption has been paused, not
+	 * including the current pause.
+	 * @return The time in milliseconds.
+	 */
+	long getPausedTime()
+	{
+		synchronized (m_lock)
+		{
+			return TimeUnit.NANOSECONDS.toMillis(m_lPausedNanos);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+/**
+ * Wakes the thread of the source loop while it waits for a stop request.
+ * <p>The base class of the event source ends a wait in
+ * <code>shouldRunWithWait(long)</code> when a stop is requested, but
+ * offers no other way to end it. A signal therefore interrupts the
+ * waiting thread. The interrupt is raised only while the thread waits,
+ * and is cleared under the same lock when the wait ends, so it never
+ * leaks into a later wait or into the shutdown of the loop. Interrupts
+ * of other origin are left alone. A signal that is raised while the
+ * thread does not wait ends its next wait right away.</p>
+ */
+final class MQTTLoopSignal
+{
+	/**
+	 * A wait that ends when a stop is requested.
+	 */
+	@FunctionalInterface
+	interface IStopWait
+	{
+		/**
+		 * Wait until a stop is requested or the timeout elapses.
+		 * @param p_lTimeout The maximum time to wait in milliseconds.
+		 * @return <code>false</code> if a stop has been requested, or
+		 *    <code>true</code> otherwise.
+		 */
+		boolean await(long p_lTimeout);
+	}
+
+
+	private final Thread m_thread;
+
+	private boolean m_bWaiting;
+
+	private boolean m_bSignaled;
+
+	private boolean m_bInterrupted;
+
+
+	/**
+	 * Create a signal for the current thread, which is
+	 * the only thread that may call {@link #await(IStopWait, long)}.
+	 */
+	MQTTLoopSignal()
+	{
+		m_thread = Thread.currentThread();
+	}
+
+
+	/**
+	 * Wake the waiting thread, or make its next wait return immediately.
+	 */
+	synchronized void signal()
+	{
+		m_bSignaled = true;
+
+		if (m_bWaiting && !m_bInterrupted)
+		{
+			m_bInterrupted = true;
+			m_thread.interrupt();
+		}
+	}
+
+
+	/**
+	 * Wait until a stop is requested, the timeout elapses,
+	 * or {@link #signal()} is called.
+	 * @param p_wait The wait for a stop request.
+	 * @param p_lTimeout The maximum time to wait in milliseconds.
+	 */
+	void await(IStopWait p_wait, long p_lTimeout)
+	{
+		if (Thread.currentThread() != m_thread)
+			throw new IllegalStateException("The signal belongs to thread " + m_thread.getName() + ".");
+
+		synchronized (this)
+		{
+			if (m_bSignaled)
+			{
+				m_bSignaled = false;
+				return;
+			}
+
+			m_bWaiting = true;
+		}
+
+		try
+		{
+			p_wait.await(p_lTimeout);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				m_bWaiting  = false;
+				m_bSignaled = false;
+
+				// the interrupt of a signal must not affect the caller
+				if (m_bInterrupted)
+				{
+					m_bInterrupted = false;
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.example.mqtt.util.MQTTJsonUtil;
+import org.example.mqtt.util.MQTTTopicFilter;
+
+
+/**
+ * A declarative filter that decides whether a received message is
+ * dispatched, before a workflow event is created for it.
+ * <p>The filter consists of conditions, one per line, that must all
+ * hold. A condition may be negated with a leading <code>!</code>.</p>
+ * <ul>
+ * <li><code>topic=&lt;filter&gt;</code> - the topic matches the MQTT topic
+ *     filter, e.g. <code>topic=sensors/+/temperature</code>.</li>
+ * <li><code>topic[&lt;n&gt;]=&lt;value&gt;</code> - the topic level with the
+ *     zero-based index n equals the value, e.g. <code>!topic[2]=heartbeat</code>.</li>
+ * <li><code>payload^=&lt;prefix&gt;</code> - the payload starts with the
+ *     UTF-8 encoded prefix.</li>
+ * <li><code>payload~&lt;regex&gt;</code> - the regular expression is found
+ *     in the payload decoded as UTF-8. Only the first
+ *     {@value #MAX_REGEX_INPUT} bytes of the payload are searched.</li>
+ * <li><code>json.&lt;field&gt;=&lt;value&gt;</code> - the top-level field of
+ *     a JSON payload has the value, e.g. <code>!json.status=ok</code>.
+ *     String values are compared without quotes, other values by their
+ *     JSON text.</li>
+ * <li><code>json.&lt;field&gt;</code> - the JSON payload has the top-level field.</li>
+ * </ul>
+ */
+final class MQTTMessageFilter
+{
+	/** The maximum number of payload bytes that are decoded for a regular expression. */
+	static final int MAX_REGEX_INPUT = 64 * 1024;
+
+	private final List<BiPredicate<String, byte[]>> m_conditions;
+
+	private final AtomicLong m_lPassed = new AtomicLong();
+
+	private final AtomicLong m_lDropped = new AtomicLong();
+
+
+	private MQTTMessageFilter(List<BiPredicate<String, byte[]>> p_conditions)
+	{
+		m_conditions = p_conditions;
+	}
+
+
+	/**
+	 * Compile a filter.
+	 * @param p_strFilter The conditions, one per line.
+	 * @return The filter.
+	 * @throws IllegalArgumentException If a condition is invalid.
+	 */
+	static MQTTMessageFilter compile(String p_strFilter)
+	{
+		final List<BiPredicate<String, byte[]>> l_conditions = new ArrayList<>();
+
+		for (String l_strLine : p_strFilter.split("\r?\n"))
+		{
+			final String l_strCondition = l_strLine.trim();
+
+			if (l_strCondition.isEmpty())
+				continue;
+
+			if (l_strCondition.startsWith("!"))
+				l_conditions.add(_compile(l_strCondition.substring(1).trim()).negate());
+			else
+				l_conditions.add(_compile(l_strCondition));
+		}
+
+		return new MQTTMessageFilter(l_conditions);
+	}
+
+
+	private static BiPredicate<String, byte[]> _compile(String p_strCondition)
+	{
+		final int    l_iEq = p_strCondition.indexOf('=');
+		final String l_strValue;
+
+		if (p_strCondition.startsWith("payload^="))
+		{
+			final byte[] l_prefix = p_strCondition.substring(9).getBytes(StandardCharsets.UTF_8);
+
+			return (p_strTopic, p_payload) -> p_payload.length >= l_prefix.length &&
+			                                  Arrays.equals(p_payload, 0, l_prefix.length, l_prefix, 0, l_prefix.length);
+		}
+
+		if (p_strCondition.startsWith("payload~"))
+		{
+			final Pattern l_pattern;
+
+			try
+			{
+				l_pattern = Pattern.compile(p_strCondition.substring(8));
+			}
+			catch (PatternSyntaxException l_e)
+			{
+				throw new IllegalArgumentException("Invalid regular expression in filter condition " + p_strCondition + ".", l_e);
+			}
+
+			return (p_strTopic, p_payload) -> l_pattern.matcher(new String(p_payload,
+			                                                               0,
+			                                                               _getRegexInputLength(p_payload),
+			                                                               StandardCharsets.UTF_8)).find();
+		}
+
+		if (p_strCondition.startsWith("json."))
+		{
+			final String l_strField = l_iEq < 0 ? p_strCondition.substring(5) : p_strCondition.substring(5, l_iEq);
+
+			if (l_strField.isEmpty())
+				throw new IllegalArgumentException("No field name in filter condition " + p_strCondition + ".");
+
+			if (l_iEq < 0)
+				return (p_strTopic, p_payload) -> MQTTJsonUtil.getTopLevelField(p_payload, l_strField) != null;
+
+			l_strValue = p_strCondition.substring(l_iEq + 1);
+
+			return (p_strTopic, p_payload) -> l_strValue.equals(MQTTJsonUtil.getTopLevelField(p_payload, l_strField));
+		}
+
+		if (p_strCondition.startsWith("topic=") && l_iEq == 5)
+		{
+			final MQTTTopicFilter l_filter = MQTTTopicFilter.create(p_strCondition.substring(6), 0);
+
+			return (p_strTopic, p_payload) -> l_filter.matches(p_strTopic);
+		}
+
+		if (p_strCondition.startsWith("topic[") && l_iEq > 0 && p_strCondition.charAt(l_iEq - 1) == ']')
+		{
+			final int l_iSegment;
+
+			try
+			{
+				l_iSegment = Integer.parseInt(p_strCondition.substring(6, l_iEq - 1));
+			}
+			catch (NumberFormatException l_e)
+			{
+				throw new IllegalArgumentException("Invalid topic level in filter condition " + p_strCondition + ".");
+			}
+
+			if (l_iSegment < 0)
+				throw new IllegalArgumentException("Invalid topic level in filter condition " + p_strCondition + ".");
+
+			l_strValue = p_strCondition.substring(l_iEq + 1);
+
+			return (p_strTopic, p_payload) -> _isSegment(p_strTopic, l_iSegment, l_strValue);
+		}
+
+		throw new IllegalArgumentException("Invalid filter condition " + p_strCondition + ".");
+	}
+
+
+	/**
+	 * Get the number of payload bytes that are searched by a regular expression.
+	 * Large payloads are cut at a character boundary, so that decoding and
+	 * matching cost at most {@link #MAX_REGEX_INPUT} bytes per message.
+	 */
+	private static int _getRegexInputLength(byte[] p_payload)
+	{
+		int l_iLength;
+
+		if (p_payload.length <= MAX_REGEX_INPUT)
+			return p_payload.length;
+
+		l_iLength = MAX_REGEX_INPUT;
+
+		// do not cut a multi-byte character
+		while (l_iLength > 0 && (p_payload[l_iLength] & 0xC0) == 0x80)
+			l_iLength--;
+
+		return l_iLength;
+	}
+
+
+	/**
+	 * Test if a topic level equals the given value without splitting the topic.
+	 */
+	private static boolean _isSegment(String p_strTopic, int p_iSegment, String p_strValue)
+	{
+		int l_iStart = 0;
+		int l_iEnd;
+
+		for (int i = 0; i < p_iSegment; i++)
+		{
+			l_iStart = p_strTopic.indexOf('/', l_iStart) + 1;
+
+			if (l_iStart == 0)
+				return false;
+		}
+
+		l_iEnd = p_strTopic.indexOf('/', l_iStart);
+
+		if (l_iEnd < 0)
+			l_iEnd = p_strTopic.length();
+
+		return l_iEnd - l_iStart == p_strValue.length() && p_strTopic.startsWith(p_strValue, l_iStart);
+	}
+
+
+	/**
+	 * Test if a message should be dispatched.
+	 * @param p_strTopic The topic.
+	 * @param p_payload The payload.
+	 * @return <code>true</code> if all conditions hold, or
+	 *    <code>false</code> if the message should be dropped.
+	 */
+	boolean accept(String p_strTopic, byte[] p_payload)
+	{
+		for (BiPredicate<String, byte[]> l_condition : m_conditions)
+		{
+			if (!l_condition.test(p_strTopic, p_payload))
+			{
+				m_lDropped.incrementAndGet();
+				return false;
+			}
+		}
+
+		m_lPassed.incrementAndGet();
+
+		return true;
+	}
+
+
+	/**
+	 * Get the number of messages that have passed the filter.
+	 * @return The number of messages.
+	 */
+	long getPassed()
+	{
+		return m_lPassed.get();
+	}
+
+
+	/**
+	 * Get the number of messages that have been dropped by the filter.
+	 * @return The number of messages.
+	 */
+	long getDropped()
+	{
+		return m_lDropped.get();
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Executes tasks on a fixed number of serial lanes.
+ * <p>Each lane has its own bounded queue and a single worker thread.
+ * Tasks are assigned to a lane by the hash of their key, so tasks with
+ * equal keys are executed one after the other in the order in which
+ * they have been dispatched. A full lane blocks the caller even if
+ * other lanes are idle.</p>
+ */
+final class MQTTPartitionedDispatcher implements IMQTTEventDispatcher
+{
+	private final MQTTExecutorDispatcher[] m_lanes;
+
+	private volatile boolean m_bClosed;
+
+
+	/**
+	 * @param p_strName The name prefix of the worker threads.
+	 * @param p_iLanes The number of lanes.
+	 * @param p_iQueueCapacity The maximum number of tasks waiting in a lane.
+	 * @param p_bVirtualThreads <code>true</code> if the workers should be
+	 *    virtual threads, or <code>false</code> for platform threads.
+	 */
+	MQTTPartitionedDispatcher(String p_strName, int p_iLanes, int p_iQueueCapacity, boolean p_bVirtualThreads)
+	{
+		m_lanes = new MQTTExecutorDispatcher[p_iLanes];
+
+		for (int i = 0; i < m_lanes.length; i++)
+			m_lanes[i] = new MQTTExecutorDispatcher(p_strName + "-lane" + i, 1, p_iQueueCapacity, p_bVirtualThreads);
+	}
+
+
+	@Override
+	public void dispatch(String p_strKey, Runnable p_task)
+		throws InterruptedException
+	{
+		if (m_bClosed)
+			return;
+
+		m_lanes[getLane(p_strKey)].dispatch(null, p_task);
+	}
+
+
+	/**
+	 * Get the lane of the given key.
+	 * @param p_strKey The key, or <code>null</code>.
+	 * @return The index of the lane.
+	 */
+	int getLane(String p_strKey)
+	{
+		final int l_iHash;
+
+		if (p_strKey == null)
+			return 0;
+
+		l_iHash = p_strKey.hashCode();
+
+		// spread the high bits, since string hashes of similar keys differ in the low bits only
+		return Math.floorMod(l_iHash ^ (l_iHash >>> 16), m_lanes.length);
+	}
+
+
+	@Override
+	public int getBacklog()
+	{
+		int l_iBacklog = 0;
+
+		for (MQTTExecutorDispatcher l_lane : m_lanes)
+			l_iBacklog += l_lane.getBacklog();
+
+		return l_iBacklog;
+	}
+
+
+	/**
+	 * Get the number of pending tasks per lane.
+	 * <p>A lane that is much busier than the others indicates a key
+	 * that receives a disproportionate share of the messages.</p>
+	 * @return The number of pending tasks, indexed by lane.
+	 */
+	int[] getLaneBacklogs()
+	{
+		final int[] l_backlogs = new int[m_lanes.length];
+
+		for (int i = 0; i < m_lanes.length; i++)
+			l_backlogs[i] = m_lanes[i].getBacklog();
+
+		return l_backlogs;
+	}
+
+
+	@Override
+	public void close(long p_lTimeout)
+	{
+		final long l_lDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(p_lTimeout);
+
+		m_bClosed = true;
+
+		// release callers that wait for room in any lane before the first lane is drained
+		for (MQTTExecutorDispatcher l_lane : m_lanes)
+			l_lane.closeQueue();
+
+		// the lanes keep working while the previous ones are closed
+		for (MQTTExecutorDispatcher l_lane : m_lanes)
+			l_lane.close(Math.max(0L, TimeUnit.NANOSECONDS.toMillis(l_lDeadline - System.nanoTime())));
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Maps equal topics to a single string instance, so that queued events
+ * do not hold a copy of the topic each.
+ * <p>The number of distinct topics is limited. Once the limit is reached,
+ * further topics are returned as is. Instances are not thread-safe.</p>
+ */
+final class MQTTTopicInterner
+{
+	private final Map<String, String> m_topics = new HashMap<>();
+
+	private final int m_iMaxTopics;
+
+
+	/**
+	 * @param p_iMaxTopics The maximum number of distinct topics.
+	 */
+	MQTTTopicInterner(int p_iMaxTopics)
+	{
+		m_iMaxTopics = p_iMaxTopics;
+	}
+
+
+	/**
+	 * Get the shared instance of the given topic.
+	 * @param p_strTopic The topic.
+	 * @return The shared instance, or the given topic if there
+	 *    are too many distinct topics.
+	 */
+	String intern(String p_strTopic)
+	{
+		final String l_strTopic = m_topics.get(p_strTopic);
+
+		if (l_strTopic != null)
+			return l_strTopic;
+
+		if (m_topics.size() < m_iMaxTopics)
+			m_topics.put(p_strTopic, p_strTopic);
+
+		return p_strTopic;
+	}
+}
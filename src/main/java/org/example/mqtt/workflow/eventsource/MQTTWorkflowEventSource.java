@@ -18,10 +18,19 @@
 package org.example.mqtt.workflow.eventsource;
 
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
@@ -30,10 +39,20 @@ import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.example.mqtt.client.MQTTMappedFilePersistence;
+import org.example.mqtt.codec.MQTTChunkHeader;
+import org.example.mqtt.codec.MQTTPayloadCodecs;
+import org.example.mqtt.util.MQTTBackoff;
+import org.example.mqtt.util.MQTTJsonUtil;
+import org.example.mqtt.util.MQTTTopicFilter;
 import org.example.mqtt.util.MQTTUtil;
 import org.example.mqtt.workflow.QOS;
 import org.example.mqtt.workflow.event.AfterStopMQTTWorkflowEvent;
 import org.example.mqtt.workflow.event.BeforeStartMQTTWorkflowEvent;
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTCompactMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTFileWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTMessageBatchWorkflowEvent;
 import org.example.mqtt.workflow.event.MQTTMessageWorkflowEvent;
 import org.slf4j.Logger;
 
@@ -54,16 +73,35 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 	/** Helper for logging.*/
 	private static final Logger ms_log = new WorkflowLogger(MQTTWorkflowEventSource.class);
 
+	/**
+	 * The maximum time the source loop sleeps between two checks of its state.
+	 * A stop request or a lost connection wakes it up immediately.
+	 */
+	private static final long IDLE_WAIT_TIMEOUT = 60000L;
+
+	/** The maximum number of distinct topics that are shared by compact events. */
+	private static final int MAX_INTERNED_TOPICS = 10000;
+
 	private boolean m_bSendBeforeStartEvent;
 
 	private boolean m_bSendAfterStopEvent;
 
 	private long m_lOnErrorRestartWaitTimeout = 60000L;
 
+	private long m_lRestartInitialDelay = 1000L;
+
+	private double m_dRestartDelayMultiplier = 2.0d;
+
+	private long m_lRestartStableTime = 60000L;
+
 	private String m_strServerUri;
 
 	private String m_strTopic;
 
+	private String m_strTopicFilters;
+
+	private String m_strSharedSubscriptionGroup;
+
 	private String m_strClientId;
 
 	private boolean m_bRandomizeClientId = true;
@@ -76,8 +114,88 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 
 	private boolean m_bReconnect = true;
 
+	private boolean m_bDurableSession;
+
+	private String m_strPersistenceDirectory;
+
+	private boolean m_bManualAcks;
+
 	private boolean m_bGlobalSharedState;
 
+	private boolean m_bDecodePayload;
+
+	private int m_iMaxDecodedSize = 16 * 1024 * 1024;
+
+	private boolean m_bCompactEvents;
+
+	private String m_strMessageFilter;
+
+	private boolean m_bReassembleChunks;
+
+	private String m_strChunkDirectory;
+
+	private long m_lChunkTimeout = 60000L;
+
+	private long m_lMaxReassembledSize = 1024L * 1024L * 1024L;
+
+	private int m_iMaxConcurrentTransfers = 4;
+
+	private long m_lMaxTotalReassembledSize = 2L * 1024L * 1024L * 1024L;
+
+	private String m_strDispatchMode = MQTTDispatchMode.DIRECT.name();
+
+	private int m_iDispatchThreads = Runtime.getRuntime().availableProcessors();
+
+	private int m_iDispatchQueueCapacity = 1000;
+
+	private boolean m_bDispatchVirtualThreads;
+
+	private String m_strDispatchKey = MQTTDispatchKey.TOPIC.name();
+
+	private int m_iDispatchKeySegment;
+
+	private String m_strDispatchKeyField;
+
+	private boolean m_bBatchEvents;
+
+	private int m_iBatchMaxMessages = 100;
+
+	private long m_lBatchLinger = 1000L;
+
+	private boolean m_bConflate;
+
+	private long m_lConflationInterval = 1000L;
+
+	private int m_iBacklogHighWatermark;
+
+	private int m_iBacklogLowWatermark;
+
+	private boolean m_bDeduplicate;
+
+	private boolean m_bDedupRedeliveredOnly = true;
+
+	private String m_strDedupKey = MQTTDedupKey.TOPIC_PAYLOAD.name();
+
+	private String m_strDedupKeyField;
+
+	private int m_iDedupCacheSize = 10000;
+
+	private long m_lDedupTimeToLive = 60000L;
+
+	private volatile IMQTTEventDispatcher m_dispatcher;
+
+	private volatile MQTTFlowControl m_flowControl;
+
+	private volatile MQTTEventConflater m_conflater;
+
+	private volatile long m_lConnectTime;
+
+	private volatile MQTTDedupCache m_dedupCache;
+
+	private volatile MQTTMessageFilter m_messageFilter;
+
+	private MQTTBackoff m_restartBackoff;
+
 
 	public MQTTWorkflowEventSource(String p_strGuid)
 	{
@@ -89,10 +207,14 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 
 
 	/**
-	 * Get the time in milliseconds the event source will wait
+	 * Get the maximum time in milliseconds the event source will wait
 	 * before it tries to restart after an error occurred that
 	 * prevented it to running the source loop.
-	 * <p>The default value is 60000 milliseconds (one minute).</p>
+	 * <p>The wait grows exponentially from {@link #getRestartInitialDelay()}
+	 * up to this timeout, and is randomized so that several event sources
+	 * do not retry at the same time. The timeout also limits the delay
+	 * between the automatic reconnect attempts of the MQTT client. The
+	 * default value is 60000 milliseconds (one minute).</p>
 	 * @return The timeout in milliseconds.
 	 */
 	public long getOnErrorRestartWaitTimeout()
@@ -113,6 +235,77 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 	}
 
 
+	/**
+	 * Get the maximum time in milliseconds the event source waits
+	 * before its first attempt to restart or to connect again.
+	 * <p>The default value is 1000 milliseconds.</p>
+	 * @return The delay in milliseconds.
+	 */
+	public long getRestartInitialDelay()
+	{
+		return m_lRestartInitialDelay;
+	}
+
+
+	/**
+	 * Set the maximum time in milliseconds the event source waits
+	 * before its first attempt to restart or to connect again.
+	 * @param p_lDelay The delay in milliseconds.
+	 */
+	public void setRestartInitialDelay(long p_lDelay)
+	{
+		m_lRestartInitialDelay = p_lDelay;
+	}
+
+
+	/**
+	 * Get the factor by which the maximum wait before a restart
+	 * or connect attempt grows with each failed attempt.
+	 * <p>The default value is 2.</p>
+	 * @return The multiplier.
+	 */
+	public double getRestartDelayMultiplier()
+	{
+		return m_dRestartDelayMultiplier;
+	}
+
+
+	/**
+	 * Set the factor by which the maximum wait before a restart
+	 * or connect attempt grows with each failed attempt.
+	 * @param p_dMultiplier The multiplier.
+	 */
+	public void setRestartDelayMultiplier(double p_dMultiplier)
+	{
+		m_dRestartDelayMultiplier = p_dMultiplier;
+	}
+
+
+	/**
+	 * Get the time in milliseconds a connection must have lasted
+	 * until the wait before a restart starts over with
+	 * {@link #getRestartInitialDelay()}.
+	 * <p>The default value is 60000 milliseconds (one minute).</p>
+	 * @return The time in milliseconds.
+	 */
+	public long getRestartStableTime()
+	{
+		return m_lRestartStableTime;
+	}
+
+
+	/**
+	 * Set the time in milliseconds a connection must have lasted
+	 * until the wait before a restart starts over with
+	 * {@link #getRestartInitialDelay()}.
+	 * @param p_lStableTime The time in milliseconds.
+	 */
+	public void setRestartStableTime(long p_lStableTime)
+	{
+		m_lRestartStableTime = p_lStableTime;
+	}
+
+
 	@Override
 	public boolean isGlobalSharedState()
 	{
@@ -287,6 +480,74 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 	}
 
 
+	/**
+	 * Get additional topic filters.
+	 * <p>The filters are separated by line breaks or commas. Each filter
+	 * may be followed by a semicolon and its quality of service, e.g.
+	 * <code>sensors/+/temperature;1</code>. Filters without a quality of
+	 * service use {@link #getQos()}. The filters and the {@link #getTopic() topic}
+	 * are subscribed with a single request over one connection. The
+	 * default value is <code>null</code>.</p>
+	 * @return The topic filters, or <code>null</code>.
+	 */
+	public String getTopicFilters()
+	{
+		return m_strTopicFilters;
+	}
+
+
+	/**
+	 * Set additional topic filters.
+	 * @param p_strFilters The topic filters, or <code>null</code>.
+	 * @see #getTopicFilters()
+	 */
+	public void setTopicFilters(String p_strFilters)
+	{
+		m_strTopicFilters = p_strFilters;
+	}
+
+
+	/**
+	 * Get the share group of the subscriptions.
+	 * <p>If a group is given, the {@link #getTopic() topic} and the
+	 * {@link #getTopicFilters() topic filters} are subscribed as shared
+	 * subscriptions <code>$share/&lt;group&gt;/&lt;filter&gt;</code>. The server
+	 * then delivers each message to only one of the event sources with
+	 * the same group, e.g. to only one node of a cluster. Each node must
+	 * connect with its own client identifier, so the name of the node is
+	 * appended to the {@link #getClientId() client identifier}. Filters
+	 * that are already shared subscriptions are not changed. The default
+	 * value is <code>null</code>.</p>
+	 * @return The share group, or <code>null</code>.
+	 */
+	public String getSharedSubscriptionGroup()
+	{
+		return m_strSharedSubscriptionGroup;
+	}
+
+
+	/**
+	 * Set the share group of the subscriptions.
+	 * @param p_strGroup The share group, or <code>null</code>.
+	 * @see #getSharedSubscriptionGroup()
+	 */
+	public void setSharedSubscriptionGroup(String p_strGroup)
+	{
+		m_strSharedSubscriptionGroup = p_strGroup;
+	}
+
+
+	/**
+	 * Test if the subscriptions are shared subscriptions.
+	 * @return <code>true</code> if a share group is given, or
+	 *    <code>false</code> otherwise.
+	 */
+	private boolean _isShared()
+	{
+		return getSharedSubscriptionGroup() != null && !getSharedSubscriptionGroup().isEmpty();
+	}
+
+
 	/**
 	 * Get the quality of service.
 	 * @return The quality of service.
@@ -307,6 +568,39 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 	}
 
 
+	/**
+	 * Create the list of subscriptions from the {@link #getTopic() topic}
+	 * and the {@link #getTopicFilters() topic filters}.
+	 * @return The subscriptions.
+	 * @throws IllegalArgumentException If a topic filter is not valid.
+	 */
+	List<MQTTTopicFilter> createSubscriptions()
+	{
+		final List<MQTTTopicFilter> l_filters = new ArrayList<>();
+		List<MQTTTopicFilter>       l_subscriptions;
+
+		if (getTopic() != null && !getTopic().isEmpty())
+			l_filters.add(MQTTTopicFilter.create(getTopic(), getQos()));
+
+		l_filters.addAll(MQTTTopicFilter.parseList(getTopicFilters(), getQos()));
+
+		if (!_isShared())
+			return l_filters;
+
+		l_subscriptions = new ArrayList<>(l_filters.size());
+
+		for (MQTTTopicFilter l_filter : l_filters)
+		{
+			if (l_filter.getShareGroup() != null)
+				l_subscriptions.add(l_filter);
+			else
+				l_subscriptions.add(MQTTTopicFilter.createShared(getSharedSubscriptionGroup(), l_filter.getFilter(), l_filter.getQos()));
+		}
+
+		return l_subscriptions;
+	}
+
+
 	/**
 	 * Check whether the client will automatically attempt to
 	 * reconnect to the server if the connection is lost.
@@ -334,140 +628,1902 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 
 
 	/**
-	 * Create the persistence to be used by the MQTT client.
-	 * @return The persistence.
+	 * This property determines if the server keeps the session of the
+	 * event source while it is disconnected.
+	 * <p>If <code>true</code> the client connects with a clean session flag
+	 * of <code>false</code> and a client identifier that does not change
+	 * when the event source or the Intrexx server is restarted. The server
+	 * then keeps the subscriptions and queues messages with a quality of
+	 * service of 1 or 2 that arrive while the event source is not connected.
+	 * Messages that are in flight are stored in
+	 * {@link #getPersistenceDirectory()}. If {@link #isRandomizeClientId()}
+	 * is <code>true</code>, the name of the node is appended to the client
+	 * identifier instead of a random suffix. The default value is
+	 * <code>false</code>.</p>
+	 * @return <code>true</code> if the session is durable, or
+	 *    <code>false</code> otherwise.
 	 */
-	private MqttClientPersistence _createPersistence()
+	public boolean isDurableSession()
 	{
-		final MqttClientPersistence l_persistence;
+		return m_bDurableSession;
+	}
 
-		l_persistence = new MemoryPersistence();
 
-		return l_persistence;
+	/**
+	 * This property determines if the server keeps the session of the
+	 * event source while it is disconnected.
+	 * @param p_bDurableSession <code>true</code> if the session should
+	 *    be durable, or <code>false</code> otherwise.
+	 * @see #isDurableSession()
+	 */
+	public void setDurableSession(boolean p_bDurableSession)
+	{
+		m_bDurableSession = p_bDurableSession;
 	}
 
 
 	/**
-	 * Create the MQTT client used to connect to the server.
-	 * @return The MQTT client.
-	 * @throws MqttException
+	 * Get the directory for the session state of a durable session.
+	 * @return The directory, or <code>null</code>.
 	 */
-	private IMqttClient _createClient(MqttClientPersistence p_persistence)
-		throws MqttException
+	public String getPersistenceDirectory()
 	{
-		final String     l_strClientId;
-		final MqttClient l_client;
+		return m_strPersistenceDirectory;
+	}
 
-		if (getServerUri() == null) // cannot occur under normal circumstances; see configurator
-			throw new IllegalStateException("No server URI given.");
 
-		if (isRandomizeClientId())
-			l_strClientId = getClientId() + "-" + UUID.randomUUID();
-		else
-			l_strClientId = getClientId();
+	/**
+	 * Set the directory for the session state of a durable session.
+	 * <p>The directory must not be shared by event sources of different
+	 * Intrexx servers.</p>
+	 * @param p_strDirectory The directory, or <code>null</code>.
+	 */
+	public void setPersistenceDirectory(String p_strDirectory)
+	{
+		m_strPersistenceDirectory = p_strDirectory;
+	}
 
-		l_client = new MqttClient(getServerUri(), l_strClientId, p_persistence);
 
-		return l_client;
+	/**
+	 * This property determines if received messages are acknowledged
+	 * only after their workflow event has been processed.
+	 * <p>If <code>false</code> (default) the MQTT client acknowledges a message
+	 * with a quality of service of 1 or 2 as soon as it has been handed to
+	 * the dispatcher. If <code>true</code> the acknowledgement is sent when
+	 * the event has been processed without an exception, regardless of the
+	 * order in which the events of concurrent dispatch threads complete.
+	 * A message whose event failed is not acknowledged and is delivered
+	 * again when the session is resumed, so this mode should be combined
+	 * with a {@link #isDurableSession() durable session}. The chunks of a
+	 * chunked transfer are acknowledged together after the file event has
+	 * been processed, so the server must allow at least as many
+	 * unacknowledged messages as a transfer has chunks.</p>
+	 * @return <code>true</code> if messages are acknowledged manually, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isManualAcks()
+	{
+		return m_bManualAcks;
 	}
 
 
 	/**
-	 * Get the MQTT options used to connect to the server.
-	 * @return MQTT options.
+	 * This property determines if received messages are acknowledged
+	 * only after their workflow event has been processed.
+	 * @param p_bManualAcks <code>true</code> if messages should be
+	 *    acknowledged manually, or <code>false</code> otherwise.
+	 * @see #isManualAcks()
 	 */
-	private MqttConnectOptions _getOptions()
+	public void setManualAcks(boolean p_bManualAcks)
 	{
-		final MqttConnectOptions l_options;
+		m_bManualAcks = p_bManualAcks;
+	}
 
-		l_options = new MqttConnectOptions();
 
-		l_options.setAutomaticReconnect(isReconnect());
+	/**
+	 * This property determines if payloads that have been encoded by a
+	 * codec of the MQTT producer action are decoded before the event is
+	 * created.
+	 * <p>Encoded payloads are recognized by their codec header. Payloads
+	 * without the header are never changed. Enable this property only if
+	 * the topics carry payloads of the producer action. The default value
+	 * is <code>false</code>.</p>
+	 * @return <code>true</code> if payloads are decoded, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isDecodePayload()
+	{
+		return m_bDecodePayload;
+	}
 
-		if (getUserName() != null)
-		{
-			l_options.setUserName(getUserName());
 
-			if (getPassword() != null)
-				l_options.setPassword(getPassword().toCharArray());
-		}
+	/**
+	 * This property determines if payloads that have been encoded by a
+	 * codec of the MQTT producer action are decoded before the event is
+	 * created.
+	 * @param p_bDecodePayload <code>true</code> if payloads should be
+	 *    decoded, or <code>false</code> otherwise.
+	 */
+	public void setDecodePayload(boolean p_bDecodePayload)
+	{
+		m_bDecodePayload = p_bDecodePayload;
+	}
 
-		return l_options;
+
+	/**
+	 * Get the maximum size of a decoded payload.
+	 * <p>Messages whose payload would decode to more bytes are not
+	 * dispatched. This protects against compressed payloads that expand
+	 * to a huge size. The default value is 16 MiB.</p>
+	 * @return The maximum size in bytes.
+	 */
+	public int getMaxDecodedSize()
+	{
+		return m_iMaxDecodedSize;
 	}
 
 
-	@Override
-	protected void run()
+	/**
+	 * Set the maximum size of a decoded payload.
+	 * @param p_iMaxSize The maximum size in bytes.
+	 */
+	public void setMaxDecodedSize(int p_iMaxSize)
 	{
-		final long        l_lRestartWaitTimeout;
-		final SharedState l_globalSharedState;
+		m_iMaxDecodedSize = p_iMaxSize;
+	}
 
-		l_lRestartWaitTimeout = Math.max(100L, getOnErrorRestartWaitTimeout()); // avoid busy waiting
-		l_globalSharedState   = isGlobalSharedState() ? new SharedState() : null;
 
-		// signal processes that we are about to start processing MQTT events
-		if (isSendBeforeStartEvent())
-			dispatchEvent(new BeforeStartMQTTWorkflowEvent(getGuid()), l_globalSharedState, null);
+	/**
+	 * This property determines if message events keep only the payload
+	 * and the attributes of the received message.
+	 * <p>If <code>true</code> an {@link MQTTCompactMessageWorkflowEvent} is
+	 * dispatched instead of an event that retains the message object of the
+	 * MQTT client, and events share the instances of equal topics. This
+	 * reduces the memory used by events that wait to be processed.
+	 * {@link IMQTTMessageWorkflowEvent#getMessage()} then creates a new
+	 * message object on each call. The default value is <code>false</code>.</p>
+	 * @return <code>true</code> if compact events are dispatched, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isCompactEvents()
+	{
+		return m_bCompactEvents;
+	}
 
-		// normally this outer loop will be executed exactly once
-		run_loop:
-		while (shouldRun())
-		{
-			try
-			{
-				runLoop(l_globalSharedState);
-			}
-			catch (RuntimeException l_e)
-			{
-				ms_log.error("Error in MQTT source loop.", l_e);
-			}
 
-			if (!shouldRunWithWait(l_lRestartWaitTimeout))
-				break run_loop;
-		}
+	/**
+	 * This property determines if message events keep only the payload
+	 * and the attributes of the received message.
+	 * @param p_bCompactEvents <code>true</code> if compact events should
+	 *    be dispatched, or <code>false</code> otherwise.
+	 */
+	public void setCompactEvents(boolean p_bCompactEvents)
+	{
+		m_bCompactEvents = p_bCompactEvents;
+	}
 
-		// signal processes that we are about to stop processing MQTT events
-		if (isSendAfterStopEvent())
-			dispatchEvent(new AfterStopMQTTWorkflowEvent(getGuid()), l_globalSharedState, null);
+
+	/**
+	 * Get the conditions a received message must meet to be dispatched.
+	 * <p>The conditions are given one per line and are evaluated on the
+	 * topic and the decoded payload before an event is created. Messages
+	 * that do not meet all conditions are dropped. See
+	 * {@link MQTTMessageFilter} for the syntax, e.g.
+	 * <code>!topic[2]=heartbeat</code> or <code>!json.status=ok</code>.
+	 * The default value is <code>null</code>, which means all messages
+	 * are dispatched.</p>
+	 * @return The conditions, or <code>null</code>.
+	 */
+	public String getMessageFilter()
+	{
+		return m_strMessageFilter;
 	}
 
 
 	/**
-	 * Run the message processing loop.
-	 * @param p_globalSharedState A global shared state, or <code>null</code>
-	 *    if {@link #isGlobalSharedState()} is <code>false</code>.
+	 * Set the conditions a received message must meet to be dispatched.
+	 * @param p_strFilter The conditions, one per line, or <code>null</code>.
 	 */
-	protected void runLoop(SharedState p_globalSharedState)
+	public void setMessageFilter(String p_strFilter)
 	{
-		final MqttConnectOptions l_options;
-		MqttClientPersistence    l_persistence;
-		IMqttClient              l_client;
+		m_strMessageFilter = p_strFilter;
+	}
 
-		l_persistence = null;
-		l_client      = null;
 
-		try
-		{
-			l_options     = _getOptions();
-			l_persistence = _createPersistence();
-			l_client      = _createClient(l_persistence);
+	/**
+	 * Get the number of received messages that have passed
+	 * the message filter.
+	 * @return The number of messages.
+	 */
+	public long getFilterPassedCount()
+	{
+		final MQTTMessageFilter l_filter = m_messageFilter;
 
-			l_client.setCallback(new MqttCallbackExtended()
-			{
-				@Override
-				public void messageArrived(String p_strTopic, MqttMessage p_message)
-					throws Exception
-				{
-					final MQTTMessageWorkflowEvent l_evt;
+		return l_filter != null ? l_filter.getPassed() : 0L;
+	}
 
-					l_evt = new MQTTMessageWorkflowEvent(getGuid(), p_strTopic, (MqttReceivedMessage)p_message);
 
-					dispatchEvent(l_evt, p_globalSharedState, null);
-				}
+	/**
+	 * Get the number of received messages that have been dropped
+	 * by the message filter.
+	 * @return The number of messages.
+	 */
+	public long getFilterDroppedCount()
+	{
+		final MQTTMessageFilter l_filter = m_messageFilter;
+
+		return l_filter != null ? l_filter.getDropped() : 0L;
+	}
+
+
+	/**
+	 * This property determines if the chunks of chunked transfers
+	 * are reassembled.
+	 * <p>If <code>true</code> chunk messages are written to a
+	 * temporary file, and a {@link org.example.mqtt.workflow.event.IMQTTFileWorkflowEvent file event}
+	 * is dispatched when the last chunk has arrived. The file is deleted
+	 * after the event has been processed. Chunked transfers should be
+	 * published with a quality of service of at least one, since a missing
+	 * chunk aborts the transfer. Since any client that may publish to the
+	 * subscribed topics can make the event source write files, the default
+	 * value is <code>false</code>; see also {@link #getMaxConcurrentTransfers()}
+	 * and {@link #getMaxTotalReassembledSize()}.</p>
+	 * @return <code>true</code> if chunks are reassembled, or
+	 *    <code>false</code> if they are dispatched as ordinary messages.
+	 */
+	public boolean isReassembleChunks()
+	{
+		return m_bReassembleChunks;
+	}
+
+
+	/**
+	 * This property determines if the chunks of chunked transfers
+	 * are reassembled.
+	 * @param p_bReassembleChunks <code>true</code> if chunks should be
+	 *    reassembled, or <code>false</code> otherwise.
+	 */
+	public void setReassembleChunks(boolean p_bReassembleChunks)
+	{
+		m_bReassembleChunks = p_bReassembleChunks;
+	}
+
+
+	/**
+	 * Get the directory for the temporary files of chunked transfers.
+	 * <p>The default value is <code>null</code>, i.e. the default
+	 * temporary directory is used.</p>
+	 * @return The directory, or <code>null</code>.
+	 */
+	public String getChunkDirectory()
+	{
+		return m_strChunkDirectory;
+	}
+
+
+	/**
+	 * Set the directory for the temporary files of chunked transfers.
+	 * @param p_strDirectory The directory, or <code>null</code>.
+	 */
+	public void setChunkDirectory(String p_strDirectory)
+	{
+		m_strChunkDirectory = p_strDirectory;
+	}
+
+
+	/**
+	 * Get the time in milliseconds after which an incomplete chunked
+	 * transfer is discarded if no further chunk arrives.
+	 * <p>The default value is 60000 milliseconds (one minute).</p>
+	 * @return The timeout in milliseconds.
+	 */
+	public long getChunkTimeout()
+	{
+		return m_lChunkTimeout;
+	}
+
+
+	/**
+	 * Set the time in milliseconds after which an incomplete chunked
+	 * transfer is discarded if no further chunk arrives.
+	 * @param p_lTimeout The timeout in milliseconds.
+	 */
+	public void setChunkTimeout(long p_lTimeout)
+	{
+		m_lChunkTimeout = p_lTimeout;
+	}
+
+
+	/**
+	 * Get the maximum size of a reassembled payload.
+	 * <p>Larger transfers are discarded. The default value is 1 GiB.</p>
+	 * @return The maximum size in bytes.
+	 */
+	public long getMaxReassembledSize()
+	{
+		return m_lMaxReassembledSize;
+	}
+
+
+	/**
+	 * Set the maximum size of a reassembled payload.
+	 * @param p_lMaxSize The maximum size in bytes.
+	 */
+	public void setMaxReassembledSize(long p_lMaxSize)
+	{
+		m_lMaxReassembledSize = p_lMaxSize;
+	}
+
+
+	/**
+	 * Get the maximum number of chunked transfers that are reassembled
+	 * at the same time.
+	 * <p>Further transfers are discarded. The default value is 4.</p>
+	 * @return The maximum number of transfers.
+	 */
+	public int getMaxConcurrentTransfers()
+	{
+		return m_iMaxConcurrentTransfers;
+	}
+
+
+	/**
+	 * Set the maximum number of chunked transfers that are reassembled
+	 * at the same time.
+	 * @param p_iMaxTransfers The maximum number of transfers.
+	 */
+	public void setMaxConcurrentTransfers(int p_iMaxTransfers)
+	{
+		m_iMaxConcurrentTransfers = p_iMaxTransfers;
+	}
+
+
+	/**
+	 * Get the maximum number of bytes in the temporary files of all
+	 * chunked transfers.
+	 * <p>This includes transfers in progress, and completed transfers
+	 * whose event has not been processed yet. A transfer that would exceed
+	 * the limit is discarded. The default value is 2 GiB.</p>
+	 * @return The maximum size in bytes.
+	 */
+	public long getMaxTotalReassembledSize()
+	{
+		return m_lMaxTotalReassembledSize;
+	}
+
+
+	/**
+	 * Set the maximum number of bytes in the temporary files of all
+	 * chunked transfers.
+	 * @param p_lMaxSize The maximum size in bytes.
+	 */
+	public void setMaxTotalReassembledSize(long p_lMaxSize)
+	{
+		m_lMaxTotalReassembledSize = p_lMaxSize;
+	}
+
+
+	/**
+	 * Get how workflow events for received messages are dispatched.
+	 * <p>Either <code>DIRECT</code> (default) to dispatch on the callback
+	 * thread of the MQTT client, or <code>EXECUTOR</code> to hand the events
+	 * to {@link #getDispatchThreads()} dispatch threads via a queue of
+	 * {@link #getDispatchQueueCapacity()} events. If the queue is full, the
+	 * callback thread waits, so the MQTT client stops reading messages.</p>
+	 * <p>The <code>PARTITIONED</code> mode creates {@link #getDispatchThreads()}
+	 * lanes with one thread and a queue of {@link #getDispatchQueueCapacity()}
+	 * events each. A message is assigned to a lane by the hash of its
+	 * {@link #getDispatchKey() key}, so messages with the same key are
+	 * processed in the order of arrival.</p>
+	 * <p>Note that with the <code>EXECUTOR</code> and <code>PARTITIONED</code>
+	 * modes a {@link #isGlobalSharedState() global shared state} is accessed
+	 * concurrently.</p>
+	 * @return The dispatch mode.
+	 */
+	public String getDispatchMode()
+	{
+		return m_strDispatchMode;
+	}
+
+
+	/**
+	 * Set how workflow events for received messages are dispatched.
+	 * @param p_strMode The dispatch mode.
+	 * @see #getDispatchMode()
+	 */
+	public void setDispatchMode(String p_strMode)
+	{
+		m_strDispatchMode = p_strMode;
+	}
+
+
+	/**
+	 * Get the number of threads that dispatch workflow events concurrently.
+	 * <p>The default value is the number of available processors.</p>
+	 * @return The number of dispatch threads.
+	 */
+	public int getDispatchThreads()
+	{
+		return m_iDispatchThreads;
+	}
+
+
+	/**
+	 * Set the number of threads that dispatch workflow events concurrently.
+	 * @param p_iThreads The number of dispatch threads.
+	 */
+	public void setDispatchThreads(int p_iThreads)
+	{
+		m_iDispatchThreads = p_iThreads;
+	}
+
+
+	/**
+	 * Get the maximum number of events that wait for a dispatch thread.
+	 * <p>The default value is 1000.</p>
+	 * @return The queue capacity.
+	 */
+	public int getDispatchQueueCapacity()
+	{
+		return m_iDispatchQueueCapacity;
+	}
+
+
+	/**
+	 * Set the maximum number of events that wait for a dispatch thread.
+	 * @param p_iCapacity The queue capacity.
+	 */
+	public void setDispatchQueueCapacity(int p_iCapacity)
+	{
+		m_iDispatchQueueCapacity = p_iCapacity;
+	}
+
+
+	/**
+	 * This property determines if the dispatch threads are virtual threads.
+	 * <p>The default value is <code>false</code>, i.e. platform threads
+	 * are used.</p>
+	 * @return <code>true</code> if virtual threads are used, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isDispatchVirtualThreads()
+	{
+		return m_bDispatchVirtualThreads;
+	}
+
+
+	/**
+	 * This property determines if the dispatch threads are virtual threads.
+	 * @param p_bVirtualThreads <code>true</code> if virtual threads should
+	 *    be used, or <code>false</code> otherwise.
+	 */
+	public void setDispatchVirtualThreads(boolean p_bVirtualThreads)
+	{
+		m_bDispatchVirtualThreads = p_bVirtualThreads;
+	}
+
+
+	/**
+	 * Get the key that assigns messages to lanes in the
+	 * <code>PARTITIONED</code> dispatch mode.
+	 * <p>Either <code>TOPIC</code> (default), <code>TOPIC_SEGMENT</code> for
+	 * the topic level {@link #getDispatchKeySegment()}, or <code>PAYLOAD_FIELD</code>
+	 * for the value of the top-level field {@link #getDispatchKeyField()} of a
+	 * JSON payload. If a message does not have the segment or the field, its
+	 * topic is used as the key.</p>
+	 * @return The dispatch key.
+	 */
+	public String getDispatchKey()
+	{
+		return m_strDispatchKey;
+	}
+
+
+	/**
+	 * Set the key that assigns messages to lanes in the
+	 * <code>PARTITIONED</code> dispatch mode.
+	 * @param p_strKey The dispatch key.
+	 * @see #getDispatchKey()
+	 */
+	public void setDispatchKey(String p_strKey)
+	{
+		m_strDispatchKey = p_strKey;
+	}
+
+
+	/**
+	 * Get the zero-based index of the topic level that is used as the key
+	 * if the dispatch key is <code>TOPIC_SEGMENT</code>.
+	 * <p>The default value is 0.</p>
+	 * @return The index of the topic level.
+	 */
+	public int getDispatchKeySegment()
+	{
+		return m_iDispatchKeySegment;
+	}
+
+
+	/**
+	 * Set the zero-based index of the topic level that is used as the key
+	 * if the dispatch key is <code>TOPIC_SEGMENT</code>.
+	 * @param p_iSegment The index of the topic level.
+	 */
+	public void setDispatchKeySegment(int p_iSegment)
+	{
+		m_iDispatchKeySegment = p_iSegment;
+	}
+
+
+	/**
+	 * Get the name of the JSON field that is used as the key
+	 * if the dispatch key is <code>PAYLOAD_FIELD</code>.
+	 * @return The field name.
+	 */
+	public String getDispatchKeyField()
+	{
+		return m_strDispatchKeyField;
+	}
+
+
+	/**
+	 * Set the name of the JSON field that is used as the key
+	 * if the dispatch key is <code>PAYLOAD_FIELD</code>.
+	 * @param p_strField The field name.
+	 */
+	public void setDispatchKeyField(String p_strField)
+	{
+		m_strDispatchKeyField = p_strField;
+	}
+
+
+	/**
+	 * This property determines if received messages are collected into
+	 * batches that are dispatched as a single event.
+	 * <p>If <code>true</code> an {@link org.example.mqtt.workflow.event.IMQTTMessageBatchWorkflowEvent}
+	 * is dispatched when {@link #getBatchMaxMessages()} messages have been
+	 * received, or {@link #getBatchLinger()} milliseconds after the first
+	 * message of the batch has been received. Reassembled chunked transfers
+	 * are not batched. The default value is <code>false</code>.</p>
+	 * @return <code>true</code> if messages are batched, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isBatchEvents()
+	{
+		return m_bBatchEvents;
+	}
+
+
+	/**
+	 * This property determines if received messages are collected into
+	 * batches that are dispatched as a single event.
+	 * @param p_bBatchEvents <code>true</code> if messages should be
+	 *    batched, or <code>false</code> otherwise.
+	 */
+	public void setBatchEvents(boolean p_bBatchEvents)
+	{
+		m_bBatchEvents = p_bBatchEvents;
+	}
+
+
+	/**
+	 * Get the maximum number of messages in a batch.
+	 * <p>The default value is 100.</p>
+	 * @return The maximum number of messages.
+	 */
+	public int getBatchMaxMessages()
+	{
+		return m_iBatchMaxMessages;
+	}
+
+
+	/**
+	 * Set the maximum number of messages in a batch.
+	 * @param p_iMaxMessages The maximum number of messages.
+	 */
+	public void setBatchMaxMessages(int p_iMaxMessages)
+	{
+		m_iBatchMaxMessages = p_iMaxMessages;
+	}
+
+
+	/**
+	 * Get the maximum time in milliseconds the first message of
+	 * a batch waits for further messages.
+	 * <p>The default value is 1000 milliseconds.</p>
+	 * @return The time in milliseconds.
+	 */
+	public long getBatchLinger()
+	{
+		return m_lBatchLinger;
+	}
+
+
+	/**
+	 * Set the maximum time in milliseconds the first message of
+	 * a batch waits for further messages.
+	 * @param p_lLinger The time in milliseconds.
+	 */
+	public void setBatchLinger(long p_lLinger)
+	{
+		m_lBatchLinger = p_lLinger;
+	}
+
+
+	/**
+	 * This property determines if only the latest message per topic
+	 * is dispatched.
+	 * <p>If <code>true</code> the event source holds the latest message of
+	 * each topic for {@link #getConflationInterval()} milliseconds, and
+	 * dispatches the messages that have not been replaced by a later
+	 * message of their topic at the end of the interval. Replaced messages
+	 * are acknowledged without being dispatched. If messages are batched,
+	 * the remaining messages are batched. The messages of a topic are
+	 * processed in order with the dispatch modes <code>DIRECT</code> and
+	 * <code>PARTITIONED</code> with a topic based dispatch key, but not
+	 * with <code>EXECUTOR</code>. The default value is
+	 * <code>false</code>.</p>
+	 * @return <code>true</code> if messages are conflated, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isConflate()
+	{
+		return m_bConflate;
+	}
+
+
+	/**
+	 * This property determines if only the latest message per topic
+	 * is dispatched.
+	 * @param p_bConflate <code>true</code> if messages should be
+	 *    conflated, or <code>false</code> otherwise.
+	 */
+	public void setConflate(boolean p_bConflate)
+	{
+		m_bConflate = p_bConflate;
+	}
+
+
+	/**
+	 * Get the interval in milliseconds at the end of which the latest
+	 * message of each topic is dispatched.
+	 * <p>The default value is 1000 milliseconds.</p>
+	 * @return The interval in milliseconds.
+	 */
+	public long getConflationInterval()
+	{
+		return m_lConflationInterval;
+	}
+
+
+	/**
+	 * Set the interval in milliseconds at the end of which the latest
+	 * message of each topic is dispatched.
+	 * @param p_lInterval The interval in milliseconds.
+	 */
+	public void setConflationInterval(long p_lInterval)
+	{
+		m_lConflationInterval = p_lInterval;
+	}
+
+
+	/**
+	 * Get the number of received messages that have been replaced
+	 * by a later message of their topic, and thus not dispatched,
+	 * since the source loop has been (re)started.
+	 * @return The number of messages.
+	 */
+	public long getConflatedCount()
+	{
+		final MQTTEventConflater l_conflater = m_conflater;
+
+		return l_conflater != null ? l_conflater.getConflated() : 0L;
+	}
+
+
+	/**
+	 * Get the number of received but unprocessed messages at which
+	 * the consumption of messages is paused.
+	 * <p>The consumption is paused by unsubscribing from all topic filters,
+	 * and resumed by subscribing again when the backlog has dropped to
+	 * {@link #getBacklogLowWatermark()}. The MQTT client keeps reading from
+	 * the connection, so the connection stays alive however long the pause
+	 * lasts, and messages that are already on their way are still accepted.
+	 * Note that the server does not keep messages that are published while
+	 * the consumption is paused for this event source, not even in a durable
+	 * session; in a shared subscription they are delivered to the other
+	 * members of the group. Retained messages are delivered again when the
+	 * consumption is resumed. The default value is <code>0</code>, which
+	 * means the consumption is never paused.</p>
+	 * @return The high watermark.
+	 */
+	public int getBacklogHighWatermark()
+	{
+		return m_iBacklogHighWatermark;
+	}
+
+
+	/**
+	 * Set the number of received but unprocessed messages at which
+	 * the consumption of messages is paused.
+	 * @param p_iHighWatermark The high watermark, or <code>0</code>
+	 *    if the consumption should never be paused.
+	 */
+	public void setBacklogHighWatermark(int p_iHighWatermark)
+	{
+		m_iBacklogHighWatermark = p_iHighWatermark;
+	}
+
+
+	/**
+	 * Get the number of received but unprocessed messages at which
+	 * a paused consumption of messages is resumed.
+	 * <p>The default value is <code>0</code>, which means half of
+	 * the high watermark.</p>
+	 * @return The low watermark.
+	 */
+	public int getBacklogLowWatermark()
+	{
+		return m_iBacklogLowWatermark;
+	}
+
+
+	/**
+	 * Set the number of received but unprocessed messages at which
+	 * a paused consumption of messages is resumed.
+	 * @param p_iLowWatermark The low watermark, or <code>0</code>
+	 *    for half of the high watermark.
+	 */
+	public void setBacklogLowWatermark(int p_iLowWatermark)
+	{
+		m_iBacklogLowWatermark = p_iLowWatermark;
+	}
+
+
+	/**
+	 * Test if the consumption of messages is currently paused,
+	 * because the backlog has reached the high watermark.
+	 * @return <code>true</code> if the consumption is paused, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isConsumptionPaused()
+	{
+		final MQTTFlowControl l_flowControl = m_flowControl;
+
+		return l_flowControl != null && l_flowControl.isPaused();
+	}
+
+
+	/**
+	 * Get how often the consumption of messages has been paused
+	 * since the source loop has been (re)started.
+	 * @return The number of pauses.
+	 */
+	public long getConsumptionPauseCount()
+	{
+		final MQTTFlowControl l_flowControl = m_flowControl;
+
+		return l_flowControl != null ? l_flowControl.getPauseCount() : 0L;
+	}
+
+
+	/**
+	 * Get the total time in milliseconds the consumption of messages has
+	 * been paused since the source loop has been (re)started, not
+	 * including a current pause.
+	 * @return The time in milliseconds.
+	 */
+	public long getConsumptionPausedTime()
+	{
+		final MQTTFlowControl l_flowControl = m_flowControl;
+
+		return l_flowControl != null ? l_flowControl.getPausedTime() : 0L;
+	}
+
+
+	/**
+	 * This property determines if redelivered copies of a message
+	 * are dropped instead of being dispatched again.
+	 * <p>With a quality of service of 1 the server may deliver a message
+	 * more than once, e.g. after a reconnect. If <code>true</code> the
+	 * event source remembers a hash of the key {@link #getDedupKey()} of
+	 * up to {@link #getDedupCacheSize()} messages for
+	 * {@link #getDedupTimeToLive()} milliseconds, and drops messages with
+	 * a known key. By default only messages that the server has flagged as
+	 * redelivered are dropped (see {@link #isDedupRedeliveredOnly()}).
+	 * If the event of a message fails, its key is forgotten, so that a
+	 * redelivery is processed. The default value is <code>false</code>.</p>
+	 * <p>Deduplication trades data loss for fewer repeated events: a
+	 * message that is legitimately sent again with the same key within
+	 * the time to live, e.g. a sensor reporting the same value twice, is
+	 * dropped if it is considered a duplicate.</p>
+	 * @return <code>true</code> if duplicates are dropped, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isDeduplicate()
+	{
+		return m_bDeduplicate;
+	}
+
+
+	/**
+	 * This property determines if redelivered copies of a message
+	 * are dropped instead of being dispatched again.
+	 * @param p_bDeduplicate <code>true</code> if duplicates should
+	 *    be dropped, or <code>false</code> otherwise.
+	 */
+	public void setDeduplicate(boolean p_bDeduplicate)
+	{
+		m_bDeduplicate = p_bDeduplicate;
+	}
+
+
+	/**
+	 * This property determines if only messages with the duplicate flag
+	 * set, i.e. redeliveries of the server, are checked for duplicates.
+	 * <p>If <code>true</code>, the keys of all messages are remembered,
+	 * but a message without the duplicate flag is never dropped, so that
+	 * messages that are published again are processed. If
+	 * <code>false</code>, every message with a known key is dropped, which
+	 * also catches copies that the publisher has sent more than once, at
+	 * the risk of dropping legitimate repeats. The default value is
+	 * <code>true</code>.</p>
+	 * @return <code>true</code> if only redeliveries are dropped, or
+	 *    <code>false</code> otherwise.
+	 */
+	public boolean isDedupRedeliveredOnly()
+	{
+		return m_bDedupRedeliveredOnly;
+	}
+
+
+	/**
+	 * This property determines if only messages with the duplicate flag
+	 * set, i.e. redeliveries of the server, are checked for duplicates.
+	 * @param p_bRedeliveredOnly <code>true</code> if only redeliveries
+	 *    should be dropped, or <code>false</code> otherwise.
+	 * @see #isDedupRedeliveredOnly()
+	 */
+	public void setDedupRedeliveredOnly(boolean p_bRedeliveredOnly)
+	{
+		m_bDedupRedeliveredOnly = p_bRedeliveredOnly;
+	}
+
+
+	/**
+	 * Get the key that identifies copies of a message.
+	 * <p>The default value is <code>TOPIC_PAYLOAD</code>.</p>
+	 * @return The name of a {@link MQTTDedupKey} constant.
+	 */
+	public String getDedupKey()
+	{
+		return m_strDedupKey;
+	}
+
+
+	/**
+	 * Set the key that identifies copies of a message.
+	 * @param p_strKey The name of a {@link MQTTDedupKey} constant.
+	 */
+	public void setDedupKey(String p_strKey)
+	{
+		m_strDedupKey = p_strKey;
+	}
+
+
+	/**
+	 * Get the name of the JSON field that identifies a message
+	 * if the dedup key is <code>PAYLOAD_FIELD</code>.
+	 * @return The field name.
+	 */
+	public String getDedupKeyField()
+	{
+		return m_strDedupKeyField;
+	}
+
+
+	/**
+	 * Set the name of the JSON field that identifies a message
+	 * if the dedup key is <code>PAYLOAD_FIELD</code>.
+	 * @param p_strField The field name.
+	 */
+	public void setDedupKeyField(String p_strField)
+	{
+		m_strDedupKeyField = p_strField;
+	}
+
+
+	/**
+	 * Get the number of message keys that are remembered.
+	 * <p>The default value is 10000.</p>
+	 * @return The number of keys.
+	 */
+	public int getDedupCacheSize()
+	{
+		return m_iDedupCacheSize;
+	}
+
+
+	/**
+	 * Set the number of message keys that are remembered.
+	 * @param p_iSize The number of keys.
+	 */
+	public void setDedupCacheSize(int p_iSize)
+	{
+		m_iDedupCacheSize = p_iSize;
+	}
+
+
+	/**
+	 * Get the time in milliseconds a message key is remembered.
+	 * <p>The time should cover the redeliveries after a reconnect; a longer
+	 * time drops more legitimate repeats. The default value is 60000
+	 * milliseconds (one minute).</p>
+	 * @return The time in milliseconds.
+	 */
+	public long getDedupTimeToLive()
+	{
+		return m_lDedupTimeToLive;
+	}
+
+
+	/**
+	 * Set the time in milliseconds a message key is remembered.
+	 * @param p_lTimeToLive The time in milliseconds.
+	 */
+	public void setDedupTimeToLive(long p_lTimeToLive)
+	{
+		m_lDedupTimeToLive = p_lTimeToLive;
+	}
+
+
+	/**
+	 * Get the number of received messages that have been
+	 * dropped as duplicates.
+	 * @return The number of duplicates.
+	 */
+	public long getDedupHits()
+	{
+		final MQTTDedupCache l_cache = m_dedupCache;
+
+		return l_cache != null ? l_cache.getHits() : 0L;
+	}
+
+
+	/**
+	 * Get the number of received messages that have not been
+	 * seen before while duplicates are dropped.
+	 * @return The number of first deliveries.
+	 */
+	public long getDedupMisses()
+	{
+		final MQTTDedupCache l_cache = m_dedupCache;
+
+		return l_cache != null ? l_cache.getMisses() : 0L;
+	}
+
+
+	/**
+	 * Get the number of received messages whose events
+	 * have not been processed yet.
+	 * @return The number of pending events, or <code>0</code>
+	 *    if the event source is not running.
+	 */
+	public int getDispatchBacklog()
+	{
+		final IMQTTEventDispatcher l_dispatcher = m_dispatcher;
+
+		return l_dispatcher != null ? l_dispatcher.getBacklog() : 0;
+	}
+
+
+	/**
+	 * Get the number of pending events per lane in the
+	 * <code>PARTITIONED</code> dispatch mode.
+	 * <p>A lane with a much higher backlog than the others is
+	 * a sign of a hot key.</p>
+	 * @return The number of pending events, indexed by lane. The array
+	 *    is empty if the event source does not dispatch in the
+	 *    <code>PARTITIONED</code> mode or is not running.
+	 */
+	public int[] getDispatchLaneBacklogs()
+	{
+		final IMQTTEventDispatcher l_dispatcher = m_dispatcher;
+
+		if (l_dispatcher instanceof MQTTPartitionedDispatcher)
+			return ((MQTTPartitionedDispatcher)l_dispatcher).getLaneBacklogs();
+		else
+			return new int[0];
+	}
+
+
+	/**
+	 * Create the dispatcher for workflow events.
+	 * @return The dispatcher.
+	 */
+	private IMQTTEventDispatcher _createDispatcher()
+	{
+		switch (MQTTDispatchMode.valueOf(getDispatchMode()))
+		{
+			case EXECUTOR:
+				return new MQTTExecutorDispatcher("ix-mqtt-dispatch-" + getGuid(),
+				                                  getDispatchThreads(),
+				                                  getDispatchQueueCapacity(),
+				                                  isDispatchVirtualThreads());
+
+			case PARTITIONED:
+				return new MQTTPartitionedDispatcher("ix-mqtt-dispatch-" + getGuid(),
+				                                     getDispatchThreads(),
+				                                     getDispatchQueueCapacity(),
+				                                     isDispatchVirtualThreads());
+
+			default:
+				return new MQTTDirectDispatcher();
+		}
+	}
+
+
+	/**
+	 * Acknowledge a received message if messages are acknowledged manually.
+	 * @param p_client The client that received the message.
+	 * @param p_message The message.
+	 */
+	private void _acknowledge(AtomicReference<IMqttClient> p_client, MqttMessage p_message)
+	{
+		_acknowledge(p_client, p_message.getId(), p_message.getQos());
+	}
+
+
+	/**
+	 * Acknowledge a received message if messages are acknowledged manually.
+	 * <p>The acknowledgement is queued by the MQTT client, so the calling
+	 * thread does not wait for it to be sent.</p>
+	 * <p>Message identifiers are only valid for the client that has received
+	 * the message. Each run of the source loop has its own client reference,
+	 * which is cleared when its client is closed, so that tasks that complete
+	 * after a restart do not acknowledge arbitrary messages of the new client.</p>
+	 * @param p_client The client that received the message.
+	 * @param p_iMessageId The identifier of the message.
+	 * @param p_iQos The quality of service of the message.
+	 */
+	private void _acknowledge(AtomicReference<IMqttClient> p_client, int p_iMessageId, int p_iQos)
+	{
+		final IMqttClient l_client;
+
+		if (!isManualAcks())
+			return;
+
+		l_client = p_client.get();
+
+		if (l_client == null)
+		{
+			ms_log.debug(getLogPrologue() + " Not acknowledging message " + p_iMessageId + ", since its connection has been closed.");
+			return;
+		}
+
+		try
+		{
+			l_client.messageArrivedComplete(p_iMessageId, p_iQos);
+		}
+		catch (MqttException l_e)
+		{
+			ms_log.warn(getLogPrologue() + " Cannot acknowledge message " + p_iMessageId + ".", l_e);
+		}
+	}
+
+
+	/**
+	 * Create the flow control that pauses the consumption of messages.
+	 * @param p_listener Called when the consumption must be paused or resumed.
+	 * @return The flow control.
+	 */
+	private MQTTFlowControl _createFlowControl(Runnable p_listener)
+	{
+		final int l_iHigh = Math.max(getBacklogHighWatermark(), 0);
+
+		return new MQTTFlowControl(getLogPrologue(),
+		                           l_iHigh,
+		                           getBacklogLowWatermark() > 0 ? getBacklogLowWatermark() : l_iHigh / 2,
+		                           p_listener);
+	}
+
+
+	/**
+	 * Pause the consumption of messages by unsubscribing from the topic
+	 * filters, or resume it by subscribing again.
+	 * <p>This is done on the thread of the source loop, since the callback
+	 * thread of the MQTT client must neither block nor wait for the
+	 * response of the server.</p>
+	 * @param p_client The MQTT client.
+	 * @param p_filters The topic filters.
+	 * @param p_qos The quality of service per topic filter.
+	 * @param p_bPause <code>true</code> to pause, or <code>false</code> to resume.
+	 * @return <code>true</code> if the consumption is paused now, or
+	 *    <code>false</code> otherwise.
+	 */
+	private boolean _setPaused(IMqttClient p_client, String[] p_filters, int[] p_qos, boolean p_bPause)
+	{
+		try
+		{
+			if (p_bPause)
+				p_client.unsubscribe(p_filters);
+			else
+				_subscribe(p_client, p_filters, p_qos);
+
+			return p_bPause;
+		}
+		catch (MqttException l_e)
+		{
+			ms_log.warn(getLogPrologue() + " Cannot " + (p_bPause ? "pause" : "resume") +
+			            " the consumption of MQTT messages, retrying in " + getRestartInitialDelay() + " ms.", l_e);
+
+			return !p_bPause;
+		}
+	}
+
+
+	/**
+	 * Create the batcher for message events.
+	 * @param p_dispatcher The dispatcher of the batch events.
+	 * @param p_flowControl The flow control that is released when a batch is processed.
+	 * @param p_client The client that acknowledges the messages.
+	 * @param p_globalSharedState A global shared state, or <code>null</code>.
+	 * @return The batcher, or <code>null</code> if messages
+	 *    should not be batched.
+	 */
+	private MQTTEventBatcher _createBatcher(IMQTTEventDispatcher         p_dispatcher,
+	                                        MQTTFlowControl              p_flowControl,
+	                                        AtomicReference<IMqttClient> p_client,
+	                                        SharedState                  p_globalSharedState)
+	{
+		final MQTTEventBatcher.IBatchSink l_sink;
+
+		if (!isBatchEvents())
+			return null;
+
+		l_sink = (p_strKey, p_batch) -> p_dispatcher.dispatch(p_strKey, () ->
+		{
+			try
+			{
+				dispatchEvent(new MQTTMessageBatchWorkflowEvent(getGuid(), p_batch), p_globalSharedState, null);
+
+				for (IMQTTMessageWorkflowEvent l_evt : p_batch)
+					_acknowledge(p_client, l_evt.getMessageId(), l_evt.getQos());
+			}
+			catch (RuntimeException l_e)
+			{
+				for (IMQTTMessageWorkflowEvent l_evt : p_batch)
+					_forgetDuplicate(l_evt.getTopic(), l_evt.getPayload());
+
+				throw l_e;
+			}
+			finally
+			{
+				p_flowControl.release(p_batch.size());
+			}
+		});
+
+		// one batch per lane keeps the order of the messages of each lane
+		if (p_dispatcher instanceof MQTTPartitionedDispatcher)
+			return new MQTTEventBatcher("ix-mqtt-batch-" + getGuid(),
+			                            getDispatchThreads(),
+			                            ((MQTTPartitionedDispatcher)p_dispatcher)::getLane,
+			                            getBatchMaxMessages(),
+			                            getBatchLinger(),
+			                            l_sink);
+		else
+			return new MQTTEventBatcher("ix-mqtt-batch-" + getGuid(),
+			                            1,
+			                            p_strKey -> 0,
+			                            getBatchMaxMessages(),
+			                            getBatchLinger(),
+			                            l_sink);
+	}
+
+
+	/**
+	 * Create the conflater for message events.
+	 * @param p_dispatcher The dispatcher of the latest events.
+	 * @param p_batcher The batcher of the latest events, or <code>null</code>.
+	 * @param p_flowControl The flow control that is released when an event is processed.
+	 * @param p_client The client that acknowledges the messages.
+	 * @param p_globalSharedState A global shared state, or <code>null</code>.
+	 * @return The conflater, or <code>null</code> if messages
+	 *    should not be conflated.
+	 */
+	private MQTTEventConflater _createConflater(IMQTTEventDispatcher         p_dispatcher,
+	                                            MQTTEventBatcher             p_batcher,
+	                                            MQTTFlowControl              p_flowControl,
+	                                            AtomicReference<IMqttClient> p_client,
+	                                            SharedState                  p_globalSharedState)
+	{
+		if (!isConflate())
+			return null;
+
+		return new MQTTEventConflater("ix-mqtt-conflate-" + getGuid(), getConflationInterval(), (p_strKey, p_evt) ->
+		{
+			if (p_batcher != null)
+				p_batcher.add(p_strKey, p_evt);
+			else
+				_dispatchMessage(p_dispatcher, p_flowControl, p_client, p_strKey, p_evt, p_globalSharedState);
+		});
+	}
+
+
+	/**
+	 * Dispatch the event of a single message, and acknowledge the
+	 * message after the event has been processed.
+	 * @param p_dispatcher The dispatcher.
+	 * @param p_flowControl The flow control that is released when the event is processed.
+	 * @param p_client The client that acknowledges the message.
+	 * @param p_strKey The ordering key, or <code>null</code>.
+	 * @param p_evt The event.
+	 * @param p_globalSharedState A global shared state, or <code>null</code>.
+	 * @throws InterruptedException If the current thread has been interrupted
+	 *    while the dispatcher was blocked.
+	 */
+	private void _dispatchMessage(IMQTTEventDispatcher         p_dispatcher,
+	                              MQTTFlowControl              p_flowControl,
+	                              AtomicReference<IMqttClient> p_client,
+	                              String                       p_strKey,
+	                              IMQTTMessageWorkflowEvent    p_evt,
+	                              SharedState                  p_globalSharedState)
+		throws InterruptedException
+	{
+		p_dispatcher.dispatch(p_strKey, () ->
+		{
+			try
+			{
+				dispatchEvent(p_evt, p_globalSharedState, null);
+
+				// not reached if the event failed, so the message will be delivered again
+				_acknowledge(p_client, p_evt.getMessageId(), p_evt.getQos());
+			}
+			catch (RuntimeException l_e)
+			{
+				_forgetDuplicate(p_evt.getTopic(), p_evt.getPayload());
+
+				throw l_e;
+			}
+			finally
+			{
+				p_flowControl.release(1);
+			}
+		});
+	}
+
+
+	/**
+	 * Get the hash that identifies copies of a message.
+	 * @param p_key The kind of key.
+	 * @param p_strTopic The topic.
+	 * @param p_payload The payload.
+	 * @return The hash.
+	 */
+	private long _getDedupHash(MQTTDedupKey p_key, String p_strTopic, byte[] p_payload)
+	{
+		final String l_strId;
+
+		if (p_key == MQTTDedupKey.PAYLOAD_FIELD)
+		{
+			l_strId = MQTTJsonUtil.getTopLevelField(p_payload, getDedupKeyField());
+
+			if (l_strId != null)
+				return MQTTDedupCache.hash(l_strId, null);
+		}
+
+		return MQTTDedupCache.hash(p_strTopic, p_payload);
+	}
+
+
+	/**
+	 * Forget a message whose event failed, so that a redelivered
+	 * copy is not dropped.
+	 * @param p_strTopic The topic.
+	 * @param p_payload The payload.
+	 */
+	private void _forgetDuplicate(String p_strTopic, byte[] p_payload)
+	{
+		final MQTTDedupCache l_cache = m_dedupCache;
+
+		if (l_cache != null)
+			l_cache.remove(_getDedupHash(MQTTDedupKey.valueOf(getDedupKey()), p_strTopic, p_payload));
+	}
+
+
+	/**
+	 * Get the key that determines the lane of a message in the
+	 * <code>PARTITIONED</code> dispatch mode.
+	 * @param p_key The kind of key.
+	 * @param p_strTopic The topic.
+	 * @param p_payload The payload, or <code>null</code> for file events.
+	 * @return The key.
+	 */
+	private String _getDispatchKey(MQTTDispatchKey p_key, String p_strTopic, byte[] p_payload)
+	{
+		String l_strKey = null;
+
+		switch (p_key)
+		{
+			case TOPIC_SEGMENT:
+				l_strKey = _getTopicSegment(p_strTopic, getDispatchKeySegment());
+				break;
+
+			case PAYLOAD_FIELD:
+				if (p_payload != null)
+					l_strKey = MQTTJsonUtil.getTopLevelField(p_payload, getDispatchKeyField());
+				break;
+
+			default:
+				break;
+		}
+
+		return l_strKey != null ? l_strKey : p_strTopic;
+	}
+
+
+	/**
+	 * Get a level of the given topic.
+	 * @param p_strTopic The topic.
+	 * @param p_iSegment The zero-based index of the level.
+	 * @return The level, or <code>null</code> if the topic
+	 *    does not have that many levels.
+	 */
+	private static String _getTopicSegment(String p_strTopic, int p_iSegment)
+	{
+		int l_iStart = 0;
+
+		for (int i = 0; i < p_iSegment; i++)
+		{
+			l_iStart = p_strTopic.indexOf('/', l_iStart) + 1;
+
+			if (l_iStart == 0)
+				return null;
+		}
+
+		final int l_iEnd = p_strTopic.indexOf('/', l_iStart);
+
+		return l_iEnd < 0 ? p_strTopic.substring(l_iStart) : p_strTopic.substring(l_iStart, l_iEnd);
+	}
+
+
+	/**
+	 * Create the reassembler for chunked transfers.
+	 * @param p_client The client that acknowledges the chunk messages.
+	 * @return The reassembler, or <code>null</code> if chunks
+	 *    should not be reassembled.
+	 */
+	private MQTTChunkReassembler _createReassembler(AtomicReference<IMqttClient> p_client)
+	{
+		final Path l_directory;
+
+		if (!isReassembleChunks())
+			return null;
+
+		if (getChunkDirectory() != null)
+			l_directory = Paths.get(getChunkDirectory());
+		else
+			l_directory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+		return new MQTTChunkReassembler(l_directory,
+		                                getChunkTimeout(),
+		                                getMaxReassembledSize(),
+		                                getMaxConcurrentTransfers(),
+		                                getMaxTotalReassembledSize(),
+		                                (p_iMessageId, p_iQos) -> _acknowledge(p_client, p_iMessageId, p_iQos));
+	}
+
+
+	/**
+	 * Add a chunk to its transfer, and dispatch a file event if the
+	 * transfer is complete.
+	 * <p>The chunk messages of a transfer are acknowledged after the
+	 * file event has been processed.</p>
+	 * @param p_dispatcher The dispatcher.
+	 * @param p_flowControl The flow control.
+	 * @param p_strKey The ordering key, or <code>null</code>.
+	 * @param p_reassembler The reassembler.
+	 * @param p_strTopic The topic.
+	 * @param p_message The chunk message.
+	 * @param p_globalSharedState A global shared state, or <code>null</code>.
+	 */
+	private void _reassemble(IMQTTEventDispatcher p_dispatcher,
+	                         MQTTFlowControl      p_flowControl,
+	                         String               p_strKey,
+	                         MQTTChunkReassembler p_reassembler,
+	                         String               p_strTopic,
+	                         MqttMessage          p_message,
+	                         SharedState          p_globalSharedState)
+		throws InterruptedException
+	{
+		final MQTTChunkReassembler.CompletedTransfer l_transfer;
+		final Path                                   l_file;
+
+		try
+		{
+			l_transfer = p_reassembler.append(p_strTopic, p_message.getPayload(), p_message.getId(), p_message.getQos());
+		}
+		catch (IOException l_e)
+		{
+			ms_log.error(getLogPrologue() + " Chunked transfer on topic " + p_strTopic + " failed.", l_e);
+			return;
+		}
+
+		if (l_transfer == null)
+			return;
+
+		l_file = l_transfer.getFile();
+
+		p_flowControl.acquire();
+
+		p_dispatcher.dispatch(p_strKey, () ->
+		{
+			try
+			{
+				dispatchEvent(new MQTTFileWorkflowEvent(getGuid(), p_strTopic, l_file.toFile(), l_transfer.getSize()),
+				              p_globalSharedState,
+				              null);
+
+				// not reached if the event failed
+				l_transfer.acknowledge();
+			}
+			finally
+			{
+				p_flowControl.release(1);
+
+				try
+				{
+					l_transfer.delete();
+				}
+				catch (IOException l_e)
+				{
+					ms_log.warn(getLogPrologue() + " Cannot delete the temporary file " + l_file + ".", l_e);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Decode the payload of the given message if it has a codec header
+	 * and {@link #isDecodePayload() decoding} is enabled.
+	 * @param p_message The received message.
+	 * @return A message with the decoded payload, or the given message
+	 *    if the payload has not been encoded.
+	 * @throws IOException If the payload has a codec header, but cannot be
+	 *    decoded, e.g. because the codec is unknown, the data is corrupt, or
+	 *    the decoded payload would exceed the maximum size.
+	 */
+	MqttReceivedMessage decode(MqttReceivedMessage p_message)
+		throws IOException
+	{
+		final MqttReceivedMessage l_message;
+
+		if (!isDecodePayload() || !MQTTPayloadCodecs.hasHeader(p_message.getPayload()))
+			return p_message;
+
+		l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(MQTTPayloadCodecs.decode(p_message.getPayload(), getMaxDecodedSize()));
+		l_message.setQos(p_message.getQos());
+		l_message.setRetained(p_message.isRetained());
+		l_message.setDuplicate(p_message.isDuplicate());
+		l_message.setMessageId(p_message.getMessageId());
+		l_message.setId(p_message.getId()); // used for acknowledgements
+
+		return l_message;
+	}
+
+
+	/**
+	 * Subscribe to all topic filters with a single request.
+	 * @param p_client The MQTT client.
+	 * @param p_filters The topic filters.
+	 * @param p_qos The quality of service per topic filter.
+	 * @throws MqttException If the request fails.
+	 */
+	private void _subscribe(IMqttClient p_client, String[] p_filters, int[] p_qos)
+		throws MqttException
+	{
+		final IMqttToken l_token;
+		final int[]      l_granted;
+
+		l_token   = p_client.subscribeWithResponse(p_filters, p_qos);
+		l_granted = l_token.getGrantedQos();
+
+		for (int i = 0; l_granted != null && i < l_granted.length && i < p_filters.length; i++)
+		{
+			if (l_granted[i] == 0x80)
+				ms_log.error(getLogPrologue() + " The server rejected the subscription to " + p_filters[i] + ".");
+			else if (l_granted[i] < p_qos[i])
+				ms_log.warn(getLogPrologue() + " The server granted QoS " + l_granted[i] + " instead of " + p_qos[i] + " for " + p_filters[i] + ".");
+		}
+	}
+
+
+	/**
+	 * Create the persistence to be used by the MQTT client.
+	 * @return The persistence.
+	 */
+	private MqttClientPersistence _createPersistence()
+	{
+		final MqttClientPersistence l_persistence;
+
+		if (isDurableSession())
+			l_persistence = new MQTTMappedFilePersistence(Paths.get(getPersistenceDirectory()), 64 * 1024);
+		else
+			l_persistence = new MemoryPersistence();
+
+		return l_persistence;
+	}
+
+
+	/**
+	 * Create the MQTT client used to connect to the server.
+	 * @return The MQTT client.
+	 * @throws MqttException
+	 */
+	private IMqttClient _createClient(MqttClientPersistence p_persistence)
+		throws MqttException
+	{
+		final String     l_strClientId;
+		final MqttClient l_client;
+
+		if (getServerUri() == null) // cannot occur under normal circumstances; see configurator
+			throw new IllegalStateException("No server URI given.");
+
+		if (isRandomizeClientId() && !isDurableSession())
+			l_strClientId = getClientId() + "-" + UUID.randomUUID();
+		else if (isRandomizeClientId() || _isShared()) // stable, but the nodes must not take over each other's session
+			l_strClientId = getClientId() + "-" + MQTTUtil.getNodeName();
+		else
+			l_strClientId = getClientId();
+
+		l_client = new MqttClient(getServerUri(), l_strClientId, p_persistence);
+
+		return l_client;
+	}
+
+
+	/**
+	 * Get the MQTT options used to connect to the server.
+	 * @return MQTT options.
+	 */
+	private MqttConnectOptions _getOptions()
+	{
+		final MqttConnectOptions l_options;
+
+		l_options = new MqttConnectOptions();
+
+		l_options.setAutomaticReconnect(isReconnect());
+		l_options.setMaxReconnectDelay((int)Math.min(Integer.MAX_VALUE, Math.max(1000L, getOnErrorRestartWaitTimeout())));
+		l_options.setCleanSession(!isDurableSession());
+
+		if (getUserName() != null)
+		{
+			l_options.setUserName(getUserName());
+
+			if (getPassword() != null)
+				l_options.setPassword(getPassword().toCharArray());
+		}
+
+		return l_options;
+	}
+
+
+	/**
+	 * Connect the client to the server. Failures that may be temporary
+	 * are retried with the restart backoff.
+	 * @param p_client The client.
+	 * @param p_options The connect options.
+	 * @return <code>true</code> if the client is connected, or
+	 *    <code>false</code> if the event source is stopping.
+	 * @throws MqttException If the connection is refused permanently.
+	 */
+	private boolean _connect(IMqttClient p_client, MqttConnectOptions p_options)
+		throws MqttException
+	{
+		long l_lDelay;
+
+		while (true)
+		{
+			try
+			{
+				p_client.connect(p_options);
+
+				return true;
+			}
+			catch (MqttException l_e)
+			{
+				if (!_isTemporary(l_e))
+					throw l_e;
+
+				l_lDelay = m_restartBackoff.nextDelay();
+
+				ms_log.warn(getLogPrologue() + " Cannot connect to " + getServerUri() + ", retrying in " + l_lDelay + " ms.", l_e);
+
+				if (!shouldRunWithWait(l_lDelay))
+					return false;
+			}
+		}
+	}
+
+
+	/**
+	 * Test if a connect failure may be temporary.
+	 * @param p_e The failure.
+	 * @return <code>false</code> if retrying will not help, e.g.
+	 *    if the credentials are invalid, or <code>true</code> otherwise.
+	 */
+	private static boolean _isTemporary(MqttException p_e)
+	{
+		switch (p_e.getReasonCode())
+		{
+			case MqttException.REASON_CODE_INVALID_PROTOCOL_VERSION:
+			case MqttException.REASON_CODE_INVALID_CLIENT_ID:
+			case MqttException.REASON_CODE_FAILED_AUTHENTICATION:
+			case MqttException.REASON_CODE_NOT_AUTHORIZED:
+			case MqttException.REASON_CODE_SOCKET_FACTORY_MISMATCH:
+			case MqttException.REASON_CODE_SSL_CONFIG_ERROR:
+				return false;
+
+			default:
+				return true;
+		}
+	}
+
+
+	/**
+	 * Test if the last connection lasted long enough to consider
+	 * the problems that led to the backoff resolved.
+	 * @return <code>true</code> if the connection was stable, or
+	 *    <code>false</code> otherwise.
+	 */
+	private boolean _wasStable()
+	{
+		final long l_lConnectTime = m_lConnectTime;
+
+		return l_lConnectTime != 0L &&
+		       TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - l_lConnectTime) >= getRestartStableTime();
+	}
+
+
+	@Override
+	protected void run()
+	{
+		final MQTTBackoff l_backoff;
+		final SharedState l_globalSharedState;
+		long              l_lDelay;
+
+		l_backoff = new MQTTBackoff(Math.max(1L, getRestartInitialDelay()),
+		                            Math.max(1.0d, getRestartDelayMultiplier()),
+		                            Math.max(1L, getOnErrorRestartWaitTimeout()));
+		l_backoff.withMinDelay(100L); // avoid busy waiting
+
+		m_restartBackoff    = l_backoff;
+		l_globalSharedState = isGlobalSharedState() ? new SharedState() : null;
+
+		// the cache outlives restarts of the source loop, which are a common cause of redeliveries
+		if (isDeduplicate())
+			m_dedupCache = new MQTTDedupCache(Math.max(getDedupCacheSize(), 1), Math.max(getDedupTimeToLive(), 0L));
+		else
+			m_dedupCache = null;
+
+		// the configurator has checked the conditions
+		if (getMessageFilter() != null && !getMessageFilter().trim().isEmpty())
+			m_messageFilter = MQTTMessageFilter.compile(getMessageFilter());
+		else
+			m_messageFilter = null;
+
+		// signal processes that we are about to start processing MQTT events
+		if (isSendBeforeStartEvent())
+			dispatchEvent(new BeforeStartMQTTWorkflowEvent(getGuid()), l_globalSharedState, null);
+
+		// normally this outer loop will be executed exactly once
+		run_loop:
+		while (shouldRun())
+		{
+			try
+			{
+				runLoop(l_globalSharedState);
+			}
+			catch (RuntimeException l_e)
+			{
+				ms_log.error("Error in MQTT source loop.", l_e);
+			}
+
+			if (!shouldRun())
+				break run_loop;
+
+			if (_wasStable())
+				l_backoff.reset();
+
+			l_lDelay = l_backoff.nextDelay();
+
+			ms_log.info(getLogPrologue() + " Restarting the MQTT source loop in " + l_lDelay + " ms.");
+
+			if (!shouldRunWithWait(l_lDelay))
+				break run_loop;
+		}
+
+		// signal processes that we are about to stop processing MQTT events
+		if (isSendAfterStopEvent())
+			dispatchEvent(new AfterStopMQTTWorkflowEvent(getGuid()), l_globalSharedState, null);
+	}
+
+
+	/**
+	 * Run the message processing loop.
+	 * @param p_globalSharedState A global shared state, or <code>null</code>
+	 *    if {@link #isGlobalSharedState()} is <code>false</code>.
+	 */
+	protected void runLoop(SharedState p_globalSharedState)
+	{
+		final MqttConnectOptions           l_options;
+		final MQTTChunkReassembler         l_reassembler;
+		final IMQTTEventDispatcher         l_dispatcher;
+		final MQTTFlowControl              l_flowControl;
+		final MQTTEventBatcher             l_batcher;
+		final MQTTEventConflater           l_conflater;
+		final MQTTDispatchKey              l_key;
+		final MQTTDedupCache               l_dedupCache;
+		final MQTTDedupKey                 l_dedupKey;
+		final boolean                      l_bDedupAll;
+		final MQTTTopicInterner            l_topics;
+		final MQTTMessageFilter            l_filter;
+		final List<MQTTTopicFilter>        l_subscriptions;
+		final String[]                     l_filters;
+		final int[]                        l_qos;
+		final MQTTLoopSignal               l_wakeUp;
+		final AtomicBoolean                l_connectionLost;
+		final AtomicReference<IMqttClient> l_ackClient;
+		MqttClientPersistence              l_persistence;
+		IMqttClient                        l_client;
+		boolean                            l_bPaused;
+
+		l_persistence    = null;
+		l_client         = null;
+		m_lConnectTime   = 0L;
+		l_wakeUp         = new MQTTLoopSignal();
+		l_connectionLost = new AtomicBoolean();
+		l_ackClient      = new AtomicReference<>();
+		l_reassembler = _createReassembler(l_ackClient);
+		l_dispatcher  = _createDispatcher();
+		m_dispatcher  = l_dispatcher;
+		l_flowControl = _createFlowControl(l_wakeUp::signal);
+		m_flowControl = l_flowControl;
+		l_batcher     = _createBatcher(l_dispatcher, l_flowControl, l_ackClient, p_globalSharedState);
+		l_conflater   = _createConflater(l_dispatcher, l_batcher, l_flowControl, l_ackClient, p_globalSharedState);
+		m_conflater   = l_conflater;
+
+		if (l_dispatcher instanceof MQTTPartitionedDispatcher)
+			l_key = MQTTDispatchKey.valueOf(getDispatchKey());
+		else
+			l_key = null;
+
+		l_dedupCache = m_dedupCache;
+		l_dedupKey   = l_dedupCache != null ? MQTTDedupKey.valueOf(getDedupKey()) : null;
+		l_bDedupAll  = !isDedupRedeliveredOnly();
+		l_topics     = isCompactEvents() ? new MQTTTopicInterner(MAX_INTERNED_TOPICS) : null;
+		l_filter     = m_messageFilter;
+
+		l_subscriptions = createSubscriptions();
+		l_filters       = new String[l_subscriptions.size()];
+		l_qos           = new int[l_subscriptions.size()];
+
+		for (int i = 0; i < l_filters.length; i++)
+		{
+			l_filters[i] = l_subscriptions.get(i).getFilter();
+			l_qos[i]     = l_subscriptions.get(i).getQos();
+		}
+
+		try
+		{
+			l_options     = _getOptions();
+			l_persistence = _createPersistence();
+			l_client      = _createClient(l_persistence);
+			l_ackClient.set(l_client);
+
+			l_client.setManualAcks(isManualAcks());
+
+			l_client.setCallback(new MqttCallbackExtended()
+			{
+				@Override
+				public void messageArrived(String p_strTopic, MqttMessage p_message)
+					throws Exception
+				{
+					final MqttReceivedMessage       l_message;
+					final IMQTTMessageWorkflowEvent l_evt;
+					final IMQTTMessageWorkflowEvent l_replaced;
+					final String                    l_strKey;
+					final long                      l_lHash;
+
+					if (l_reassembler != null && MQTTChunkHeader.hasHeader(p_message.getPayload()))
+					{
+						_reassemble(l_dispatcher,
+						            l_flowControl,
+						            l_key != null ? _getDispatchKey(l_key, p_strTopic, null) : null,
+						            l_reassembler,
+						            p_strTopic,
+						            p_message,
+						            p_globalSharedState);
+						return;
+					}
+
+					try
+					{
+						l_message = decode((MqttReceivedMessage)p_message);
+					}
+					catch (IOException l_e)
+					{
+						// like a failed event, the message is not dispatched with its encoded payload and not acknowledged
+						ms_log.error(getLogPrologue() + " Cannot decode the payload of a message on topic " + p_strTopic + ".", l_e);
+						return;
+					}
+
+					if (l_filter != null && !l_filter.accept(p_strTopic, l_message.getPayload()))
+					{
+						_acknowledge(l_ackClient, p_message);
+						return;
+					}
+
+					l_lHash = l_dedupCache != null ? _getDedupHash(l_dedupKey, p_strTopic, l_message.getPayload()) : 0L;
+
+					// without the duplicate flag the message is only remembered, unless all messages are checked
+					if (l_dedupCache != null && !l_dedupCache.add(l_lHash, l_bDedupAll || p_message.isDuplicate()))
+					{
+						ms_log.debug("{} Dropping a duplicate message on topic {}.", getLogPrologue(), p_strTopic);
+
+						_acknowledge(l_ackClient, p_message);
+						return;
+					}
+
+					if (l_topics != null)
+						l_evt = new MQTTCompactMessageWorkflowEvent(getGuid(), l_topics.intern(p_strTopic), l_message);
+					else
+						l_evt = new MQTTMessageWorkflowEvent(getGuid(), p_strTopic, l_message);
+
+					l_strKey = l_key != null ? _getDispatchKey(l_key, p_strTopic, l_message.getPayload()) : null;
+
+					// never blocks; the source loop unsubscribes when the backlog reaches the high watermark
+					l_flowControl.acquire();
+
+					if (l_conflater != null)
+					{
+						l_replaced = l_conflater.add(l_strKey, l_evt);
+
+						if (l_replaced == l_evt)
+						{
+							// the event source is stopping, so the message is neither dispatched nor acknowledged
+							ms_log.warn("{} Rejecting a message on topic {}, since the event source is stopping.",
+							            getLogPrologue(), p_strTopic);
+
+							if (l_dedupCache != null)
+								l_dedupCache.remove(l_lHash);
+
+							l_flowControl.release(1);
+						}
+						else if (l_replaced != null)
+						{
+							// a replaced message is done, since a later message of its topic supersedes it
+							_acknowledge(l_ackClient, l_replaced.getMessageId(), l_replaced.getQos());
+							l_flowControl.release(1);
+						}
+					}
+					else if (l_batcher != null)
+					{
+						l_batcher.add(l_strKey, l_evt);
+					}
+					else
+					{
+						_dispatchMessage(l_dispatcher, l_flowControl, l_ackClient, l_strKey, l_evt, p_globalSharedState);
+					}
+				}
 
 				@Override
 				public void connectComplete(boolean p_bReconnect, String p_strServerURI)
 				{
+					m_lConnectTime = System.nanoTime();
+
 					if (p_bReconnect)
 						ms_log.info(getLogPrologue() + " Reconnect to " + p_strServerURI + " complete.");
 					else
@@ -478,6 +2534,10 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 				public void connectionLost(Throwable p_cause)
 				{
 					ms_log.error(getLogPrologue() + " Connection lost.", p_cause);
+
+					// without automatic reconnect the client is dead, so restart right away
+					if (!isReconnect() && l_connectionLost.compareAndSet(false, true))
+						l_wakeUp.signal();
 				}
 
 				@Override
@@ -487,30 +2547,86 @@ public final class MQTTWorkflowEventSource extends AbstractSingleThreadedWorkflo
 				}
 			});
 
-			l_client.connect(l_options);
-			l_client.subscribe(getTopic(), getQos());
+			// if the source is stopping, the wait below returns immediately
+			if (_connect(l_client, l_options))
+				_subscribe(l_client, l_filters, l_qos);
 		}
 		catch (MqttException l_e)
 		{
 			ms_log.error(getLogPrologue() + " Cannot create a MQTT client.", l_e);
 
-			MQTTUtil.unsubscribe(l_client, getTopic());
+			l_flowControl.close();
+
+			if (!isDurableSession())
+				MQTTUtil.unsubscribe(l_client, l_filters);
+
+			if (l_conflater != null)
+				l_conflater.close(Math.max(getStopWaitTimeout() / 4L, 0L));
+
+			if (l_batcher != null)
+				l_batcher.close(Math.max(getStopWaitTimeout() / 4L, 0L));
+
+			l_dispatcher.close(Math.max(getStopWaitTimeout() / 2L, 0L));
+			m_dispatcher  = null;
+			m_conflater   = null;
+			m_flowControl = null;
+			l_ackClient.set(null);
 			MQTTUtil.disconnectAndClose(l_client, Math.max(getStopWaitTimeout() / 2L, 0L));
 			MQTTUtil.close(l_persistence);
 
+			if (l_reassembler != null)
+				l_reassembler.close();
+
 			return; // give up
 		}
 
 		assert l_client != null;
 
-		while (shouldRunWithWait(1000L))
+		l_bPaused = false;
+
+		// the wait ends as soon as a stop is requested, the connection is lost,
+		// or the consumption must be paused or resumed
+		while (shouldRun() && !l_connectionLost.get())
 		{
-			// do nothing, just wait
+			if (l_flowControl.isPaused() != l_bPaused)
+				l_bPaused = _setPaused(l_client, l_filters, l_qos, !l_bPaused);
+
+			if (l_flowControl.isPaused() != l_bPaused)
+				l_wakeUp.await(this::shouldRunWithWait, Math.max(getRestartInitialDelay(), 100L)); // retry
+			else
+				l_wakeUp.await(this::shouldRunWithWait, IDLE_WAIT_TIMEOUT);
 		}
 
-		MQTTUtil.unsubscribe(l_client, getTopic());
+		if (l_connectionLost.get())
+			ms_log.warn(getLogPrologue() + " Restarting the MQTT source loop, since the connection is lost and reconnect is disabled.");
+
+		// the consumption is neither paused nor resumed while the loop shuts down
+		l_flowControl.close();
+
+		// the server keeps the subscriptions of a durable session until the next connect
+		if (!isDurableSession())
+			MQTTUtil.unsubscribe(l_client, l_filters);
+
+		// complete the events of messages that have already been received
+		if (l_conflater != null)
+			l_conflater.close(Math.max(getStopWaitTimeout() / 4L, 0L));
+
+		if (l_batcher != null)
+			l_batcher.close(Math.max(getStopWaitTimeout() / 4L, 0L));
+
+		l_dispatcher.close(Math.max(getStopWaitTimeout() / 2L, 0L));
+		m_dispatcher  = null;
+		m_conflater   = null;
+		m_flowControl = null;
+
+		// tasks that are still running after the timeout must not acknowledge via a later client
+		l_ackClient.set(null);
+
 		MQTTUtil.disconnectAndClose(l_client, Math.max(getStopWaitTimeout() / 2L, 0L));
 		MQTTUtil.close(l_persistence);
+
+		if (l_reassembler != null)
+			l_reassembler.close();
 	}
 }
 
@@ -18,6 +18,9 @@
 package org.example.mqtt.workflow.eventsource;
 
 
+import java.util.List;
+
+import org.example.mqtt.util.MQTTTopicFilter;
 import org.example.mqtt.workflow.QOS;
 
 import de.uplanet.lucy.server.workflow.AbstractWorkflowObjectConfigurator;
@@ -64,9 +67,176 @@ public final class MQTTWorkflowEventSourceConfigurator extends AbstractWorkflowO
 		if (p_wfObj.getServerUri() == null || p_wfObj.getServerUri().isEmpty())
 			throw new WorkflowConfigurationException("No server URI given.");
 
-		if (p_wfObj.getTopic() == null || p_wfObj.getTopic().isEmpty())
-			throw new WorkflowConfigurationException("No topic name given.");
+		_checkSubscriptions(p_wfObj);
+
+		try
+		{
+			MQTTDispatchMode.valueOf(String.valueOf(p_wfObj.getDispatchMode()));
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowConfigurationException("Invalid dispatch mode " + p_wfObj.getDispatchMode() + ".");
+		}
+
+		if (p_wfObj.getDispatchThreads() < 1)
+			throw new WorkflowConfigurationException("The number of dispatch threads must be positive.");
+
+		if (p_wfObj.getDispatchQueueCapacity() < 1)
+			throw new WorkflowConfigurationException("The dispatch queue capacity must be positive.");
+
+		if (MQTTDispatchMode.PARTITIONED.name().equals(p_wfObj.getDispatchMode()))
+			_checkDispatchKey(p_wfObj);
+
+		if (p_wfObj.isDurableSession() &&
+		    (p_wfObj.getPersistenceDirectory() == null || p_wfObj.getPersistenceDirectory().isEmpty()))
+			throw new WorkflowConfigurationException("A durable session requires a persistence directory.");
+
+		if (p_wfObj.isBatchEvents())
+		{
+			if (p_wfObj.getBatchMaxMessages() < 1)
+				throw new WorkflowConfigurationException("The maximum number of messages per batch must be positive.");
+
+			if (p_wfObj.getBatchLinger() < 0L)
+				throw new WorkflowConfigurationException("The batch linger time must not be negative.");
+		}
+
+		if (p_wfObj.isConflate() && p_wfObj.getConflationInterval() <= 0L)
+			throw new WorkflowConfigurationException("The conflation interval must be positive.");
+
+		if (p_wfObj.getBacklogHighWatermark() < 0 || p_wfObj.getBacklogLowWatermark() < 0)
+			throw new WorkflowConfigurationException("The backlog watermarks must not be negative.");
+
+		if (p_wfObj.getBacklogHighWatermark() > 0 && p_wfObj.getBacklogLowWatermark() >= p_wfObj.getBacklogHighWatermark())
+			throw new WorkflowConfigurationException("The backlog low watermark must be less than the high watermark.");
+
+		if (p_wfObj.isDeduplicate())
+			_checkDedup(p_wfObj);
+
+		if (p_wfObj.getMessageFilter() != null)
+		{
+			try
+			{
+				MQTTMessageFilter.compile(p_wfObj.getMessageFilter());
+			}
+			catch (IllegalArgumentException l_e)
+			{
+				throw new WorkflowConfigurationException(l_e.getMessage());
+			}
+		}
+
+		if (p_wfObj.getRestartInitialDelay() <= 0L)
+			throw new WorkflowConfigurationException("The initial restart delay must be positive.");
+
+		if (!(p_wfObj.getRestartDelayMultiplier() >= 1.0d))
+			throw new WorkflowConfigurationException("The restart delay multiplier must be at least 1.");
+
+		if (p_wfObj.getRestartStableTime() < 0L)
+			throw new WorkflowConfigurationException("The stable connection time must not be negative.");
+
+		if (p_wfObj.isDecodePayload() && p_wfObj.getMaxDecodedSize() <= 0)
+			throw new WorkflowConfigurationException("The maximum size of decoded payloads must be positive.");
+
+		if (p_wfObj.isReassembleChunks())
+		{
+			if (p_wfObj.getChunkTimeout() <= 0L)
+				throw new WorkflowConfigurationException("The chunk timeout must be positive.");
+
+			if (p_wfObj.getMaxReassembledSize() <= 0L)
+				throw new WorkflowConfigurationException("The maximum size of reassembled payloads must be positive.");
+
+			if (p_wfObj.getMaxConcurrentTransfers() < 1)
+				throw new WorkflowConfigurationException("The maximum number of concurrent transfers must be positive.");
+
+			if (p_wfObj.getMaxTotalReassembledSize() < p_wfObj.getMaxReassembledSize())
+				throw new WorkflowConfigurationException("The maximum total size of reassembled payloads must not be less than the maximum size of a payload.");
+		}
 
 		QOS.checkValidQoS(p_wfObj.getQos());
 	}
+
+
+	private void _checkSubscriptions(MQTTWorkflowEventSource p_wfObj)
+		throws WorkflowConfigurationException
+	{
+		final List<MQTTTopicFilter> l_subscriptions;
+
+		try
+		{
+			if (p_wfObj.getSharedSubscriptionGroup() != null && !p_wfObj.getSharedSubscriptionGroup().isEmpty())
+				MQTTTopicFilter.checkValidShareGroup(p_wfObj.getSharedSubscriptionGroup());
+
+			l_subscriptions = p_wfObj.createSubscriptions();
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowConfigurationException(l_e.getMessage());
+		}
+
+		if (l_subscriptions.isEmpty())
+			throw new WorkflowConfigurationException("No topic name given.");
+
+		for (int i = 0; i < l_subscriptions.size(); i++)
+		{
+			final MQTTTopicFilter l_filter = l_subscriptions.get(i);
+
+			QOS.checkValidQoS(l_filter.getQos());
+
+			// the server may deliver messages that match overlapping filters twice
+			for (int j = 0; j < i; j++)
+			{
+				if (l_filter.overlaps(l_subscriptions.get(j)))
+					throw new WorkflowConfigurationException("The topic filters " + l_subscriptions.get(j).getFilter() +
+					                                         " and " + l_filter.getFilter() + " overlap.");
+			}
+		}
+	}
+
+
+	private void _checkDispatchKey(MQTTWorkflowEventSource p_wfObj)
+		throws WorkflowConfigurationException
+	{
+		final MQTTDispatchKey l_key;
+
+		try
+		{
+			l_key = MQTTDispatchKey.valueOf(String.valueOf(p_wfObj.getDispatchKey()));
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowConfigurationException("Invalid dispatch key " + p_wfObj.getDispatchKey() + ".");
+		}
+
+		if (l_key == MQTTDispatchKey.TOPIC_SEGMENT && p_wfObj.getDispatchKeySegment() < 0)
+			throw new WorkflowConfigurationException("The dispatch key segment must not be negative.");
+
+		if (l_key == MQTTDispatchKey.PAYLOAD_FIELD &&
+		    (p_wfObj.getDispatchKeyField() == null || p_wfObj.getDispatchKeyField().isEmpty()))
+			throw new WorkflowConfigurationException("No dispatch key field given.");
+	}
+
+
+	private void _checkDedup(MQTTWorkflowEventSource p_wfObj)
+		throws WorkflowConfigurationException
+	{
+		final MQTTDedupKey l_key;
+
+		try
+		{
+			l_key = MQTTDedupKey.valueOf(String.valueOf(p_wfObj.getDedupKey()));
+		}
+		catch (IllegalArgumentException l_e)
+		{
+			throw new WorkflowConfigurationException("Invalid dedup key " + p_wfObj.getDedupKey() + ".");
+		}
+
+		if (l_key == MQTTDedupKey.PAYLOAD_FIELD &&
+		    (p_wfObj.getDedupKeyField() == null || p_wfObj.getDedupKeyField().isEmpty()))
+			throw new WorkflowConfigurationException("No dedup key field given.");
+
+		if (p_wfObj.getDedupCacheSize() < 1)
+			throw new WorkflowConfigurationException("The dedup cache size must be positive.");
+
+		if (p_wfObj.getDedupTimeToLive() <= 0L)
+			throw new WorkflowConfigurationException("The dedup time to live must be positive.");
+	}
 }
@@ -0,0 +1,518 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTConnectionPoolTest
+{
+	/** The eviction interval of the pools under test. */
+	private static final long EVICTION_INTERVAL = 50L;
+
+	private final MQTTConnectionPool m_pool = new MQTTConnectionPool(EVICTION_INTERVAL);
+
+	private TestServer m_server;
+
+
+	@AfterEach
+	void tearDown()
+		throws IOException
+	{
+		m_pool.closeAll();
+
+		if (m_server != null)
+			m_server.close();
+	}
+
+
+	@Test
+	void testAcquireAndRelease()
+		throws Exception
+	{
+		final MQTTPooledConnection l_conn;
+
+		m_server = new TestServer(true);
+
+		assertFalse(m_pool.isEvictorRunning());
+
+		l_conn = m_pool.acquire(m_server.getKey(), 60000L);
+
+		assertTrue(l_conn.isConnected());
+		assertTrue(m_pool.isEvictorRunning());
+		assertTrue(m_pool.getConnections().contains(l_conn));
+
+		// the connection is shared
+		assertEquals(l_conn, m_pool.acquire(m_server.getKey(), 60000L));
+
+		m_pool.release(l_conn);
+		m_pool.release(l_conn);
+
+		l_conn.publish("a/b", _message("one"), 1000L);
+
+		assertEquals(1L, l_conn.getStatistics().getDeliveredCount());
+		assertEquals(0, l_conn.getInflightCount());
+		assertTrue(l_conn.isHealthy(System.currentTimeMillis() + 3600000L));
+	}
+
+
+	@Test
+	void testIdleConnectionIsEvicted()
+		throws Exception
+	{
+		final MQTTPooledConnection l_conn;
+
+		m_server = new TestServer(true);
+		l_conn   = m_pool.acquire(m_server.getKey(), 1L);
+
+		// in use
+		Thread.sleep(5L * EVICTION_INTERVAL);
+
+		assertTrue(m_pool.getConnections().contains(l_conn));
+
+		m_pool.release(l_conn);
+
+		_awaitEvictorStopped();
+
+		assertTrue(m_pool.getConnections().isEmpty());
+		assertFalse(l_conn.isConnected());
+
+		// a new connection is opened on demand
+		m_pool.release(m_pool.acquire(m_server.getKey(), 60000L));
+
+		assertTrue(m_pool.isEvictorRunning());
+	}
+
+
+	@Test
+	void testUnavailableServer()
+		throws Exception
+	{
+		final MQTTConnectionKey l_key;
+
+		// nothing listens on a port that has just been released
+		try (ServerSocket l_socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+		{
+			l_key = _key("tcp://127.0.0.1:" + l_socket.getLocalPort(), 5);
+		}
+
+		assertThrows(MqttException.class, () -> m_pool.acquire(l_key, 60000L));
+
+		// the disconnected connection is evicted, and the evictor stops
+		_awaitEvictorStopped();
+
+		assertTrue(m_pool.getConnections().isEmpty());
+	}
+
+
+	@Test
+	void testConnectTimeout()
+		throws Exception
+	{
+		final MQTTConnectionKey          l_key;
+		final CountDownLatch             l_connecting = new CountDownLatch(1);
+		final CompletableFuture<Integer> l_reason     = new CompletableFuture<>();
+		final Thread                     l_thread;
+		final long                       l_lStart;
+		final long                       l_lElapsed;
+		final MqttException              l_e;
+
+		// accepts connections, but never answers
+		m_server = new TestServer(false);
+		l_key    = _key(m_server.getKey().getServerUri(), 1);
+
+		l_thread = new Thread(() ->
+		{
+			l_connecting.countDown();
+
+			try
+			{
+				m_pool.acquire(l_key, 60000L);
+				l_reason.complete(0);
+			}
+			catch (MqttException l_eConnect)
+			{
+				l_reason.complete(l_eConnect.getReasonCode());
+			}
+		});
+
+		l_lStart = System.nanoTime();
+
+		l_thread.start();
+		l_connecting.await();
+
+		// other users of the pool are not blocked by the connection attempt
+		Thread.sleep(100L);
+
+		for (MQTTPooledConnection l_conn : m_pool.getConnections())
+		{
+			assertTrue(l_conn.acquire());
+			l_conn.release();
+		}
+
+		m_pool.evict();
+
+		assertEquals(MqttException.REASON_CODE_CLIENT_TIMEOUT, (int)l_reason.get(10L, TimeUnit.SECONDS));
+
+		l_lElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - l_lStart);
+
+		assertTrue(l_lElapsed >= 900L && l_lElapsed < 5000L, "waited " + l_lElapsed + " ms");
+
+		// the abandoned attempt does not block the next one
+		l_e = assertThrows(MqttException.class, () -> m_pool.acquire(l_key, 60000L));
+
+		assertNotEquals(MqttException.REASON_CODE_CONNECT_IN_PROGRESS, l_e.getReasonCode());
+	}
+
+
+	@Test
+	void testStalledConnection()
+		throws Exception
+	{
+		final MQTTPooledConnection    l_conn;
+		final CompletableFuture<Void> l_delivery;
+		final long                    l_lLater;
+
+		// acknowledges the connection, but no message
+		m_server = new TestServer(true);
+		m_server.m_bAcknowledgePublish = false;
+
+		l_conn     = m_pool.acquire(m_server.getKey(), 60000L);
+		l_delivery = l_conn.publishAsync("a/b", _message("one"), 1000L);
+		l_lLater   = System.currentTimeMillis() + l_conn.getStallTimeout() + 1000L;
+
+		assertEquals(1, l_conn.getInflightCount());
+		assertTrue(l_conn.isHealthy(System.currentTimeMillis()));
+		assertFalse(l_conn.isHealthy(l_lLater));
+
+		assertTrue(l_conn.dropIfStalled(l_lLater));
+
+		// the pending delivery fails, and the next use reconnects
+		assertThrows(ExecutionException.class, () -> l_delivery.get(10L, TimeUnit.SECONDS));
+		assertEquals(0, l_conn.getInflightCount());
+		assertEquals(1L, l_conn.getStatistics().getFailedCount());
+
+		l_conn.ensureConnected();
+
+		assertTrue(l_conn.isConnected());
+		assertFalse(l_conn.dropIfStalled(l_lLater));
+
+		m_pool.release(l_conn);
+	}
+
+
+	@Test
+	void testClosedWithLastUser()
+		throws Exception
+	{
+		final MQTTPooledConnection l_conn;
+
+		m_server = new TestServer(true);
+
+		m_pool.open("a");
+		m_pool.open("b");
+		m_pool.open("b");
+
+		l_conn = m_pool.acquire(m_server.getKey(), 60000L);
+		m_pool.release(l_conn);
+
+		m_pool.close("a");
+		m_pool.close("c");
+
+		assertTrue(l_conn.isConnected());
+		assertTrue(m_pool.isEvictorRunning());
+
+		m_pool.close("b");
+
+		assertFalse(l_conn.isConnected());
+		assertFalse(m_pool.isEvictorRunning());
+		assertTrue(m_pool.getConnections().isEmpty());
+
+		// closing again has no effect
+		m_pool.close("b");
+	}
+
+
+	@Test
+	void testBatchingPublisher()
+		throws Exception
+	{
+		final MQTTPooledConnection    l_conn;
+		final MQTTBatchingPublisher   l_batcher;
+		final CompletableFuture<Void> l_first;
+		final CompletableFuture<Void> l_second;
+
+		m_server = new TestServer(true);
+
+		l_conn    = m_pool.acquire(m_server.getKey(), 60000L);
+		l_batcher = new MQTTBatchingPublisher(l_conn, 5L, 10, 65536, 1000L, 100L);
+
+		assertFalse(l_batcher.isFlusherRunning());
+
+		l_first  = l_batcher.submit("a/b", _message("one"));
+		l_second = l_batcher.submit("a/b", _message("two"));
+
+		assertTrue(l_batcher.isFlusherRunning());
+
+		l_first.get(10L, TimeUnit.SECONDS);
+		l_second.get(10L, TimeUnit.SECONDS);
+
+		// the idle flusher terminates, and the next message starts a new one
+		_awaitFlusherStopped(l_batcher);
+
+		l_batcher.submit("a/b", _message("three")).get(10L, TimeUnit.SECONDS);
+
+		assertEquals(3L, l_conn.getStatistics().getDeliveredCount());
+
+		m_pool.release(l_conn);
+	}
+
+
+	@Test
+	void testBatchingPublisherClosedWithPool()
+		throws Exception
+	{
+		final MQTTPooledConnection    l_conn;
+		final MQTTBatchingPublisher   l_batcher;
+		final CompletableFuture<Void> l_pending;
+
+		m_server = new TestServer(true);
+
+		l_conn    = m_pool.acquire(m_server.getKey(), 60000L);
+		l_batcher = l_conn.getBatchingPublisher(60000L, 10, 65536, 1000L);
+
+		assertEquals(l_batcher, l_conn.getBatchingPublisher(60000L, 10, 65536, 1000L));
+
+		m_pool.release(l_conn);
+
+		// lingers until the publisher is closed
+		l_pending = l_batcher.submit("a/b", _message("one"));
+
+		m_pool.closeAll();
+
+		assertThrows(ExecutionException.class, () -> l_pending.get(10L, TimeUnit.SECONDS));
+		assertThrows(MqttException.class, () -> l_batcher.submit("a/b", _message("two")));
+
+		_awaitFlusherStopped(l_batcher);
+	}
+
+
+	private static void _awaitFlusherStopped(MQTTBatchingPublisher p_batcher)
+		throws InterruptedException
+	{
+		final long l_lDeadline = System.currentTimeMillis() + 10000L;
+
+		while (p_batcher.isFlusherRunning() && System.currentTimeMillis() < l_lDeadline)
+			Thread.sleep(10L);
+
+		assertFalse(p_batcher.isFlusherRunning());
+	}
+
+
+	private void _awaitEvictorStopped()
+		throws InterruptedException
+	{
+		final long l_lDeadline = System.currentTimeMillis() + 10000L;
+
+		while (m_pool.isEvictorRunning() && System.currentTimeMillis() < l_lDeadline)
+			Thread.sleep(10L);
+
+		assertFalse(m_pool.isEvictorRunning());
+	}
+
+
+	private static MQTTConnectionKey _key(String p_strServerUri, int p_iConnectionTimeout)
+	{
+		// no keep alive, so that a silent server is not detected by the client
+		return new MQTTConnectionKey(p_strServerUri, null, null, null, p_iConnectionTimeout, 0, 10);
+	}
+
+
+	private static MqttMessage _message(String p_strPayload)
+	{
+		final MqttMessage l_msg = new MqttMessage(p_strPayload.getBytes(StandardCharsets.UTF_8));
+
+		l_msg.setQos(1);
+
+		return l_msg;
+	}
+
+
+	/**
+	 * A minimal MQTT server that can be told not to answer.
+	 */
+	private static final class TestServer
+	{
+		private final ServerSocket m_socket;
+
+		private final List<Socket> m_clients = Collections.synchronizedList(new ArrayList<>());
+
+		private final boolean m_bAcknowledgeConnect;
+
+		private volatile boolean m_bAcknowledgePublish = true;
+
+
+		private TestServer(boolean p_bAcknowledgeConnect)
+			throws IOException
+		{
+			final Thread l_thread;
+
+			m_bAcknowledgeConnect = p_bAcknowledgeConnect;
+			m_socket              = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			l_thread              = new Thread(this::_accept, "mqtt-test-server");
+
+			l_thread.setDaemon(true);
+			l_thread.start();
+		}
+
+
+		private MQTTConnectionKey getKey()
+		{
+			return _key("tcp://127.0.0.1:" + m_socket.getLocalPort(), 5);
+		}
+
+
+		private void close()
+			throws IOException
+		{
+			m_socket.close();
+
+			synchronized (m_clients)
+			{
+				for (Socket l_client : m_clients)
+					l_client.close();
+			}
+		}
+
+
+		private void _accept()
+		{
+			try
+			{
+				for (;;)
+				{
+					final Socket l_client = m_socket.accept();
+					final Thread l_thread = new Thread(() -> _serve(l_client), "mqtt-test-client");
+
+					m_clients.add(l_client);
+
+					l_thread.setDaemon(true);
+					l_thread.start();
+				}
+			}
+			catch (IOException l_e)
+			{
+				// closed
+			}
+		}
+
+
+		private void _serve(Socket p_client)
+		{
+			try (DataInputStream l_in = new DataInputStream(p_client.getInputStream());
+			     OutputStream    l_out = p_client.getOutputStream())
+			{
+				for (;;)
+				{
+					final int    l_iHeader = l_in.readUnsignedByte();
+					final byte[] l_body    = new byte[_readLength(l_in)];
+
+					l_in.readFully(l_body);
+
+					switch (l_iHeader >> 4)
+					{
+					case 1: // CONNECT
+						if (m_bAcknowledgeConnect)
+							l_out.write(new byte[] {0x20, 2, 0, 0});
+						break;
+
+					case 3: // PUBLISH with QoS 1
+						if (m_bAcknowledgePublish)
+						{
+							final int l_iPos = 2 + ((l_body[0] & 0xFF) << 8 | l_body[1] & 0xFF);
+
+							l_out.write(new byte[] {0x40, 2, l_body[l_iPos], l_body[l_iPos + 1]});
+						}
+						break;
+
+					case 14: // DISCONNECT
+						return;
+
+					default:
+						break;
+					}
+
+					l_out.flush();
+				}
+			}
+			catch (IOException l_e)
+			{
+				// closed
+			}
+		}
+
+
+		private static int _readLength(InputStream p_in)
+			throws IOException
+		{
+			int l_iLength     = 0;
+			int l_iMultiplier = 1;
+			int l_iDigit;
+
+			do
+			{
+				l_iDigit = p_in.read();
+
+				if (l_iDigit < 0)
+					throw new IOException("End of stream.");
+
+				l_iLength     += (l_iDigit & 0x7F) * l_iMultiplier;
+				l_iMultiplier *= 128;
+			}
+			while ((l_iDigit & 0x80) != 0);
+
+			return l_iLength;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.MqttPersistable;
+import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
+import org.eclipse.paho.client.mqttv3.internal.MqttPersistentData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+final class MQTTMappedFilePersistenceTest
+{
+	private static final String CLIENT_ID = "client";
+
+	private static final String SERVER_URI = "tcp://localhost:1883";
+
+	@TempDir
+	Path m_dir;
+
+	private final List<MQTTMappedFilePersistence> m_persistences = new ArrayList<>();
+
+
+	@AfterEach
+	void tearDown()
+		throws MqttPersistenceException
+	{
+		for (MQTTMappedFilePersistence l_persistence : m_persistences)
+			l_persistence.close();
+	}
+
+
+	@Test
+	void testPutGetRemove()
+		throws MqttPersistenceException
+	{
+		final MQTTMappedFilePersistence l_persistence = _open();
+
+		l_persistence.put("s-1", _data("s-1", "h1", "p1"));
+		l_persistence.put("s-2", _data("s-2", "h2", "p2"));
+		l_persistence.put("s-1", _data("s-1", "h3", "p3"));
+
+		assertTrue(l_persistence.containsKey("s-1"));
+		_assertData(l_persistence.get("s-1"), "h3", "p3");
+		_assertData(l_persistence.get("s-2"), "h2", "p2");
+		assertEquals(List.of("s-1", "s-2"), Collections.list(l_persistence.keys()));
+
+		l_persistence.remove("s-1");
+		l_persistence.remove("missing");
+
+		assertFalse(l_persistence.containsKey("s-1"));
+		assertNull(l_persistence.get("s-1"));
+		assertEquals(List.of("s-2"), Collections.list(l_persistence.keys()));
+	}
+
+
+	@Test
+	void testPutCopiesTheData()
+		throws MqttPersistenceException
+	{
+		final MQTTMappedFilePersistence l_persistence = _open();
+		final byte[]                    l_header      = _bytes("xheaderx");
+		final byte[]                    l_payload     = _bytes("xpayloadx");
+
+		l_persistence.put("s-1", new MqttPersistentData("s-1", l_header, 1, 6, l_payload, 1, 7));
+		l_persistence.put("s-2", new MqttPersistentData("s-2", l_header, 0, 1, null, 0, 0));
+
+		l_header[1]  = 'X';
+		l_payload[1] = 'X';
+
+		_assertData(l_persistence.get("s-1"), "header", "payload");
+		_assertData(l_persistence.get("s-2"), "x", "");
+	}
+
+
+	@Test
+	void testReplayAfterReopen()
+		throws MqttPersistenceException
+	{
+		final MQTTMappedFilePersistence l_persistence = _open();
+		final MQTTMappedFilePersistence l_reopened;
+
+		l_persistence.put("s-1", _data("s-1", "h1", "p1"));
+		l_persistence.put("s-2", _data("s-2", "h2", ""));
+		l_persistence.put("s-3", _data("s-3", "h3", "p3"));
+		l_persistence.remove("s-2");
+		l_persistence.put("s-1", _data("s-1", "h4", "p4"));
+		l_persistence.close();
+
+		assertThrows(MqttPersistenceException.class, () -> l_persistence.get("s-1"));
+
+		l_reopened = _open();
+
+		assertEquals(List.of("s-1", "s-3"), Collections.list(l_reopened.keys()));
+		_assertData(l_reopened.get("s-1"), "h4", "p4");
+		_assertData(l_reopened.get("s-3"), "h3", "p3");
+	}
+
+
+	@Test
+	void testCompaction()
+		throws MqttPersistenceException
+	{
+		final String              l_strPayload = "x".repeat(200);
+		MQTTMappedFilePersistence l_persistence;
+
+		l_persistence = _open();
+
+		// many times the size of the log, which must be rewritten repeatedly
+		for (int i = 0; i < 1000; i++)
+		{
+			l_persistence.put("s-" + i, _data("s-" + i, "h" + i, l_strPayload));
+
+			if (i >= 5)
+				l_persistence.remove("s-" + (i - 5));
+		}
+
+		l_persistence.put("big", _data("big", "h", "y".repeat(10000)));
+
+		assertEquals(List.of("s-995", "s-996", "s-997", "s-998", "s-999", "big"), Collections.list(l_persistence.keys()));
+
+		l_persistence.close();
+
+		l_persistence = _open();
+
+		assertEquals(List.of("s-995", "s-996", "s-997", "s-998", "s-999", "big"), Collections.list(l_persistence.keys()));
+		_assertData(l_persistence.get("s-997"), "h997", l_strPayload);
+		_assertData(l_persistence.get("big"), "h", "y".repeat(10000));
+	}
+
+
+	@Test
+	void testClear()
+		throws MqttPersistenceException
+	{
+		MQTTMappedFilePersistence l_persistence;
+
+		l_persistence = _open();
+
+		l_persistence.put("s-1", _data("s-1", "h1", "p1"));
+		l_persistence.put("s-2", _data("s-2", "h2", "p2"));
+		l_persistence.clear();
+
+		assertFalse(l_persistence.keys().hasMoreElements());
+
+		l_persistence.put("s-3", _data("s-3", "h3", "p3"));
+		l_persistence.close();
+
+		l_persistence = _open();
+
+		assertEquals(List.of("s-3"), Collections.list(l_persistence.keys()));
+	}
+
+
+	@Test
+	void testLocked()
+		throws MqttPersistenceException
+	{
+		final MQTTMappedFilePersistence l_persistence = _open();
+		final MQTTMappedFilePersistence l_other       = new MQTTMappedFilePersistence(m_dir, 4096);
+		MqttPersistenceException        l_e;
+
+		l_e = assertThrows(MqttPersistenceException.class, () -> l_other.open(CLIENT_ID, SERVER_URI));
+
+		assertEquals(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE, l_e.getReasonCode());
+
+		l_e = assertThrows(MqttPersistenceException.class, () -> l_persistence.open(CLIENT_ID, SERVER_URI));
+
+		assertEquals(MqttPersistenceException.REASON_CODE_PERSISTENCE_IN_USE, l_e.getReasonCode());
+
+		// other clients use other directories
+		l_other.open("other", SERVER_URI);
+		l_other.close();
+
+		l_persistence.close();
+		l_other.open(CLIENT_ID, SERVER_URI);
+		l_other.close();
+	}
+
+
+	private MQTTMappedFilePersistence _open()
+		throws MqttPersistenceException
+	{
+		final MQTTMappedFilePersistence l_persistence = new MQTTMappedFilePersistence(m_dir, 4096);
+
+		l_persistence.open(CLIENT_ID, SERVER_URI);
+
+		m_persistences.add(l_persistence);
+
+		return l_persistence;
+	}
+
+
+	private static MqttPersistentData _data(String p_strKey, String p_strHeader, String p_strPayload)
+	{
+		final byte[] l_header  = _bytes(p_strHeader);
+		final byte[] l_payload = _bytes(p_strPayload);
+
+		return new MqttPersistentData(p_strKey, l_header, 0, l_header.length, l_payload, 0, l_payload.length);
+	}
+
+
+	private static void _assertData(MqttPersistable p_data, String p_strHeader, String p_strPayload)
+		throws MqttPersistenceException
+	{
+		assertEquals(p_strHeader,
+		             new String(p_data.getHeaderBytes(), p_data.getHeaderOffset(), p_data.getHeaderLength(), StandardCharsets.UTF_8));
+		assertEquals(p_strPayload,
+		             new String(p_data.getPayloadBytes(), p_data.getPayloadOffset(), p_data.getPayloadLength(), StandardCharsets.UTF_8));
+	}
+
+
+	private static byte[] _bytes(String p_str)
+	{
+		return p_str.getBytes(StandardCharsets.UTF_8);
+	}
+}
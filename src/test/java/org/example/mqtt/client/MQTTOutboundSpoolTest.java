@@ -0,0 +1,500 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+final class MQTTOutboundSpoolTest
+{
+	/** The retry interval of spools whose server is not available. */
+	private static final long RETRY_INTERVAL = 60000L;
+
+	@TempDir
+	Path m_dir;
+
+	private final List<MQTTOutboundSpool> m_spools = new ArrayList<>();
+
+	private TestServer m_server;
+
+
+	@AfterEach
+	void tearDown()
+		throws IOException
+	{
+		for (MQTTOutboundSpool l_spool : m_spools)
+			l_spool.close();
+
+		if (m_server != null)
+			m_server.close();
+	}
+
+
+	@Test
+	void testAppendAndReplayAfterReopen()
+		throws Exception
+	{
+		MQTTOutboundSpool l_spool;
+
+		l_spool = _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		assertTrue(l_spool.isEmpty());
+		assertTrue(l_spool.append("a/1", _message("one")));
+		assertTrue(l_spool.append("a/2", _message("two")));
+		assertTrue(l_spool.append("a/3", _message("three")));
+		assertFalse(l_spool.isEmpty());
+		assertEquals(3L, l_spool.getMessageCount());
+
+		l_spool.close();
+
+		// the undelivered messages are counted when the spool is opened
+		l_spool = _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		assertEquals(3L, l_spool.getMessageCount());
+
+		l_spool.close();
+
+		// the spool is closed, so another connection may use the directory
+		m_server = new TestServer();
+		l_spool  = _open(m_dir, m_server.getKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		_awaitEmpty(l_spool);
+
+		assertEquals(List.of("a/1 one", "a/2 two", "a/3 three"), m_server.getReceived());
+	}
+
+
+	@Test
+	void testDeliveredMessagesAreNotReplayed()
+		throws Exception
+	{
+		MQTTOutboundSpool l_spool;
+
+		m_server = new TestServer();
+		l_spool  = _open(m_dir, m_server.getKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		l_spool.append("a/1", _message("one"));
+		l_spool.append("a/2", _message("two"));
+
+		_awaitEmpty(l_spool);
+
+		l_spool.close();
+
+		// the read position has been committed
+		l_spool = _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		assertTrue(l_spool.isEmpty());
+		assertEquals(List.of("a/1 one", "a/2 two"), m_server.getReceived());
+	}
+
+
+	@Test
+	void testSegmentsAreDeletedAfterDelivery()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool;
+
+		m_server = new TestServer();
+		l_spool  = _open(m_dir, m_server.getKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		// three messages fit into a segment, so the spool moves through several segments
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(l_spool.append("a/" + i, _message(_text(300))));
+
+			_awaitEmpty(l_spool);
+		}
+
+		assertEquals(1, l_spool.getSegmentCount());
+		assertEquals(10, m_server.getReceived().size());
+		assertEquals("a/0 " + _text(300), m_server.getReceived().get(0));
+		assertEquals("a/9 " + _text(300), m_server.getReceived().get(9));
+	}
+
+
+	@Test
+	void testOverflowFail()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool = _fill(MQTTSpoolOverflowPolicy.FAIL);
+
+		assertThrows(IOException.class, () -> l_spool.append("a", _message(_text(400))));
+		assertEquals(2, l_spool.getSegmentCount());
+	}
+
+
+	@Test
+	void testOverflowDropNewest()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool = _fill(MQTTSpoolOverflowPolicy.DROP_NEWEST);
+
+		assertFalse(l_spool.append("a", _message(_text(400))));
+		assertEquals(2, l_spool.getSegmentCount());
+	}
+
+
+	@Test
+	void testOverflowDropOldest()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool = _fill(MQTTSpoolOverflowPolicy.DROP_OLDEST);
+
+		assertTrue(l_spool.append("a", _message(_text(400))));
+		assertEquals(2, l_spool.getSegmentCount());
+
+		// the two messages of the oldest segment have been discarded
+		assertEquals(3L, l_spool.getMessageCount());
+	}
+
+
+	@Test
+	void testMessageTooLarge()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool = _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.DROP_NEWEST);
+
+		assertThrows(IOException.class, () -> l_spool.append("a", _message(_text(2000))));
+		assertTrue(l_spool.isEmpty());
+	}
+
+
+	@Test
+	void testDirectoryIsBoundToOneConnection()
+		throws Exception
+	{
+		_open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL);
+
+		assertThrows(IOException.class, () -> _open(m_dir, _key("tcp://127.0.0.1:2"), MQTTSpoolOverflowPolicy.FAIL));
+	}
+
+
+	@Test
+	void testClosedByLastOwner()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool;
+
+		l_spool = _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL, "a");
+
+		assertSame(l_spool, _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL, "b"));
+
+		l_spool.release("a");
+
+		assertTrue(l_spool.append("a/1", _message("one")));
+
+		l_spool.release("b");
+
+		assertThrows(IOException.class, () -> l_spool.append("a/2", _message("two")));
+
+		// the spool has been closed, so it is opened again
+		assertNotSame(l_spool, _open(m_dir, _unavailableKey(), MQTTSpoolOverflowPolicy.FAIL, "a"));
+	}
+
+
+	@Test
+	void testForceInterval()
+		throws Exception
+	{
+		final MQTTOutboundSpool l_spool;
+
+		m_server = new TestServer();
+		l_spool  = MQTTOutboundSpool.getSpool(m_dir, 1024, 2, MQTTSpoolOverflowPolicy.FAIL,
+		                                      m_server.getKey(), 1000L, RETRY_INTERVAL, 50L, "test");
+
+		m_spools.add(l_spool);
+
+		for (int i = 0; i < 5; i++)
+			assertTrue(l_spool.append("a/" + i, _message("x")));
+
+		_awaitEmpty(l_spool);
+
+		assertEquals(5, m_server.getReceived().size());
+	}
+
+
+	/**
+	 * Open a spool of two segments of 1024 bytes, and append four
+	 * messages of 400 bytes, which fill both segments.
+	 */
+	private MQTTOutboundSpool _fill(MQTTSpoolOverflowPolicy p_policy)
+		throws IOException
+	{
+		final MQTTOutboundSpool l_spool = _open(m_dir, _unavailableKey(), p_policy);
+
+		for (int i = 0; i < 4; i++)
+			assertTrue(l_spool.append("a", _message(_text(400))));
+
+		assertEquals(2, l_spool.getSegmentCount());
+
+		return l_spool;
+	}
+
+
+	private MQTTOutboundSpool _open(Path p_dir, MQTTConnectionKey p_key, MQTTSpoolOverflowPolicy p_policy)
+		throws IOException
+	{
+		return _open(p_dir, p_key, p_policy, "test");
+	}
+
+
+	private MQTTOutboundSpool _open(Path p_dir, MQTTConnectionKey p_key, MQTTSpoolOverflowPolicy p_policy, String p_strOwner)
+		throws IOException
+	{
+		final MQTTOutboundSpool l_spool;
+
+		l_spool = MQTTOutboundSpool.getSpool(p_dir, 1024, 2, p_policy, p_key, 1000L, RETRY_INTERVAL, 0L, p_strOwner);
+
+		m_spools.add(l_spool);
+
+		return l_spool;
+	}
+
+
+	private static void _awaitEmpty(MQTTOutboundSpool p_spool)
+		throws InterruptedException
+	{
+		final long l_lDeadline = System.currentTimeMillis() + 10000L;
+
+		while (!p_spool.isEmpty())
+		{
+			if (System.currentTimeMillis() > l_lDeadline)
+				throw new AssertionError("The spool has not been drained.");
+
+			Thread.sleep(10L);
+		}
+	}
+
+
+	private static MQTTConnectionKey _unavailableKey()
+	{
+		// nothing listens on port 1
+		return _key("tcp://127.0.0.1:1");
+	}
+
+
+	private static MQTTConnectionKey _key(String p_strServerUri)
+	{
+		return new MQTTConnectionKey(p_strServerUri, null, null, null, 5, 60, 10);
+	}
+
+
+	private static MqttMessage _message(String p_strPayload)
+	{
+		final MqttMessage l_msg = new MqttMessage(p_strPayload.getBytes(StandardCharsets.UTF_8));
+
+		l_msg.setQos(1);
+
+		return l_msg;
+	}
+
+
+	private static String _text(int p_iLength)
+	{
+		final StringBuilder l_sbuf = new StringBuilder(p_iLength);
+
+		for (int i = 0; i < p_iLength; i++)
+			l_sbuf.append((char)('a' + i % 26));
+
+		return l_sbuf.toString();
+	}
+
+
+	/**
+	 * A MQTT 3.1.1 server that accepts connections and acknowledges
+	 * and records published messages.
+	 */
+	private static final class TestServer
+	{
+		private final ServerSocket m_socket;
+
+		private final List<Socket> m_clients = Collections.synchronizedList(new ArrayList<>());
+
+		private final List<String> m_received = Collections.synchronizedList(new ArrayList<>());
+
+
+		private TestServer()
+			throws IOException
+		{
+			final Thread l_thread;
+
+			m_socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			l_thread = new Thread(this::_accept, "mqtt-test-server");
+
+			l_thread.setDaemon(true);
+			l_thread.start();
+		}
+
+
+		private MQTTConnectionKey getKey()
+		{
+			return _key("tcp://127.0.0.1:" + m_socket.getLocalPort());
+		}
+
+
+		private List<String> getReceived()
+		{
+			synchronized (m_received)
+			{
+				return new ArrayList<>(m_received);
+			}
+		}
+
+
+		private void close()
+			throws IOException
+		{
+			m_socket.close();
+
+			synchronized (m_clients)
+			{
+				for (Socket l_client : m_clients)
+					l_client.close();
+			}
+		}
+
+
+		private void _accept()
+		{
+			try
+			{
+				for (;;)
+				{
+					final Socket l_client = m_socket.accept();
+					final Thread l_thread = new Thread(() -> _serve(l_client), "mqtt-test-client");
+
+					m_clients.add(l_client);
+
+					l_thread.setDaemon(true);
+					l_thread.start();
+				}
+			}
+			catch (IOException l_e)
+			{
+				// closed
+			}
+		}
+
+
+		private void _serve(Socket p_client)
+		{
+			try (DataInputStream l_in = new DataInputStream(p_client.getInputStream());
+			     OutputStream    l_out = p_client.getOutputStream())
+			{
+				for (;;)
+				{
+					final int    l_iHeader = l_in.readUnsignedByte();
+					final byte[] l_body    = new byte[_readLength(l_in)];
+
+					l_in.readFully(l_body);
+
+					switch (l_iHeader >> 4)
+					{
+					case 1: // CONNECT
+						l_out.write(new byte[] {0x20, 2, 0, 0});
+						break;
+
+					case 3: // PUBLISH
+						_publish(l_iHeader, l_body, l_out);
+						break;
+
+					case 12: // PINGREQ
+						l_out.write(new byte[] {(byte)0xD0, 0});
+						break;
+
+					case 14: // DISCONNECT
+						return;
+
+					default:
+						break;
+					}
+
+					l_out.flush();
+				}
+			}
+			catch (IOException l_e)
+			{
+				// closed
+			}
+		}
+
+
+		private void _publish(int p_iHeader, byte[] p_body, OutputStream p_out)
+			throws IOException
+		{
+			final int    l_iTopicLength = (p_body[0] & 0xFF) << 8 | p_body[1] & 0xFF;
+			final String l_strTopic     = new String(p_body, 2, l_iTopicLength, StandardCharsets.UTF_8);
+			int          l_iPos         = 2 + l_iTopicLength;
+
+			if ((p_iHeader & 0x06) != 0)
+			{
+				p_out.write(new byte[] {0x40, 2, p_body[l_iPos], p_body[l_iPos + 1]});
+				l_iPos += 2;
+			}
+
+			m_received.add(l_strTopic + " " + new String(p_body, l_iPos, p_body.length - l_iPos, StandardCharsets.UTF_8));
+		}
+
+
+		private static int _readLength(InputStream p_in)
+			throws IOException
+		{
+			int l_iLength     = 0;
+			int l_iMultiplier = 1;
+			int l_iDigit;
+
+			do
+			{
+				l_iDigit = p_in.read();
+
+				if (l_iDigit < 0)
+					throw new IOException("End of stream.");
+
+				l_iLength     += (l_iDigit & 0x7F) * l_iMultiplier;
+				l_iMultiplier *= 128;
+			}
+			while ((l_iDigit & 0x80) != 0);
+
+			return l_iLength;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.client;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTRateLimiterTest
+{
+	@Test
+	void testBurst()
+	{
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(_key(), 0.001, 3, "a");
+
+		assertEquals(3, l_limiter.getAvailablePermits());
+		assertTrue(l_limiter.tryAcquire());
+		assertTrue(l_limiter.tryAcquire());
+		assertTrue(l_limiter.tryAcquire());
+		assertFalse(l_limiter.tryAcquire());
+
+		assertEquals(3L, l_limiter.getPermittedCount());
+		assertEquals(1L, l_limiter.getThrottledCount());
+		assertEquals(1L, l_limiter.getRejectedCount());
+	}
+
+
+	@Test
+	void testAcquireWaitsForRefill()
+		throws InterruptedException
+	{
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(_key(), 20.0, 1, "a");
+		final long            l_lStart;
+		final long            l_lElapsed;
+
+		assertTrue(l_limiter.tryAcquire());
+
+		l_lStart = System.nanoTime();
+
+		assertTrue(l_limiter.acquire(5000L));
+
+		l_lElapsed = (System.nanoTime() - l_lStart) / 1000000L;
+
+		// one permit every 50 milliseconds
+		assertTrue(l_lElapsed >= 40L && l_lElapsed < 2000L, "waited " + l_lElapsed + " ms");
+		assertEquals(2L, l_limiter.getPermittedCount());
+		assertEquals(1L, l_limiter.getThrottledCount());
+		assertEquals(0L, l_limiter.getRejectedCount());
+	}
+
+
+	@Test
+	void testAcquireTimeout()
+		throws InterruptedException
+	{
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(_key(), 0.001, 1, "a");
+
+		assertTrue(l_limiter.acquire(0L));
+		assertFalse(l_limiter.acquire(20L));
+		assertEquals(1L, l_limiter.getRejectedCount());
+	}
+
+
+	@Test
+	void testSharing()
+	{
+		final String          l_strKey  = _key();
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "a");
+
+		// all actions on the same server share one bucket
+		assertSame(l_limiter, MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "b"));
+		assertSame(l_limiter, MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "a"));
+		assertTrue(MQTTRateLimiter.getLimiters().contains(l_limiter));
+		assertEquals(l_strKey, l_limiter.getKey());
+
+		assertTrue(l_limiter.tryAcquire());
+		assertEquals(4, MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "b").getAvailablePermits());
+	}
+
+
+	@Test
+	void testConflictingLimits()
+	{
+		final String          l_strKey  = _key();
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "a");
+
+		MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "b");
+
+		// other settings do not change the limit of a shared bucket
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.getLimiter(l_strKey, 20.0, 5, "a"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.getLimiter(l_strKey, 10.0, 6, "c"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.checkLimit(l_strKey, 10.0, 6, "c"));
+		assertEquals(10.0, l_limiter.getRate(), 0.0);
+		assertEquals(5, l_limiter.getBurst());
+
+		MQTTRateLimiter.checkLimit(l_strKey, 10.0, 5, "c");
+		MQTTRateLimiter.checkLimit(_key(), 1.0, 1, "c");
+	}
+
+
+	@Test
+	void testReconfigureByOnlyOwner()
+	{
+		final String          l_strKey  = _key();
+		final MQTTRateLimiter l_limiter = MQTTRateLimiter.getLimiter(l_strKey, 10.0, 5, "a");
+
+		MQTTRateLimiter.checkLimit(l_strKey, 0.001, 2, "a");
+
+		assertSame(l_limiter, MQTTRateLimiter.getLimiter(l_strKey, 0.001, 2, "a"));
+		assertEquals(0.001, l_limiter.getRate(), 0.0);
+		assertEquals(2, l_limiter.getBurst());
+
+		// the permits are capped by the new burst size
+		assertEquals(2, l_limiter.getAvailablePermits());
+	}
+
+
+	@Test
+	void testInvalidSettings()
+	{
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.getLimiter(_key(), 0.0, 1, "a"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.getLimiter(_key(), Double.NaN, 1, "a"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTRateLimiter.getLimiter(_key(), 1.0, 0, "a"));
+	}
+
+
+	private static String _key()
+	{
+		// limiters are registered globally
+		return "tcp://" + UUID.randomUUID() + ":1883";
+	}
+}
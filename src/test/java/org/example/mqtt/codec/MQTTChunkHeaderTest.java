@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTChunkHeaderTest
+{
+	@Test
+	void testWriteAndRead()
+		throws IOException
+	{
+		final UUID            l_id      = UUID.randomUUID();
+		final byte[]          l_payload = new byte[MQTTChunkHeader.HEADER_SIZE + 10];
+		final MQTTChunkHeader l_header;
+
+		new MQTTChunkHeader(l_id, 3, 4, true).write(l_payload);
+
+		assertTrue(MQTTChunkHeader.hasHeader(l_payload));
+
+		l_header = MQTTChunkHeader.read(l_payload);
+
+		assertEquals(l_id, l_header.getTransferId());
+		assertEquals(3, l_header.getSequence());
+		assertEquals(4, l_header.getTotal());
+		assertTrue(l_header.isLast());
+	}
+
+
+	@Test
+	void testUnknownTotal()
+		throws IOException
+	{
+		final byte[]          l_payload = new byte[MQTTChunkHeader.HEADER_SIZE];
+		final MQTTChunkHeader l_header;
+
+		new MQTTChunkHeader(UUID.randomUUID(), 1000, -1, false).write(l_payload);
+
+		l_header = MQTTChunkHeader.read(l_payload);
+
+		assertEquals(1000, l_header.getSequence());
+		assertEquals(-1, l_header.getTotal());
+		assertFalse(l_header.isLast());
+	}
+
+
+	@Test
+	void testMissingHeader()
+	{
+		final byte[] l_payload = new byte[MQTTChunkHeader.HEADER_SIZE];
+
+		new MQTTChunkHeader(UUID.randomUUID(), 0, 1, true).write(l_payload);
+
+		assertFalse(MQTTChunkHeader.hasHeader(new byte[MQTTChunkHeader.HEADER_SIZE]));
+		assertFalse(MQTTChunkHeader.hasHeader(new byte[] {(byte)0xFE, 'I', 'C'}));
+		assertFalse(MQTTChunkHeader.hasHeader(new byte[] {(byte)0xFE, 'I', 'X', 0}));
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(new byte[10]));
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(new byte[MQTTChunkHeader.HEADER_SIZE]));
+	}
+
+
+	@Test
+	void testInvalidHeader()
+	{
+		final byte[] l_payload = new byte[MQTTChunkHeader.HEADER_SIZE];
+
+		new MQTTChunkHeader(UUID.randomUUID(), 0, 1, true).write(l_payload);
+
+		// unsupported version
+		l_payload[3] = 2;
+
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(l_payload));
+
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(_header(-1, 2)));
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(_header(2, 2)));
+		assertThrows(IOException.class, () -> MQTTChunkHeader.read(_header(0, -2)));
+	}
+
+
+	/**
+	 * Create a header with the given sequence number and total.
+	 */
+	private static byte[] _header(int p_iSequence, int p_iTotal)
+	{
+		final byte[] l_payload = new byte[MQTTChunkHeader.HEADER_SIZE];
+
+		new MQTTChunkHeader(UUID.randomUUID(), 0, 1, true).write(l_payload);
+
+		ByteBuffer.wrap(l_payload).putInt(20, p_iSequence).putInt(24, p_iTotal);
+
+		return l_payload;
+	}
+}
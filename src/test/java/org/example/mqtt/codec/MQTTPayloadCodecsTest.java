@@ -0,0 +1,215 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.codec;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTPayloadCodecsTest
+{
+	private static final String[] CODECS = {"identity", "length-prefixed", "deflate", "gzip"};
+
+	private static final String[] COMPRESSING_CODECS = {"deflate", "gzip"};
+
+	private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+
+	@Test
+	void testRoundTrip()
+		throws IOException
+	{
+		for (String l_strCodec : CODECS)
+		{
+			final IMQTTPayloadCodec l_codec = MQTTPayloadCodecs.getCodec(l_strCodec);
+
+			for (byte[] l_payload : _payloads())
+			{
+				final byte[] l_encoded = MQTTPayloadCodecs.encode(l_codec, l_payload);
+
+				assertTrue(MQTTPayloadCodecs.hasHeader(l_encoded), l_strCodec);
+				assertEquals(l_codec.getId(), l_encoded[3]);
+				assertArrayEquals(l_payload, MQTTPayloadCodecs.decode(l_encoded, MAX_LENGTH));
+			}
+		}
+	}
+
+
+	@Test
+	void testEncodePartOfArray()
+		throws IOException
+	{
+		final byte[] l_array = _text(1000);
+
+		for (String l_strCodec : CODECS)
+		{
+			final byte[] l_encoded = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec(l_strCodec), l_array, 100, 500);
+
+			assertArrayEquals(Arrays.copyOfRange(l_array, 100, 600), MQTTPayloadCodecs.decode(l_encoded, MAX_LENGTH));
+		}
+	}
+
+
+	@Test
+	void testCompression()
+		throws IOException
+	{
+		final byte[] l_payload = new byte[1024 * 1024];
+
+		for (String l_strCodec : COMPRESSING_CODECS)
+			assertTrue(MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec(l_strCodec), l_payload).length < 16 * 1024, l_strCodec);
+	}
+
+
+	@Test
+	void testPayloadWithoutHeader()
+		throws IOException
+	{
+		final byte[] l_payload = _text(100);
+
+		assertFalse(MQTTPayloadCodecs.hasHeader(l_payload));
+		assertSame(l_payload, MQTTPayloadCodecs.decode(l_payload, MAX_LENGTH));
+		assertFalse(MQTTPayloadCodecs.hasHeader(new byte[] {(byte)0xFE, 'I', 'X'}));
+	}
+
+
+	@Test
+	void testUnknownCodec()
+	{
+		assertThrows(IllegalArgumentException.class, () -> MQTTPayloadCodecs.getCodec("zstd"));
+		assertThrows(IOException.class, () -> MQTTPayloadCodecs.decode(new byte[] {(byte)0xFE, 'I', 'X', 0x7F, 1, 2}, MAX_LENGTH));
+	}
+
+
+	@Test
+	void testCodecNamesAreCaseInsensitive()
+	{
+		assertEquals("gzip", MQTTPayloadCodecs.getCodec("GZip").getName());
+	}
+
+
+	@Test
+	void testOversizedPayload()
+		throws IOException
+	{
+		final byte[] l_payload = new byte[100000];
+
+		for (String l_strCodec : CODECS)
+		{
+			final byte[] l_encoded = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec(l_strCodec), l_payload);
+
+			assertArrayEquals(l_payload, MQTTPayloadCodecs.decode(l_encoded, l_payload.length));
+			assertThrows(IOException.class, () -> MQTTPayloadCodecs.decode(l_encoded, l_payload.length - 1), l_strCodec);
+		}
+	}
+
+
+	@Test
+	void testDecompressionBomb()
+		throws IOException
+	{
+		// 64 MiB of zeros compress to a few tens of kilobytes
+		final byte[] l_payload = new byte[64 * 1024 * 1024];
+
+		for (String l_strCodec : COMPRESSING_CODECS)
+		{
+			final byte[] l_encoded = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec(l_strCodec), l_payload);
+
+			assertThrows(IOException.class, () -> MQTTPayloadCodecs.decode(l_encoded, 1024 * 1024), l_strCodec);
+		}
+	}
+
+
+	@Test
+	void testTruncatedPayload()
+		throws IOException
+	{
+		for (String l_strCodec : new String[] {"length-prefixed", "deflate", "gzip"})
+		{
+			final byte[] l_encoded = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec(l_strCodec), _text(10000));
+
+			assertThrows(IOException.class,
+			             () -> MQTTPayloadCodecs.decode(Arrays.copyOf(l_encoded, l_encoded.length - 5), MAX_LENGTH),
+			             l_strCodec);
+		}
+	}
+
+
+	@Test
+	void testCorruptPayload()
+		throws IOException
+	{
+		final byte[] l_gzip    = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec("gzip"), _text(10000));
+		final byte[] l_deflate = MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec("deflate"), _text(10000));
+
+		// the CRC of the gzip trailer
+		l_gzip[l_gzip.length - 8] ^= 0x01;
+
+		assertThrows(IOException.class, () -> MQTTPayloadCodecs.decode(l_gzip, MAX_LENGTH));
+
+		// the zlib header
+		l_deflate[MQTTPayloadCodecs.HEADER_SIZE] = 0;
+
+		assertThrows(IOException.class, () -> MQTTPayloadCodecs.decode(l_deflate, MAX_LENGTH));
+
+		assertThrows(IOException.class,
+		             () -> MQTTPayloadCodecs.decode(new byte[] {(byte)0xFE, 'I', 'X', 3, 1, 2, 3, 4}, MAX_LENGTH));
+	}
+
+
+	@Test
+	void testLengthPrefixMismatch()
+	{
+		assertThrows(IOException.class,
+		             () -> MQTTPayloadCodecs.decode(new byte[] {(byte)0xFE, 'I', 'X', 1, 0, 0, 0, 3, 'a', 'b'}, MAX_LENGTH));
+		assertThrows(IOException.class,
+		             () -> MQTTPayloadCodecs.decode(new byte[] {(byte)0xFE, 'I', 'X', 1, 0, 0}, MAX_LENGTH));
+	}
+
+
+	private static byte[][] _payloads()
+	{
+		final byte[] l_random = new byte[100000];
+
+		new Random(42L).nextBytes(l_random);
+
+		return new byte[][] {new byte[0], _text(1), _text(1000), _text(300000), l_random};
+	}
+
+
+	private static byte[] _text(int p_iLength)
+	{
+		final byte[] l_text = new byte[p_iLength];
+
+		for (int i = 0; i < p_iLength; i++)
+			l_text[i] = (byte)('a' + i % 26);
+
+		return l_text;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTBackoffTest
+{
+	@Test
+	void testDelaysAreBounded()
+	{
+		final MQTTBackoff l_backoff = new MQTTBackoff(100L, 2.0d, 5000L);
+		long              l_lBound;
+
+		l_lBound = 100L;
+
+		for (int i = 0; i < 100; i++)
+		{
+			final long l_lDelay = l_backoff.nextDelay();
+
+			assertTrue(l_lDelay >= 0L && l_lDelay <= l_lBound, "Delay " + l_lDelay + " exceeds " + l_lBound + ".");
+
+			l_lBound = Math.min(2L * l_lBound, 5000L);
+		}
+	}
+
+
+	@Test
+	void testDelaysAreJittered()
+	{
+		final MQTTBackoff l_backoff = new MQTTBackoff(1000L, 1.0d, 1000L);
+		long              l_lMin;
+		long              l_lMax;
+
+		l_lMin = Long.MAX_VALUE;
+		l_lMax = Long.MIN_VALUE;
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final long l_lDelay = l_backoff.nextDelay();
+
+			l_lMin = Math.min(l_lMin, l_lDelay);
+			l_lMax = Math.max(l_lMax, l_lDelay);
+		}
+
+		assertTrue(l_lMin < 250L, "Minimum delay " + l_lMin + ".");
+		assertTrue(l_lMax > 750L, "Maximum delay " + l_lMax + ".");
+	}
+
+
+	@Test
+	void testMaxDelayIsReached()
+	{
+		final MQTTBackoff l_backoff = new MQTTBackoff(1L, 10.0d, 1000L);
+		long              l_lMax;
+
+		l_lMax = 0L;
+
+		// the exponent must not overflow however often the backoff is used
+		for (int i = 0; i < 100000; i++)
+			l_lMax = Math.max(l_lMax, l_backoff.nextDelay());
+
+		assertTrue(l_lMax > 900L && l_lMax <= 1000L, "Maximum delay " + l_lMax + ".");
+	}
+
+
+	@Test
+	void testReset()
+	{
+		final MQTTBackoff l_backoff = new MQTTBackoff(10L, 100.0d, 1000000L);
+
+		for (int i = 0; i < 10; i++)
+			l_backoff.nextDelay();
+
+		l_backoff.reset();
+
+		assertTrue(l_backoff.nextDelay() <= 10L);
+		assertTrue(l_backoff.nextDelay() <= 1000L);
+	}
+
+
+	@Test
+	void testMinDelay()
+	{
+		final MQTTBackoff l_backoff = new MQTTBackoff(1000L, 2.0d, 60000L).withMinDelay(500L);
+
+		for (int i = 0; i < 1000; i++)
+		{
+			final long l_lDelay = l_backoff.nextDelay();
+
+			assertTrue(l_lDelay >= 500L && l_lDelay <= 60000L, "Delay " + l_lDelay + ".");
+		}
+
+		assertTrue(new MQTTBackoff(1L, 1.0d, 1L).withMinDelay(-1L).nextDelay() >= 0L);
+	}
+
+
+	@Test
+	void testInvalidArguments()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new MQTTBackoff(0L, 2.0d, 1000L));
+		assertThrows(IllegalArgumentException.class, () -> new MQTTBackoff(100L, 2.0d, 0L));
+		assertThrows(IllegalArgumentException.class, () -> new MQTTBackoff(100L, 0.5d, 1000L));
+		assertThrows(IllegalArgumentException.class, () -> new MQTTBackoff(100L, Double.NaN, 1000L));
+	}
+}
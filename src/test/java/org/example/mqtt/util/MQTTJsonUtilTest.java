@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTJsonUtilTest
+{
+	@Test
+	void testParse()
+	{
+		final Map<?, ?> l_doc;
+
+		l_doc = (Map<?, ?>)_parse(" {\"sensor\": {\"id\": \"s1\", \"temperature\": 21.5}, \"values\": [1, -2, 3e2], " +
+		                          "\"ok\": true, \"error\": false, \"note\": null} ");
+
+		assertEquals(Arrays.asList("sensor", "values", "ok", "error", "note"), List.copyOf(l_doc.keySet()));
+		assertEquals("s1", ((Map<?, ?>)l_doc.get("sensor")).get("id"));
+		assertEquals(new BigDecimal("21.5"), ((Map<?, ?>)l_doc.get("sensor")).get("temperature"));
+		assertEquals(Arrays.asList(1L, -2L, new BigDecimal("3e2")), l_doc.get("values"));
+		assertEquals(Boolean.TRUE, l_doc.get("ok"));
+		assertEquals(Boolean.FALSE, l_doc.get("error"));
+		assertTrue(l_doc.containsKey("note"));
+		assertNull(l_doc.get("note"));
+	}
+
+
+	@Test
+	void testParseIsUnmodifiable()
+	{
+		final Map<?, ?> l_doc = (Map<?, ?>)_parse("{\"a\": [1]}");
+
+		assertThrows(UnsupportedOperationException.class, () -> l_doc.clear());
+		assertThrows(UnsupportedOperationException.class, () -> ((List<?>)l_doc.get("a")).clear());
+	}
+
+
+	@Test
+	void testParseNumbers()
+	{
+		assertEquals(0L, _parse("0"));
+		assertEquals(Long.MAX_VALUE, _parse("9223372036854775807"));
+		assertEquals(Long.MIN_VALUE, _parse("-9223372036854775808"));
+		assertEquals(new BigInteger("9223372036854775808"), _parse("9223372036854775808"));
+		assertEquals(new BigDecimal("-1.5E-3"), _parse("-1.5E-3"));
+
+		assertThrows(IllegalArgumentException.class, () -> _parse("01"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("1."));
+		assertThrows(IllegalArgumentException.class, () -> _parse("+1"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("0x10"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("NaN"));
+	}
+
+
+	@Test
+	void testParseStrings()
+	{
+		assertEquals("a\"b\\c/d\n\t", _parse("\"a\\\"b\\\\c\\/d\\n\\t\""));
+		assertEquals("\u00E4\u20AC", _parse("\"\\u00e4\\u20AC\""));
+		assertEquals("\u00E4", MQTTJsonUtil.parse("\"\u00E4\"".getBytes(StandardCharsets.UTF_8)));
+
+		assertThrows(IllegalArgumentException.class, () -> _parse("\"abc"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("\"\\x\""));
+		assertThrows(IllegalArgumentException.class, () -> _parse("\"\\u12\""));
+	}
+
+
+	@Test
+	void testParseMalformed()
+	{
+		assertThrows(IllegalArgumentException.class, () -> _parse(""));
+		assertThrows(IllegalArgumentException.class, () -> _parse("{"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("{\"a\" 1}"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("{\"a\": 1,}"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("{a: 1}"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("[1 2]"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("[1] x"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("tru"));
+	}
+
+
+	@Test
+	void testParseDepthLimit()
+	{
+		assertEquals(List.of(List.of()), _parse("[[]]"));
+		assertThrows(IllegalArgumentException.class, () -> _parse("[".repeat(100000) + "]".repeat(100000)));
+	}
+
+
+	@Test
+	void testGetTopLevelField()
+	{
+		final byte[] l_json = _bytes("{\"nested\": {\"id\": \"inner\", \"list\": [\"}\", \"]\"]}, \"id\": \"outer\", " +
+		                             "\"count\": 42, \"obj\": {\"x\": 1}, \"esc\\u0061ped\": \"a\\nb\"}");
+
+		assertEquals("outer", MQTTJsonUtil.getTopLevelField(l_json, "id"));
+		assertEquals("42", MQTTJsonUtil.getTopLevelField(l_json, "count"));
+		assertEquals("{\"x\": 1}", MQTTJsonUtil.getTopLevelField(l_json, "obj"));
+		assertEquals("a\nb", MQTTJsonUtil.getTopLevelField(l_json, "escaped"));
+		assertNull(MQTTJsonUtil.getTopLevelField(l_json, "x"));
+		assertNull(MQTTJsonUtil.getTopLevelField(l_json, "missing"));
+	}
+
+
+	@Test
+	void testGetTopLevelFieldOfOtherDocuments()
+	{
+		assertNull(MQTTJsonUtil.getTopLevelField(null, "id"));
+		assertNull(MQTTJsonUtil.getTopLevelField(_bytes(""), "id"));
+		assertNull(MQTTJsonUtil.getTopLevelField(_bytes("{}"), "id"));
+		assertNull(MQTTJsonUtil.getTopLevelField(_bytes("[{\"id\": 1}]"), "id"));
+		assertNull(MQTTJsonUtil.getTopLevelField(_bytes("{\"a\": \"unterminated, \"id\": 1}"), "id"));
+		assertNull(MQTTJsonUtil.getTopLevelField(_bytes("{\"a\": 1 \"id\": 1}"), "id"));
+	}
+
+
+	private static Object _parse(String p_strJson)
+	{
+		return MQTTJsonUtil.parse(_bytes(p_strJson));
+	}
+
+
+	private static byte[] _bytes(String p_strJson)
+	{
+		return p_strJson.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTPayloadUtilTest
+{
+	@Test
+	void testEncodeString()
+	{
+		final String     l_str = "temperature=21.5\u00B0C \u20AC \uD83D\uDE00";
+		final ByteBuffer l_buf = MQTTPayloadUtil.encodeUtf8(l_str);
+
+		assertArrayEquals(l_str.getBytes(StandardCharsets.UTF_8), _toArray(l_buf));
+
+		// strings are not encoded into the scratch buffer
+		assertEquals(0, l_buf.arrayOffset());
+		assertEquals(l_buf.array().length, l_buf.limit());
+		assertNotSame(l_buf.array(), MQTTPayloadUtil.encodeUtf8(l_str).array());
+	}
+
+
+	@Test
+	void testEncodeCharSequence()
+		throws IOException
+	{
+		_assertEncoded("");
+		_assertEncoded("plain ASCII text");
+		_assertEncoded("\u00E4\u00F6\u00FC \u00DF"); // two bytes per char
+		_assertEncoded("\u20AC \u4E2D\u6587"); // three bytes per char
+		_assertEncoded("\uD83D\uDE00 \uD834\uDD1E"); // surrogate pairs, four bytes each
+	}
+
+
+	@Test
+	void testEncodeUnpairedSurrogates()
+		throws IOException
+	{
+		// replaced with '?' like String.getBytes does
+		_assertEncoded("a\uD83Db");
+		_assertEncoded("a\uDE00b");
+		_assertEncoded("ab\uD83D");
+
+		assertArrayEquals(new byte[] {'a', '?', 'b'}, _toArray(MQTTPayloadUtil.encodeUtf8(new StringBuilder("a\uD83Db"))));
+	}
+
+
+	@Test
+	void testScratchBufferReuse()
+	{
+		final ByteBuffer l_buf1 = MQTTPayloadUtil.encodeUtf8(new StringBuilder("first"));
+		final ByteBuffer l_buf2 = MQTTPayloadUtil.encodeUtf8(new StringBuilder("second"));
+
+		assertSame(l_buf1, l_buf2);
+		assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), _toArray(l_buf2));
+	}
+
+
+	@Test
+	void testBufferGrowth()
+		throws IOException
+	{
+		// more than fits into the initial scratch buffer
+		_assertEncoded("\u20AC".repeat(5000));
+		_assertEncoded("\uD83D\uDE00".repeat(3000));
+
+		// surrogate pairs that are split between the blocks of chars
+		_assertEncoded("x" + "\uD83D\uDE00".repeat(5000));
+		_assertEncoded("x" + "\uD83D\uDE00".repeat(4095) + "\uD83D");
+
+		// more than the scratch buffer retains
+		_assertEncoded("\u20AC\uD83D\uDE00x".repeat(200000));
+
+		// a short text after the large ones
+		_assertEncoded("short");
+	}
+
+
+	@Test
+	void testToPayload()
+		throws Exception
+	{
+		final String l_str = "\u20AC\uD83D\uDE00 payload";
+		final byte[] l_expected = l_str.getBytes(StandardCharsets.UTF_8);
+
+		assertArrayEquals(l_expected, MQTTPayloadUtil.toPayload(l_str));
+		assertArrayEquals(l_expected, MQTTPayloadUtil.toPayload(new StringBuilder(l_str)));
+		assertArrayEquals(l_expected, MQTTPayloadUtil.toPayload(ByteBuffer.wrap(l_expected)));
+
+		// the payload of a character sequence is not the scratch buffer
+		assertNotSame(MQTTPayloadUtil.toPayload(new StringBuilder("x")), MQTTPayloadUtil.toPayload(new StringBuilder("x")));
+		assertTrue(Arrays.equals(new byte[] {'x'}, MQTTPayloadUtil.toPayload(new StringBuilder("x"))));
+	}
+
+
+	private static void _assertEncoded(String p_str)
+		throws IOException
+	{
+		final byte[] l_expected = p_str.getBytes(StandardCharsets.UTF_8);
+
+		assertArrayEquals(l_expected, _toArray(MQTTPayloadUtil.encodeUtf8(p_str)));
+		assertArrayEquals(l_expected, _toArray(MQTTPayloadUtil.encodeUtf8(new StringBuilder(p_str))));
+		assertArrayEquals(l_expected, MQTTPayloadUtil.toPayload(new StringBuilder(p_str)));
+	}
+
+
+	private static byte[] _toArray(ByteBuffer p_buf)
+	{
+		return Arrays.copyOfRange(p_buf.array(), p_buf.arrayOffset() + p_buf.position(), p_buf.arrayOffset() + p_buf.limit());
+	}
+}
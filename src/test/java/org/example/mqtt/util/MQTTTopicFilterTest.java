@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTTopicFilterTest
+{
+	@Test
+	void testMatches()
+	{
+		assertTrue(_filter("a/b/c").matches("a/b/c"));
+		assertFalse(_filter("a/b/c").matches("a/b"));
+		assertFalse(_filter("a/b").matches("a/b/c"));
+
+		assertTrue(_filter("a/+/c").matches("a/b/c"));
+		assertTrue(_filter("a/+/c").matches("a//c"));
+		assertFalse(_filter("a/+/c").matches("a/b/d"));
+		assertFalse(_filter("a/+").matches("a/b/c"));
+
+		assertTrue(_filter("a/#").matches("a"));
+		assertTrue(_filter("a/#").matches("a/b/c"));
+		assertFalse(_filter("a/#").matches("b/c"));
+		assertTrue(_filter("#").matches("a/b"));
+	}
+
+
+	@Test
+	void testWildcardsDoNotMatchSystemTopics()
+	{
+		assertFalse(_filter("#").matches("$SYS/broker/uptime"));
+		assertFalse(_filter("+/broker/uptime").matches("$SYS/broker/uptime"));
+		assertTrue(_filter("$SYS/#").matches("$SYS/broker/uptime"));
+	}
+
+
+	@Test
+	void testInvalidFilters()
+	{
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create(null, 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("a/#/b", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("a/b#", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("a/b+/c", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("a/\0", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g/", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g+/a", 0));
+	}
+
+
+	@Test
+	void testSharedSubscription()
+	{
+		final MQTTTopicFilter l_filter = MQTTTopicFilter.createShared("group", "a/+", 1);
+
+		assertEquals("$share/group/a/+", l_filter.getFilter());
+		assertEquals("group", l_filter.getShareGroup());
+		assertEquals(1, l_filter.getQos());
+		assertTrue(l_filter.matches("a/b"));
+		assertFalse(l_filter.matches("group/a/b"));
+
+		assertNull(_filter("a/+").getShareGroup());
+		assertEquals("g", _filter("$share/g/a").getShareGroup());
+
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("", "a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("a/b", "a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g", "$share/h/a", 0));
+	}
+
+
+	@Test
+	void testSharedSubscriptionValidation()
+	{
+		final List<MQTTTopicFilter> l_filters;
+
+		// the filter part is checked like any other topic filter
+		assertEquals("$share/g/#", MQTTTopicFilter.createShared("g", "#", 0).getFilter());
+		assertEquals("$share/g/+/b", _filter("$share/g/+/b").getFilter());
+		assertTrue(_filter("$share/g/#").matches("a/b"));
+		assertTrue(_filter("$share/g/+/b").matches("a/b"));
+		assertFalse(_filter("$share/g/+/b").matches("g/a/b"));
+
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share//a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g#/a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g/a/#/b", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.create("$share/g/a+", 0));
+
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared(null, "a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g+", "a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g#", "a", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g", null, 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g", "", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.createShared("g", "a/#/b", 0));
+
+		// shared subscriptions may be listed with a quality of service
+		l_filters = MQTTTopicFilter.parseList("$share/g/a/+;2\n$share/h/b", 1);
+
+		assertEquals(2, l_filters.size());
+		assertEquals("g", l_filters.get(0).getShareGroup());
+		assertEquals("$share/g/a/+", l_filters.get(0).getFilter());
+		assertEquals(2, l_filters.get(0).getQos());
+		assertEquals("h", l_filters.get(1).getShareGroup());
+		assertEquals(1, l_filters.get(1).getQos());
+	}
+
+
+	@Test
+	void testOverlaps()
+	{
+		assertTrue(_filter("a/b").overlaps(_filter("a/b")));
+		assertTrue(_filter("a/+").overlaps(_filter("a/b")));
+		assertTrue(_filter("a/+/c").overlaps(_filter("a/b/+")));
+		assertTrue(_filter("a/#").overlaps(_filter("a")));
+		assertTrue(_filter("a").overlaps(_filter("a/#")));
+		assertTrue(_filter("#").overlaps(_filter("x/y/z")));
+		assertTrue(_filter("$share/g/a/+").overlaps(_filter("$share/h/a/b")));
+
+		assertFalse(_filter("a/b").overlaps(_filter("a/c")));
+		assertFalse(_filter("a/+").overlaps(_filter("a/b/c")));
+		assertFalse(_filter("a").overlaps(_filter("a/+")));
+		assertFalse(_filter("#").overlaps(_filter("$SYS/#")));
+	}
+
+
+	@Test
+	void testParseList()
+	{
+		final List<MQTTTopicFilter> l_filters;
+
+		l_filters = MQTTTopicFilter.parseList(" a/b;2,\n\r\nc/+ \n, d/#;0 ", 1);
+
+		assertEquals(3, l_filters.size());
+		assertEquals("a/b", l_filters.get(0).getFilter());
+		assertEquals(2, l_filters.get(0).getQos());
+		assertEquals("c/+", l_filters.get(1).getFilter());
+		assertEquals(1, l_filters.get(1).getQos());
+		assertEquals("d/#", l_filters.get(2).getFilter());
+		assertEquals(0, l_filters.get(2).getQos());
+
+		assertTrue(MQTTTopicFilter.parseList(null, 0).isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.parseList("a;x", 0));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicFilter.parseList("a,b/#/c", 0));
+	}
+
+
+	private static MQTTTopicFilter _filter(String p_strFilter)
+	{
+		return MQTTTopicFilter.create(p_strFilter, 0);
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.util;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTTopicTemplateTest
+{
+	@Test
+	void testConstantTemplate()
+		throws Exception
+	{
+		final MQTTTopicTemplate l_template = MQTTTopicTemplate.compile("plant/line/status");
+
+		assertTrue(l_template.isConstant());
+		assertEquals("plant/line/status", l_template.render((p_strName, p_bDataField) ->
+		{
+			throw new AssertionError("No placeholder expected.");
+		}));
+	}
+
+
+	@Test
+	void testRender()
+		throws Exception
+	{
+		final MQTTTopicTemplate   l_template = MQTTTopicTemplate.compile("plant/{site}/line/{field:ABC123}/status");
+		final Map<String, Object> l_values   = new HashMap<>();
+
+		l_values.put("site", "freiburg");
+		l_values.put("field:ABC123", 42);
+
+		assertFalse(l_template.isConstant());
+		assertEquals("plant/{site}/line/{field:ABC123}/status", l_template.getTemplate());
+		assertEquals("plant/freiburg/line/42/status",
+		             l_template.render((p_strName, p_bDataField) -> l_values.get((p_bDataField ? "field:" : "") + p_strName)));
+
+		// the per-thread builder is reused
+		l_values.put("site", "basel");
+
+		assertEquals("plant/basel/line/42/status",
+		             l_template.render((p_strName, p_bDataField) -> l_values.get((p_bDataField ? "field:" : "") + p_strName)));
+	}
+
+
+	@Test
+	void testPlaceholdersOnly()
+		throws Exception
+	{
+		assertEquals("a", MQTTTopicTemplate.compile("{ x }").render((p_strName, p_bDataField) -> p_strName.equals("x") ? "a" : null));
+		assertEquals("ab", MQTTTopicTemplate.compile("{x}{y}").render((p_strName, p_bDataField) -> p_strName.equals("x") ? "a" : "b"));
+	}
+
+
+	@Test
+	void testEscapedBraces()
+		throws Exception
+	{
+		final MQTTTopicTemplate l_constant = MQTTTopicTemplate.compile("a/{{b}}/c");
+		final MQTTTopicTemplate l_template = MQTTTopicTemplate.compile("{{{x}}}/{{}}");
+
+		assertTrue(l_constant.isConstant());
+		assertEquals("a/{{b}}/c", l_constant.getTemplate());
+		assertEquals("a/{b}/c", l_constant.render((p_strName, p_bDataField) ->
+		{
+			throw new AssertionError("No placeholder expected.");
+		}));
+
+		assertFalse(l_template.isConstant());
+		assertEquals("{1}/{}", l_template.render((p_strName, p_bDataField) -> p_strName.equals("x") ? 1 : null));
+
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{{b}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{b}}"));
+	}
+
+
+	@Test
+	void testInvalidTemplates()
+	{
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile(null));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile(""));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{b"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/b}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{field:}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/{b{c}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/+/{b}"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/#"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a/\u0000"));
+		assertThrows(IllegalArgumentException.class, () -> MQTTTopicTemplate.compile("a".repeat(MQTTTopicTemplate.MAX_TOPIC_LENGTH + 1)));
+	}
+
+
+	@Test
+	void testInvalidValues()
+	{
+		final MQTTTopicTemplate l_template = MQTTTopicTemplate.compile("a/{b}");
+
+		assertThrows(IllegalArgumentException.class, () -> l_template.render((p_strName, p_bDataField) -> null));
+		assertThrows(IllegalArgumentException.class, () -> l_template.render((p_strName, p_bDataField) -> "x/+"));
+		assertThrows(IllegalArgumentException.class, () -> l_template.render((p_strName, p_bDataField) -> "#"));
+		assertThrows(IllegalArgumentException.class, () -> l_template.render((p_strName, p_bDataField) -> "\u0000"));
+
+		// three bytes per char in UTF-8
+		assertThrows(IllegalArgumentException.class,
+		             () -> l_template.render((p_strName, p_bDataField) -> "\u20AC".repeat(MQTTTopicTemplate.MAX_TOPIC_LENGTH / 3)));
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.example.mqtt.codec.MQTTChunkHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+final class MQTTChunkReassemblerTest
+{
+	@TempDir
+	Path m_dir;
+
+	private final List<Integer> m_acks = new ArrayList<>();
+
+
+	@Test
+	void testReassemble()
+		throws IOException
+	{
+		final MQTTChunkReassembler                   l_reassembler = _create(1000L, 1000L);
+		final UUID                                   l_id          = UUID.randomUUID();
+		final MQTTChunkReassembler.CompletedTransfer l_transfer;
+
+		assertNull(l_reassembler.append("t", _chunk(l_id, 0, false, "abc"), 1, 1));
+		assertNull(l_reassembler.append("t", _chunk(l_id, 1, false, "def"), 2, 1));
+
+		l_transfer = l_reassembler.append("t", _chunk(l_id, 2, true, "g"), 3, 1);
+
+		assertNotNull(l_transfer);
+		assertArrayEquals("abcdefg".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(l_transfer.getFile()));
+		assertEquals(7L, l_transfer.getSize());
+
+		// the chunks are acknowledged after the file event
+		assertTrue(m_acks.isEmpty());
+
+		l_transfer.acknowledge();
+
+		assertEquals(List.of(1, 2, 3), m_acks);
+
+		l_transfer.delete();
+
+		assertFalse(Files.exists(l_transfer.getFile()));
+		assertEquals(0L, l_reassembler.getTotalSize());
+	}
+
+
+	@Test
+	void testRedeliveredChunksAreAcknowledged()
+		throws IOException
+	{
+		final MQTTChunkReassembler l_reassembler = _create(1000L, 1000L);
+		final UUID                 l_id          = UUID.randomUUID();
+
+		l_reassembler.append("t", _chunk(l_id, 0, false, "abc"), 1, 1);
+
+		assertNull(l_reassembler.append("t", _chunk(l_id, 0, false, "abc"), 4, 1));
+		assertEquals(List.of(4), m_acks);
+
+		l_reassembler.append("t", _chunk(l_id, 1, true, "def"), 2, 1).delete();
+
+		assertNull(l_reassembler.append("t", _chunk(l_id, 1, true, "def"), 5, 1));
+		assertEquals(List.of(4, 5), m_acks);
+	}
+
+
+	@Test
+	void testMissingChunk()
+		throws IOException
+	{
+		final MQTTChunkReassembler l_reassembler = _create(1000L, 1000L);
+		final UUID                 l_id          = UUID.randomUUID();
+
+		l_reassembler.append("t", _chunk(l_id, 0, false, "abc"), 1, 1);
+
+		assertThrows(IOException.class, () -> l_reassembler.append("t", _chunk(l_id, 2, true, "g"), 3, 1));
+		assertEquals(0L, l_reassembler.getTotalSize());
+		assertTrue(m_acks.isEmpty());
+
+		// the transfer has been discarded
+		assertNull(l_reassembler.append("t", _chunk(l_id, 3, true, "h"), 4, 1));
+		assertEquals(List.of(4), m_acks);
+	}
+
+
+	@Test
+	void testMaxSize()
+		throws IOException
+	{
+		final MQTTChunkReassembler l_reassembler = _create(5L, 1000L);
+		final UUID                 l_id          = UUID.randomUUID();
+
+		l_reassembler.append("t", _chunk(l_id, 0, false, "abc"), 1, 1);
+
+		assertThrows(IOException.class, () -> l_reassembler.append("t", _chunk(l_id, 1, true, "def"), 2, 1));
+		assertEquals(0L, l_reassembler.getTotalSize());
+		assertEquals(0, _countFiles());
+	}
+
+
+	@Test
+	void testMaxConcurrentTransfers()
+		throws IOException
+	{
+		final MQTTChunkReassembler l_reassembler = _create(1000L, 1000L);
+
+		l_reassembler.append("t", _chunk(UUID.randomUUID(), 0, false, "a"), 1, 1);
+		l_reassembler.append("t", _chunk(UUID.randomUUID(), 0, false, "b"), 2, 1);
+
+		assertThrows(IOException.class, () -> l_reassembler.append("t", _chunk(UUID.randomUUID(), 0, false, "c"), 3, 1));
+		assertEquals(2, _countFiles());
+	}
+
+
+	@Test
+	void testMaxTotalSize()
+		throws IOException
+	{
+		final MQTTChunkReassembler                   l_reassembler = _create(1000L, 10L);
+		final UUID                                   l_id1         = UUID.randomUUID();
+		final UUID                                   l_id2         = UUID.randomUUID();
+		final MQTTChunkReassembler.CompletedTransfer l_transfer;
+
+		l_transfer = l_reassembler.append("t", _chunk(l_id1, 0, true, "abcdef"), 1, 1);
+
+		// completed transfers count until their file has been deleted
+		assertEquals(6L, l_reassembler.getTotalSize());
+		assertThrows(IOException.class, () -> l_reassembler.append("t", _chunk(l_id2, 0, false, "ghijk"), 2, 1));
+
+		l_transfer.delete();
+
+		assertNull(l_reassembler.append("t", _chunk(UUID.randomUUID(), 0, false, "ghijk"), 3, 1));
+		assertEquals(5L, l_reassembler.getTotalSize());
+	}
+
+
+	@Test
+	void testClose()
+		throws IOException
+	{
+		final MQTTChunkReassembler l_reassembler = _create(1000L, 1000L);
+
+		l_reassembler.append("t", _chunk(UUID.randomUUID(), 0, false, "abc"), 1, 1);
+		l_reassembler.close();
+
+		assertEquals(0, _countFiles());
+		assertEquals(0L, l_reassembler.getTotalSize());
+	}
+
+
+	private MQTTChunkReassembler _create(long p_lMaxSize, long p_lMaxTotalSize)
+	{
+		return new MQTTChunkReassembler(m_dir, 60000L, p_lMaxSize, 2, p_lMaxTotalSize, (p_iId, p_iQos) -> m_acks.add(p_iId));
+	}
+
+
+	private int _countFiles()
+		throws IOException
+	{
+		try (Stream<Path> l_files = Files.list(m_dir))
+		{
+			return (int)l_files.count();
+		}
+	}
+
+
+	private static byte[] _chunk(UUID p_id, int p_iSequence, boolean p_bLast, String p_strData)
+	{
+		final byte[] l_data  = p_strData.getBytes(StandardCharsets.UTF_8);
+		final byte[] l_chunk = new byte[MQTTChunkHeader.HEADER_SIZE + l_data.length];
+
+		new MQTTChunkHeader(p_id, p_iSequence, -1, p_bLast).write(l_chunk);
+
+		System.arraycopy(l_data, 0, l_chunk, MQTTChunkHeader.HEADER_SIZE, l_data.length);
+
+		return l_chunk;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTDedupCacheTest
+{
+	@Test
+	void testAdd()
+	{
+		final MQTTDedupCache l_cache = new MQTTDedupCache(100, 60000L);
+
+		assertTrue(l_cache.add(42L));
+		assertTrue(l_cache.add(43L));
+		assertFalse(l_cache.add(42L));
+		assertFalse(l_cache.add(42L));
+
+		// zero is a valid hash
+		assertTrue(l_cache.add(0L));
+		assertFalse(l_cache.add(0L));
+
+		assertEquals(3L, l_cache.getHits());
+		assertEquals(3L, l_cache.getMisses());
+	}
+
+
+	@Test
+	void testAddWithoutDetection()
+	{
+		final MQTTDedupCache l_cache = new MQTTDedupCache(100, 60000L);
+
+		// a message without the duplicate flag is remembered but not dropped
+		assertTrue(l_cache.add(42L, false));
+		assertTrue(l_cache.add(42L, false));
+
+		// its redelivery is detected
+		assertFalse(l_cache.add(42L, true));
+
+		assertEquals(1L, l_cache.getHits());
+		assertEquals(2L, l_cache.getMisses());
+	}
+
+
+	@Test
+	void testRemove()
+	{
+		final MQTTDedupCache l_cache = new MQTTDedupCache(100, 60000L);
+
+		assertTrue(l_cache.add(42L));
+
+		l_cache.remove(42L);
+		l_cache.remove(43L);
+
+		assertTrue(l_cache.add(42L));
+		assertFalse(l_cache.add(42L));
+	}
+
+
+	@Test
+	void testTimeToLive()
+		throws InterruptedException
+	{
+		final MQTTDedupCache l_cache = new MQTTDedupCache(100, 50L);
+
+		assertTrue(l_cache.add(42L));
+
+		Thread.sleep(100L);
+
+		assertTrue(l_cache.add(42L));
+		assertFalse(l_cache.add(42L));
+	}
+
+
+	@Test
+	void testEvictsOldestEntry()
+	{
+		// a single bucket
+		final MQTTDedupCache l_cache = new MQTTDedupCache(4, 60000L);
+
+		for (long l = 1L; l <= 5L; l++)
+			assertTrue(l_cache.add(l));
+
+		for (long l = 2L; l <= 5L; l++)
+			assertFalse(l_cache.add(l));
+
+		assertTrue(l_cache.add(1L));
+	}
+
+
+	@Test
+	void testNoFalseDuplicates()
+	{
+		final MQTTDedupCache l_cache = new MQTTDedupCache(16, 60000L);
+
+		for (long l = 1L; l <= 100000L; l++)
+			assertTrue(l_cache.add(l * 0x9E3779B97F4A7C15L));
+
+		assertEquals(0L, l_cache.getHits());
+	}
+
+
+	@Test
+	void testHash()
+	{
+		final byte[] l_payload = _bytes("{\"id\": 1}");
+
+		assertEquals(MQTTDedupCache.hash("a/b", l_payload), MQTTDedupCache.hash("a/b", _bytes("{\"id\": 1}")));
+		assertEquals(MQTTDedupCache.hash(null, null), MQTTDedupCache.hash("", new byte[0]));
+
+		assertNotEquals(MQTTDedupCache.hash("a/b", l_payload), MQTTDedupCache.hash("a/c", l_payload));
+		assertNotEquals(MQTTDedupCache.hash("a/b", l_payload), MQTTDedupCache.hash("a/b", _bytes("{\"id\": 2}")));
+		assertNotEquals(MQTTDedupCache.hash("a", _bytes("bc")), MQTTDedupCache.hash("ab", _bytes("c")));
+		assertNotEquals(MQTTDedupCache.hash("\u0101", null), MQTTDedupCache.hash("\u0001\u0001", null));
+	}
+
+
+	private static byte[] _bytes(String p_str)
+	{
+		return p_str.getBytes(StandardCharsets.UTF_8);
+	}
+}
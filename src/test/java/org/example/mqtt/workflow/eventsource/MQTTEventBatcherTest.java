@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTMessageWorkflowEvent;
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTEventBatcherTest
+{
+	private final List<String> m_dispatched = new CopyOnWriteArrayList<>();
+
+
+	@Test
+	void testFlushesFullBatch()
+		throws InterruptedException
+	{
+		final MQTTEventBatcher l_batcher = _create(1, 3, 60000L);
+
+		try
+		{
+			l_batcher.add("a", _event("a", "1"));
+			l_batcher.add("a", _event("a", "2"));
+
+			assertTrue(m_dispatched.isEmpty());
+
+			// the batch is handed off by the thread that adds the last event
+			l_batcher.add("a", _event("a", "3"));
+
+			assertEquals(List.of("a: 1 2 3"), m_dispatched);
+
+			l_batcher.add("a", _event("a", "4"));
+		}
+		finally
+		{
+			l_batcher.close(10000L);
+		}
+
+		// the pending batch is handed off when the batcher is closed
+		assertEquals(List.of("a: 1 2 3", "a: 4"), m_dispatched);
+	}
+
+
+	@Test
+	void testFlushesAfterLinger()
+		throws InterruptedException
+	{
+		final MQTTEventBatcher l_batcher = _create(1, 100, 50L);
+		final long             l_lStart;
+		final long             l_lDeadline;
+
+		try
+		{
+			l_lStart    = System.nanoTime();
+			l_lDeadline = System.currentTimeMillis() + 10000L;
+
+			l_batcher.add("a", _event("a", "1"));
+			l_batcher.add("a", _event("a", "2"));
+
+			while (m_dispatched.isEmpty() && System.currentTimeMillis() < l_lDeadline)
+				Thread.sleep(5L);
+
+			assertTrue(System.nanoTime() - l_lStart >= TimeUnit.MILLISECONDS.toNanos(50L));
+			assertEquals(List.of("a: 1 2"), m_dispatched);
+
+			// a new batch starts a new linger time
+			l_batcher.add("a", _event("a", "3"));
+
+			while (m_dispatched.size() < 2 && System.currentTimeMillis() < l_lDeadline)
+				Thread.sleep(5L);
+
+			assertEquals(List.of("a: 1 2", "a: 3"), m_dispatched);
+		}
+		finally
+		{
+			l_batcher.close(10000L);
+		}
+	}
+
+
+	@Test
+	void testBatchPerLane()
+		throws InterruptedException
+	{
+		final MQTTEventBatcher l_batcher = _create(2, 2, 60000L);
+
+		try
+		{
+			l_batcher.add("a", _event("a", "1"));
+			l_batcher.add("b", _event("b", "1"));
+			l_batcher.add("a", _event("a", "2"));
+
+			assertEquals(List.of("a: 1 2"), m_dispatched);
+		}
+		finally
+		{
+			l_batcher.close(10000L);
+		}
+
+		assertEquals(List.of("a: 1 2", "b: 1"), m_dispatched);
+	}
+
+
+	@Test
+	void testDiscardsEventsAfterClose()
+		throws InterruptedException
+	{
+		final MQTTEventBatcher l_batcher = _create(1, 1, 60000L);
+
+		l_batcher.close(10000L);
+		l_batcher.add("a", _event("a", "1"));
+
+		assertTrue(m_dispatched.isEmpty());
+	}
+
+
+	@Test
+	void testSinkErrorDoesNotStopBatcher()
+		throws InterruptedException
+	{
+		final MQTTEventBatcher l_batcher;
+
+		l_batcher = new MQTTEventBatcher("test-batcher", 1, p_strKey -> 0, 1, 60000L, (p_strKey, p_batch) ->
+		{
+			if (m_dispatched.isEmpty())
+			{
+				m_dispatched.add("failed");
+				throw new IllegalStateException("test");
+			}
+
+			m_dispatched.add(_toString(p_strKey, p_batch));
+		});
+
+		try
+		{
+			l_batcher.add("a", _event("a", "1"));
+			l_batcher.add("a", _event("a", "2"));
+		}
+		finally
+		{
+			l_batcher.close(10000L);
+		}
+
+		assertEquals(List.of("failed", "a: 2"), m_dispatched);
+	}
+
+
+	private MQTTEventBatcher _create(int p_iPartitions, int p_iMaxMessages, long p_lLinger)
+	{
+		return new MQTTEventBatcher("test-batcher",
+		                            p_iPartitions,
+		                            p_strKey -> "b".equals(p_strKey) ? 1 : 0,
+		                            p_iMaxMessages,
+		                            p_lLinger,
+		                            (p_strKey, p_batch) -> m_dispatched.add(_toString(p_strKey, p_batch)));
+	}
+
+
+	private static String _toString(String p_strKey, List<IMQTTMessageWorkflowEvent> p_batch)
+	{
+		final StringBuilder l_sbuf = new StringBuilder(p_strKey).append(':');
+
+		for (IMQTTMessageWorkflowEvent l_evt : p_batch)
+			l_sbuf.append(' ').append(l_evt.getPayloadAsString());
+
+		return l_sbuf.toString();
+	}
+
+
+	private static IMQTTMessageWorkflowEvent _event(String p_strTopic, String p_strPayload)
+	{
+		final MqttReceivedMessage l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(p_strPayload.getBytes(StandardCharsets.UTF_8));
+
+		return new MQTTMessageWorkflowEvent("guid", p_strTopic, l_message);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
+import org.example.mqtt.workflow.event.IMQTTMessageWorkflowEvent;
+import org.example.mqtt.workflow.event.MQTTMessageWorkflowEvent;
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTEventConflaterTest
+{
+	private final List<String> m_dispatched = new CopyOnWriteArrayList<>();
+
+
+	@Test
+	void testKeepsLatestEventPerTopic()
+	{
+		final MQTTEventConflater        l_conflater = _create(60000L);
+		final IMQTTMessageWorkflowEvent l_first     = _event("a", "1");
+
+		assertNull(l_conflater.add("a", l_first));
+		assertNull(l_conflater.add("b", _event("b", "1")));
+		assertSame(l_first, l_conflater.add("a", _event("a", "2")));
+		assertEquals(1L, l_conflater.getConflated());
+		assertTrue(m_dispatched.isEmpty());
+
+		// the pending events are handed off when the conflater is closed
+		l_conflater.close(10000L);
+
+		assertEquals(List.of("a a 2", "b b 1"), m_dispatched);
+	}
+
+
+	@Test
+	void testHandsOffEventsPeriodically()
+		throws InterruptedException
+	{
+		final MQTTEventConflater l_conflater = _create(10L);
+		final long               l_lDeadline = System.currentTimeMillis() + 10000L;
+
+		try
+		{
+			assertNull(l_conflater.add("a", _event("a", "1")));
+
+			while (m_dispatched.isEmpty() && System.currentTimeMillis() < l_lDeadline)
+				Thread.sleep(10L);
+
+			assertEquals(List.of("a a 1"), m_dispatched);
+			assertNull(l_conflater.add("a", _event("a", "2")));
+		}
+		finally
+		{
+			l_conflater.close(10000L);
+		}
+
+		assertEquals(List.of("a a 1", "a a 2"), m_dispatched);
+	}
+
+
+	@Test
+	void testRejectsEventsAfterClose()
+	{
+		final MQTTEventConflater        l_conflater = _create(60000L);
+		final IMQTTMessageWorkflowEvent l_evt       = _event("a", "1");
+
+		l_conflater.close(10000L);
+
+		assertSame(l_evt, l_conflater.add("a", l_evt));
+		assertEquals(0L, l_conflater.getConflated());
+		assertTrue(m_dispatched.isEmpty());
+	}
+
+
+	private MQTTEventConflater _create(long p_lInterval)
+	{
+		return new MQTTEventConflater("test-conflater", p_lInterval, (p_strKey, p_evt) ->
+			m_dispatched.add(p_strKey + " " + p_evt.getTopic() + " " + p_evt.getPayloadAsString()));
+	}
+
+
+	private static IMQTTMessageWorkflowEvent _event(String p_strTopic, String p_strPayload)
+	{
+		final MqttReceivedMessage l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(p_strPayload.getBytes(StandardCharsets.UTF_8));
+
+		return new MQTTMessageWorkflowEvent("guid", p_strTopic, l_message);
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTExecutorDispatcherTest
+{
+	@Test
+	void testBoundedQueueBlocksDispatch()
+		throws Exception
+	{
+		final MQTTExecutorDispatcher l_dispatcher = new MQTTExecutorDispatcher("test-dispatcher", 1, 2, false);
+		final List<String>           l_executed   = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch         l_started    = new CountDownLatch(1);
+		final CountDownLatch         l_release    = new CountDownLatch(1);
+		final Thread                 l_submitter;
+
+		l_dispatcher.dispatch(null, () ->
+		{
+			l_started.countDown();
+			_await(l_release);
+			l_executed.add("a");
+		});
+
+		assertTrue(l_started.await(10L, TimeUnit.SECONDS));
+
+		l_dispatcher.dispatch(null, () -> l_executed.add("b"));
+		l_dispatcher.dispatch(null, () -> l_executed.add("c"));
+
+		assertEquals(3, l_dispatcher.getBacklog());
+
+		// the queue is full
+		l_submitter = _dispatch(l_dispatcher, () -> l_executed.add("d"));
+
+		l_submitter.join(300L);
+
+		assertTrue(l_submitter.isAlive());
+		assertEquals(3, l_dispatcher.getBacklog());
+
+		l_release.countDown();
+		l_submitter.join(10000L);
+
+		assertFalse(l_submitter.isAlive());
+
+		l_dispatcher.close(10000L);
+
+		assertEquals(List.of("a", "b", "c", "d"), l_executed);
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	@Test
+	void testCloseQueueReleasesBlockedCaller()
+		throws Exception
+	{
+		final MQTTExecutorDispatcher l_dispatcher = new MQTTExecutorDispatcher("test-dispatcher", 1, 1, true);
+		final AtomicBoolean          l_executed   = new AtomicBoolean();
+		final CountDownLatch         l_started    = new CountDownLatch(1);
+		final CountDownLatch         l_release    = new CountDownLatch(1);
+		final Thread                 l_submitter;
+
+		l_dispatcher.dispatch(null, () ->
+		{
+			l_started.countDown();
+			_await(l_release);
+		});
+
+		assertTrue(l_started.await(10L, TimeUnit.SECONDS));
+
+		l_dispatcher.dispatch(null, () -> {});
+
+		l_submitter = _dispatch(l_dispatcher, () -> l_executed.set(true));
+
+		l_submitter.join(200L);
+
+		assertTrue(l_submitter.isAlive());
+
+		l_dispatcher.closeQueue();
+		l_submitter.join(10000L);
+
+		assertFalse(l_submitter.isAlive());
+
+		l_release.countDown();
+		l_dispatcher.close(10000L);
+
+		// the blocked task has not been accepted
+		assertFalse(l_executed.get());
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	@Test
+	void testCloseExecutesQueuedTasks()
+		throws InterruptedException
+	{
+		final MQTTExecutorDispatcher l_dispatcher = new MQTTExecutorDispatcher("test-dispatcher", 2, 100, false);
+		final List<Integer>          l_executed   = Collections.synchronizedList(new ArrayList<>());
+
+		for (int i = 0; i < 100; i++)
+		{
+			final int l_iTask = i;
+
+			l_dispatcher.dispatch(null, () -> l_executed.add(l_iTask));
+		}
+
+		l_dispatcher.close(10000L);
+
+		assertEquals(100, l_executed.size());
+		assertEquals(0, l_dispatcher.getBacklog());
+
+		// dispatching after close discards the task
+		l_dispatcher.dispatch(null, () -> l_executed.add(-1));
+
+		Thread.sleep(50L);
+
+		assertEquals(100, l_executed.size());
+	}
+
+
+	@Test
+	void testCloseRejectsPendingTasks()
+		throws Exception
+	{
+		final MQTTExecutorDispatcher l_dispatcher  = new MQTTExecutorDispatcher("test-dispatcher", 1, 4, false);
+		final List<String>           l_executed    = Collections.synchronizedList(new ArrayList<>());
+		final AtomicBoolean          l_interrupted = new AtomicBoolean();
+		final CountDownLatch         l_started     = new CountDownLatch(1);
+		final CountDownLatch         l_release     = new CountDownLatch(1);
+		final CountDownLatch         l_completed   = new CountDownLatch(1);
+		final long                   l_lStart;
+
+		l_dispatcher.dispatch(null, () ->
+		{
+			l_started.countDown();
+
+			try
+			{
+				l_release.await(10L, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException l_e)
+			{
+				l_interrupted.set(true);
+			}
+
+			l_executed.add("a");
+			l_completed.countDown();
+		});
+
+		assertTrue(l_started.await(10L, TimeUnit.SECONDS));
+
+		l_dispatcher.dispatch(null, () -> l_executed.add("b"));
+		l_dispatcher.dispatch(null, () -> l_executed.add("c"));
+
+		l_lStart = System.nanoTime();
+
+		l_dispatcher.close(200L);
+
+		assertTrue(System.nanoTime() - l_lStart >= TimeUnit.MILLISECONDS.toNanos(200L));
+
+		// the queued tasks are rejected, the running task keeps running
+		assertEquals(1, l_dispatcher.getBacklog());
+		assertTrue(l_executed.isEmpty());
+
+		l_release.countDown();
+
+		assertTrue(l_completed.await(10L, TimeUnit.SECONDS));
+
+		Thread.sleep(50L);
+
+		assertFalse(l_interrupted.get());
+		assertEquals(List.of("a"), l_executed);
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	@Test
+	void testTaskErrorDoesNotStopWorker()
+		throws InterruptedException
+	{
+		final MQTTExecutorDispatcher l_dispatcher = new MQTTExecutorDispatcher("test-dispatcher", 1, 4, false);
+		final List<String>           l_executed   = Collections.synchronizedList(new ArrayList<>());
+
+		l_dispatcher.dispatch(null, () -> {throw new IllegalStateException("test");});
+		l_dispatcher.dispatch(null, () -> {throw new AssertionError("test");});
+		l_dispatcher.dispatch(null, () -> l_executed.add("a"));
+
+		l_dispatcher.close(10000L);
+
+		assertEquals(List.of("a"), l_executed);
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	private static Thread _dispatch(MQTTExecutorDispatcher p_dispatcher, Runnable p_task)
+	{
+		return Thread.ofPlatform().name("test-submitter").start(() ->
+		{
+			try
+			{
+				p_dispatcher.dispatch(null, p_task);
+			}
+			catch (InterruptedException l_e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+	}
+
+
+	private static void _await(CountDownLatch p_latch)
+	{
+		try
+		{
+			p_latch.await(10L, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
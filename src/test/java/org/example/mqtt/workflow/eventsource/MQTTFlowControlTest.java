@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTFlowControlTest
+{
+	/** The state reported to the listener, in order. */
+	private final List<Boolean> m_transitions = new ArrayList<>();
+
+	private MQTTFlowControl m_flowControl;
+
+
+	@Test
+	void testWatermarks()
+	{
+		final MQTTFlowControl l_flowControl = _create(10, 4);
+
+		for (int i = 0; i < 9; i++)
+			l_flowControl.acquire();
+
+		assertFalse(l_flowControl.isPaused());
+		assertTrue(m_transitions.isEmpty());
+
+		l_flowControl.acquire();
+
+		assertTrue(l_flowControl.isPaused());
+		assertEquals(List.of(true), m_transitions);
+		assertEquals(1L, l_flowControl.getPauseCount());
+
+		// messages that are already on their way are accepted without blocking
+		for (int i = 0; i < 5; i++)
+			l_flowControl.acquire();
+
+		assertEquals(15, l_flowControl.getBacklog());
+		assertEquals(List.of(true), m_transitions);
+
+		l_flowControl.release(10);
+
+		assertTrue(l_flowControl.isPaused());
+
+		l_flowControl.release(1);
+
+		assertFalse(l_flowControl.isPaused());
+		assertEquals(List.of(true, false), m_transitions);
+		assertEquals(4, l_flowControl.getBacklog());
+
+		// below the high watermark again
+		for (int i = 0; i < 5; i++)
+			l_flowControl.acquire();
+
+		assertFalse(l_flowControl.isPaused());
+
+		l_flowControl.acquire();
+
+		assertTrue(l_flowControl.isPaused());
+		assertEquals(List.of(true, false, true), m_transitions);
+		assertEquals(2L, l_flowControl.getPauseCount());
+	}
+
+
+	@Test
+	void testPausedTime()
+		throws InterruptedException
+	{
+		final MQTTFlowControl l_flowControl = _create(2, 1);
+
+		l_flowControl.acquire();
+		l_flowControl.acquire();
+
+		Thread.sleep(50L);
+
+		assertEquals(0L, l_flowControl.getPausedTime());
+
+		l_flowControl.release(1);
+
+		assertFalse(l_flowControl.isPaused());
+		assertTrue(l_flowControl.getPausedTime() >= 50L);
+	}
+
+
+	@Test
+	void testNeverPaused()
+	{
+		final MQTTFlowControl l_flowControl = _create(0, 0);
+
+		for (int i = 0; i < 100000; i++)
+			l_flowControl.acquire();
+
+		assertFalse(l_flowControl.isPaused());
+		assertEquals(100000, l_flowControl.getBacklog());
+		assertTrue(m_transitions.isEmpty());
+	}
+
+
+	@Test
+	void testClose()
+	{
+		final MQTTFlowControl l_flowControl = _create(2, 1);
+
+		l_flowControl.acquire();
+		l_flowControl.acquire();
+		l_flowControl.close();
+		l_flowControl.release(2);
+
+		assertFalse(l_flowControl.isPaused());
+		assertEquals(List.of(true), m_transitions);
+
+		l_flowControl.acquire();
+		l_flowControl.acquire();
+
+		assertFalse(l_flowControl.isPaused());
+		assertEquals(List.of(true), m_transitions);
+	}
+
+
+	private MQTTFlowControl _create(int p_iHighWatermark, int p_iLowWatermark)
+	{
+		m_flowControl = new MQTTFlowControl("[test]", p_iHighWatermark, p_iLowWatermark, () ->
+			m_transitions.add(m_flowControl.isPaused()));
+
+		return m_flowControl;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTLoopSignalTest
+{
+	@Test
+	void testSignalEndsWait()
+		throws Exception
+	{
+		final MQTTLoopSignal l_signal = new MQTTLoopSignal();
+		final long           l_lStart = System.nanoTime();
+
+		CompletableFuture.runAsync(() ->
+		{
+			_sleep(100L);
+			l_signal.signal();
+		});
+
+		l_signal.await(MQTTLoopSignalTest::_sleep, 60000L);
+
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - l_lStart) < 30000L);
+
+		// the interrupt of the signal is gone
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+
+	@Test
+	void testSignalBeforeWait()
+	{
+		final MQTTLoopSignal l_signal = new MQTTLoopSignal();
+		final AtomicInteger  l_waits  = new AtomicInteger();
+
+		l_signal.signal();
+		l_signal.signal();
+
+		l_signal.await(p_lTimeout -> l_waits.incrementAndGet() > 0, 60000L);
+
+		assertEquals(0, l_waits.get());
+		assertFalse(Thread.currentThread().isInterrupted());
+
+		// the signal has been consumed
+		l_signal.await(p_lTimeout -> l_waits.incrementAndGet() > 0, 60000L);
+
+		assertEquals(1, l_waits.get());
+	}
+
+
+	@Test
+	void testStopEndsWait()
+	{
+		final MQTTLoopSignal l_signal = new MQTTLoopSignal();
+
+		l_signal.await(p_lTimeout -> false, 60000L);
+
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+
+	@Test
+	void testTimeout()
+	{
+		final MQTTLoopSignal l_signal = new MQTTLoopSignal();
+		final long           l_lStart = System.nanoTime();
+
+		l_signal.await(MQTTLoopSignalTest::_sleep, 50L);
+
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - l_lStart) >= 50L);
+		assertFalse(Thread.currentThread().isInterrupted());
+	}
+
+
+	@Test
+	void testOtherThreadCannotWait()
+		throws Exception
+	{
+		final MQTTLoopSignal l_signal = new MQTTLoopSignal();
+
+		assertThrows(IllegalStateException.class, () ->
+		{
+			try
+			{
+				CompletableFuture.runAsync(() -> l_signal.await(MQTTLoopSignalTest::_sleep, 10L)).join();
+			}
+			catch (RuntimeException l_e)
+			{
+				throw l_e.getCause();
+			}
+		});
+	}
+
+
+	/**
+	 * A wait like the one of the base class, which ends early if the
+	 * thread is interrupted.
+	 */
+	private static boolean _sleep(long p_lTimeout)
+	{
+		try
+		{
+			Thread.sleep(p_lTimeout);
+		}
+		catch (InterruptedException l_e)
+		{
+			// woken up
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTMessageFilterTest
+{
+	@Test
+	void testTopic()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("topic=sensors/+/temperature");
+
+		assertTrue(l_filter.accept("sensors/s1/temperature", _bytes("")));
+		assertFalse(l_filter.accept("sensors/s1/humidity", _bytes("")));
+		assertFalse(l_filter.accept("sensors/temperature", _bytes("")));
+	}
+
+
+	@Test
+	void testTopicLevel()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("topic[1]=s1");
+
+		assertTrue(l_filter.accept("sensors/s1/temperature", _bytes("")));
+		assertTrue(l_filter.accept("sensors/s1", _bytes("")));
+		assertFalse(l_filter.accept("sensors/s10/temperature", _bytes("")));
+		assertFalse(l_filter.accept("sensors/s", _bytes("")));
+		assertFalse(l_filter.accept("sensors", _bytes("")));
+
+		// empty levels count
+		assertTrue(MQTTMessageFilter.compile("topic[1]=").accept("a//b", _bytes("")));
+		assertTrue(MQTTMessageFilter.compile("topic[0]=a").accept("a", _bytes("")));
+	}
+
+
+	@Test
+	void testPayloadPrefix()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("payload^={\"type\":\"alarm\"");
+
+		assertTrue(l_filter.accept("t", _bytes("{\"type\":\"alarm\",\"level\":3}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"type\":\"info\"}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"type\"")));
+
+		// the prefix is compared as UTF-8
+		assertTrue(MQTTMessageFilter.compile("payload^=\u00FC").accept("t", _bytes("\u00FCber")));
+	}
+
+
+	@Test
+	void testPayloadRegex()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("payload~\"level\":\\s*[3-9]");
+
+		assertTrue(l_filter.accept("t", _bytes("{\"level\": 5}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"level\": 1}")));
+		assertTrue(MQTTMessageFilter.compile("payload~^\u00FC+$").accept("t", _bytes("\u00FC\u00FC")));
+	}
+
+
+	@Test
+	void testPayloadRegexIsBounded()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("payload~needle");
+		final byte[]            l_payload;
+		final byte[]            l_multiByte;
+
+		l_payload = new byte[MQTTMessageFilter.MAX_REGEX_INPUT + 100];
+
+		Arrays.fill(l_payload, (byte)'x');
+		System.arraycopy(_bytes("needle"), 0, l_payload, 10, 6);
+
+		assertTrue(l_filter.accept("t", l_payload));
+
+		// beyond the limit the payload is not searched
+		Arrays.fill(l_payload, (byte)'x');
+		System.arraycopy(_bytes("needle"), 0, l_payload, MQTTMessageFilter.MAX_REGEX_INPUT + 10, 6);
+
+		assertFalse(l_filter.accept("t", l_payload));
+
+		// a character that spans the limit is not cut in half
+		l_multiByte = new byte[MQTTMessageFilter.MAX_REGEX_INPUT + 1];
+
+		Arrays.fill(l_multiByte, (byte)'x');
+		System.arraycopy(_bytes("\u00FC"), 0, l_multiByte, MQTTMessageFilter.MAX_REGEX_INPUT - 1, 2);
+
+		assertTrue(MQTTMessageFilter.compile("payload~x$").accept("t", l_multiByte));
+		assertFalse(MQTTMessageFilter.compile("payload~\uFFFD").accept("t", l_multiByte));
+	}
+
+
+	@Test
+	void testJsonField()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("json.status=ok");
+
+		assertTrue(l_filter.accept("t", _bytes("{\"status\": \"ok\", \"value\": 1}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"status\": \"failed\"}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"inner\": {\"status\": \"ok\"}}")));
+		assertFalse(l_filter.accept("t", _bytes("not json")));
+
+		// other values are compared by their JSON text
+		assertTrue(MQTTMessageFilter.compile("json.value=1").accept("t", _bytes("{\"value\": 1}")));
+		assertTrue(MQTTMessageFilter.compile("json.value=true").accept("t", _bytes("{\"value\": true}")));
+	}
+
+
+	@Test
+	void testJsonFieldExists()
+	{
+		final MQTTMessageFilter l_filter = MQTTMessageFilter.compile("json.alarm");
+
+		assertTrue(l_filter.accept("t", _bytes("{\"alarm\": null}")));
+		assertTrue(l_filter.accept("t", _bytes("{\"value\": 1, \"alarm\": {\"level\": 3}}")));
+		assertFalse(l_filter.accept("t", _bytes("{\"value\": 1}")));
+		assertFalse(l_filter.accept("t", _bytes("")));
+	}
+
+
+	@Test
+	void testNegationAndConjunction()
+	{
+		final MQTTMessageFilter l_filter;
+
+		l_filter = MQTTMessageFilter.compile("topic=sensors/#\r\n\n  ! topic[2]=heartbeat  \n!json.status=ok\n");
+
+		assertTrue(l_filter.accept("sensors/s1/temperature", _bytes("{\"status\": \"failed\"}")));
+		assertFalse(l_filter.accept("sensors/s1/heartbeat", _bytes("{\"status\": \"failed\"}")));
+		assertFalse(l_filter.accept("sensors/s1/temperature", _bytes("{\"status\": \"ok\"}")));
+		assertFalse(l_filter.accept("other/s1/temperature", _bytes("{\"status\": \"failed\"}")));
+
+		assertEquals(1L, l_filter.getPassed());
+		assertEquals(3L, l_filter.getDropped());
+
+		// a filter without conditions accepts every message
+		assertTrue(MQTTMessageFilter.compile(" \n\n").accept("t", _bytes("")));
+	}
+
+
+	@Test
+	void testMalformedConditions()
+	{
+		for (String l_strCondition : new String[] {"status=ok",
+		                                           "topic",
+		                                           "topic=a/#/b",
+		                                           "topic[x]=a",
+		                                           "topic[-1]=a",
+		                                           "topic[]=a",
+		                                           "topic[1=a",
+		                                           "json.",
+		                                           "json.=a",
+		                                           "payload~(",
+		                                           "payload=a",
+		                                           "!"})
+		{
+			assertThrows(IllegalArgumentException.class, () -> MQTTMessageFilter.compile(l_strCondition), l_strCondition);
+		}
+
+		// every line must be valid
+		assertThrows(IllegalArgumentException.class, () -> MQTTMessageFilter.compile("topic=a\nunknown"));
+	}
+
+
+	private static byte[] _bytes(String p_str)
+	{
+		return p_str.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTPartitionedDispatcherTest
+{
+	private static final int LANES = 4;
+
+
+	@Test
+	void testOrderPerKeyWithConcurrentSubmits()
+		throws Exception
+	{
+		final MQTTPartitionedDispatcher  l_dispatcher = new MQTTPartitionedDispatcher("test-lanes", LANES, 8, false);
+		final Map<String, List<Integer>> l_executed   = new HashMap<>();
+		final AtomicInteger[]            l_running    = new AtomicInteger[LANES];
+		final AtomicReference<Throwable> l_error      = new AtomicReference<>();
+		final List<Thread>               l_submitters = new ArrayList<>();
+		final int                        l_iMessages  = 500;
+
+		for (int i = 0; i < LANES; i++)
+			l_running[i] = new AtomicInteger();
+
+		for (int i = 0; i < 16; i++)
+			l_executed.put("sensor-" + i, Collections.synchronizedList(new ArrayList<>()));
+
+		// each submitter owns two keys, and all submitters share the lanes
+		for (int t = 0; t < 8; t++)
+		{
+			final String[] l_keys = {"sensor-" + 2 * t, "sensor-" + (2 * t + 1)};
+			final Thread   l_submitter;
+
+			l_submitter = new Thread(() ->
+			{
+				try
+				{
+					for (int i = 0; i < l_iMessages; i++)
+					{
+						for (String l_strKey : l_keys)
+						{
+							final int l_iSeq  = i;
+							final int l_iLane = l_dispatcher.getLane(l_strKey);
+
+							l_dispatcher.dispatch(l_strKey, () ->
+							{
+								// a lane executes one task at a time
+								if (l_running[l_iLane].incrementAndGet() != 1)
+									l_error.compareAndSet(null, new AssertionError("Concurrent tasks in lane " + l_iLane + "."));
+
+								l_executed.get(l_strKey).add(l_iSeq);
+
+								l_running[l_iLane].decrementAndGet();
+							});
+						}
+					}
+				}
+				catch (InterruptedException l_e)
+				{
+					l_error.compareAndSet(null, l_e);
+				}
+			}, "test-submitter-" + t);
+
+			l_submitters.add(l_submitter);
+			l_submitter.start();
+		}
+
+		for (Thread l_submitter : l_submitters)
+			l_submitter.join(30000L);
+
+		l_dispatcher.close(30000L);
+
+		if (l_error.get() != null)
+			throw new AssertionError(l_error.get());
+
+		for (Map.Entry<String, List<Integer>> l_entry : l_executed.entrySet())
+		{
+			final List<Integer> l_seqs = l_entry.getValue();
+
+			assertEquals(l_iMessages, l_seqs.size(), l_entry.getKey());
+
+			for (int i = 0; i < l_iMessages; i++)
+				assertEquals(i, l_seqs.get(i).intValue(), l_entry.getKey());
+		}
+
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	@Test
+	void testGetLane()
+	{
+		final MQTTPartitionedDispatcher l_dispatcher = new MQTTPartitionedDispatcher("test-lanes", LANES, 8, false);
+		final Set<Integer>              l_used       = new HashSet<>();
+
+		try
+		{
+			assertEquals(0, l_dispatcher.getLane(null));
+
+			for (int i = 0; i < 100; i++)
+			{
+				final int l_iLane = l_dispatcher.getLane("sensor-" + i);
+
+				assertTrue(l_iLane >= 0 && l_iLane < LANES);
+				assertEquals(l_iLane, l_dispatcher.getLane(new String("sensor-" + i)));
+
+				l_used.add(l_iLane);
+			}
+
+			// similar keys are spread over all lanes
+			assertEquals(LANES, l_used.size());
+		}
+		finally
+		{
+			l_dispatcher.close(1000L);
+		}
+	}
+
+
+	@Test
+	void testBlockedLaneDoesNotBlockOtherLanes()
+		throws Exception
+	{
+		final MQTTPartitionedDispatcher l_dispatcher = new MQTTPartitionedDispatcher("test-lanes", LANES, 8, true);
+		final CountDownLatch            l_started    = new CountDownLatch(1);
+		final CountDownLatch            l_release    = new CountDownLatch(1);
+		final CountDownLatch            l_done       = new CountDownLatch(1);
+		final String                    l_strBlocked;
+		String                          l_strOther;
+		int[]                           l_backlogs;
+
+		l_strBlocked = "a";
+		l_strOther   = "b";
+
+		for (int i = 0; l_dispatcher.getLane(l_strOther) == l_dispatcher.getLane(l_strBlocked); i++)
+			l_strOther = "b" + i;
+
+		try
+		{
+			l_dispatcher.dispatch(l_strBlocked, () ->
+			{
+				l_started.countDown();
+				_await(l_release);
+			});
+			l_dispatcher.dispatch(l_strBlocked, () -> {});
+			l_dispatcher.dispatch(l_strOther, l_done::countDown);
+
+			assertTrue(l_started.await(10L, TimeUnit.SECONDS));
+			assertTrue(l_done.await(10L, TimeUnit.SECONDS));
+
+			// the running and the queued task of the blocked lane
+			l_backlogs = l_dispatcher.getLaneBacklogs();
+
+			assertEquals(LANES, l_backlogs.length);
+			assertEquals(2, l_backlogs[l_dispatcher.getLane(l_strBlocked)]);
+		}
+		finally
+		{
+			l_release.countDown();
+			l_dispatcher.close(10000L);
+		}
+
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	@Test
+	void testDiscardsTasksAfterClose()
+		throws InterruptedException
+	{
+		final MQTTPartitionedDispatcher l_dispatcher = new MQTTPartitionedDispatcher("test-lanes", LANES, 8, false);
+		final AtomicInteger             l_executed   = new AtomicInteger();
+
+		l_dispatcher.close(1000L);
+		l_dispatcher.dispatch("a", l_executed::incrementAndGet);
+
+		Thread.sleep(50L);
+
+		assertEquals(0, l_executed.get());
+		assertEquals(0, l_dispatcher.getBacklog());
+	}
+
+
+	private static void _await(CountDownLatch p_latch)
+	{
+		try
+		{
+			p_latch.await(10L, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException l_e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
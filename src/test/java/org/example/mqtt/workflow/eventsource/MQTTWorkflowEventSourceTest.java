@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2000-2019 United Planet GmbH, Freiburg Germany
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package org.example.mqtt.workflow.eventsource;
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttReceivedMessage;
+import org.example.mqtt.codec.MQTTPayloadCodecs;
+import org.example.mqtt.util.MQTTTopicFilter;
+import org.junit.jupiter.api.Test;
+
+
+final class MQTTWorkflowEventSourceTest
+{
+	private static final byte[] PAYLOAD = "{\"sensor\":\"s1\",\"temperature\":21.5}".getBytes(StandardCharsets.UTF_8);
+
+
+	@Test
+	void testDecodePayloadIsOffByDefault()
+		throws IOException
+	{
+		final MQTTWorkflowEventSource l_source = new MQTTWorkflowEventSource("test");
+		final MqttReceivedMessage     l_message;
+
+		assertFalse(l_source.isDecodePayload());
+
+		l_message = _message(MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec("gzip"), PAYLOAD));
+
+		// the encoded payload is dispatched as is
+		assertSame(l_message, l_source.decode(l_message));
+	}
+
+
+	@Test
+	void testDecodePayload()
+		throws IOException
+	{
+		final MQTTWorkflowEventSource l_source = new MQTTWorkflowEventSource("test");
+		final MqttReceivedMessage     l_message;
+		final MqttReceivedMessage     l_decoded;
+
+		l_source.setDecodePayload(true);
+
+		l_message = _message(MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec("gzip"), PAYLOAD));
+		l_decoded = l_source.decode(l_message);
+
+		assertArrayEquals(PAYLOAD, l_decoded.getPayload());
+		assertEquals(1, l_decoded.getQos());
+		assertEquals(42, l_decoded.getMessageId());
+
+		// payloads without a codec header are never changed
+		l_message.setPayload(PAYLOAD);
+
+		assertSame(l_message, l_source.decode(l_message));
+	}
+
+
+	@Test
+	void testDecodePayloadTooLarge()
+		throws IOException
+	{
+		final MQTTWorkflowEventSource l_source = new MQTTWorkflowEventSource("test");
+		final MqttReceivedMessage     l_message;
+
+		l_source.setDecodePayload(true);
+		l_source.setMaxDecodedSize(PAYLOAD.length - 1);
+
+		l_message = _message(MQTTPayloadCodecs.encode(MQTTPayloadCodecs.getCodec("deflate"), PAYLOAD));
+
+		assertThrows(IOException.class, () -> l_source.decode(l_message));
+	}
+
+
+	@Test
+	void testSharedSubscriptions()
+	{
+		final MQTTWorkflowEventSource l_source = new MQTTWorkflowEventSource("test");
+		List<MQTTTopicFilter>         l_subscriptions;
+
+		l_source.setTopic("a/b");
+		l_source.setTopicFilters("c/+;2\n$share/other/d");
+		l_source.setQos(1);
+
+		l_subscriptions = l_source.createSubscriptions();
+
+		assertEquals(List.of("a/b", "c/+", "$share/other/d"), _getFilters(l_subscriptions));
+
+		l_source.setSharedSubscriptionGroup("cluster");
+
+		l_subscriptions = l_source.createSubscriptions();
+
+		// filters that are already shared keep their group
+		assertEquals(List.of("$share/cluster/a/b", "$share/cluster/c/+", "$share/other/d"), _getFilters(l_subscriptions));
+		assertEquals(1, l_subscriptions.get(0).getQos());
+		assertEquals(2, l_subscriptions.get(1).getQos());
+		assertEquals("cluster", l_subscriptions.get(1).getShareGroup());
+		assertEquals("other", l_subscriptions.get(2).getShareGroup());
+
+		l_source.setSharedSubscriptionGroup("a/b");
+
+		assertThrows(IllegalArgumentException.class, l_source::createSubscriptions);
+
+		// an empty group does not share the subscriptions
+		l_source.setSharedSubscriptionGroup("");
+
+		assertEquals(List.of("a/b", "c/+", "$share/other/d"), _getFilters(l_source.createSubscriptions()));
+	}
+
+
+	private static List<String> _getFilters(List<MQTTTopicFilter> p_filters)
+	{
+		final List<String> l_filters = new ArrayList<>();
+
+		for (MQTTTopicFilter l_filter : p_filters)
+			l_filters.add(l_filter.getFilter());
+
+		return l_filters;
+	}
+
+
+	private static MqttReceivedMessage _message(byte[] p_payload)
+	{
+		final MqttReceivedMessage l_message = new MqttReceivedMessage();
+
+		l_message.setPayload(p_payload);
+		l_message.setQos(1);
+		l_message.setMessageId(42);
+
+		return l_message;
+	}
+}